@@ -34,6 +34,8 @@ import org.oasis.wsrp.v2.Postal;
 import org.oasis.wsrp.v2.Telecom;
 import org.oasis.wsrp.v2.TelephoneNum;
 import org.oasis.wsrp.v2.UserProfile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.xml.datatype.DatatypeConfigurationException;
 import javax.xml.datatype.DatatypeFactory;
@@ -54,6 +56,28 @@ import static org.gatein.common.p3p.P3PConstants.*;
  */
 public class UserContextConverter
 {
+   private static final Logger log = LoggerFactory.getLogger(UserContextConverter.class);
+
+   /**
+    * Looking up a DatatypeFactory is expensive (it goes through the service loader mechanism) so we only do it once. The
+    * factory is only used to parse dates, which doesn't modify its state, so it's safe to share it between threads.
+    */
+   private static final DatatypeFactory DATATYPE_FACTORY;
+
+   static
+   {
+      DatatypeFactory factory = null;
+      try
+      {
+         factory = DatatypeFactory.newInstance();
+      }
+      catch (DatatypeConfigurationException e)
+      {
+         log.error("Couldn't create a DatatypeFactory, user birth dates will not be sent to producers.", e);
+      }
+      DATATYPE_FACTORY = factory;
+   }
+
    private UserContextConverter()
    {
    }
@@ -90,19 +114,9 @@ public class UserContextConverter
 
       XMLGregorianCalendar bdate = null;
       String bdateAsString = userInfos.get(INFO_USER_BDATE);
-      if (bdateAsString != null)
+      if (bdateAsString != null && DATATYPE_FACTORY != null)
       {
-         DatatypeFactory datatypeFactory;
-         try
-         {
-            datatypeFactory = DatatypeFactory.newInstance();
-            bdate = datatypeFactory.newXMLGregorianCalendar(bdateAsString);
-         }
-         catch (DatatypeConfigurationException e)
-         {
-            // todo: do something better here
-            e.printStackTrace();
-         }
+         bdate = DATATYPE_FACTORY.newXMLGregorianCalendar(bdateAsString);
       }
 
       String employer = userInfos.get(INFO_USER_EMPLOYER);
@@ -72,6 +72,7 @@ import org.oasis.wsrp.v2.GetPortletsLifetime;
 import org.oasis.wsrp.v2.GetResource;
 import org.oasis.wsrp.v2.GetServiceDescription;
 import org.oasis.wsrp.v2.HandleEvents;
+import org.oasis.wsrp.v2.HandleEventsFailed;
 import org.oasis.wsrp.v2.HandleEventsResponse;
 import org.oasis.wsrp.v2.ImportPortlet;
 import org.oasis.wsrp.v2.ImportPortlets;
@@ -139,6 +140,7 @@ import org.oasis.wsrp.v2.UserProfile;
 import javax.xml.datatype.XMLGregorianCalendar;
 import javax.xml.namespace.QName;
 import java.io.Serializable;
+import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -689,9 +691,9 @@ public class WSRPTypeFactory
     */
    public static SessionContext createSessionContext(String sessionID, int expires)
    {
-      if (expires < 0)
+      if (expires < 0 && expires != WSRPConstants.SESSION_NEVER_EXPIRES)
       {
-         throw new IllegalArgumentException("SessionContext requires a positive expiration time.");
+         throw new IllegalArgumentException("SessionContext requires a positive expiration time or " + WSRPConstants.SESSION_NEVER_EXPIRES + " if the session never expires.");
       }
       SessionContext sessionContext = new SessionContext();
       sessionContext.setSessionID(sessionID);
@@ -1431,6 +1433,33 @@ public class WSRPTypeFactory
       return new HandleEventsResponse();
    }
 
+   /**
+    * index(xsd:nonNegativeInteger)+, reason(LocalizedString)?, errorCode(ErrorCodes)
+    *
+    * @param index     the index of the failed event in the HandleEvents request
+    * @param errorCode the error code identifying the failure
+    * @param reason    an optional explanation of the failure
+    * @return
+    */
+   public static HandleEventsFailed createHandleEventsFailed(int index, ErrorCodes.Codes errorCode, String reason)
+   {
+      ParameterValidation.throwIllegalArgExceptionIfNull(errorCode, "ErrorCode");
+      if (index < 0)
+      {
+         throw new IllegalArgumentException("Event index must be positive");
+      }
+
+      HandleEventsFailed failed = new HandleEventsFailed();
+      failed.getIndex().add(BigInteger.valueOf(index));
+      if (reason != null)
+      {
+         failed.setReason(createLocalizedString(reason));
+      }
+      failed.setErrorCode(ErrorCodes.getQname(errorCode));
+
+      return failed;
+   }
+
    public static EventParams createEventParams(List<Event> events, StateChange portletStateChange)
    {
       if (!ParameterValidation.existsAndIsNotEmpty(events))
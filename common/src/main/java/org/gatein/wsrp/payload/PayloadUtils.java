@@ -47,8 +47,11 @@ import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 import java.io.Serializable;
 import java.io.StringReader;
+import java.lang.ref.SoftReference;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.WeakHashMap;
 
 /**
  * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
@@ -76,6 +79,23 @@ public class PayloadUtils
       }
    };
 
+   /**
+    * JAXBContexts are expensive to create but thread-safe so we only create one per payload class. Payload classes might come from deployed
+    * applications so we must not prevent their class loader from being collected when they are undeployed: classes are weakly referenced and,
+    * since contexts reference the class they were created for, contexts are only softly referenced.
+    */
+   private static final Map<Class, SoftReference<JAXBContext>> contexts = Collections.synchronizedMap(new WeakHashMap<Class, SoftReference<JAXBContext>>(19));
+
+   /** Marshallers, on the other hand, are not thread-safe but can be reused by the same thread. Same referencing rules as for contexts apply. */
+   private static final ThreadLocal<Map<Class, SoftReference<Marshaller>>> marshallers = new ThreadLocal<Map<Class, SoftReference<Marshaller>>>()
+   {
+      @Override
+      protected Map<Class, SoftReference<Marshaller>> initialValue()
+      {
+         return new WeakHashMap<Class, SoftReference<Marshaller>>(7);
+      }
+   };
+
    static
    {
       XSDTypeConverter[] converterArray = XSDTypeConverter.values();
@@ -212,24 +232,8 @@ public class PayloadUtils
          String namespace = element.getNamespaceURI();
          if (XMLConstants.W3C_XML_SCHEMA_NS_URI.equals(namespace))
          {
-            final TypeInfo type = element.getSchemaTypeInfo();
-            String typeName = type.getTypeName();
-            if (typeName == null)
-            {
-               // try to determine the type name based on the tag name
-               // tag name will have prefix so that we need to remove it
-               String tagName = element.getTagName();
-               int prefixEnd = tagName.indexOf(':');
-               typeName = prefixEnd == -1 ? tagName : tagName.substring(prefixEnd + 1);
-            }
-
             // if we want a default simple datatype, convert it directly
-            XSDTypeConverter converter = typeToConverters.get(typeName);
-            if (converter == null)
-            {
-               throw new IllegalArgumentException("Don't know how to deal with standard type: " + type);
-            }
-
+            XSDTypeConverter converter = getConverterFor(element, getLocalName(element));
             return converter.parseFromXML(element.getTextContent());
          }
       }
@@ -251,29 +255,13 @@ public class PayloadUtils
          String namespace = element.getNamespaceURI();
 
          // get the tag name without namespace prefix
-         String tagName = element.getTagName();
-         int prefixEnd = tagName.indexOf(':');
-         tagName = prefixEnd == -1 ? tagName : tagName.substring(prefixEnd + 1);
+         String tagName = getLocalName(element);
 
          // attempt to convert to simple datatype value
          if (XMLConstants.W3C_XML_SCHEMA_NS_URI.equals(namespace))
          {
-            final TypeInfo type = element.getSchemaTypeInfo();
-            String typeName = type.getTypeName();
-
-            if (typeName == null)
-            {
-               // try to determine the type name based on the tag name
-               typeName = tagName;
-            }
-
             // if we want a default simple datatype, convert it directly
-            XSDTypeConverter converter = typeToConverters.get(typeName);
-            if (converter == null)
-            {
-               throw new IllegalArgumentException("Don't know how to deal with standard type: " + type);
-            }
-
+            XSDTypeConverter converter = getConverterFor(element, tagName);
             value = converter.parseFromXML(element.getTextContent());
          }
 
@@ -282,10 +270,49 @@ public class PayloadUtils
       throw new IllegalArgumentException("Cannot unmarshall extension '" + object + "'");
    }
 
+   /**
+    * Retrieves the converter for the specified XSD-namespaced element. Since marshalled simple payloads use their XSD type as element name,
+    * the element's local name is tried first, only looking at the (costly to compute and usually unavailable) schema type information when
+    * that fails.
+    *
+    * @param element   the element to convert
+    * @param localName the element's tag name without namespace prefix
+    * @return the converter to use to parse the element's content
+    * @throws IllegalArgumentException if no converter could be found
+    */
+   private static XSDTypeConverter getConverterFor(Element element, String localName)
+   {
+      XSDTypeConverter converter = typeToConverters.get(localName);
+      if (converter == null)
+      {
+         final TypeInfo type = element.getSchemaTypeInfo();
+         String typeName = type != null ? type.getTypeName() : null;
+         converter = typeName != null ? typeToConverters.get(typeName) : null;
+
+         if (converter == null)
+         {
+            throw new IllegalArgumentException("Don't know how to deal with standard type: " + (typeName != null ? typeName : localName));
+         }
+      }
+      return converter;
+   }
+
+   private static String getLocalName(Element element)
+   {
+      String localName = element.getLocalName();
+      if (localName == null)
+      {
+         // element wasn't created in a namespace-aware way, tag name will have prefix so that we need to remove it
+         String tagName = element.getTagName();
+         int prefixEnd = tagName.indexOf(':');
+         localName = prefixEnd == -1 ? tagName : tagName.substring(prefixEnd + 1);
+      }
+      return localName;
+   }
+
    private static Element marshallPayload(Serializable payload, Class payloadClass, QName name) throws JAXBException, ParserConfigurationException
    {
-      JAXBContext context = JAXBContext.newInstance(payloadClass);
-      Marshaller marshaller = context.createMarshaller();
+      Marshaller marshaller = getMarshallerFor(payloadClass);
 
       JAXBElement<Serializable> element = new JAXBElement<Serializable>(name, payloadClass, payload);
       Document document = getDocument();
@@ -293,6 +320,46 @@ public class PayloadUtils
       return document.getDocumentElement();
    }
 
+   private static Marshaller getMarshallerFor(Class payloadClass) throws JAXBException
+   {
+      final Map<Class, SoftReference<Marshaller>> threadMarshallers = marshallers.get();
+      Marshaller marshaller = dereference(threadMarshallers.get(payloadClass));
+      if (marshaller == null)
+      {
+         marshaller = getContextFor(payloadClass).createMarshaller();
+         threadMarshallers.put(payloadClass, new SoftReference<Marshaller>(marshaller));
+      }
+      return marshaller;
+   }
+
+   private static JAXBContext getContextFor(Class payloadClass) throws JAXBException
+   {
+      JAXBContext context = dereference(contexts.get(payloadClass));
+      if (context == null)
+      {
+         // create the context outside of the lock since it's costly, we might end up creating it several times but only one will be kept
+         context = JAXBContext.newInstance(payloadClass);
+         synchronized (contexts)
+         {
+            final JAXBContext existing = dereference(contexts.get(payloadClass));
+            if (existing != null)
+            {
+               context = existing;
+            }
+            else
+            {
+               contexts.put(payloadClass, new SoftReference<JAXBContext>(context));
+            }
+         }
+      }
+      return context;
+   }
+
+   private static <T> T dereference(SoftReference<T> reference)
+   {
+      return reference == null ? null : reference.get();
+   }
+
    public static Element marshallExtension(Object value)
    {
       if (value instanceof Element)
@@ -0,0 +1,72 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2012, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wsrp.payload;
+
+import junit.framework.TestCase;
+import org.gatein.wsrp.api.extensions.UnmarshalledExtension;
+import org.w3c.dom.Element;
+
+import javax.xml.XMLConstants;
+
+/** @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a> */
+public class PayloadUtilsTestCase extends TestCase
+{
+   public void testSimplePayloadRoundTrip()
+   {
+      Element element = PayloadUtils.marshallPayload(42);
+      assertEquals(XMLConstants.W3C_XML_SCHEMA_NS_URI, element.getNamespaceURI());
+      assertEquals(42, PayloadUtils.unmarshallPayload(element));
+
+      // marshalling again reuses the cached JAXB infrastructure and should yield the same result
+      element = PayloadUtils.marshallPayload(43);
+      assertEquals(43, PayloadUtils.unmarshallPayload(element));
+
+      element = PayloadUtils.marshallPayload("foo");
+      assertEquals("foo", PayloadUtils.unmarshallPayload(element));
+   }
+
+   public void testUnmarshallPrefixedElement()
+   {
+      Element element = PayloadUtils.parseFromXMLString("<xs:int xmlns:xs=\"" + XMLConstants.W3C_XML_SCHEMA_NS_URI + "\">10</xs:int>");
+      assertEquals(10, PayloadUtils.unmarshallPayload(element));
+
+      UnmarshalledExtension extension = PayloadUtils.unmarshallExtension(element);
+      assertEquals("int", extension.getName());
+      assertEquals(10, extension.getValue());
+   }
+
+   public void testUnmarshallUnknownStandardType()
+   {
+      Element element = PayloadUtils.createElement(XMLConstants.W3C_XML_SCHEMA_NS_URI, "xs:unknown");
+      try
+      {
+         PayloadUtils.unmarshallPayload(element);
+         fail("Shouldn't be able to unmarshall unknown standard type");
+      }
+      catch (IllegalArgumentException expected)
+      {
+         // expected
+      }
+   }
+}
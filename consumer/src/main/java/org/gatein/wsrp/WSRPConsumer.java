@@ -25,7 +25,9 @@ package org.gatein.wsrp;
 
 import org.gatein.pc.api.PortletInvoker;
 import org.gatein.pc.api.PortletInvokerException;
+import org.gatein.pc.api.invocation.EventInvocation;
 import org.gatein.pc.api.invocation.PortletInvocation;
+import org.gatein.pc.api.invocation.response.PortletInvocationResponse;
 import org.gatein.wsrp.api.session.SessionEventListener;
 import org.gatein.wsrp.consumer.ProducerInfo;
 import org.gatein.wsrp.consumer.RefreshResult;
@@ -185,6 +187,16 @@ public interface WSRPConsumer extends PortletInvoker, SessionEventListener
     */
    ImportInfo importPortlets(ExportInfo exportInfo, List<String> portlets) throws PortletInvokerException;
 
+   /**
+    * Invokes the specified event invocations, coalescing the ones targeting the same portlet window into a single handleEvents call to the
+    * remote producer instead of performing one call per event as {@link #invoke(org.gatein.pc.api.invocation.PortletInvocation)} would.
+    *
+    * @param invocations the event invocations delivered during the same event phase, in the order they were emitted
+    * @return the responses associated with each invocation, in the same order
+    * @throws PortletInvokerException
+    */
+   List<PortletInvocationResponse> invokeEvents(List<EventInvocation> invocations) throws PortletInvokerException;
+
    /**
     * Is this consumer compatible with WSRP 2?
     *
@@ -0,0 +1,119 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2012, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wsrp.consumer;
+
+import org.gatein.pc.api.spi.UserContext;
+import org.gatein.wsrp.UserContextConverter;
+
+import javax.servlet.http.HttpSession;
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps, in the portal user's session, the WSRP UserContext converted from the portal's UserContext so that the associated user profile doesn't need to be
+ * rebuilt for each remote call. A cached conversion is reused as long as it's requested for the same user context key and the user information it was
+ * created from didn't change. Instances are immutable so that they can safely be shared by concurrent requests of the same user.
+ *
+ * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
+ * @version $Revision$
+ */
+public class CachedUserContext implements Serializable
+{
+   static final String SESSION_ATTRIBUTE = "org.gatein.wsrp.session.userContext";
+
+   private final String userContextKey;
+   private final List<String> userCategories;
+   private final Map<String, String> informations;
+   private final int fingerprint;
+
+   /** Not serialized: a deserialized instance won't match anymore, triggering a new conversion. */
+   private final transient org.oasis.wsrp.v2.UserContext wsrpUserContext;
+
+   private CachedUserContext(String userContextKey, List<String> userCategories, Map<String, String> informations, int fingerprint, org.oasis.wsrp.v2.UserContext wsrpUserContext)
+   {
+      this.userContextKey = userContextKey;
+      this.userCategories = userCategories;
+      this.informations = informations;
+      this.fingerprint = fingerprint;
+      this.wsrpUserContext = wsrpUserContext;
+   }
+
+   /**
+    * Retrieves the WSRP UserContext associated with the specified portal UserContext, reusing the conversion cached in the specified session if it's still
+    * current and caching a new conversion otherwise.
+    *
+    * @param session        the portal user's session, if any. If <code>null</code>, no caching is performed.
+    * @param userContext    the portal UserContext to convert
+    * @param userContextKey the key identifying the user to the producer
+    * @param userCategories the user categories to pass to the producer, if any
+    * @return the WSRP UserContext associated with the specified information
+    */
+   public static org.oasis.wsrp.v2.UserContext getWSRPUserContextFrom(HttpSession session, UserContext userContext, String userContextKey, List<String> userCategories)
+   {
+      final Map<String, String> informations = getInformations(userContext);
+      final int fingerprint = informations.hashCode();
+
+      if (session != null)
+      {
+         final Object cached = session.getAttribute(SESSION_ATTRIBUTE);
+         if (cached instanceof CachedUserContext)
+         {
+            final CachedUserContext cachedUserContext = (CachedUserContext)cached;
+            if (cachedUserContext.matches(userContextKey, userCategories, informations, fingerprint))
+            {
+               return cachedUserContext.wsrpUserContext;
+            }
+         }
+      }
+
+      org.oasis.wsrp.v2.UserContext wsrpUserContext = UserContextConverter.createWSRPUserContextFrom(userContext, userContextKey, userCategories);
+
+      if (session != null)
+      {
+         // copy the information so that later modifications by the portal are detected
+         session.setAttribute(SESSION_ATTRIBUTE, new CachedUserContext(userContextKey, userCategories, new HashMap<String, String>(informations), fingerprint, wsrpUserContext));
+      }
+
+      return wsrpUserContext;
+   }
+
+   @SuppressWarnings("unchecked")
+   private static Map<String, String> getInformations(UserContext userContext)
+   {
+      final Map<String, String> informations = userContext.getInformations();
+      return informations != null ? informations : Collections.<String, String>emptyMap();
+   }
+
+   private boolean matches(String userContextKey, List<String> userCategories, Map<String, String> informations, int fingerprint)
+   {
+      return wsrpUserContext != null
+         && this.fingerprint == fingerprint
+         && this.userContextKey.equals(userContextKey)
+         && (this.userCategories == null ? userCategories == null : this.userCategories.equals(userCategories))
+         && this.informations.equals(informations);
+   }
+}
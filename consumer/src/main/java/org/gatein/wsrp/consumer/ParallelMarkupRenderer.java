@@ -0,0 +1,299 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2012, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wsrp.consumer;
+
+import org.gatein.common.util.ParameterValidation;
+import org.gatein.pc.api.PortletInvokerException;
+import org.gatein.pc.api.invocation.RenderInvocation;
+import org.gatein.pc.api.invocation.response.ErrorResponse;
+import org.gatein.pc.api.invocation.response.PortletInvocationResponse;
+import org.gatein.wsrp.consumer.handlers.PreparedInvocation;
+import org.gatein.wsrp.consumer.spi.WSRPConsumerSPI;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Retrieves the markup of several remote portlets concurrently so that rendering a page containing several WSRP portlets takes roughly as long
+ * as its slowest portlet instead of the sum of all the portlets' response times. Calls are performed on a bounded thread pool, the number of
+ * concurrent calls to a given producer is limited and all calls must complete before a page-level deadline.
+ * <p/>
+ * Invocations are not thread-safe so they are never accessed by the threads performing the calls: each invocation is first prepared on the calling
+ * thread (see {@link PreparedInvocation}), which takes care of everything requiring access to the invocation (request extensions, producer session
+ * and cookie information, cached markup...). Only the prepared WSRP call is then performed on the pool's threads and the producer's response is
+ * finally processed back on the calling thread. The servlet request and response of the calling thread are bound to
+ * {@link org.gatein.wsrp.api.servlet.ServletAccess} while the pool's threads perform the calls so that the web services stack sends them with the
+ * same information it would have used on the calling thread, in particular the current user's credentials when WS-Security is used. The calling
+ * thread only waits for the calls to complete in the mean time.
+ * <p/>
+ * A renderer is owned by the {@link org.gatein.wsrp.consumer.registry.AbstractConsumerRegistry} which creates it when it's started and shuts it
+ * down when it's stopped.
+ * <p/>
+ * Calls that didn't complete before the deadline or that couldn't be dispatched because all threads are busy and the queue is full are
+ * associated with an {@link ErrorResponse}: renders are never performed on the calling thread. Note that blocking SOAP I/O cannot be interrupted
+ * so a call that was abandoned after it started keeps its thread, as well as its producer permit, until it completes or times out as per the
+ * producer's configured web service operation timeout. This is what limits the number of threads an unresponsive producer can hold.
+ *
+ * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
+ * @version $Revision$
+ */
+public class ParallelMarkupRenderer
+{
+   private static final Logger log = LoggerFactory.getLogger(ParallelMarkupRenderer.class);
+
+   public static final int DEFAULT_MAXIMUM_THREADS = 16;
+   public static final int DEFAULT_MAXIMUM_CALLS_PER_PRODUCER = 4;
+
+   private final ThreadPoolExecutor executor;
+   private final int maximumCallsPerProducer;
+   private final ConcurrentMap<String, Semaphore> producerPermits = new ConcurrentHashMap<String, Semaphore>();
+
+   private final AtomicLong dispatched = new AtomicLong();
+   private final AtomicLong timedOut = new AtomicLong();
+   private final AtomicLong rejected = new AtomicLong();
+
+   public ParallelMarkupRenderer()
+   {
+      this(DEFAULT_MAXIMUM_THREADS, DEFAULT_MAXIMUM_CALLS_PER_PRODUCER);
+   }
+
+   /**
+    * @param maximumThreads          the maximum number of threads used to perform calls
+    * @param maximumCallsPerProducer the maximum number of concurrent calls to a given producer
+    */
+   public ParallelMarkupRenderer(int maximumThreads, int maximumCallsPerProducer)
+   {
+      if (maximumThreads < 1 || maximumCallsPerProducer < 1)
+      {
+         throw new IllegalArgumentException("Maximum number of threads and of calls per producer must be at least 1");
+      }
+      this.maximumCallsPerProducer = maximumCallsPerProducer;
+
+      // when all threads are busy and the queue is full, calls are rejected and render deals with it
+      executor = new ThreadPoolExecutor(maximumThreads, maximumThreads, 60, TimeUnit.SECONDS,
+         new ArrayBlockingQueue<Runnable>(maximumThreads * 4), new ThreadFactory()
+      {
+         private final AtomicInteger count = new AtomicInteger();
+
+         public Thread newThread(Runnable r)
+         {
+            Thread thread = new Thread(r, "WSRP markup renderer " + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+         }
+      }, new ThreadPoolExecutor.AbortPolicy());
+      executor.allowCoreThreadTimeOut(true);
+   }
+
+   /**
+    * Retrieves the markup for the specified render invocations concurrently. Must be called from the thread handling the invocations.
+    *
+    * @param invocations the render invocations to perform, associated with the consumer in charge of each of them
+    * @param timeout     the number of milliseconds after which invocations that haven't completed are abandoned
+    * @return the responses associated with each invocation, in the iteration order of the specified map. Invocations that failed, couldn't be
+    *         dispatched or didn't complete before the deadline are associated with an {@link ErrorResponse}.
+    */
+   public Map<RenderInvocation, PortletInvocationResponse> render(Map<RenderInvocation, ? extends WSRPConsumerSPI> invocations, long timeout)
+   {
+      ParameterValidation.throwIllegalArgExceptionIfNull(invocations, "render invocations");
+      if (timeout <= 0)
+      {
+         throw new IllegalArgumentException("Timeout must be positive");
+      }
+
+      final long deadline = System.currentTimeMillis() + timeout;
+
+      // prepare and dispatch calls, responses are added in the invocations' order and replaced once we get them
+      final Map<RenderInvocation, PortletInvocationResponse> responses = new LinkedHashMap<RenderInvocation, PortletInvocationResponse>(invocations.size());
+      final Map<RenderInvocation, RenderCall> calls = new LinkedHashMap<RenderInvocation, RenderCall>(invocations.size());
+      for (Map.Entry<RenderInvocation, ? extends WSRPConsumerSPI> entry : invocations.entrySet())
+      {
+         final RenderInvocation invocation = entry.getKey();
+         final String producerId = entry.getValue().getProducerId();
+         responses.put(invocation, null);
+
+         final PreparedInvocation prepared;
+         try
+         {
+            prepared = entry.getValue().prepareRender(invocation);
+         }
+         catch (Exception e)
+         {
+            log.debug("Couldn't prepare render invocation for producer '" + producerId + "'", e);
+            responses.put(invocation, new ErrorResponse(e));
+            continue;
+         }
+
+         final RenderCall call = new RenderCall(prepared, producerId, deadline);
+         try
+         {
+            call.future = executor.submit(call);
+            calls.put(invocation, call);
+            dispatched.incrementAndGet();
+         }
+         catch (RejectedExecutionException e)
+         {
+            rejected.incrementAndGet();
+            responses.put(invocation, new ErrorResponse("Too many concurrent markup requests: couldn't retrieve markup from producer '" + producerId + "'."));
+         }
+      }
+
+      // collect responses and process them
+      for (Map.Entry<RenderInvocation, RenderCall> entry : calls.entrySet())
+      {
+         final RenderCall call = entry.getValue();
+         final Future<Boolean> future = call.future;
+         PortletInvocationResponse invocationResponse;
+         try
+         {
+            if (future.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS))
+            {
+               invocationResponse = call.prepared.complete();
+            }
+            else
+            {
+               invocationResponse = new ErrorResponse("Too many concurrent calls to producer '" + call.producerId + "'");
+            }
+         }
+         catch (TimeoutException e)
+         {
+            // only stops calls that haven't started yet or that are waiting for a producer permit, see class documentation
+            future.cancel(true);
+            timedOut.incrementAndGet();
+            invocationResponse = new ErrorResponse("Couldn't retrieve markup from producer '" + call.producerId + "' within " + timeout + "ms.");
+         }
+         catch (ExecutionException e)
+         {
+            invocationResponse = new ErrorResponse(e.getCause());
+         }
+         catch (PortletInvokerException e)
+         {
+            invocationResponse = new ErrorResponse(e);
+         }
+         catch (InterruptedException e)
+         {
+            Thread.currentThread().interrupt();
+            future.cancel(true);
+            invocationResponse = new ErrorResponse(e);
+         }
+
+         responses.put(entry.getKey(), invocationResponse);
+      }
+
+      return responses;
+   }
+
+   private Semaphore getPermitsFor(String producerId)
+   {
+      Semaphore permits = producerPermits.get(producerId);
+      if (permits == null)
+      {
+         permits = new Semaphore(maximumCallsPerProducer);
+         Semaphore existing = producerPermits.putIfAbsent(producerId, permits);
+         if (existing != null)
+         {
+            permits = existing;
+         }
+      }
+      return permits;
+   }
+
+   /** Stops the threads used to perform calls. This renderer cannot be used anymore afterwards. Called when the owning consumer registry is stopped. */
+   public void shutdown()
+   {
+      executor.shutdownNow();
+   }
+
+   public long getDispatchedCount()
+   {
+      return dispatched.get();
+   }
+
+   public long getTimedOutCount()
+   {
+      return timedOut.get();
+   }
+
+   public long getRejectedCount()
+   {
+      return rejected.get();
+   }
+
+   /** Performs a prepared call, returning whether the call was actually performed. Doesn't access anything but the prepared WSRP call. */
+   private class RenderCall implements Callable<Boolean>
+   {
+      private final PreparedInvocation prepared;
+      private final String producerId;
+      private final long deadline;
+      private Future<Boolean> future;
+
+      private RenderCall(PreparedInvocation prepared, String producerId, long deadline)
+      {
+         this.prepared = prepared;
+         this.producerId = producerId;
+         this.deadline = deadline;
+      }
+
+      public Boolean call() throws Exception
+      {
+         final Semaphore permits = getPermitsFor(producerId);
+         if (!permits.tryAcquire(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS))
+         {
+            return false;
+         }
+
+         try
+         {
+            // no need to contact the producer if the response won't be used anyway
+            if (System.currentTimeMillis() >= deadline)
+            {
+               return false;
+            }
+
+            prepared.perform();
+            return true;
+         }
+         finally
+         {
+            permits.release();
+         }
+      }
+   }
+}
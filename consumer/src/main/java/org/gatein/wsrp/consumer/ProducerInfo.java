@@ -76,6 +76,10 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * ProducerInfo handles the consumer's state with respect to its remote producer. It encapsulates all the information needed to access and properly interact with a remote
@@ -127,20 +131,23 @@ public class ProducerInfo extends SupportsLastModified
 
    // Transient information
 
-   /** The Cookie handling policy required by the Producer */
-   private transient CookieProtocol requiresInitCookie;
-
-   /** The Producer-Offered Portlets (handle -> WSRPPortlet) */
-   private transient Map<String, Portlet> popsMap;
+   /**
+    * Metadata extracted from the producer's service description: POPs, portlet groups, custom modes and window states, events, supported
+    * options and cookie policy. Published atomically as an immutable snapshot so that readers never see a partially refreshed state.
+    */
+   private final transient AtomicReference<Metadata> metadata = new AtomicReference<Metadata>(Metadata.EMPTY);
 
    /** A cache for Consumer-Configured Portlets (handle -> WSRPPortlet) */
-   private transient Map<String, Portlet> ccpsMap;
-
-   /** Portlet groups. */
-   private transient Map<String, Set<Portlet>> portletGroups;
+   private final transient ConcurrentMap<String, Portlet> ccpsMap = new ConcurrentHashMap<String, Portlet>();
 
    /** Time at which the cache expires */
-   private transient long expirationTimeMillis;
+   private transient volatile long expirationTimeMillis;
+
+   /** Makes sure that only one thread at a time refreshes this ProducerInfo */
+   private final transient ReentrantLock refreshLock = new ReentrantLock();
+
+   /** Refreshes metadata in the background once the cache expired */
+   private final transient ProducerInfoRefresher refresher = new ProducerInfoRefresher(this);
 
    /** The ConsumerRegistry used to persist Consumers and ProducerInfos, accessed using the internal SPI */
    private final transient ConsumerRegistrySPI registry;
@@ -152,18 +159,6 @@ public class ProducerInfo extends SupportsLastModified
     */
    private transient RegistrationInfo expectedRegistrationInfo;
 
-   /** Custom modes supported by the remote producer */
-   private transient Map<String, ItemDescription> customModes;
-
-   /** Custom window states supported by the remote producer */
-   private transient Map<String, ItemDescription> customWindowStates;
-
-   /** Events */
-   private transient Map<QName, EventInfo> eventDescriptions;
-
-   /** Supported options */
-   private transient Set<String> supportedOptions = Collections.emptySet();
-
    /*protected org.oasis.wsrp.v1.ItemDescription[] userCategoryDescriptions;
    protected org.oasis.wsrp.v1.ItemDescription[] customUserProfileItemDescriptions;   
 
@@ -235,20 +230,22 @@ public class ProducerInfo extends SupportsLastModified
 
    public Set<String> getSupportedCustomModes()
    {
+      final Map<String, ItemDescription> customModes = metadata.get().customModes;
       if (customModes == null)
       {
          return Collections.emptySet();
       }
-      return Collections.unmodifiableSet(customModes.keySet());
+      return customModes.keySet();
    }
 
    public Set<String> getSupportedCustomWindowStates()
    {
+      final Map<String, ItemDescription> customWindowStates = metadata.get().customWindowStates;
       if (customWindowStates == null)
       {
          return Collections.emptySet();
       }
-      return Collections.unmodifiableSet(customWindowStates.keySet());
+      return customWindowStates.keySet();
    }
 
    public EndpointConfigurationInfo getEndpointConfigurationInfo()
@@ -351,7 +348,7 @@ public class ProducerInfo extends SupportsLastModified
 
    public CookieProtocol getRequiresInitCookie()
    {
-      return requiresInitCookie;
+      return metadata.get().requiresInitCookie;
    }
 
    public RegistrationInfo getExpectedRegistrationInfo()
@@ -381,13 +378,48 @@ public class ProducerInfo extends SupportsLastModified
     * @throws PortletInvokerException if registration was required but couldn't be achieved properly
     */
    public RefreshResult detailedRefresh(boolean forceRefresh) throws PortletInvokerException
+   {
+      return detailedRefresh(forceRefresh, true);
+   }
+
+   /**
+    * Refreshes the metadata in the context of a background refresh: contrary to a regular refresh, a failure to contact
+    * the producer doesn't deactivate the consumer so that previously retrieved metadata can still be used while the
+    * refresh is retried.
+    *
+    * @return detailed information about the result of the refresh
+    * @throws PortletInvokerException if registration was required but couldn't be achieved properly
+    */
+   RefreshResult backgroundRefresh() throws PortletInvokerException
+   {
+      return detailedRefresh(false, false);
+   }
+
+   private RefreshResult detailedRefresh(boolean forceRefresh, boolean deactivateOnFailure) throws PortletInvokerException
+   {
+      // only let one thread refresh at a time, threads waiting for the lock will see the refreshed state
+      refreshLock.lock();
+      try
+      {
+         return lockedDetailedRefresh(forceRefresh, deactivateOnFailure);
+      }
+      finally
+      {
+         refreshLock.unlock();
+      }
+   }
+
+   private RefreshResult lockedDetailedRefresh(boolean forceRefresh, boolean deactivateOnFailure) throws PortletInvokerException
    {
       RefreshResult result = internalRefresh(forceRefresh);
 
       // if the refresh failed, return immediately
       if (RefreshResult.Status.FAILURE.equals(result.getStatus()))
       {
-         setActiveAndSave(false);
+         if (deactivateOnFailure)
+         {
+            setActiveAndSave(false);
+         }
          return result;
       }
 
@@ -547,27 +579,23 @@ public class ProducerInfo extends SupportsLastModified
       throws PortletInvokerException
    {
       // do we need to call initCookie or not?
-      requiresInitCookie = serviceDescription.getRequiresInitCookie();
+      final CookieProtocol requiresInitCookie = serviceDescription.getRequiresInitCookie();
       log.debug("Requires initCookie: " + requiresInitCookie);
 
       // supported options
+      Set<String> options = null;
       final List<String> supportedOptions = serviceDescription.getSupportedOptions();
       if (ParameterValidation.existsAndIsNotEmpty(supportedOptions))
       {
-         this.supportedOptions = new HashSet<String>(supportedOptions);
+         options = new HashSet<String>(supportedOptions);
       }
 
-      // custom mode descriptions
-      customModes = toMap(serviceDescription.getCustomModeDescriptions());
-
-      // custom window state descriptions
-      customWindowStates = toMap(serviceDescription.getCustomWindowStateDescriptions());
-
       // event descriptions
+      Map<QName, EventInfo> events = null;
       List<EventDescription> eventDescriptions = serviceDescription.getEventDescriptions();
       if (!eventDescriptions.isEmpty())
       {
-         this.eventDescriptions = new HashMap<QName, EventInfo>(eventDescriptions.size());
+         events = new HashMap<QName, EventInfo>(eventDescriptions.size());
 
          for (final EventDescription event : eventDescriptions)
          {
@@ -590,10 +618,18 @@ public class ProducerInfo extends SupportsLastModified
                },
                event.getAliases());
 
-            this.eventDescriptions.put(name, eventInfo);
+            events.put(name, eventInfo);
          }
       }
 
+      // custom mode and window state descriptions
+      final Map<String, ItemDescription> customModes = toMap(serviceDescription.getCustomModeDescriptions());
+      final Map<String, ItemDescription> customWindowStates = toMap(serviceDescription.getCustomWindowStateDescriptions());
+
+      // service description-level metadata will be published along with the POPs, if we can extract them, so that readers never see a partially refreshed state
+      final ServiceDescriptionInfo serviceDescriptionInfo = new ServiceDescriptionInfo(requiresInitCookie, options, customModes, customWindowStates, events);
+      boolean published = false;
+
       // do we need to register?
       if (serviceDescription.isRequiresRegistration())
       {
@@ -612,7 +648,8 @@ public class ProducerInfo extends SupportsLastModified
             }
 
             // extract the POPs
-            extractOfferedPortlets(serviceDescription);
+            extractOfferedPortlets(serviceDescription, serviceDescriptionInfo);
+            published = true;
          }
 
          result.setRegistrationResult(registrationResult);
@@ -621,7 +658,19 @@ public class ProducerInfo extends SupportsLastModified
       {
          log.debug("Registration not required");
          persistentRegistrationInfo = new RegistrationInfo(this, false);
-         extractOfferedPortlets(serviceDescription);
+         extractOfferedPortlets(serviceDescription, serviceDescriptionInfo);
+         published = true;
+      }
+
+      // if we couldn't extract the POPs, still publish the service description-level metadata, keeping the current POPs
+      if (!published)
+      {
+         Metadata current;
+         do
+         {
+            current = metadata.get();
+         }
+         while (!metadata.compareAndSet(current, serviceDescriptionInfo.applyTo(current)));
       }
 
       modifyNow();
@@ -646,12 +695,14 @@ public class ProducerInfo extends SupportsLastModified
    }
 
    /**
-    * Extracts a map of offered Portlet objects from ServiceDescription
+    * Extracts a map of offered Portlet objects from ServiceDescription and publishes it, along with the associated portlet groups and the specified service
+    * description-level metadata, as a single new metadata snapshot.
     *
-    * @param sd the service description to extract portlets from
+    * @param sd                     the service description to extract portlets from
+    * @param serviceDescriptionInfo the service description-level metadata to publish along with the portlets
     * @return a Map (portlet handle -> Portlet) of the offered portlets.
     */
-   private Map extractOfferedPortlets(ServiceDescription sd)
+   private Map<String, Portlet> extractOfferedPortlets(ServiceDescription sd, ServiceDescriptionInfo serviceDescriptionInfo)
    {
       if (sd == null)
       {
@@ -660,33 +711,47 @@ public class ProducerInfo extends SupportsLastModified
 
       List<PortletDescription> portletDescriptions = sd.getOfferedPortlets();
 
+      Map<String, Portlet> pops;
+      Map<String, Set<Portlet>> groups;
       if (portletDescriptions != null)
       {
          int length = portletDescriptions.size();
          log.debug("Extracting " + length + " portlets.");
-         popsMap = new LinkedHashMap<String, Portlet>(length);
-         portletGroups = new HashMap<String, Set<Portlet>>();
+
+         // build new maps before publishing them since they might be read concurrently
+         pops = new LinkedHashMap<String, Portlet>(length);
+         groups = new HashMap<String, Set<Portlet>>();
 
          for (PortletDescription portletDescription : portletDescriptions)
          {
-            WSRPPortlet wsrpPortlet = createWSRPPortletFromPortletDescription(portletDescription);
+            WSRPPortlet wsrpPortlet = createWSRPPortletFromPortletDescription(portletDescription, groups);
 
             if (wsrpPortlet != null)
             {
-               popsMap.put(wsrpPortlet.getContext().getId(), wsrpPortlet);
+               pops.put(wsrpPortlet.getContext().getId(), wsrpPortlet);
             }
          }
+
       }
       else
       {
-         popsMap = Collections.emptyMap();
-         portletGroups = Collections.emptyMap();
+         pops = Collections.emptyMap();
+         groups = Collections.emptyMap();
       }
 
+      // publish everything at once, other metadata (e.g. portlets added to groups) might have been published in the mean time
+      Metadata current, updated;
+      do
+      {
+         current = metadata.get();
+         updated = serviceDescriptionInfo.applyTo(current).withPortlets(pops, groups);
+      }
+      while (!metadata.compareAndSet(current, updated));
+
       //todo: could extract more information here... and rename method more appropriately
       resetCacheTimerIfNeeded();
 
-      return popsMap;
+      return updated.popsMap;
    }
 
    /**
@@ -697,6 +762,31 @@ public class ProducerInfo extends SupportsLastModified
     * @since 2.6
     */
    WSRPPortlet createWSRPPortletFromPortletDescription(PortletDescription portletDescription)
+   {
+      final Map<String, Set<Portlet>> groups = new HashMap<String, Set<Portlet>>(1);
+      final WSRPPortlet portlet = createWSRPPortletFromPortletDescription(portletDescription, groups);
+
+      // add the portlet to its group in a new snapshot since published ones are immutable
+      if (!groups.isEmpty())
+      {
+         final String groupId = groups.keySet().iterator().next();
+         Metadata current;
+         do
+         {
+            current = metadata.get();
+            if (current.portletGroups == null)
+            {
+               // groups haven't been extracted yet, they will be when the service description is parsed
+               break;
+            }
+         }
+         while (!metadata.compareAndSet(current, current.withGroupedPortlet(groupId, portlet)));
+      }
+
+      return portlet;
+   }
+
+   private WSRPPortlet createWSRPPortletFromPortletDescription(PortletDescription portletDescription, Map<String, Set<Portlet>> groups)
    {
       ParameterValidation.throwIllegalArgExceptionIfNull(portletDescription, "PortletDescription");
       String portletHandle = portletDescription.getPortletHandle();
@@ -722,11 +812,11 @@ public class ProducerInfo extends SupportsLastModified
          String portletGroupId = portletDescription.getGroupID();
          if (portletGroupId != null)
          {
-            Set<Portlet> groupedPortlets = portletGroups.get(portletGroupId);
+            Set<Portlet> groupedPortlets = groups.get(portletGroupId);
             if (groupedPortlets == null)
             {
                groupedPortlets = new HashSet<Portlet>();
-               portletGroups.put(portletGroupId, groupedPortlets);
+               groups.put(portletGroupId, groupedPortlets);
             }
             groupedPortlets.add(wsrpPortlet);
          }
@@ -749,7 +839,7 @@ public class ProducerInfo extends SupportsLastModified
       log.debug("Retrieving portlet '" + portletHandle + "'");
 
       // check if we need to refresh
-      boolean justRefreshed = refresh(false);
+      boolean justRefreshed = refreshOrUseStale();
 
       // First try caches if caches are still valid or we just refreshed
       Portlet portlet = getPortletFromCaches(portletHandle, justRefreshed);
@@ -775,15 +865,6 @@ public class ProducerInfo extends SupportsLastModified
                new Holder<ResourceList>(),
                new Holder<List<Extension>>());
             portlet = createWSRPPortletFromPortletDescription(descriptionHolder.value);
-
-            // add the portlet to the CCP cache
-            if (ccpsMap == null)
-            {
-               ccpsMap = new HashMap<String, Portlet>();
-            }
-            ccpsMap.put(portletHandle, portlet);
-
-            return portlet;
          }
          catch (InvalidHandle invalidHandleFault)
          {
@@ -806,6 +887,17 @@ public class ProducerInfo extends SupportsLastModified
                return portlet;
             }
          }
+
+         // portlet might have been excluded, in which case, there's no point in refreshing to try to find it
+         if (portlet == null)
+         {
+            throw new NoSuchPortletException("Portlet '" + portletHandle + "' cannot be used with producer '" + getId() + "'", portletHandle);
+         }
+
+         // add the portlet to the CCP cache
+         ccpsMap.put(portletHandle, portlet);
+
+         return portlet;
       }
    }
 
@@ -817,9 +909,10 @@ public class ProducerInfo extends SupportsLastModified
       {
          log.debug("Trying cached POPs");
 
-         portlet = popsMap.get(portletHandle);
+         final Map<String, Portlet> pops = metadata.get().popsMap;
+         portlet = pops != null ? pops.get(portletHandle) : null;
 
-         if (portlet == null && ccpsMap != null)
+         if (portlet == null)
          {
             log.debug("Trying cached CCPs");
             portlet = ccpsMap.get(portletHandle);
@@ -830,13 +923,13 @@ public class ProducerInfo extends SupportsLastModified
 
    Map<String, Set<Portlet>> getPortletGroupMap() throws PortletInvokerException
    {
-      return portletGroups;
+      return metadata.get().portletGroups;
    }
 
    public Map<String, Portlet> getProducerOffereedPortletMap() throws PortletInvokerException
    {
-      refresh(false);
-      return popsMap;
+      refreshOrUseStale();
+      return metadata.get().popsMap;
    }
 
    public Map<String, Portlet> getAllPortletsMap() throws PortletInvokerException
@@ -844,31 +937,75 @@ public class ProducerInfo extends SupportsLastModified
       // calling getNumberOfPortlets refreshes the information if needed so no need to redo it here
       Map<String, Portlet> all = new LinkedHashMap<String, Portlet>(getNumberOfPortlets());
 
-      if (popsMap != null)
+      final Map<String, Portlet> pops = metadata.get().popsMap;
+      if (pops != null)
       {
-         all.putAll(popsMap);
+         all.putAll(pops);
       }
 
-      if (ccpsMap != null)
-      {
-         all.putAll(ccpsMap);
-      }
+      all.putAll(ccpsMap);
 
       return all;
    }
 
    public int getNumberOfPortlets() throws PortletInvokerException
    {
-      refresh(false);
+      refreshOrUseStale();
 
-      int portletNb = popsMap != null ? popsMap.size() : 0;
-      portletNb = portletNb + (ccpsMap != null ? ccpsMap.size() : 0);
+      final Map<String, Portlet> pops = metadata.get().popsMap;
+      int portletNb = pops != null ? pops.size() : 0;
+      portletNb = portletNb + ccpsMap.size();
 
       return portletNb;
    }
 
    // Cache support ****************************************************************************************************
 
+   /**
+    * Retrieves the object in charge of refreshing this ProducerInfo's metadata in the background.
+    *
+    * @return the ProducerInfoRefresher associated with this ProducerInfo
+    */
+   public ProducerInfoRefresher getRefresher()
+   {
+      return refresher;
+   }
+
+   /**
+    * Refreshes the metadata if needed. However, if the only reason to refresh is that the metadata cache expired not
+    * too long ago, the previously retrieved metadata is used while a refresh happens in the background instead of
+    * blocking the calling thread.
+    *
+    * @return <code>true</code> if cached metadata can be used, either because it was just refreshed or because stale
+    *         metadata is used while refreshing in the background, <code>false</code> otherwise
+    * @throws PortletInvokerException if registration was required but couldn't be achieved properly
+    */
+   private boolean refreshOrUseStale() throws PortletInvokerException
+   {
+      if (canUseStaleMetadata())
+      {
+         refresher.staleMetadataUsed();
+         return true;
+      }
+
+      return refresh(false);
+   }
+
+   private boolean canUseStaleMetadata()
+   {
+      if (!refresher.isEnabled() || !refresher.canRefreshInBackground() || !useCache() || !metadata.get().hasPortlets() || !isActive()
+         || isModifyRegistrationRequired())
+      {
+         return false;
+      }
+
+      // stale metadata is only used for at most one more cache period
+      final long now = nowForCache();
+      final long expiration = expirationTimeMillis;
+      return now > expiration && now <= expiration + getSafeExpirationCacheSeconds() * 1000L
+         && !persistentRegistrationInfo.isRefreshNeeded() && !persistentEndpointInfo.isRefreshNeeded();
+   }
+
    private boolean useCache()
    {
       return persistentExpirationCacheSeconds != null && persistentExpirationCacheSeconds > 0;
@@ -887,8 +1024,7 @@ public class ProducerInfo extends SupportsLastModified
     */
    private boolean isCacheExpired()
    {
-      boolean result = !useCache() || nowForCache() > expirationTimeMillis || popsMap == null
-         || portletGroups == null;
+      boolean result = !useCache() || nowForCache() > expirationTimeMillis || !metadata.get().hasPortlets();
       if (result)
       {
          log.debug("Cache expired or not used");
@@ -1375,7 +1511,17 @@ public class ProducerInfo extends SupportsLastModified
    {
       log.debug("Removing '" + portletHandle + "' from caches.");
       ccpsMap.remove(portletHandle);
-      popsMap.remove(portletHandle);
+
+      Metadata current;
+      do
+      {
+         current = metadata.get();
+         if (current.popsMap == null || !current.popsMap.containsKey(portletHandle))
+         {
+            return;
+         }
+      }
+      while (!metadata.compareAndSet(current, current.withoutPortlet(portletHandle)));
    }
 
    public void eraseRegistrationInfo()
@@ -1389,6 +1535,7 @@ public class ProducerInfo extends SupportsLastModified
 
    public EventInfo getInfoForEvent(QName name)
    {
+      final Map<QName, EventInfo> eventDescriptions = metadata.get().eventDescriptions;
       if (eventDescriptions == null)
       {
          return null;
@@ -1401,7 +1548,7 @@ public class ProducerInfo extends SupportsLastModified
 
    public Collection<String> getSupportedOptions()
    {
-      return Collections.unmodifiableSet(supportedOptions);
+      return metadata.get().supportedOptions;
    }
 
    /**
@@ -1415,15 +1562,151 @@ public class ProducerInfo extends SupportsLastModified
          || WSRP2Constants.OPTIONS_EXPORT.equals(option) || WSRP2Constants.OPTIONS_IMPORT.equals(option)
          || WSRP2Constants.OPTIONS_LEASING.equals(option))
       {
-         if (supportedOptions.isEmpty())
+         Metadata current;
+         do
          {
-            supportedOptions = new HashSet<String>(5);
+            current = metadata.get();
          }
-         supportedOptions.add(option);
+         while (!metadata.compareAndSet(current, current.withSupportedOption(option)));
       }
       else
       {
          throw new IllegalArgumentException("Invalid option: " + option);
       }
    }
+
+   /** Service description-level metadata extracted during a refresh, waiting to be published as part of a new {@link Metadata} snapshot. */
+   private static final class ServiceDescriptionInfo
+   {
+      private final CookieProtocol requiresInitCookie;
+      private final Set<String> supportedOptions;
+      private final Map<String, ItemDescription> customModes;
+      private final Map<String, ItemDescription> customWindowStates;
+      private final Map<QName, EventInfo> eventDescriptions;
+
+      private ServiceDescriptionInfo(CookieProtocol requiresInitCookie, Set<String> supportedOptions, Map<String, ItemDescription> customModes,
+                                     Map<String, ItemDescription> customWindowStates, Map<QName, EventInfo> eventDescriptions)
+      {
+         this.requiresInitCookie = requiresInitCookie;
+         this.supportedOptions = supportedOptions;
+         this.customModes = customModes;
+         this.customWindowStates = customWindowStates;
+         this.eventDescriptions = eventDescriptions;
+      }
+
+      private Metadata applyTo(Metadata metadata)
+      {
+         return metadata.withServiceDescriptionInfo(requiresInitCookie, supportedOptions, customModes, customWindowStates, eventDescriptions);
+      }
+   }
+
+   /**
+    * Immutable snapshot of the metadata extracted from the producer's service description. Instances are never modified once published:
+    * changes are performed by creating an updated copy which is then atomically swapped in.
+    */
+   private static final class Metadata
+   {
+      private static final Metadata EMPTY = new Metadata(null, Collections.<String>emptySet(), null, null, null, null, null);
+
+      private final CookieProtocol requiresInitCookie;
+      private final Set<String> supportedOptions;
+      private final Map<String, ItemDescription> customModes;
+      private final Map<String, ItemDescription> customWindowStates;
+      private final Map<QName, EventInfo> eventDescriptions;
+
+      /** The Producer-Offered Portlets (handle -> WSRPPortlet), <code>null</code> if they haven't been extracted yet */
+      private final Map<String, Portlet> popsMap;
+
+      /** Portlet groups, <code>null</code> if they haven't been extracted yet */
+      private final Map<String, Set<Portlet>> portletGroups;
+
+      /** Assumes that all the specified collections are already unmodifiable. */
+      private Metadata(CookieProtocol requiresInitCookie, Set<String> supportedOptions, Map<String, ItemDescription> customModes,
+                       Map<String, ItemDescription> customWindowStates, Map<QName, EventInfo> eventDescriptions,
+                       Map<String, Portlet> popsMap, Map<String, Set<Portlet>> portletGroups)
+      {
+         this.requiresInitCookie = requiresInitCookie;
+         this.supportedOptions = supportedOptions;
+         this.customModes = customModes;
+         this.customWindowStates = customWindowStates;
+         this.eventDescriptions = eventDescriptions;
+         this.popsMap = popsMap;
+         this.portletGroups = portletGroups;
+      }
+
+      private boolean hasPortlets()
+      {
+         return popsMap != null && portletGroups != null;
+      }
+
+      /**
+       * @param supportedOptions  the new supported options or <code>null</code> to keep the current ones
+       * @param eventDescriptions the new event descriptions or <code>null</code> to keep the current ones
+       */
+      private Metadata withServiceDescriptionInfo(CookieProtocol requiresInitCookie, Set<String> supportedOptions,
+                                                  Map<String, ItemDescription> customModes, Map<String, ItemDescription> customWindowStates,
+                                                  Map<QName, EventInfo> eventDescriptions)
+      {
+         return new Metadata(requiresInitCookie,
+            supportedOptions == null ? this.supportedOptions : Collections.unmodifiableSet(supportedOptions),
+            customModes == null ? null : Collections.unmodifiableMap(customModes),
+            customWindowStates == null ? null : Collections.unmodifiableMap(customWindowStates),
+            eventDescriptions == null ? this.eventDescriptions : Collections.unmodifiableMap(eventDescriptions),
+            popsMap, portletGroups);
+      }
+
+      private Metadata withPortlets(Map<String, Portlet> popsMap, Map<String, Set<Portlet>> portletGroups)
+      {
+         Map<String, Set<Portlet>> groups = new HashMap<String, Set<Portlet>>(portletGroups.size());
+         for (Map.Entry<String, Set<Portlet>> entry : portletGroups.entrySet())
+         {
+            groups.put(entry.getKey(), Collections.unmodifiableSet(entry.getValue()));
+         }
+
+         return new Metadata(requiresInitCookie, supportedOptions, customModes, customWindowStates, eventDescriptions,
+            Collections.unmodifiableMap(popsMap), Collections.unmodifiableMap(groups));
+      }
+
+      private Metadata withGroupedPortlet(String groupId, Portlet portlet)
+      {
+         Set<Portlet> groupedPortlets = portletGroups.get(groupId);
+         groupedPortlets = groupedPortlets == null ? new HashSet<Portlet>() : new HashSet<Portlet>(groupedPortlets);
+         groupedPortlets.add(portlet);
+
+         Map<String, Set<Portlet>> groups = new HashMap<String, Set<Portlet>>(portletGroups);
+         groups.put(groupId, Collections.unmodifiableSet(groupedPortlets));
+
+         return new Metadata(requiresInitCookie, supportedOptions, customModes, customWindowStates, eventDescriptions, popsMap,
+            Collections.unmodifiableMap(groups));
+      }
+
+      private Metadata withoutPortlet(String portletHandle)
+      {
+         Map<String, Portlet> pops = new LinkedHashMap<String, Portlet>(popsMap);
+         Portlet removed = pops.remove(portletHandle);
+
+         Map<String, Set<Portlet>> groups = new HashMap<String, Set<Portlet>>(portletGroups);
+         for (Map.Entry<String, Set<Portlet>> entry : groups.entrySet())
+         {
+            Set<Portlet> groupedPortlets = entry.getValue();
+            if (groupedPortlets.contains(removed))
+            {
+               groupedPortlets = new HashSet<Portlet>(groupedPortlets);
+               groupedPortlets.remove(removed);
+               entry.setValue(Collections.unmodifiableSet(groupedPortlets));
+            }
+         }
+
+         return new Metadata(requiresInitCookie, supportedOptions, customModes, customWindowStates, eventDescriptions,
+            Collections.unmodifiableMap(pops), Collections.unmodifiableMap(groups));
+      }
+
+      private Metadata withSupportedOption(String option)
+      {
+         Set<String> options = new HashSet<String>(supportedOptions);
+         options.add(option);
+         return new Metadata(requiresInitCookie, Collections.unmodifiableSet(options), customModes, customWindowStates,
+            eventDescriptions, popsMap, portletGroups);
+      }
+   }
 }
@@ -0,0 +1,302 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2012, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wsrp.consumer;
+
+import org.gatein.wsrp.consumer.registry.AbstractConsumerRegistry;
+import org.gatein.wsrp.consumer.spi.ConsumerRegistrySPI;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Refreshes a {@link ProducerInfo}'s metadata in the background once its cache has expired, so that requests can keep
+ * using the previously retrieved metadata instead of waiting for the producer's service description. At most one
+ * refresh is in flight for a given ProducerInfo at any time. Refreshes are delayed by a random jitter to avoid all
+ * producers being refreshed at the same time and failed refreshes are retried with an exponential backoff.
+ * <p/>
+ * Refreshes run on the executor owned by the {@link AbstractConsumerRegistry} the ProducerInfo belongs to, so they are
+ * only possible while that registry is started. Otherwise, the metadata is refreshed synchronously as usual.
+ *
+ * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
+ */
+public class ProducerInfoRefresher
+{
+   private static final Logger log = LoggerFactory.getLogger(ProducerInfoRefresher.class);
+
+   public static final long DEFAULT_MAXIMUM_JITTER = 2000;
+   public static final long DEFAULT_INITIAL_BACKOFF = 5000;
+   public static final long DEFAULT_MAXIMUM_BACKOFF = 5 * 60 * 1000;
+
+   private static final Random random = new Random();
+
+   private final ProducerInfo producerInfo;
+   private final AtomicBoolean refreshing = new AtomicBoolean(false);
+   private final AtomicReference<Future<?>> pendingRefresh = new AtomicReference<Future<?>>();
+
+   private volatile boolean enabled = true;
+   private volatile long maximumJitter = DEFAULT_MAXIMUM_JITTER;
+   private volatile long initialBackoff = DEFAULT_INITIAL_BACKOFF;
+   private volatile long maximumBackoff = DEFAULT_MAXIMUM_BACKOFF;
+
+   private volatile int consecutiveFailures;
+   private volatile long nextAttemptAllowedAt;
+
+   // metrics
+   private final AtomicLong staleServed = new AtomicLong();
+   private final AtomicLong scheduledRefreshes = new AtomicLong();
+   private final AtomicLong successfulRefreshes = new AtomicLong();
+   private final AtomicLong failedRefreshes = new AtomicLong();
+   private volatile long lastRefreshDuration = -1;
+
+   ProducerInfoRefresher(ProducerInfo producerInfo)
+   {
+      this.producerInfo = producerInfo;
+   }
+
+   /**
+    * Creates an executor suitable to run background refreshes. Refreshes are infrequent so a couple of threads can be
+    * shared by all the producers of a registry. The executor must be shut down by its owner when it's not needed anymore.
+    *
+    * @return a new executor to run background refreshes on
+    */
+   public static ScheduledExecutorService createExecutor()
+   {
+      return Executors.newScheduledThreadPool(2, new ThreadFactory()
+      {
+         private final AtomicInteger count = new AtomicInteger();
+
+         public Thread newThread(Runnable r)
+         {
+            Thread thread = new Thread(r, "WSRP ProducerInfo refresher " + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+         }
+      });
+   }
+
+   /**
+    * Determines whether background refreshes can currently be performed, i.e. whether the registry the ProducerInfo
+    * belongs to is started.
+    *
+    * @return <code>true</code> if background refreshes can be scheduled, <code>false</code> otherwise
+    */
+   boolean canRefreshInBackground()
+   {
+      return getExecutor() != null;
+   }
+
+   private ScheduledExecutorService getExecutor()
+   {
+      final ConsumerRegistrySPI registry = producerInfo.getRegistry();
+      return registry instanceof AbstractConsumerRegistry ? ((AbstractConsumerRegistry)registry).getRefreshExecutor() : null;
+   }
+
+   /**
+    * Records that stale metadata is being used and schedules a background refresh if none is already in flight and
+    * we're not currently backing off after failed attempts.
+    *
+    * @return <code>true</code> if a refresh was scheduled, <code>false</code> otherwise
+    */
+   boolean staleMetadataUsed()
+   {
+      staleServed.incrementAndGet();
+
+      final ScheduledExecutorService executor = getExecutor();
+      if (executor == null || System.currentTimeMillis() < nextAttemptAllowedAt || !startRefreshing())
+      {
+         return false;
+      }
+
+      // the refresh runs once the triggering request is over so only propagate what's not bound to it: the context class loader,
+      // which is specific to the portal container the request was made in and is needed to resolve web service and extension classes
+      final ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+      final long jitter = maximumJitter > 0 ? (long)(random.nextDouble() * maximumJitter) : 0;
+      try
+      {
+         pendingRefresh.set(executor.schedule(new Runnable()
+         {
+            public void run()
+            {
+               final Thread thread = Thread.currentThread();
+               final ClassLoader previous = thread.getContextClassLoader();
+               thread.setContextClassLoader(classLoader);
+               try
+               {
+                  refresh();
+               }
+               finally
+               {
+                  thread.setContextClassLoader(previous);
+               }
+            }
+         }, jitter, TimeUnit.MILLISECONDS));
+         scheduledRefreshes.incrementAndGet();
+         return true;
+      }
+      catch (RejectedExecutionException e)
+      {
+         refreshing.set(false);
+         log.debug("Couldn't schedule refresh of producer '" + producerInfo.getId() + "'", e);
+         return false;
+      }
+   }
+
+   private boolean startRefreshing()
+   {
+      if (refreshing.compareAndSet(false, true))
+      {
+         return true;
+      }
+
+      // a refresh cancelled before it could run, because its registry was stopped, never resets the flag itself
+      final Future<?> pending = pendingRefresh.get();
+      return pending != null && pending.isCancelled() && pendingRefresh.compareAndSet(pending, null);
+   }
+
+   private void refresh()
+   {
+      final long start = System.currentTimeMillis();
+      try
+      {
+         RefreshResult result = producerInfo.backgroundRefresh();
+         if (RefreshResult.Status.FAILURE.equals(result.getStatus()))
+         {
+            failed(null);
+         }
+         else
+         {
+            consecutiveFailures = 0;
+            nextAttemptAllowedAt = 0;
+            successfulRefreshes.incrementAndGet();
+         }
+      }
+      catch (Exception e)
+      {
+         failed(e);
+      }
+      finally
+      {
+         lastRefreshDuration = System.currentTimeMillis() - start;
+         refreshing.set(false);
+      }
+   }
+
+   private void failed(Exception e)
+   {
+      failedRefreshes.incrementAndGet();
+      final int failures = ++consecutiveFailures;
+      final long backoff = Math.min(maximumBackoff, initialBackoff << Math.min(failures - 1, 30));
+      nextAttemptAllowedAt = System.currentTimeMillis() + backoff;
+      log.debug("Background refresh of producer '" + producerInfo.getId() + "' failed " + failures
+         + " time(s) in a row, next attempt in " + backoff + "ms.", e);
+   }
+
+   public boolean isEnabled()
+   {
+      return enabled;
+   }
+
+   public void setEnabled(boolean enabled)
+   {
+      this.enabled = enabled;
+   }
+
+   public boolean isRefreshing()
+   {
+      return refreshing.get();
+   }
+
+   public long getMaximumJitter()
+   {
+      return maximumJitter;
+   }
+
+   public void setMaximumJitter(long maximumJitter)
+   {
+      this.maximumJitter = maximumJitter;
+   }
+
+   public long getInitialBackoff()
+   {
+      return initialBackoff;
+   }
+
+   public void setInitialBackoff(long initialBackoff)
+   {
+      this.initialBackoff = initialBackoff;
+   }
+
+   public long getMaximumBackoff()
+   {
+      return maximumBackoff;
+   }
+
+   public void setMaximumBackoff(long maximumBackoff)
+   {
+      this.maximumBackoff = maximumBackoff;
+   }
+
+   public int getConsecutiveFailures()
+   {
+      return consecutiveFailures;
+   }
+
+   /** @return how many times stale metadata was used while waiting for a background refresh */
+   public long getStaleServedCount()
+   {
+      return staleServed.get();
+   }
+
+   public long getScheduledRefreshCount()
+   {
+      return scheduledRefreshes.get();
+   }
+
+   public long getSuccessfulRefreshCount()
+   {
+      return successfulRefreshes.get();
+   }
+
+   public long getFailedRefreshCount()
+   {
+      return failedRefreshes.get();
+   }
+
+   /** @return the duration in milliseconds of the last background refresh, <code>-1</code> if none happened yet */
+   public long getLastRefreshDuration()
+   {
+      return lastRefreshDuration;
+   }
+}
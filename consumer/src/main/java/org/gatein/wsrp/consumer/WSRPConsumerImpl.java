@@ -34,15 +34,17 @@ import org.gatein.pc.api.PortletContext;
 import org.gatein.pc.api.PortletInvokerException;
 import org.gatein.pc.api.PortletStateType;
 import org.gatein.pc.api.PortletStatus;
+import org.gatein.pc.api.invocation.EventInvocation;
 import org.gatein.pc.api.invocation.PortletInvocation;
+import org.gatein.pc.api.invocation.RenderInvocation;
 import org.gatein.pc.api.invocation.response.PortletInvocationResponse;
+import org.gatein.pc.api.spi.PortletInvocationContext;
 import org.gatein.pc.api.spi.UserContext;
 import org.gatein.pc.api.state.DestroyCloneFailure;
 import org.gatein.pc.api.state.PropertyChange;
 import org.gatein.pc.api.state.PropertyMap;
 import org.gatein.pc.portlet.impl.spi.AbstractPortletInvocationContext;
 import org.gatein.pc.portlet.state.SimplePropertyMap;
-import org.gatein.wsrp.UserContextConverter;
 import org.gatein.wsrp.WSRPConstants;
 import org.gatein.wsrp.WSRPConsumer;
 import org.gatein.wsrp.WSRPTypeFactory;
@@ -50,6 +52,7 @@ import org.gatein.wsrp.WSRPUtils;
 import org.gatein.wsrp.api.extensions.DefaultConsumerExtensionAccessor;
 import org.gatein.wsrp.api.session.SessionEvent;
 import org.gatein.wsrp.consumer.handlers.InvocationDispatcher;
+import org.gatein.wsrp.consumer.handlers.PreparedInvocation;
 import org.gatein.wsrp.consumer.handlers.ProducerSessionInformation;
 import org.gatein.wsrp.consumer.handlers.SessionHandler;
 import org.gatein.wsrp.consumer.handlers.session.SessionRegistry;
@@ -226,6 +229,16 @@ public class WSRPConsumerImpl implements WSRPConsumerSPI
       return dispatcher.dispatchAndHandle(invocation);
    }
 
+   public List<PortletInvocationResponse> invokeEvents(List<EventInvocation> invocations) throws PortletInvokerException
+   {
+      return dispatcher.dispatchAndHandleEvents(invocations);
+   }
+
+   public PreparedInvocation prepareRender(RenderInvocation invocation) throws PortletInvokerException
+   {
+      return dispatcher.prepareRender(invocation);
+   }
+
    public PortletContext createClone(PortletStateType stateType, PortletContext portletContext) throws IllegalArgumentException, PortletInvokerException, UnsupportedOperationException
    {
       ParameterValidation.throwIllegalArgExceptionIfNull(portletContext, "PortletContext");
@@ -729,7 +742,8 @@ public class WSRPConsumerImpl implements WSRPConsumerSPI
             return null;
          }
 
-         return UserContextConverter.createWSRPUserContextFrom(userContext, userContextKey, null);
+         // converting the user profile is costly so reuse the conversion cached in the user's session if nothing changed
+         return CachedUserContext.getWSRPUserContextFrom(getExistingHttpSession(invocation), userContext, userContextKey, null);
       }
       return null;
    }
@@ -770,6 +784,21 @@ public class WSRPConsumerImpl implements WSRPConsumerSPI
       return getHttpRequest(invocation).getSession();
    }
 
+   private static HttpSession getExistingHttpSession(PortletInvocation invocation)
+   {
+      final PortletInvocationContext context = invocation.getContext();
+      if (context instanceof AbstractPortletInvocationContext)
+      {
+         final HttpServletRequest request = ((AbstractPortletInvocationContext)context).getClientRequest();
+         if (request != null)
+         {
+            return request.getSession(false);
+         }
+      }
+
+      return null;
+   }
+
 
    public void onSessionEvent(SessionEvent event)
    {
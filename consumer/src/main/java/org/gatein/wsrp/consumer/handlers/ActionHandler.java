@@ -63,7 +63,12 @@ public class ActionHandler extends NavigationalStateUpdatingHandler<ActionInvoca
 {
    public ActionHandler(WSRPConsumerImpl consumer)
    {
-      super(consumer);
+      this(consumer, null);
+   }
+
+   public ActionHandler(WSRPConsumerImpl consumer, MarkupCache markupCache)
+   {
+      super(consumer, markupCache);
    }
 
    /*@Override
@@ -23,12 +23,15 @@
 
 package org.gatein.wsrp.consumer.handlers;
 
-import org.gatein.common.io.IOTools;
 import org.gatein.common.util.MultiValuedPropertyMap;
 import org.gatein.common.util.Tools;
+import org.gatein.pc.api.invocation.ResourceInvocation;
+import org.gatein.pc.api.invocation.response.ContentResponse;
+import org.gatein.pc.api.invocation.response.PortletInvocationResponse;
 import org.gatein.pc.api.invocation.response.ResponseProperties;
 import org.gatein.wsrp.MIMEUtils;
 import org.gatein.wsrp.WSRPTypeFactory;
+import org.gatein.wsrp.api.servlet.ServletAccess;
 import org.gatein.wsrp.consumer.spi.WSRPConsumerSPI;
 import org.gatein.wsrp.handler.CookieUtil;
 import org.gatein.wsrp.handler.RequestHeaderClientHandler;
@@ -37,28 +40,93 @@ import org.oasis.wsrp.v2.NamedString;
 import org.oasis.wsrp.v2.ResourceContext;
 import org.oasis.wsrp.v2.ResourceResponse;
 
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLConnection;
 import java.net.URLEncoder;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
 /**
+ * Retrieves resources directly from the producer using their URL instead of going through the WSRP getResource operation.
+ * <p/>
+ * Resources that don't need to be rewritten and are large enough (see {@link #STREAMING_THRESHOLD_PROPERTY}) are streamed directly to the
+ * portal's response, when available via {@link ServletAccess}, using a fixed-size buffer so that they don't need to be held in memory.
+ * Rewriting is only performed on resources that are small enough (see {@link #MAXIMUM_REWRITABLE_SIZE_PROPERTY}), other resources being
+ * passed through untouched.
+ * <p/>
+ * Conditional and partial requests headers from the client (see {@link #FORWARDED_REQUEST_HEADERS}) are only forwarded to the producer when the
+ * resource can be streamed since the producer's response status (e.g. partial content or not modified) can then be passed as-is to the client.
+ * When a resource is streamed, the producer's headers and cookies are directly written to the portal's response, otherwise, they are passed
+ * along with the returned content.
+ *
  * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
  * @version $Revision$
  */
 public class DirectResourceServingHandler extends ResourceHandler
 {
+   /** System property specifying the size (in bytes) above which resources are streamed to the portal's response, a negative value deactivating streaming */
+   public static final String STREAMING_THRESHOLD_PROPERTY = "org.gatein.wsrp.consumer.resources.streamingThreshold";
+   /** System property specifying the maximum size (in bytes) of resources that are rewritten */
+   public static final String MAXIMUM_REWRITABLE_SIZE_PROPERTY = "org.gatein.wsrp.consumer.resources.maximumRewritableSize";
+
+   public static final int DEFAULT_STREAMING_THRESHOLD = 64 * 1024;
+   public static final int DEFAULT_MAXIMUM_REWRITABLE_SIZE = 1024 * 1024;
+
+   /** Request headers from the client that are forwarded to the producer so that conditional and partial requests work */
+   private static final List<String> FORWARDED_REQUEST_HEADERS = Arrays.asList("Range", "If-Range", "If-None-Match", "If-Modified-Since");
+
+   /** Headers (lower-cased) that are handled by the servlet container and mustn't be passed along to the client */
+   private static final List<String> IGNORED_RESPONSE_HEADERS = Arrays.asList("transfer-encoding", "connection", "keep-alive", "content-length");
+
+   private static final byte[] NO_CONTENT = new byte[0];
+
+   private int streamingThreshold = getIntProperty(STREAMING_THRESHOLD_PROPERTY, DEFAULT_STREAMING_THRESHOLD);
+   private int maximumRewritableSize = getIntProperty(MAXIMUM_REWRITABLE_SIZE_PROPERTY, DEFAULT_MAXIMUM_REWRITABLE_SIZE);
+
    protected DirectResourceServingHandler(WSRPConsumerSPI consumer)
    {
       super(consumer);
    }
 
+   private static int getIntProperty(String name, int defaultValue)
+   {
+      final String value = System.getProperty(name);
+      if (value != null)
+      {
+         try
+         {
+            return Integer.parseInt(value.trim());
+         }
+         catch (NumberFormatException e)
+         {
+            log.info("Ignoring invalid value '" + value + "' for " + name + ", using " + defaultValue + " instead.");
+         }
+      }
+      return defaultValue;
+   }
+
+   void setStreamingThreshold(int streamingThreshold)
+   {
+      this.streamingThreshold = streamingThreshold;
+   }
+
+   void setMaximumRewritableSize(int maximumRewritableSize)
+   {
+      this.maximumRewritableSize = maximumRewritableSize;
+   }
+
    @Override
    protected ResourceResponse performRequest(GetResource getResource) throws Exception
    {
@@ -75,6 +143,22 @@ public class DirectResourceServingHandler extends ResourceHandler
          urlConnection.addRequestProperty(CookieUtil.COOKIE, cookieValue);
       }
 
+      // forward headers needed for partial and conditional requests, only if we can pass the producer's response status along
+      final HttpServletResponse servletResponse = ServletAccess.getResponse();
+      final boolean canStream = canStream(servletResponse);
+      final HttpServletRequest servletRequest = ServletAccess.getRequest();
+      if (canStream && servletRequest != null)
+      {
+         for (String header : FORWARDED_REQUEST_HEADERS)
+         {
+            final String value = servletRequest.getHeader(header);
+            if (value != null)
+            {
+               urlConnection.addRequestProperty(header, value);
+            }
+         }
+      }
+
        // adjusts the http method and adds form parameters, if any
       if (urlConnection instanceof HttpURLConnection)
       {
@@ -121,7 +205,7 @@ public class DirectResourceServingHandler extends ResourceHandler
          if (key != null)
          {
             List<String> values = entry.getValue();
-            if (values != null)
+            if (values != null && !IGNORED_RESPONSE_HEADERS.contains(key.toLowerCase()))
             {
                if (CookieUtil.SET_COOKIE.equals(key))
                {
@@ -143,33 +227,182 @@ public class DirectResourceServingHandler extends ResourceHandler
          }
       }
 
-      int length = urlConnection.getContentLength();
-      // if length is not known, use a default value
-      length = (length > 0 ? length : Tools.DEFAULT_BUFFER_SIZE * 8);
-      byte[] bytes = IOTools.getBytes(urlConnection.getInputStream(), length);
+      final int length = urlConnection.getContentLength();
+      final boolean needsRewriting = MIMEUtils.needsRewriting(contentType) && length <= maximumRewritableSize;
+      final int status = urlConnection instanceof HttpURLConnection ? ((HttpURLConnection)urlConnection).getResponseCode() : HttpURLConnection.HTTP_OK;
+
+      // partial and not modified responses can only result from forwarded headers and must be passed as-is to the client
+      final boolean passThrough = status == HttpURLConnection.HTTP_PARTIAL || status == HttpURLConnection.HTTP_NOT_MODIFIED;
 
       ResourceContext resourceContext;
-      // GTNCOMMON-14
-      if (MIMEUtils.isInterpretableAsText(contentType))
+      if (canStream && (passThrough || (!needsRewriting && (length < 0 || length >= streamingThreshold))))
+      {
+         // pipe the resource, headers and cookies directly to the portal's response, the ContentResponse we return will therefore be empty
+         stream(urlConnection, status, length, props, servletResponse);
+         resourceContext = new DirectResourceContext(contentType, NO_CONTENT, null);
+         resourceContext.setRequiresRewriting(false);
+      }
+      else
+      {
+         byte[] bytes = readContent(urlConnection.getInputStream(), length);
+
+         // text resources are kept as bytes: MimeResponseHandler will only decode them if they actually need to be rewritten
+         // (GTNCOMMON-14)
+         resourceContext = new DirectResourceContext(contentType, bytes, props);
+         resourceContext.setRequiresRewriting(needsRewriting && bytes.length <= maximumRewritableSize);
+      }
+
+      return WSRPTypeFactory.createResourceResponse(resourceContext);
+   }
+
+   @Override
+   protected PortletInvocationResponse createContentResponse(ResourceContext mimeResponse, ResourceInvocation invocation, ResponseProperties properties, String mimeType, byte[] bytes, String markup, org.gatein.pc.api.cache.CacheControl cacheControl)
+   {
+      // pass the producer's headers and cookies along if they haven't been directly written to the portal's response
+      if (mimeResponse instanceof DirectResourceContext)
+      {
+         properties = ((DirectResourceContext)mimeResponse).mergeInto(properties);
+      }
+
+      // since we don't decode text resources anymore, make sure we report the encoding the producer used
+      if (markup == null && MIMEUtils.isInterpretableAsText(mimeType))
       {
-         // determine the charset of the content, defaulting to UTF-8 if there isn't one
-         String charset = MIMEUtils.getCharsetFrom(contentType);
-         String markup = new String(bytes, charset);
-         resourceContext = WSRPTypeFactory.createResourceContext(contentType, markup, null);
+         return new ContentResponse(properties, null, mimeType, MIMEUtils.getCharsetFrom(mimeType), bytes, cacheControl);
+      }
+
+      return super.createContentResponse(mimeResponse, invocation, properties, mimeType, bytes, markup, cacheControl);
+   }
+
+   private boolean canStream(HttpServletResponse servletResponse)
+   {
+      return streamingThreshold >= 0 && servletResponse != null && !servletResponse.isCommitted();
+   }
 
-         // process markup if needed
-         if (MIMEUtils.needsRewriting(contentType))
+   private void stream(URLConnection urlConnection, int status, int length, ResponseProperties props, HttpServletResponse servletResponse) throws IOException
+   {
+      // preserve partial content and not modified statuses
+      servletResponse.setStatus(status);
+
+      final MultiValuedPropertyMap<String> transportHeaders = props.getTransportHeaders();
+      for (String name : transportHeaders.keySet())
+      {
+         for (String value : transportHeaders.getValues(name))
          {
-            resourceContext.setRequiresRewriting(true);
+            servletResponse.addHeader(name, value);
          }
       }
-      else
+      for (Cookie cookie : props.getCookies())
       {
-         resourceContext = WSRPTypeFactory.createResourceContext(contentType, null, bytes);
-         resourceContext.setRequiresRewriting(false);
+         servletResponse.addCookie(cookie);
+      }
+      if (length >= 0)
+      {
+         servletResponse.setContentLength(length);
       }
 
+      // not modified responses don't have a body
+      if (status == HttpURLConnection.HTTP_NOT_MODIFIED)
+      {
+         return;
+      }
 
-      return WSRPTypeFactory.createResourceResponse(resourceContext);
+      final InputStream in = urlConnection.getInputStream();
+      try
+      {
+         final OutputStream out = servletResponse.getOutputStream();
+         final byte[] buffer = new byte[Tools.DEFAULT_BUFFER_SIZE];
+         int read;
+         while ((read = in.read(buffer)) != -1)
+         {
+            out.write(buffer, 0, read);
+         }
+         out.flush();
+      }
+      finally
+      {
+         in.close();
+      }
+   }
+
+   /**
+    * Reads the specified stream, allocating a single array of the appropriate size if the length of the content is known.
+    *
+    * @param in     the stream to read
+    * @param length the length of the content or a negative value if unknown
+    * @return the content of the stream
+    * @throws IOException
+    */
+   static byte[] readContent(InputStream in, int length) throws IOException
+   {
+      try
+      {
+         if (length >= 0)
+         {
+            final byte[] bytes = new byte[length];
+            int offset = 0;
+            while (offset < length)
+            {
+               final int read = in.read(bytes, offset, length - offset);
+               if (read == -1)
+               {
+                  throw new EOFException("Expected " + length + " bytes but only got " + offset);
+               }
+               offset += read;
+            }
+            return bytes;
+         }
+         else
+         {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream(Tools.DEFAULT_BUFFER_SIZE * 8);
+            final byte[] buffer = new byte[Tools.DEFAULT_BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1)
+            {
+               out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+         }
+      }
+      finally
+      {
+         in.close();
+      }
+   }
+
+   /** Resource content retrieved directly from the producer, along with the producer's headers and cookies if they haven't been written to the portal's response. */
+   private static class DirectResourceContext extends ResourceContext
+   {
+      private final ResponseProperties properties;
+
+      private DirectResourceContext(String mimeType, byte[] content, ResponseProperties properties)
+      {
+         // content might legitimately be empty so we can't use WSRPTypeFactory
+         setMimeType(mimeType);
+         setItemBinary(content);
+         this.properties = properties;
+      }
+
+      private ResponseProperties mergeInto(ResponseProperties other)
+      {
+         if (properties == null)
+         {
+            return other;
+         }
+         if (other == null)
+         {
+            return properties;
+         }
+
+         final MultiValuedPropertyMap<String> transportHeaders = properties.getTransportHeaders();
+         for (String name : transportHeaders.keySet())
+         {
+            for (String value : transportHeaders.getValues(name))
+            {
+               other.getTransportHeaders().addValue(name, value);
+            }
+         }
+         other.getCookies().addAll(properties.getCookies());
+         return other;
+      }
    }
 }
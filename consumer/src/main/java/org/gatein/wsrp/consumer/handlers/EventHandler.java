@@ -28,6 +28,7 @@ import org.gatein.pc.api.PortletInvokerException;
 import org.gatein.pc.api.invocation.EventInvocation;
 import org.gatein.pc.api.invocation.response.ErrorResponse;
 import org.gatein.pc.api.invocation.response.PortletInvocationResponse;
+import org.gatein.pc.api.invocation.response.UpdateNavigationalStateResponse;
 import org.gatein.pc.api.spi.InstanceContext;
 import org.gatein.pc.api.state.AccessMode;
 import org.gatein.wsrp.WSRPTypeFactory;
@@ -40,6 +41,9 @@ import org.oasis.wsrp.v2.Extension;
 import org.oasis.wsrp.v2.HandleEvents;
 import org.oasis.wsrp.v2.HandleEventsFailed;
 import org.oasis.wsrp.v2.HandleEventsResponse;
+import org.oasis.wsrp.v2.InvalidCookie;
+import org.oasis.wsrp.v2.InvalidSession;
+import org.oasis.wsrp.v2.OperationNotSupported;
 import org.oasis.wsrp.v2.PortletContext;
 import org.oasis.wsrp.v2.RuntimeContext;
 import org.oasis.wsrp.v2.UpdateResponse;
@@ -47,6 +51,9 @@ import org.oasis.wsrp.v2.UpdateResponse;
 import javax.xml.namespace.QName;
 import javax.xml.ws.Holder;
 import java.io.Serializable;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
@@ -58,7 +65,12 @@ public class EventHandler extends NavigationalStateUpdatingHandler<EventInvocati
 {
    public EventHandler(WSRPConsumerImpl consumer)
    {
-      super(consumer);
+      this(consumer, null);
+   }
+
+   public EventHandler(WSRPConsumerImpl consumer, MarkupCache markupCache)
+   {
+      super(consumer, markupCache);
    }
 
    /*@Override
@@ -73,6 +85,132 @@ public class EventHandler extends NavigationalStateUpdatingHandler<EventInvocati
       request.setRegistrationContext(consumer.getRegistrationContext());
    }*/
 
+   /**
+    * Handles the specified event invocations, which must all target the same portlet window, using a single handleEvents WSRP call instead
+    * of one call per event. Failures reported by the producer for specific events are mapped back to the invocation that triggered them
+    * while the producer's update response, which reflects the processing of all the events, is associated with the last successfully
+    * processed event. Other successfully processed events are associated with an empty response.
+    * <p/>
+    * Events are only handled one by one if the producer rejected the whole batch before processing any of its events (e.g. because it doesn't
+    * support the operation or because the consumer's cookies or session were invalid). Any other failure might happen after the producer started
+    * processing events so events are not sent again, to avoid delivering them twice, and an error is reported for each of them instead.
+    *
+    * @param invocations the event invocations targeting the same portlet window, in the order they were emitted
+    * @return the responses associated with each invocation, in the same order
+    * @throws PortletInvokerException
+    */
+   public List<PortletInvocationResponse> handle(List<EventInvocation> invocations) throws PortletInvokerException
+   {
+      ParameterValidation.throwIllegalArgExceptionIfNull(invocations, "event invocations");
+
+      final int size = invocations.size();
+      if (size == 0)
+      {
+         return Collections.emptyList();
+      }
+      else if (size == 1)
+      {
+         return Collections.singletonList(handle(invocations.get(0)));
+      }
+
+      // use the first invocation to extract common information, add the other events to the request
+      final EventInvocation first = invocations.get(0);
+      RequestPrecursor<EventInvocation> requestPrecursor = new RequestPrecursor<EventInvocation>(consumer, first);
+      HandleEvents request = prepareRequest(requestPrecursor, first);
+      final List<Event> events = request.getEventParams().getEvents();
+      for (EventInvocation invocation : invocations.subList(1, size))
+      {
+         events.add(createEventFrom(invocation));
+      }
+
+      HandleEventsResponse response;
+      try
+      {
+         response = performRequest(request, first);
+      }
+      catch (Exception e)
+      {
+         List<PortletInvocationResponse> responses = new ArrayList<PortletInvocationResponse>(size);
+         if (isRejectedUpFront(e))
+         {
+            // no event was processed and the single event path knows how to recover from errors (cookies, sessions...) so fall back to it
+            log.debug("Producer rejected handling " + size + " events in a single call, handling them separately.", e);
+            for (EventInvocation invocation : invocations)
+            {
+               responses.add(handle(invocation));
+            }
+         }
+         else
+         {
+            // we don't know which events were processed so don't risk delivering them again
+            log.error("Couldn't handle " + size + " events in a single call.", e);
+            for (EventInvocation invocation : invocations)
+            {
+               responses.add(new ErrorResponse("Couldn't process event " + invocation.getName() + ": " + e.getLocalizedMessage()));
+            }
+         }
+         return responses;
+      }
+
+      return processResponses(response, invocations, requestPrecursor);
+   }
+
+   /**
+    * Determines whether the specified error means that the producer refused the batched request as a whole, before processing any of its events.
+    *
+    * @param error the error that occurred while performing the batched request
+    * @return <code>true</code> if no event of the batch was processed by the producer, <code>false</code> otherwise
+    */
+   private static boolean isRejectedUpFront(Exception error)
+   {
+      return error instanceof OperationNotSupported || error instanceof InvalidCookie || error instanceof InvalidSession;
+   }
+
+   private List<PortletInvocationResponse> processResponses(HandleEventsResponse response, List<EventInvocation> invocations, RequestPrecursor<EventInvocation> requestPrecursor)
+   {
+      final int size = invocations.size();
+      PortletInvocationResponse[] responses = new PortletInvocationResponse[size];
+
+      // map failures back to the events that caused them
+      final List<HandleEventsFailed> failed = WSRPUtils.replaceByEmptyListIfNeeded(response.getFailedEvents());
+      for (HandleEventsFailed failure : failed)
+      {
+         String reason = failure.getReason() != null ? failure.getReason().getValue() : null;
+         for (BigInteger index : WSRPUtils.replaceByEmptyListIfNeeded(failure.getIndex()))
+         {
+            int i = index.intValue();
+            if (i >= 0 && i < size)
+            {
+               responses[i] = new ErrorResponse("Couldn't process event " + invocations.get(i).getName() + ": " + reason);
+            }
+         }
+      }
+
+      // the update response reflects the processing of all the events so only associate it with the last successful one
+      final UpdateResponse updateResponse = response.getUpdateResponse();
+      for (int i = size - 1; i >= 0; i--)
+      {
+         if (responses[i] == null)
+         {
+            if (updateResponse != null)
+            {
+               responses[i] = processUpdateResponse(invocations.get(i), requestPrecursor, updateResponse, response);
+            }
+            break;
+         }
+      }
+
+      for (int i = 0; i < size; i++)
+      {
+         if (responses[i] == null)
+         {
+            responses[i] = new UpdateNavigationalStateResponse();
+         }
+      }
+
+      return Arrays.asList(responses);
+   }
+
    @Override
    protected RuntimeContext getRuntimeContextFrom(HandleEvents request)
    {
@@ -130,9 +268,7 @@ public class EventHandler extends NavigationalStateUpdatingHandler<EventInvocati
       }
 
       // events
-      QName name = invocation.getName();
-      Serializable payload = invocation.getPayload();
-      Event event = WSRPTypeFactory.createEvent(name, payload);
+      Event event = createEventFrom(invocation);
       EventParams eventParams = WSRPTypeFactory.createEventParams(Collections.singletonList(event), WSRPUtils.getStateChangeFromAccessMode(accessMode));
       eventParams.getExtensions().addAll(ExtensionAccess.getConsumerExtensionAccessor().getRequestExtensionsFor(EventParams.class));
 
@@ -140,6 +276,13 @@ public class EventHandler extends NavigationalStateUpdatingHandler<EventInvocati
          requestPrecursor.getRuntimeContext(), requestPrecursor.getUserContext(), requestPrecursor.getMarkupParams(), eventParams);
    }
 
+   private Event createEventFrom(EventInvocation invocation)
+   {
+      QName name = invocation.getName();
+      Serializable payload = invocation.getPayload();
+      return WSRPTypeFactory.createEvent(name, payload);
+   }
+
    @Override
    protected PortletInvocationResponse processResponse(HandleEventsResponse response, EventInvocation invocation, RequestPrecursor<EventInvocation> requestPrecursor) throws PortletInvokerException
    {
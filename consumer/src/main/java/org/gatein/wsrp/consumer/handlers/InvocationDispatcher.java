@@ -42,6 +42,10 @@ import org.gatein.wsrp.consumer.WSRPConsumerImpl;
 import org.gatein.wsrp.spec.v2.WSRP2Constants;
 import org.gatein.wsrp.spec.v2.WSRP2RewritingConstants;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -63,10 +67,11 @@ public class InvocationDispatcher
    public InvocationDispatcher(WSRPConsumerImpl consumer)
    {
       this.consumer = consumer;
-      actionHandler = new ActionHandler(consumer);
-      renderHandler = new RenderHandler(consumer);
+      final MarkupCache markupCache = new MarkupCache(consumer.getProducerId());
+      actionHandler = new ActionHandler(consumer, markupCache);
+      renderHandler = new RenderHandler(consumer, markupCache);
       resourceHandler = new ResourceHandler(consumer);
-      eventHandler = new EventHandler(consumer);
+      eventHandler = new EventHandler(consumer, markupCache);
       directResourceHandler = new DirectResourceServingHandler(consumer);
    }
 
@@ -188,4 +193,139 @@ public class InvocationDispatcher
          ExtensionAccess.getConsumerExtensionAccessor().clear();
       }
    }
+
+   /**
+    * Prepares the specified render invocation so that its WSRP call can be performed on a different thread, see {@link PreparedInvocation}. As with {@link
+    * #dispatchAndHandle(org.gatein.pc.api.invocation.PortletInvocation)}, the consumer-side {@link InvocationHandlerDelegate} is given a chance to pre-process the
+    * invocation when it is prepared and to post-process the response when the returned PreparedInvocation is completed.
+    *
+    * @param invocation the render invocation to prepare
+    * @return a PreparedInvocation which WSRP call can be performed on any thread
+    * @throws PortletInvokerException
+    */
+   public PreparedInvocation prepareRender(RenderInvocation invocation) throws PortletInvokerException
+   {
+      final InvocationHandlerDelegate delegate = InvocationHandlerDelegate.consumerDelegate();
+      if (delegate != null)
+      {
+         delegate.processInvocation(invocation);
+      }
+
+      final PreparedInvocation prepared;
+      try
+      {
+         prepared = renderHandler.prepare(invocation);
+      }
+      finally
+      {
+         // request extensions have been added to the prepared request
+         ExtensionAccess.getConsumerExtensionAccessor().clear();
+      }
+
+      return new PreparedInvocation()
+      {
+         public PortletInvocation getInvocation()
+         {
+            return prepared.getInvocation();
+         }
+
+         public void perform()
+         {
+            prepared.perform();
+         }
+
+         public PortletInvocationResponse complete() throws PortletInvokerException
+         {
+            try
+            {
+               final PortletInvocationResponse response = prepared.complete();
+               if (delegate != null)
+               {
+                  delegate.processInvocationResponse(response, prepared.getInvocation());
+               }
+               return response;
+            }
+            finally
+            {
+               ExtensionAccess.getConsumerExtensionAccessor().clear();
+            }
+         }
+      };
+   }
+
+   /**
+    * Handles the specified event invocations, coalescing the ones targeting the same portlet window into a single handleEvents WSRP call. As
+    * with {@link #dispatchAndHandle(org.gatein.pc.api.invocation.PortletInvocation)}, the consumer-side {@link InvocationHandlerDelegate}
+    * is given a chance to pre- and post-process each invocation.
+    *
+    * @param invocations the event invocations to handle, in the order they were emitted
+    * @return the responses associated with each invocation, in the same order
+    * @throws PortletInvokerException
+    */
+   public List<PortletInvocationResponse> dispatchAndHandleEvents(List<EventInvocation> invocations) throws PortletInvokerException
+   {
+      ParameterValidation.throwIllegalArgExceptionIfNull(invocations, "event invocations");
+
+      final int size = invocations.size();
+      final PortletInvocationResponse[] responses = new PortletInvocationResponse[size];
+
+      final ProducerInfo producerInfo = consumer.getProducerInfo();
+      if (!producerInfo.getSupportedOptions().contains(WSRP2Constants.OPTIONS_EVENTS))
+      {
+         Arrays.fill(responses, new ErrorResponse("Producer " + producerInfo.getId() + " doesn't support event processing."));
+         return Arrays.asList(responses);
+      }
+
+      // group invocations by target window, preserving the order in which events were emitted within each group
+      Map<String, List<Integer>> windowToIndices = new LinkedHashMap<String, List<Integer>>();
+      for (int i = 0; i < size; i++)
+      {
+         EventInvocation invocation = invocations.get(i);
+         String key = invocation.getWindowContext().getId() + '/' + WSRPConsumerImpl.getPortletContext(invocation).getId();
+         List<Integer> indices = windowToIndices.get(key);
+         if (indices == null)
+         {
+            indices = new ArrayList<Integer>();
+            windowToIndices.put(key, indices);
+         }
+         indices.add(i);
+      }
+
+      final InvocationHandlerDelegate delegate = InvocationHandlerDelegate.consumerDelegate();
+      for (List<Integer> indices : windowToIndices.values())
+      {
+         List<EventInvocation> windowInvocations = new ArrayList<EventInvocation>(indices.size());
+         for (Integer index : indices)
+         {
+            EventInvocation invocation = invocations.get(index);
+            if (delegate != null)
+            {
+               delegate.processInvocation(invocation);
+            }
+            windowInvocations.add(invocation);
+         }
+
+         try
+         {
+            final List<PortletInvocationResponse> windowResponses = eventHandler.handle(windowInvocations);
+
+            for (int i = 0; i < indices.size(); i++)
+            {
+               final PortletInvocationResponse response = windowResponses.get(i);
+               if (delegate != null)
+               {
+                  delegate.processInvocationResponse(response, windowInvocations.get(i));
+               }
+               responses[indices.get(i)] = response;
+            }
+         }
+         finally
+         {
+            // clear any extensions potentially set during this particular interaction
+            ExtensionAccess.getConsumerExtensionAccessor().clear();
+         }
+      }
+
+      return Arrays.asList(responses);
+   }
 }
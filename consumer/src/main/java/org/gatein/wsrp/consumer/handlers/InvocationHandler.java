@@ -38,9 +38,11 @@ import org.gatein.wsrp.WSRPTypeFactory;
 import org.gatein.wsrp.WSRPUtils;
 import org.gatein.wsrp.api.extensions.ExtensionAccess;
 import org.gatein.wsrp.api.extensions.UnmarshalledExtension;
+import org.gatein.wsrp.api.servlet.ServletAccess;
 import org.gatein.wsrp.consumer.WSRPConsumerImpl;
 import org.gatein.wsrp.consumer.portlet.info.WSRPPortletInfo;
 import org.gatein.wsrp.consumer.spi.WSRPConsumerSPI;
+import org.gatein.wsrp.handler.RequestHeaderClientHandler;
 import org.gatein.wsrp.payload.PayloadUtils;
 import org.gatein.wsrp.spec.v2.WSRP2RewritingConstants;
 import org.oasis.wsrp.v2.Extension;
@@ -58,6 +60,8 @@ import org.oasis.wsrp.v2.UserContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import java.rmi.RemoteException;
 import java.util.Collections;
 import java.util.List;
@@ -123,21 +127,83 @@ public abstract class InvocationHandler<Invocation extends PortletInvocation, Re
       }
       catch (Exception e)
       {
-         // if we didn't get a straight PortletInvokerException (which means we already asserted that the WSRP can't deal with it), try to transform it into something we can deal with
-         if (!(e instanceof PortletInvokerException))
-         {
-            final PortletInvocationResponse response = dealWithError(e, invocation, getRuntimeContextFrom(request));
-            if (response instanceof ErrorResponse)
-            {
-               return unwrapWSRPError((ErrorResponse)response);
-            }
+         return handleError(e, invocation, request, true);
+      }
+   }
 
-            return response;
-         }
-         else
+   /**
+    * Prepares the specified invocation so that the associated WSRP call can be performed on a different thread, see {@link PreparedInvocation}. Everything requiring access
+    * to the invocation, and therefore to the current servlet request and response, is done here, on the calling thread, so that the WSRP call itself only works on the
+    * prepared WSRP request.
+    *
+    * @param invocation the initiating portlet container request that will be transformed into a WSRP request
+    * @return a PreparedInvocation which WSRP call can be performed on any thread and which then needs to be completed on the calling thread
+    * @throws PortletInvokerException
+    */
+   public PreparedInvocation prepare(Invocation invocation) throws PortletInvokerException
+   {
+      RequestPrecursor<Invocation> requestPrecursor = new RequestPrecursor<Invocation>(consumer, invocation);
+      Request request = prepareRequest(requestPrecursor, invocation);
+      prepareRuntimeContext(request, invocation);
+
+      final Response localResponse = getLocalResponse(request, invocation);
+      if (localResponse != null)
+      {
+         return new PreparedCall(invocation, requestPrecursor, request, localResponse, null, null);
+      }
+
+      // initialize cookies if needed and record the cookie information to be used when performing the call
+      SessionHandler sessionHandler = consumer.getSessionHandler();
+      try
+      {
+         sessionHandler.initCookieIfNeeded(invocation);
+         return new PreparedCall(invocation, requestPrecursor, request, null, RequestHeaderClientHandler.getCurrentGroupId(),
+            RequestHeaderClientHandler.getCurrentProducerSessionInformation());
+      }
+      finally
+      {
+         sessionHandler.resetCurrentlyHeldInformation();
+      }
+   }
+
+   private PortletInvocationResponse handleError(Exception e, Invocation invocation, Request request, boolean retry) throws PortletInvokerException
+   {
+      // if we didn't get a straight PortletInvokerException (which means we already asserted that the WSRP can't deal with it), try to transform it into something we can deal with
+      if (!(e instanceof PortletInvokerException))
+      {
+         final PortletInvocationResponse response = dealWithError(e, invocation, getRuntimeContextFrom(request), retry);
+         if (response instanceof ErrorResponse)
          {
-            throw (PortletInvokerException)e;
+            return unwrapWSRPError((ErrorResponse)response);
          }
+
+         return response;
+      }
+      else
+      {
+         throw (PortletInvokerException)e;
+      }
+   }
+
+   /**
+    * Updates the RuntimeContext of the specified request with the information identifying the portlet window targeted by the specified invocation.
+    *
+    * @param request    the request which RuntimeContext needs to be updated
+    * @param invocation the PortletInvocation that initiated the current WSRP request
+    */
+   protected void prepareRuntimeContext(Request request, PortletInvocation invocation)
+   {
+      RuntimeContext runtimeContext = getRuntimeContextFrom(request);
+
+      if (runtimeContext != null)
+      {
+         WindowContext windowContext = invocation.getWindowContext();
+         runtimeContext.setNamespacePrefix(WSRPTypeFactory.getNamespaceFrom(windowContext));
+
+         // GTNWSRP-369: InstanceContext doesn't actually provide any useful information, use WindowContext's id instead
+         /*InstanceContext instanceContext = invocation.getInstanceContext();
+         runtimeContext.setPortletInstanceKey(WSRPTypeFactory.getPortletInstanceKey(instanceContext));*/
+         runtimeContext.setPortletInstanceKey(windowContext.getId());
       }
    }
 
@@ -165,18 +231,7 @@ public abstract class InvocationHandler<Invocation extends PortletInvocation, Re
          SessionHandler sessionHandler = consumer.getSessionHandler();
 
          // prepare everything for the request
-         RuntimeContext runtimeContext = getRuntimeContextFrom(request);
-
-         if (runtimeContext != null)
-         {
-            WindowContext windowContext = invocation.getWindowContext();
-            runtimeContext.setNamespacePrefix(WSRPTypeFactory.getNamespaceFrom(windowContext));
-
-            // GTNWSRP-369: InstanceContext doesn't actually provide any useful information, use WindowContext's id instead
-            /*InstanceContext instanceContext = invocation.getInstanceContext();
-            runtimeContext.setPortletInstanceKey(WSRPTypeFactory.getPortletInstanceKey(instanceContext));*/
-            runtimeContext.setPortletInstanceKey(windowContext.getId());
-         }
+         prepareRuntimeContext(request, invocation);
 
          try
          {
@@ -213,10 +268,11 @@ public abstract class InvocationHandler<Invocation extends PortletInvocation, Re
     * @param error          the error that is to be dealt with
     * @param invocation     the invocation that caused the error to occur
     * @param runtimeContext the current WSRP RuntimeContext
+    * @param retry          whether the invocation should be attempted again if the error can be recovered from
     * @return an ErrorResponse if the error couldn't be dealt with or <code>null</code> if the error was correctly
     *         handled
     */
-   private PortletInvocationResponse dealWithError(Exception error, Invocation invocation, RuntimeContext runtimeContext) throws PortletInvokerException
+   private PortletInvocationResponse dealWithError(Exception error, Invocation invocation, RuntimeContext runtimeContext, boolean retry) throws PortletInvokerException
    {
       log.error("The portlet threw an exception", error);
 
@@ -229,6 +285,11 @@ public abstract class InvocationHandler<Invocation extends PortletInvocation, Re
          log.debug("Re-initializing cookies after InvalidCookieFault.");
          // force a producer info refresh because the invalid cookie might be due to a change of cookie policy on the producer
          consumer.refreshProducerInfo();
+         if (!retry)
+         {
+            return new ErrorResponse(error);
+         }
+
          try
          {
             sessionHandler.initCookieIfNeeded(invocation);
@@ -249,7 +310,7 @@ public abstract class InvocationHandler<Invocation extends PortletInvocation, Re
          sessionHandler.handleInvalidSessionFault(invocation, runtimeContext);
 
          // and re-attempt invocation as we can recover from this
-         return handle(invocation);
+         return retry ? handle(invocation) : new ErrorResponse(error);
       }
       else if (error instanceof InvalidRegistration)
       {
@@ -312,6 +373,18 @@ public abstract class InvocationHandler<Invocation extends PortletInvocation, Re
     */
    protected abstract RuntimeContext getRuntimeContextFrom(Request request);
 
+   /**
+    * Retrieves a response for the specified request without contacting the producer, if possible. Used by subclasses which, for example, cache responses.
+    *
+    * @param request    the WSRP request for which a response is needed
+    * @param invocation the PortletInvocation that initiated the current WSRP request
+    * @return a response that can be used instead of contacting the producer or <code>null</code> if the producer needs to be contacted
+    */
+   protected Response getLocalResponse(Request request, PortletInvocation invocation)
+   {
+      return null;
+   }
+
    /**
     * Performs the actual specific WSRP call for the specified request.
     *
@@ -370,6 +443,100 @@ public abstract class InvocationHandler<Invocation extends PortletInvocation, Re
       }
    }
 
+   /** The {@link PreparedInvocation} implementation, holding everything needed to perform the WSRP call without accessing the invocation. */
+   private class PreparedCall implements PreparedInvocation
+   {
+      private final Invocation invocation;
+      private final RequestPrecursor<Invocation> requestPrecursor;
+      private final Request request;
+      private final String portletGroupId;
+      private final ProducerSessionInformation sessionInformation;
+      private final boolean local;
+
+      // captured on the calling thread so that the web services stack can access them (e.g. to retrieve credentials) when the call is performed on another thread
+      private final HttpServletRequest servletRequest;
+      private final HttpServletResponse servletResponse;
+
+      // set by perform, made visible to the calling thread by however it waits for perform to complete
+      private Response response;
+      private Exception error;
+      private ProducerSessionInformation updatedSessionInformation;
+
+      private PreparedCall(Invocation invocation, RequestPrecursor<Invocation> requestPrecursor, Request request, Response localResponse,
+                           String portletGroupId, ProducerSessionInformation sessionInformation)
+      {
+         this.invocation = invocation;
+         this.requestPrecursor = requestPrecursor;
+         this.request = request;
+         this.response = localResponse;
+         this.local = localResponse != null;
+         this.portletGroupId = portletGroupId;
+         this.sessionInformation = sessionInformation;
+         this.servletRequest = ServletAccess.getRequest();
+         this.servletResponse = ServletAccess.getResponse();
+      }
+
+      public PortletInvocation getInvocation()
+      {
+         return invocation;
+      }
+
+      public void perform()
+      {
+         if (local)
+         {
+            return;
+         }
+
+         // bind the servlet request and response of the calling thread for the duration of the call, restoring whatever was bound before afterwards
+         final HttpServletRequest previousRequest = ServletAccess.getRequest();
+         final HttpServletResponse previousResponse = ServletAccess.getResponse();
+         ServletAccess.setRequestAndResponse(servletRequest, servletResponse);
+
+         if (sessionInformation != null)
+         {
+            RequestHeaderClientHandler.setCurrentInfo(portletGroupId, sessionInformation);
+         }
+         try
+         {
+            response = performRequest(request);
+            updatedSessionInformation = RequestHeaderClientHandler.getCurrentProducerSessionInformation();
+         }
+         catch (Exception e)
+         {
+            error = e;
+         }
+         finally
+         {
+            RequestHeaderClientHandler.resetCurrentInfo();
+            ServletAccess.setRequestAndResponse(previousRequest, previousResponse);
+         }
+      }
+
+      public PortletInvocationResponse complete() throws PortletInvokerException
+      {
+         try
+         {
+            if (error != null)
+            {
+               throw error;
+            }
+
+            if (!local)
+            {
+               consumer.getSessionHandler().updateCookiesIfNeeded(invocation, updatedSessionInformation);
+            }
+
+            return processResponse(response, invocation, requestPrecursor);
+         }
+         catch (Exception e)
+         {
+            // don't attempt the call again on this thread, we're not in a position to respect time constraints the caller might have
+            return handleError(e, invocation, request, false);
+         }
+      }
+   }
+
    /**
     * Extracts basic required elements for all invocation requests.
     *
@@ -0,0 +1,424 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2012, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wsrp.consumer.handlers;
+
+import org.gatein.common.util.ParameterValidation;
+import org.gatein.wsrp.WSRPConstants;
+import org.oasis.wsrp.v2.CacheControl;
+import org.oasis.wsrp.v2.MarkupContext;
+import org.oasis.wsrp.v2.MarkupParams;
+import org.oasis.wsrp.v2.NamedString;
+import org.oasis.wsrp.v2.NavigationalContext;
+import org.oasis.wsrp.v2.RuntimeContext;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Consumer-side cache of markup fragments as returned by a producer, honoring the producer-provided {@link CacheControl} (see section 6.1.4 of the WSRP 1.0 specification and
+ * 5.1.4 of the WSRP 2.0 specification). Fragments are keyed by producer identifier, portlet handle, navigational state, mode, window state, locales and requested MIME types. If
+ * the producer asked for the fragment to be cached {@link WSRPConstants#CACHE_PER_USER per user}, the user identifier is also used as part of the key while {@link
+ * WSRPConstants#CACHE_FOR_ALL shared} fragments are keyed without user information.
+ * <p/>
+ * Cached fragments are stored as they were received from the producer, i.e. before any URL rewriting is performed since rewritten URLs depend on the portal context at the time
+ * of the request.
+ *
+ * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
+ * @version $Revision$
+ */
+public class MarkupCache
+{
+   /** Default maximum number of fragments a cache will hold. */
+   public static final int DEFAULT_MAXIMUM_SIZE = 1000;
+
+   private final String producerId;
+   private final Map<Key, Entry> entries;
+
+   public MarkupCache(String producerId)
+   {
+      this(producerId, DEFAULT_MAXIMUM_SIZE);
+   }
+
+   public MarkupCache(String producerId, final int maximumSize)
+   {
+      ParameterValidation.throwIllegalArgExceptionIfNullOrEmpty(producerId, "Producer identifier", "MarkupCache");
+      if (maximumSize <= 0)
+      {
+         throw new IllegalArgumentException("Maximum size of a MarkupCache must be strictly positive.");
+      }
+
+      this.producerId = producerId;
+
+      // access-ordered LinkedHashMap so that we evict least recently used fragments first
+      entries = Collections.synchronizedMap(new LinkedHashMap<Key, Entry>(16, 0.75f, true)
+      {
+         @Override
+         protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest)
+         {
+            return size() > maximumSize;
+         }
+      });
+   }
+
+   /**
+    * Retrieves the cached fragment, if any, associated with the specified request parameters. Fragments cached for the specified user are looked up first, then fragments
+    * shared by all users.
+    *
+    * @param portletHandle  the handle of the portlet which markup we're looking for
+    * @param runtimeContext the RuntimeContext of the markup request, identifying the portlet window the markup is requested for
+    * @param params         the MarkupParams of the markup request
+    * @param userId         the identifier of the current user, <code>null</code> if the user is not known
+    * @return the cache entry associated with the specified parameters or <code>null</code> if no such entry exists
+    */
+   public Entry get(String portletHandle, RuntimeContext runtimeContext, MarkupParams params, String userId)
+   {
+      Entry entry = null;
+      if (userId != null)
+      {
+         entry = entries.get(new Key(producerId, portletHandle, runtimeContext, params, userId));
+      }
+
+      if (entry == null)
+      {
+         entry = entries.get(new Key(producerId, portletHandle, runtimeContext, params, null));
+      }
+
+      return entry;
+   }
+
+   /**
+    * Caches the specified fragment if its CacheControl allows it.
+    *
+    * @param portletHandle  the handle of the portlet which markup we're caching
+    * @param runtimeContext the RuntimeContext of the markup request that resulted in the specified MarkupContext
+    * @param params         the MarkupParams of the markup request that resulted in the specified MarkupContext
+    * @param userId         the identifier of the current user, <code>null</code> if the user is not known
+    * @param markupContext  the MarkupContext returned by the producer
+    * @return the new cache entry or <code>null</code> if the fragment couldn't be cached
+    */
+   public Entry put(String portletHandle, RuntimeContext runtimeContext, MarkupParams params, String userId, MarkupContext markupContext)
+   {
+      final CacheControl cacheControl = markupContext.getCacheControl();
+      if (!isCacheable(cacheControl) || (markupContext.getItemString() == null && markupContext.getItemBinary() == null))
+      {
+         return null;
+      }
+
+      final Key key = getKeyFor(portletHandle, runtimeContext, params, userId, cacheControl.getUserScope());
+      if (key == null)
+      {
+         return null;
+      }
+
+      final Entry entry = new Entry(markupContext, System.currentTimeMillis());
+      entries.put(key, entry);
+      return entry;
+   }
+
+   /**
+    * Refreshes the cache entry associated with the specified request parameters after the producer indicated that the cached fragment can still be used, updating its
+    * CacheControl if the producer provided a new one.
+    *
+    * @param portletHandle   the handle of the portlet which markup we're using
+    * @param runtimeContext  the RuntimeContext of the markup request
+    * @param params          the MarkupParams of the markup request
+    * @param userId          the identifier of the current user, <code>null</code> if the user is not known
+    * @param newCacheControl the CacheControl sent by the producer along with its <code>useCachedItem</code> answer, if any
+    * @return the MarkupContext to use in lieu of the producer's response or <code>null</code> if no cached fragment was found
+    */
+   public MarkupContext useCachedItem(String portletHandle, RuntimeContext runtimeContext, MarkupParams params, String userId, CacheControl newCacheControl)
+   {
+      final Entry entry = get(portletHandle, runtimeContext, params, userId);
+      if (entry == null)
+      {
+         return null;
+      }
+
+      MarkupContext cached = entry.getMarkupContext();
+      if (newCacheControl != null)
+      {
+         // remove any existing entry since the scope might have changed
+         invalidate(portletHandle, runtimeContext, params, userId);
+
+         cached = copyWithCacheControl(cached, newCacheControl);
+         put(portletHandle, runtimeContext, params, userId, cached);
+      }
+      else
+      {
+         // no new CacheControl: consider the fragment as valid for the same amount of time as originally
+         final Key key = getKeyFor(portletHandle, runtimeContext, params, userId, cached.getCacheControl().getUserScope());
+         if (key != null)
+         {
+            entries.put(key, new Entry(cached, System.currentTimeMillis()));
+         }
+      }
+
+      return cached;
+   }
+
+   /**
+    * Removes the cached fragments associated with the specified request parameters, both for the specified user and shared ones.
+    *
+    * @param portletHandle  the handle of the portlet
+    * @param runtimeContext the RuntimeContext of the markup request
+    * @param params         the MarkupParams of the markup request
+    * @param userId         the identifier of the current user, <code>null</code> if the user is not known
+    */
+   public void invalidate(String portletHandle, RuntimeContext runtimeContext, MarkupParams params, String userId)
+   {
+      if (userId != null)
+      {
+         entries.remove(new Key(producerId, portletHandle, runtimeContext, params, userId));
+      }
+      entries.remove(new Key(producerId, portletHandle, runtimeContext, params, null));
+   }
+
+   /**
+    * Removes all the cached fragments for the specified portlet, for example after an interaction with it changed its state.
+    *
+    * @param portletHandle the handle of the portlet which fragments we want to remove
+    */
+   public void invalidate(String portletHandle)
+   {
+      synchronized (entries)
+      {
+         for (Iterator<Key> keys = entries.keySet().iterator(); keys.hasNext(); )
+         {
+            if (keys.next().portletHandle.equals(portletHandle))
+            {
+               keys.remove();
+            }
+         }
+      }
+   }
+
+   /** Removes all cached fragments. */
+   public void clear()
+   {
+      entries.clear();
+   }
+
+   public int size()
+   {
+      return entries.size();
+   }
+
+   private Key getKeyFor(String portletHandle, RuntimeContext runtimeContext, MarkupParams params, String userId, String userScope)
+   {
+      if (WSRPConstants.CACHE_FOR_ALL.equals(userScope))
+      {
+         return new Key(producerId, portletHandle, runtimeContext, params, null);
+      }
+      else if (WSRPConstants.CACHE_PER_USER.equals(userScope) && userId != null)
+      {
+         return new Key(producerId, portletHandle, runtimeContext, params, userId);
+      }
+      else
+      {
+         // unknown scope or per-user scope without an identified user: we cannot cache the fragment
+         return null;
+      }
+   }
+
+   private static boolean isCacheable(CacheControl cacheControl)
+   {
+      // a fragment with an expiration of 0 can still be re-used if the producer validates it via its validate tag
+      return cacheControl != null && (cacheControl.getExpires() != 0 || !ParameterValidation.isNullOrEmpty(cacheControl.getValidateTag()));
+   }
+
+   private static MarkupContext copyWithCacheControl(MarkupContext original, CacheControl cacheControl)
+   {
+      MarkupContext copy = new MarkupContext();
+      copy.setMimeType(original.getMimeType());
+      copy.setItemString(original.getItemString());
+      copy.setItemBinary(original.getItemBinary());
+      copy.setLocale(original.getLocale());
+      copy.setRequiresRewriting(original.isRequiresRewriting());
+      copy.setPreferredTitle(original.getPreferredTitle());
+      copy.setCcppProfileWarning(original.getCcppProfileWarning());
+      copy.getClientAttributes().addAll(original.getClientAttributes());
+      copy.getValidNewModes().addAll(original.getValidNewModes());
+      copy.getExtensions().addAll(original.getExtensions());
+      copy.setCacheControl(cacheControl);
+      return copy;
+   }
+
+   /** A cached fragment along with the time at which it was cached. */
+   public static class Entry
+   {
+      private final MarkupContext markupContext;
+      private final long cachedAt;
+
+      private Entry(MarkupContext markupContext, long cachedAt)
+      {
+         this.markupContext = markupContext;
+         this.cachedAt = cachedAt;
+      }
+
+      public MarkupContext getMarkupContext()
+      {
+         return markupContext;
+      }
+
+      /**
+       * Retrieves the validate tag the producer associated with this fragment, if any, so that it can be sent back to the producer to check whether the fragment is still valid.
+       *
+       * @return the validate tag associated with this fragment or <code>null</code> if there is none
+       */
+      public String getValidateTag()
+      {
+         return markupContext.getCacheControl().getValidateTag();
+      }
+
+      /**
+       * Determines whether this fragment can still be used without checking with the producer.
+       *
+       * @param now the current time in milliseconds
+       * @return <code>true</code> if this fragment hasn't expired yet, <code>false</code> otherwise
+       */
+      public boolean isFresh(long now)
+      {
+         final int expires = markupContext.getCacheControl().getExpires();
+
+         // -1 means that the fragment never expires
+         return expires == -1 || (expires > 0 && now < cachedAt + expires * 1000L);
+      }
+   }
+
+   /**
+    * Identifies a cached fragment. Since markup is namespaced and might depend on the portlet instance it's rendered for, fragments are also keyed by the namespace prefix and
+    * portlet instance key of the window they were rendered for so that several windows displaying the same portlet don't share their markup.
+    */
+   static class Key
+   {
+      private final String producerId;
+      private final String portletHandle;
+      private final String namespacePrefix;
+      private final String portletInstanceKey;
+      private final String userId;
+      private final String mode;
+      private final String windowState;
+      private final boolean secure;
+      private final List<String> locales;
+      private final List<String> mimeTypes;
+      private final String navigationalState;
+      private final List<String> publicNavigationalState;
+      private final int hashCode;
+
+      Key(String producerId, String portletHandle, RuntimeContext runtimeContext, MarkupParams params, String userId)
+      {
+         this.producerId = producerId;
+         this.portletHandle = portletHandle;
+         if (runtimeContext != null)
+         {
+            namespacePrefix = runtimeContext.getNamespacePrefix();
+            portletInstanceKey = runtimeContext.getPortletInstanceKey();
+         }
+         else
+         {
+            namespacePrefix = null;
+            portletInstanceKey = null;
+         }
+         this.userId = userId;
+         mode = params.getMode();
+         windowState = params.getWindowState();
+         secure = params.isSecureClientCommunication();
+         locales = new ArrayList<String>(params.getLocales());
+         mimeTypes = new ArrayList<String>(params.getMimeTypes());
+
+         final NavigationalContext navigationalContext = params.getNavigationalContext();
+         if (navigationalContext != null)
+         {
+            navigationalState = navigationalContext.getOpaqueValue();
+
+            final List<NamedString> publicValues = navigationalContext.getPublicValues();
+            publicNavigationalState = new ArrayList<String>(publicValues.size());
+            for (NamedString publicValue : publicValues)
+            {
+               publicNavigationalState.add(publicValue.getName() + '=' + publicValue.getValue());
+            }
+            // order of public parameters is not significant
+            Collections.sort(publicNavigationalState);
+         }
+         else
+         {
+            navigationalState = null;
+            publicNavigationalState = Collections.emptyList();
+         }
+
+         int result = producerId.hashCode();
+         result = 31 * result + portletHandle.hashCode();
+         result = 31 * result + (namespacePrefix != null ? namespacePrefix.hashCode() : 0);
+         result = 31 * result + (portletInstanceKey != null ? portletInstanceKey.hashCode() : 0);
+         result = 31 * result + (userId != null ? userId.hashCode() : 0);
+         result = 31 * result + (mode != null ? mode.hashCode() : 0);
+         result = 31 * result + (windowState != null ? windowState.hashCode() : 0);
+         result = 31 * result + (secure ? 1 : 0);
+         result = 31 * result + locales.hashCode();
+         result = 31 * result + mimeTypes.hashCode();
+         result = 31 * result + (navigationalState != null ? navigationalState.hashCode() : 0);
+         result = 31 * result + publicNavigationalState.hashCode();
+         hashCode = result;
+      }
+
+      @Override
+      public boolean equals(Object o)
+      {
+         if (this == o)
+         {
+            return true;
+         }
+         if (o == null || getClass() != o.getClass())
+         {
+            return false;
+         }
+
+         Key key = (Key)o;
+
+         return hashCode == key.hashCode
+            && secure == key.secure
+            && producerId.equals(key.producerId)
+            && portletHandle.equals(key.portletHandle)
+            && (namespacePrefix != null ? namespacePrefix.equals(key.namespacePrefix) : key.namespacePrefix == null)
+            && (portletInstanceKey != null ? portletInstanceKey.equals(key.portletInstanceKey) : key.portletInstanceKey == null)
+            && (userId != null ? userId.equals(key.userId) : key.userId == null)
+            && (mode != null ? mode.equals(key.mode) : key.mode == null)
+            && (windowState != null ? windowState.equals(key.windowState) : key.windowState == null)
+            && locales.equals(key.locales)
+            && mimeTypes.equals(key.mimeTypes)
+            && (navigationalState != null ? navigationalState.equals(key.navigationalState) : key.navigationalState == null)
+            && publicNavigationalState.equals(key.publicNavigationalState);
+      }
+
+      @Override
+      public int hashCode()
+      {
+         return hashCode;
+      }
+   }
+}
@@ -0,0 +1,230 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2012, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wsrp.consumer.handlers;
+
+import org.gatein.common.text.TextTools;
+import org.gatein.wsrp.WSRPRewritingConstants;
+
+import java.nio.charset.Charset;
+
+/**
+ * Rewrites WSRP URLs (<code>wsrp_rewrite?...&#47;wsrp_rewrite</code>) and namespace tokens (<code>wsrp_rewrite_</code>) in a single pass over
+ * the markup, producing the same result as calling {@link TextTools#replaceBoundedString(String, String, String,
+ * TextTools.StringReplacementGenerator, boolean, boolean)} followed by a replacement of namespace tokens but without creating intermediate
+ * copies of the markup or compiling regular expressions.
+ *
+ * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
+ * @version $Revision$
+ */
+public class MarkupRewriter
+{
+   private static final String REWRITE = WSRPRewritingConstants.WSRP_REWRITE;
+   private static final String BEGIN = WSRPRewritingConstants.BEGIN_WSRP_REWRITE;
+   private static final String END = WSRPRewritingConstants.END_WSRP_REWRITE;
+   private static final String TOKEN = WSRPRewritingConstants.WSRP_REWRITE_TOKEN;
+   private static final char BEGIN_MARKER = WSRPRewritingConstants.BEGIN_WSRP_REWRITE_END.charAt(0);
+   private static final char TOKEN_MARKER = WSRPRewritingConstants.WSRP_REWRITE_TOKEN_END.charAt(0);
+
+   /** Buffers larger than this are not kept around to avoid holding on to memory after processing unusually large fragments */
+   private static final int MAXIMUM_REUSED_BUFFER_SIZE = 512 * 1024;
+
+   private static final ThreadLocal<StringBuilder> buffers = new ThreadLocal<StringBuilder>();
+
+   private static final byte[] REWRITE_BYTES = REWRITE.getBytes(Charset.forName("US-ASCII"));
+
+   private MarkupRewriter()
+   {
+   }
+
+   /**
+    * Rewrites the specified markup.
+    *
+    * @param markup    the markup to rewrite
+    * @param namespace the namespace to replace namespace tokens with
+    * @param generator the generator providing replacements for WSRP URLs, called with the URL content stripped of its delimiters
+    * @return the rewritten markup or the specified markup itself if it didn't contain anything to rewrite
+    */
+   public static String rewrite(String markup, String namespace, TextTools.StringReplacementGenerator generator)
+   {
+      if (markup == null)
+      {
+         return null;
+      }
+
+      int index = markup.indexOf(REWRITE);
+      if (index == -1)
+      {
+         return markup;
+      }
+
+      StringBuilder buffer = buffers.get();
+      if (buffer == null)
+      {
+         buffer = new StringBuilder(markup.length() + 256);
+         buffers.set(buffer);
+      }
+      else
+      {
+         buffer.setLength(0);
+         buffer.ensureCapacity(markup.length() + 256);
+      }
+
+      try
+      {
+         rewrite(markup, index, namespace, generator, buffer);
+         return buffer.toString();
+      }
+      finally
+      {
+         if (buffer.capacity() > MAXIMUM_REUSED_BUFFER_SIZE)
+         {
+            buffers.remove();
+         }
+      }
+   }
+
+   private static void rewrite(String markup, int index, String namespace, TextTools.StringReplacementGenerator generator, StringBuilder output)
+   {
+      final int length = markup.length();
+      final int rewriteLength = REWRITE.length();
+      int copyFrom = 0;
+
+      // once we know that there is no end delimiter left, URLs cannot be rewritten anymore
+      boolean endAbsent = false;
+
+      while (index != -1)
+      {
+         final int markerIndex = index + rewriteLength;
+         final char marker = markerIndex < length ? markup.charAt(markerIndex) : 0;
+
+         if (marker == TOKEN_MARKER)
+         {
+            output.append(markup, copyFrom, index).append(namespace);
+            copyFrom = markerIndex + 1;
+         }
+         else if (marker == BEGIN_MARKER && !endAbsent)
+         {
+            final int matchStart = markerIndex + 1;
+            final int endIndex = markup.indexOf(END, matchStart);
+            if (endIndex == -1)
+            {
+               endAbsent = true;
+            }
+            else
+            {
+               String replacement = generator.getReplacementFor(markup.substring(matchStart, endIndex), BEGIN, END, false);
+               output.append(markup, copyFrom, index);
+               appendReplacingTokens(replacement, namespace, output);
+               copyFrom = endIndex + END.length();
+            }
+         }
+
+         index = markup.indexOf(REWRITE, Math.max(copyFrom, index + 1));
+      }
+
+      output.append(markup, copyFrom, length);
+   }
+
+   private static void appendReplacingTokens(String value, String namespace, StringBuilder output)
+   {
+      int copyFrom = 0;
+      int index = value.indexOf(TOKEN);
+      while (index != -1)
+      {
+         output.append(value, copyFrom, index).append(namespace);
+         copyFrom = index + TOKEN.length();
+         index = value.indexOf(TOKEN, copyFrom);
+      }
+      output.append(value, copyFrom, value.length());
+   }
+
+   /**
+    * Determines whether the specified binary content, encoded using the specified charset, might need to be rewritten. This allows to avoid
+    * decoding and re-encoding binary content that doesn't contain anything to rewrite.
+    *
+    * @param bytes   the binary content
+    * @param charset the charset used to encode the content
+    * @return <code>false</code> if the content is known not to contain anything to rewrite, <code>true</code> otherwise
+    */
+   public static boolean mightNeedRewriting(byte[] bytes, String charset)
+   {
+      if (bytes == null || bytes.length == 0)
+      {
+         return false;
+      }
+
+      // we can only look at the raw bytes if the charset encodes ASCII characters as themselves
+      final String name = charset == null ? "" : charset.toUpperCase();
+      if (!name.equals("UTF-8") && !name.equals("US-ASCII") && !name.startsWith("ISO-8859-"))
+      {
+         return true;
+      }
+
+      final byte first = REWRITE_BYTES[0];
+      final int last = bytes.length - REWRITE_BYTES.length;
+      for (int i = 0; i <= last; i++)
+      {
+         if (bytes[i] == first)
+         {
+            int j = 1;
+            while (j < REWRITE_BYTES.length && bytes[i + j] == REWRITE_BYTES[j])
+            {
+               j++;
+            }
+            if (j == REWRITE_BYTES.length)
+            {
+               return true;
+            }
+         }
+      }
+      return false;
+   }
+
+   /**
+    * Replaces all the occurrences of the specified target in the specified value, without using regular expressions.
+    *
+    * @param value       the String in which to perform the replacements
+    * @param target      the String to replace
+    * @param replacement the replacement
+    * @return the String resulting from the replacements
+    */
+   static String replace(String value, String target, String replacement)
+   {
+      int index = value.indexOf(target);
+      if (index == -1)
+      {
+         return value;
+      }
+
+      StringBuilder result = new StringBuilder(value.length() + 16);
+      int copyFrom = 0;
+      while (index != -1)
+      {
+         result.append(value, copyFrom, index).append(replacement);
+         copyFrom = index + target.length();
+         index = value.indexOf(target, copyFrom);
+      }
+      return result.append(value, copyFrom, value.length()).toString();
+   }
+}
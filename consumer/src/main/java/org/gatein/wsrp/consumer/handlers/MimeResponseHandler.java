@@ -39,7 +39,6 @@ import org.gatein.wsrp.MIMEUtils;
 import org.gatein.wsrp.WSRPConstants;
 import org.gatein.wsrp.WSRPConsumer;
 import org.gatein.wsrp.WSRPPortletURL;
-import org.gatein.wsrp.WSRPRewritingConstants;
 import org.gatein.wsrp.WSRPTypeFactory;
 import org.gatein.wsrp.consumer.ProducerInfo;
 import org.gatein.wsrp.consumer.spi.WSRPConsumerSPI;
@@ -99,8 +98,9 @@ public abstract class MimeResponseHandler<Invocation extends PortletInvocation,
       {
          if (mimeResponse.isUseCachedItem() != null && mimeResponse.isUseCachedItem())
          {
-            //todo: deal with cache GTNWSRP-40
-            log.debug("Consumer " + consumer.getProducerId() + " requested cached data. Not implemented yet!");
+            // GTNWSRP-40: cached markup is substituted by the handler when available so if we get here, we don't have anything cached
+            return new ErrorResponse(new IllegalStateException("Producer " + consumer.getProducerId()
+               + " requested use of cached markup but no cached markup was found."));
          }
          else
          {
@@ -121,18 +121,23 @@ public abstract class MimeResponseHandler<Invocation extends PortletInvocation,
          // GTNWSRP-189: if we have binary and we require rewriting, convert binary to a string and process
          if (binary != null && binary.length > 0 && MIMEUtils.isInterpretableAsText(mimeType))
          {
-            try
-            {
-               final String charset = MIMEUtils.getCharsetFrom(mimeType);
-               String binaryAsString = new String(binary, charset);
-               binaryAsString = processMarkup(binaryAsString, invocation);
+            final String charset = MIMEUtils.getCharsetFrom(mimeType);
 
-               // reconvert to binary
-               binary = binaryAsString.getBytes(charset);
-            }
-            catch (UnsupportedEncodingException e)
+            // only decode and re-encode content if it might contain something to rewrite
+            if (MarkupRewriter.mightNeedRewriting(binary, charset))
             {
-               throw new PortletInvokerException("Couldn't convert binary as String.", e);
+               try
+               {
+                  String binaryAsString = new String(binary, charset);
+                  binaryAsString = processMarkup(binaryAsString, invocation);
+
+                  // reconvert to binary
+                  binary = binaryAsString.getBytes(charset);
+               }
+               catch (UnsupportedEncodingException e)
+               {
+                  throw new PortletInvokerException("Couldn't convert binary as String.", e);
+               }
             }
          }
       }
@@ -212,18 +217,8 @@ public abstract class MimeResponseHandler<Invocation extends PortletInvocation,
 
    static String processMarkup(String markup, String namespace, PortletInvocationContext context, org.gatein.pc.api.PortletContext target, URLFormat format, WSRPConsumer consumer)
    {
-      markup = TextTools.replaceBoundedString(
-         markup,
-         WSRPRewritingConstants.BEGIN_WSRP_REWRITE,
-         WSRPRewritingConstants.END_WSRP_REWRITE,
-         new MarkupProcessor(namespace, context, target, format, consumer.getProducerInfo()),
-         true,
-         false
-      );
-
-      markup = markup.replaceAll(WSRPRewritingConstants.WSRP_REWRITE_TOKEN, namespace);
-
-      return markup;
+      // rewrite URLs and namespace tokens in a single pass
+      return MarkupRewriter.rewrite(markup, namespace, new MarkupProcessor(namespace, context, target, format, consumer.getProducerInfo()));
    }
 
    protected org.gatein.pc.api.cache.CacheControl createCacheControl(LocalMimeResponse mimeResponse)
@@ -271,6 +266,11 @@ public abstract class MimeResponseHandler<Invocation extends PortletInvocation,
     */
    private static class MarkupProcessor implements TextTools.StringReplacementGenerator
    {
+      private static final String JS_DASH = "\\x2D";
+      private static final String JS_AMPERSAND = "\\x26";
+      private static final String UNICODE_DASH = "\\u002D";
+      private static final String UNICODE_AMPERSAND = "\\u0026";
+
       private final PortletInvocationContext context;
       private final URLFormat format;
       private final Set<String> supportedCustomModes;
@@ -311,15 +311,15 @@ public abstract class MimeResponseHandler<Invocation extends PortletInvocation,
          boolean useJavaScriptEscaping = false;
          boolean useISO_8859_1Encoding = false;
          // work around for GTNWSRP-93 && PBR-421
-         if (match.contains("\\x2D") || match.contains("\\x26"))
+         if (match.contains(JS_DASH) || match.contains(JS_AMPERSAND))
          {
             useJavaScriptEscaping = true;
-            match = match.replaceAll("\\\\x2D", "-").replaceAll("\\\\x26", "&amp;");
+            match = MarkupRewriter.replace(MarkupRewriter.replace(match, JS_DASH, "-"), JS_AMPERSAND, "&amp;");
          }
-         else if (match.contains("\\u002D") || match.contains("\\u0026"))
+         else if (match.contains(UNICODE_DASH) || match.contains(UNICODE_AMPERSAND))
          {
             useISO_8859_1Encoding = true;
-            match = match.replaceAll("\\\\u002D", "-").replaceAll("\\\\u0026", "&amp;");
+            match = MarkupRewriter.replace(MarkupRewriter.replace(match, UNICODE_DASH, "-"), UNICODE_AMPERSAND, "&amp;");
          }
 
          WSRPPortletURL portletURL = WSRPPortletURL.create(match, supportedCustomModes, supportedCustomWindowStates, true);
@@ -342,11 +342,11 @@ public abstract class MimeResponseHandler<Invocation extends PortletInvocation,
          // NOTE: we should fix this by specifying the escaping to be used in URLFormat when it supported (see GTNPC-41)
          if (useJavaScriptEscaping)
          {
-            value = value.replaceAll("-", "\\\\x2D").replaceAll("&amp;", "\\\\x26");
+            value = MarkupRewriter.replace(MarkupRewriter.replace(value, "-", JS_DASH), "&amp;", JS_AMPERSAND);
          }
          else if (useISO_8859_1Encoding)
          {
-            value = value.replaceAll("-", "\\\\u002D").replaceAll("&amp;", "\\\\u0026");
+            value = MarkupRewriter.replace(MarkupRewriter.replace(value, "-", UNICODE_DASH), "&amp;", UNICODE_AMPERSAND);
          }
 
          return value;
@@ -22,10 +22,13 @@
  ******************************************************************************/
 package org.gatein.wsrp.consumer.handlers;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -49,6 +52,32 @@ public class MultiPartUtil
 {
    protected static Logger log = LoggerFactory.getLogger(MultiPartUtil.class);
 
+   /** System property specifying the size (in bytes) above which uploaded files are spooled to disk while being read */
+   public static final String SPOOLING_THRESHOLD_PROPERTY = "org.gatein.wsrp.consumer.uploads.spoolingThreshold";
+   public static final int DEFAULT_SPOOLING_THRESHOLD = 256 * 1024;
+
+   private static final int BUFFER_SIZE = 8 * 1024;
+
+   private static final int SPOOLING_THRESHOLD = getSpoolingThreshold();
+
+   private static int getSpoolingThreshold()
+   {
+      final String value = System.getProperty(SPOOLING_THRESHOLD_PROPERTY);
+      if (value != null)
+      {
+         try
+         {
+            return Integer.parseInt(value.trim());
+         }
+         catch (NumberFormatException e)
+         {
+            log.info("Ignoring invalid value '" + value + "' for " + SPOOLING_THRESHOLD_PROPERTY + ", using "
+               + DEFAULT_SPOOLING_THRESHOLD + " instead.");
+         }
+      }
+      return DEFAULT_SPOOLING_THRESHOLD;
+   }
+
    public static MultiPartResult getMultiPartContent(RequestContext requestContext)
    {
       RequestContextWrapper requestContextWrapper = new RequestContextWrapper(requestContext);
@@ -77,23 +106,7 @@ public class MultiPartUtil
                         + " and content type " + contentType + " detected.");
                   }
 
-                  BufferedInputStream bufIn = new BufferedInputStream(stream);
-                  ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                  BufferedOutputStream bos = new BufferedOutputStream(baos);
-
-                  int c = bufIn.read();
-                  while (c != -1)
-                  {
-                     bos.write(c);
-                     c = bufIn.read();
-                  }
-
-                  bos.flush();
-                  baos.flush();
-                  bufIn.close();
-                  bos.close();
-
-                  final byte[] uploadData = baos.toByteArray();
+                  final byte[] uploadData = readUploadData(stream, SPOOLING_THRESHOLD);
                   if (uploadData.length != 0)
                   {
                      UploadContext uploadContext = WSRPTypeFactory.createUploadContext(contentType, uploadData);
@@ -134,6 +147,82 @@ public class MultiPartUtil
       return result;
    }
 
+   /**
+    * Reads the specified uploaded content using bulk copies. Content larger than the specified threshold is spooled to a temporary file
+    * while being read so that, once its size is known, it can be loaded in a single array of the exact size instead of going through
+    * several intermediate copies.
+    *
+    * @param stream             the uploaded content
+    * @param spoolingThreshold the size above which content is spooled to disk
+    * @return the uploaded content
+    * @throws IOException
+    */
+   static byte[] readUploadData(InputStream stream, int spoolingThreshold) throws IOException
+   {
+      final byte[] buffer = new byte[BUFFER_SIZE];
+      final ByteArrayOutputStream memory = new ByteArrayOutputStream(Math.min(BUFFER_SIZE, Math.max(spoolingThreshold, 0)));
+      File spool = null;
+
+      try
+      {
+         OutputStream out = memory;
+         try
+         {
+            int read;
+            while ((read = stream.read(buffer)) != -1)
+            {
+               if (spool == null && memory.size() + read > spoolingThreshold)
+               {
+                  spool = File.createTempFile("wsrp-upload", ".tmp");
+                  out = new FileOutputStream(spool);
+                  memory.writeTo(out);
+               }
+               out.write(buffer, 0, read);
+            }
+         }
+         finally
+         {
+            stream.close();
+            out.close();
+         }
+
+         if (spool == null)
+         {
+            return memory.toByteArray();
+         }
+
+         final long length = spool.length();
+         if (length > Integer.MAX_VALUE)
+         {
+            throw new IOException("Uploaded file is too large: " + length + " bytes");
+         }
+
+         final byte[] data = new byte[(int)length];
+         final InputStream in = new FileInputStream(spool);
+         try
+         {
+            int offset = 0;
+            int read;
+            while (offset < data.length && (read = in.read(data, offset, data.length - offset)) != -1)
+            {
+               offset += read;
+            }
+         }
+         finally
+         {
+            in.close();
+         }
+         return data;
+      }
+      finally
+      {
+         if (spool != null && !spool.delete())
+         {
+            spool.deleteOnExit();
+         }
+      }
+   }
+
    static class MultiPartResult
    {
       protected List<NamedString> formParameters;
@@ -49,9 +49,13 @@ import java.util.Map;
  */
 public abstract class NavigationalStateUpdatingHandler<Invocation extends PortletInvocation, Request, Response> extends InvocationHandler<Invocation, Request, Response>
 {
-   public NavigationalStateUpdatingHandler(WSRPConsumerImpl consumer)
+   /** Cached markup to invalidate when an interaction might have modified the portlet's state, <code>null</code> if markup isn't cached */
+   private final MarkupCache markupCache;
+
+   public NavigationalStateUpdatingHandler(WSRPConsumerImpl consumer, MarkupCache markupCache)
    {
       super(consumer);
+      this.markupCache = markupCache;
    }
 
    protected UpdateNavigationalStateResponse processUpdateResponse(Invocation invocation, RequestPrecursor<Invocation> requestPrecursor, UpdateResponse updateResponse, Response wsrpResponse)
@@ -119,12 +123,16 @@ public abstract class NavigationalStateUpdatingHandler<Invocation extends Portle
       // extensions
       processExtensions(wsrpResponse);
 
+      // interactions might have modified the portlet's state so cached markup cannot be trusted anymore: use the handle the request was sent with since that's what markup
+      // is looked up with
+      PortletContext originalContext = requestPrecursor.getPortletContext();
+      invalidateCachedMarkup(originalContext.getPortletHandle());
+
       // check if the portlet was cloned
       PortletContext portletContext = updateResponse.getPortletContext();
       SessionHandler sessionHandler = consumer.getSessionHandler();
       if (portletContext != null)
       {
-         PortletContext originalContext = requestPrecursor.getPortletContext();
          InstanceContext context = invocation.getInstanceContext();
 
          String handle = portletContext.getPortletHandle();
@@ -136,6 +144,9 @@ public abstract class NavigationalStateUpdatingHandler<Invocation extends Portle
                   + handle + "'");
             }
 
+            // subsequent renders will be looked up with the new handle, make sure we don't serve markup previously cached for it
+            invalidateCachedMarkup(handle);
+
             StateEvent event = new StateEvent(WSRPUtils.convertToPortalPortletContext(portletContext), StateEvent.Type.PORTLET_CLONED_EVENT);
             context.onStateEvent(event);
          }
@@ -163,4 +174,12 @@ public abstract class NavigationalStateUpdatingHandler<Invocation extends Portle
       sessionHandler.updateSessionIfNeeded(updateResponse.getSessionContext(), invocation, portletContext.getPortletHandle());
       return result;
    }
+
+   private void invalidateCachedMarkup(String portletHandle)
+   {
+      if (markupCache != null)
+      {
+         markupCache.invalidate(portletHandle);
+      }
+   }
 }
@@ -0,0 +1,65 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2012, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wsrp.consumer.handlers;
+
+import org.gatein.pc.api.PortletInvokerException;
+import org.gatein.pc.api.invocation.PortletInvocation;
+import org.gatein.pc.api.invocation.response.PortletInvocationResponse;
+
+/**
+ * A portlet invocation which WSRP request has been fully prepared so that the actual WSRP call can be performed on a different thread than the one handling the
+ * invocation. Invocations are not thread-safe so only {@link #perform()} can be called from a different thread and it doesn't access them. The servlet request
+ * and response bound to {@link org.gatein.wsrp.api.servlet.ServletAccess} when the invocation is prepared are, however, bound to the thread performing the call
+ * for its duration so that the web services stack can retrieve information it needs from them (e.g. the current user's credentials when WS-Security is
+ * used). Both preparing and completing the invocation must happen on the thread handling the invocation.
+ *
+ * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
+ * @version $Revision$
+ * @see InvocationHandler#prepare(org.gatein.pc.api.invocation.PortletInvocation)
+ */
+public interface PreparedInvocation
+{
+   /**
+    * Retrieves the invocation which this PreparedInvocation was prepared from. Should only be accessed from the thread handling the invocation.
+    *
+    * @return the invocation which this PreparedInvocation was prepared from
+    */
+   PortletInvocation getInvocation();
+
+   /**
+    * Performs the WSRP call, recording the producer's response or the error that occurred. Can be called from any thread, the servlet request and response that
+    * were current when this PreparedInvocation was created being bound to {@link org.gatein.wsrp.api.servlet.ServletAccess} while the call is performed. Does
+    * nothing if the response could be determined without contacting the producer.
+    */
+   void perform();
+
+   /**
+    * Converts the producer's response recorded by {@link #perform()}, which must have completed, into a portlet container response. Must be called from the thread
+    * handling the invocation.
+    *
+    * @return an appropriate PortletInvocationResponse translated from the WSRP response sent by the producer
+    * @throws PortletInvokerException
+    */
+   PortletInvocationResponse complete() throws PortletInvokerException;
+}
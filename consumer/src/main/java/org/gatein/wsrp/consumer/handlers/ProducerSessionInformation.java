@@ -56,8 +56,8 @@ public class ProducerSessionInformation implements Serializable
 {
    private static Logger log = LoggerFactory.getLogger(ProducerSessionInformation.class);
 
-   private boolean initCookieDone = false;
-   private boolean perGroupCookies = false;
+   private volatile boolean initCookieDone = false;
+   private volatile boolean perGroupCookies = false;
 
    /** Which cookies are associated with a given portlet group id */
    private Map<String, List<CookieUtil.Cookie>> groupCookies;
@@ -121,7 +121,7 @@ public class ProducerSessionInformation implements Serializable
       *
       * @return an up-to-date list of String representations of user-level cookies.
       */
-   public List<String> getUserCookies()
+   public synchronized List<String> getUserCookies()
    {
       userCookie = CookieUtil.purgeExpiredCookies(userCookie);
       if (userCookie.isEmpty())
@@ -131,7 +131,7 @@ public class ProducerSessionInformation implements Serializable
       return CookieUtil.asExternalFormList(userCookie);
    }
 
-   public void setUserCookies(List<CookieUtil.Cookie> userCookie)
+   public synchronized void setUserCookies(List<CookieUtil.Cookie> userCookie)
    {
       if (!ParameterValidation.existsAndIsNotEmpty(userCookie))
       {
@@ -182,7 +182,7 @@ public class ProducerSessionInformation implements Serializable
     * @param groupId the portlet group identifier
     * @param cookies the cookies to be associated with the portlet group
     */
-   public void setGroupCookiesFor(String groupId, List<CookieUtil.Cookie> cookies)
+   public synchronized void setGroupCookiesFor(String groupId, List<CookieUtil.Cookie> cookies)
    {
       if (!isPerGroupCookies())
       {
@@ -218,7 +218,7 @@ public class ProducerSessionInformation implements Serializable
     * @param groupId the group identifier for which we want to retrieve the associated cookies
     * @return the String representations of the cookies associated with the specified portlet group
     */
-   public List<String> getGroupCookiesFor(String groupId)
+   public synchronized List<String> getGroupCookiesFor(String groupId)
    {
       if (groupCookies == null)
       {
@@ -248,7 +248,7 @@ public class ProducerSessionInformation implements Serializable
       }
    }
 
-   void clearGroupCookies()
+   synchronized void clearGroupCookies()
    {
       groupCookies = null;
    }
@@ -259,7 +259,7 @@ public class ProducerSessionInformation implements Serializable
     * @param portletHandle  the handle of the portlet with which session information needs to be associated
     * @param sessionContext the new session information to be associated to the portlet
     */
-   public void addSessionForPortlet(String portletHandle, SessionContext sessionContext)
+   public synchronized void addSessionForPortlet(String portletHandle, SessionContext sessionContext)
    {
       // sessionContext is validated in SessionInfo constructor
       SessionInfo info = new SessionInfo(sessionContext, portletHandle);
@@ -287,7 +287,7 @@ public class ProducerSessionInformation implements Serializable
     * @return the session id for the specified portlet, <code>null</code> if there is no session associated with the
     *         portlet or if the session has expired.
     */
-   public String getSessionIdForPortlet(String portletHandle)
+   public synchronized String getSessionIdForPortlet(String portletHandle)
    {
       ProducerSessionInformation.SessionIdResult idResult = internalGetSessionIdForPortlet(portletHandle);
       if (idResult.expired)
@@ -298,7 +298,7 @@ public class ProducerSessionInformation implements Serializable
       return idResult.id;
    }
 
-   int getNumberOfSessions()
+   synchronized int getNumberOfSessions()
    {
       if (portletSessions != null)
       {
@@ -316,7 +316,7 @@ public class ProducerSessionInformation implements Serializable
     * @param sessionId the identifier of the session to be removed
     * @return the id of the removed session or <code>null</code> if the session had already expired
     */
-   String removeSession(String sessionId)
+   synchronized String removeSession(String sessionId)
    {
       ParameterValidation.throwIllegalArgExceptionIfNull(sessionId, "session id");
 
@@ -335,7 +335,7 @@ public class ProducerSessionInformation implements Serializable
     * @return a list containing the session ids that were still valid when they were removed and would need to be
     *         released
     */
-   List<String> removeSessions()
+   synchronized List<String> removeSessions()
    {
       List<String> idsToRelease = new ArrayList<String>(getNumberOfSessions());
 
@@ -362,7 +362,7 @@ public class ProducerSessionInformation implements Serializable
     * @param portletHandle the handle of the portlet which session needs to be removed
     * @return the id of the removed session or <code>null</code> if the session had already expired
     */
-   String removeSessionForPortlet(String portletHandle)
+   synchronized String removeSessionForPortlet(String portletHandle)
    {
       SessionIdResult result = removeSessionIdForPortlet(portletHandle);
 
@@ -393,7 +393,7 @@ public class ProducerSessionInformation implements Serializable
       return result;
    }
 
-   void replaceUserCookiesWith(ProducerSessionInformation currentSessionInfo)
+   synchronized void replaceUserCookiesWith(ProducerSessionInformation currentSessionInfo)
    {
       if (currentSessionInfo != null && currentSessionInfo.userCookie != null && !currentSessionInfo.userCookie.isEmpty())
       {
@@ -441,9 +441,10 @@ public class ProducerSessionInformation implements Serializable
     * @return the known session id
     * @since 2.6
     */
-   Collection<String> getSessionIds()
+   synchronized Collection<String> getSessionIds()
    {
-      return sessionId2PortletHandle.keySet();
+      // copy since concurrent calls might modify sessions
+      return new ArrayList<String>(sessionId2PortletHandle.keySet());
    }
 
    /**
@@ -463,7 +464,7 @@ public class ProducerSessionInformation implements Serializable
     * @param newHandle the new portlet handle as resulting of a WSRP call
     * @since 2.6
     */
-   void updateHandleAssociatedInfo(String originalHandle, String newHandle)
+   synchronized void updateHandleAssociatedInfo(String originalHandle, String newHandle)
    {
       ParameterValidation.throwIllegalArgExceptionIfNullOrEmpty(originalHandle, "original handle",
          "Updating information associated with a portlet handle");
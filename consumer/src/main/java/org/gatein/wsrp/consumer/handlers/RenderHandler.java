@@ -24,7 +24,9 @@
 package org.gatein.wsrp.consumer.handlers;
 
 import org.gatein.common.util.ParameterValidation;
+import org.gatein.pc.api.PortletInvokerException;
 import org.gatein.pc.api.cache.CacheControl;
+import org.gatein.pc.api.invocation.PortletInvocation;
 import org.gatein.pc.api.invocation.RenderInvocation;
 import org.gatein.pc.api.invocation.response.FragmentResponse;
 import org.gatein.pc.api.invocation.response.PortletInvocationResponse;
@@ -35,6 +37,7 @@ import org.gatein.wsrp.consumer.spi.WSRPConsumerSPI;
 import org.oasis.wsrp.v2.Extension;
 import org.oasis.wsrp.v2.GetMarkup;
 import org.oasis.wsrp.v2.MarkupContext;
+import org.oasis.wsrp.v2.MarkupParams;
 import org.oasis.wsrp.v2.MarkupResponse;
 import org.oasis.wsrp.v2.PortletContext;
 import org.oasis.wsrp.v2.RuntimeContext;
@@ -50,10 +53,107 @@ import java.util.List;
  */
 public class RenderHandler extends MimeResponseHandler<RenderInvocation, GetMarkup, MarkupResponse, MarkupContext>
 {
+   /** Markup fragments cached as per the producer's CacheControl */
+   private final MarkupCache markupCache;
 
    public RenderHandler(WSRPConsumerSPI consumer)
+   {
+      this(consumer, new MarkupCache(consumer.getProducerId()));
+   }
+
+   public RenderHandler(WSRPConsumerSPI consumer, MarkupCache markupCache)
    {
       super(consumer);
+      this.markupCache = markupCache;
+   }
+
+   public MarkupCache getMarkupCache()
+   {
+      return markupCache;
+   }
+
+   /**
+    * Serves markup from the cache if we have a fresh fragment for the specified request, otherwise, contacts the producer.
+    */
+   @Override
+   protected MarkupResponse performRequest(GetMarkup request, PortletInvocation invocation) throws Exception
+   {
+      // make sure the RuntimeContext identifies the target window since cached markup is specific to it
+      prepareRuntimeContext(request, invocation);
+      final MarkupResponse cachedResponse = getLocalResponse(request, invocation);
+      if (cachedResponse != null)
+      {
+         return cachedResponse;
+      }
+
+      return super.performRequest(request, invocation);
+   }
+
+   /**
+    * Serves markup from the cache if we have a fresh fragment for the specified request, otherwise, sets the validate tag of any stale cached fragment on the request so
+    * that the producer can tell us whether the fragment can still be used.
+    */
+   @Override
+   protected MarkupResponse getLocalResponse(GetMarkup request, PortletInvocation invocation)
+   {
+      final String portletHandle = request.getPortletContext().getPortletHandle();
+      final MarkupParams markupParams = request.getMarkupParams();
+
+      final MarkupCache.Entry cached = markupCache.get(portletHandle, request.getRuntimeContext(), markupParams, getUserIdFrom(invocation));
+      if (cached != null)
+      {
+         if (cached.isFresh(System.currentTimeMillis()))
+         {
+            if (debug)
+            {
+               log.debug("Using cached markup for portlet '" + portletHandle + "'");
+            }
+            return new CachedMarkupResponse(cached.getMarkupContext());
+         }
+
+         markupParams.setValidateTag(cached.getValidateTag());
+      }
+
+      return null;
+   }
+
+   @Override
+   protected PortletInvocationResponse processResponse(MarkupResponse response, RenderInvocation invocation, RequestPrecursor<RenderInvocation> requestPrecursor) throws PortletInvokerException
+   {
+      final MarkupContext markupContext = response.getMarkupContext();
+      if (markupContext != null && !(response instanceof CachedMarkupResponse))
+      {
+         final String portletHandle = requestPrecursor.getPortletHandle();
+         final RuntimeContext runtimeContext = requestPrecursor.getRuntimeContext();
+         final MarkupParams markupParams = requestPrecursor.getMarkupParams();
+         final String userId = getUserIdFrom(invocation);
+
+         if (Boolean.TRUE.equals(markupContext.isUseCachedItem()) && markupContext.getItemString() == null && markupContext.getItemBinary() == null)
+         {
+            // producer told us that our cached fragment is still valid so use it
+            final MarkupContext cached = markupCache.useCachedItem(portletHandle, runtimeContext, markupParams, userId, markupContext.getCacheControl());
+            if (cached != null)
+            {
+               response.setMarkupContext(cached);
+            }
+         }
+         else
+         {
+            final org.oasis.wsrp.v2.CacheControl cacheControl = markupContext.getCacheControl();
+            if (cacheControl != null && consumer.supportsUserScope(cacheControl.getUserScope()))
+            {
+               markupCache.put(portletHandle, runtimeContext, markupParams, userId, markupContext);
+            }
+         }
+      }
+
+      return super.processResponse(response, invocation, requestPrecursor);
+   }
+
+   private static String getUserIdFrom(PortletInvocation invocation)
+   {
+      final org.gatein.pc.api.spi.UserContext userContext = invocation.getUserContext();
+      return userContext != null ? userContext.getId() : null;
    }
 
    @Override
@@ -141,4 +241,13 @@ public class RenderHandler extends MimeResponseHandler<RenderInvocation, GetMark
       }
       return markupResponse;
    }
+
+   /** Marks responses that were served from the cache without contacting the producer. */
+   private static class CachedMarkupResponse extends MarkupResponse
+   {
+      private CachedMarkupResponse(MarkupContext markupContext)
+      {
+         setMarkupContext(markupContext);
+      }
+   }
 }
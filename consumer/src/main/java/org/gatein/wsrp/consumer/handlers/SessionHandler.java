@@ -243,9 +243,20 @@ public class SessionHandler implements SessionEventListener
     * @param invocation the current invocation
     */
    void updateCookiesIfNeeded(PortletInvocation invocation)
+   {
+      updateCookiesIfNeeded(invocation, RequestHeaderClientHandler.getCurrentProducerSessionInformation());
+   }
+
+   /**
+    * Updates cookies data for the specified invocation, if needed, based on the specified session information recorded when the WSRP call was performed, possibly on a
+    * different thread.
+    *
+    * @param invocation         the invocation which WSRP call was performed
+    * @param currentSessionInfo the session information held by {@link RequestHeaderClientHandler} once the call was performed
+    */
+   void updateCookiesIfNeeded(PortletInvocation invocation, ProducerSessionInformation currentSessionInfo)
    {
       ProducerSessionInformation sessionInfo = getProducerSessionInformation(invocation, true);
-      ProducerSessionInformation currentSessionInfo = RequestHeaderClientHandler.getCurrentProducerSessionInformation();
       if (sessionInfo != currentSessionInfo)
       {
          sessionInfo.replaceUserCookiesWith(currentSessionInfo);
@@ -29,7 +29,9 @@ import org.gatein.pc.federation.FederatingPortletInvoker;
 import org.gatein.wsrp.WSRPConsumer;
 import org.gatein.wsrp.api.session.SessionEventBroadcaster;
 import org.gatein.wsrp.consumer.ConsumerException;
+import org.gatein.wsrp.consumer.ParallelMarkupRenderer;
 import org.gatein.wsrp.consumer.ProducerInfo;
+import org.gatein.wsrp.consumer.ProducerInfoRefresher;
 import org.gatein.wsrp.consumer.WSRPConsumerImpl;
 import org.gatein.wsrp.consumer.handlers.session.InMemorySessionRegistry;
 import org.gatein.wsrp.consumer.handlers.session.SessionRegistry;
@@ -41,12 +43,15 @@ import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
 
 /**
  * Provides a base implementation for ConsumerRegistry behavior. It is <em>strongly</em> recommended that implementations inherit from this abstract superclass. The goal is to
@@ -76,6 +81,15 @@ public abstract class AbstractConsumerRegistry implements ConsumerRegistrySPI
    /** Caches consumers to avoid having to recreate them if possible as the lifecycle transitions might be a little complex and not completely possible to restore from persistence */
    protected ConsumerCache consumerCache;
 
+   /** Propagates changes made to persisted consumers, <code>null</code> if cached consumers need to be checked against persistence on each access. */
+   private ConsumerInvalidationBus invalidationBus;
+
+   /** Retrieves the markup of several remote portlets concurrently, only available while this registry is started. */
+   private volatile ParallelMarkupRenderer markupRenderer;
+
+   /** Refreshes the metadata of this registry's producers in the background, only available while this registry is started. */
+   private volatile ScheduledExecutorService refreshExecutor;
+
    protected AbstractConsumerRegistry()
    {
       initConsumerCache();
@@ -90,7 +104,64 @@ public abstract class AbstractConsumerRegistry implements ConsumerRegistrySPI
       {
          consumers = new InMemoryConsumerCache(this);
       }
+
+      listenToInvalidations(consumerCache, false);
       this.consumerCache = consumers;
+      listenToInvalidations(consumerCache, true);
+   }
+
+   public ConsumerInvalidationBus getInvalidationBus()
+   {
+      return invalidationBus;
+   }
+
+   /**
+    * Specifies the ConsumerInvalidationBus used to propagate changes made to persisted consumers. When set, the consumer
+    * cache doesn't need to check the persisted state of consumers on each access anymore.
+    *
+    * @param invalidationBus the ConsumerInvalidationBus to use, <code>null</code> to revert to checking persistence on
+    *                        each access
+    */
+   public synchronized void setInvalidationBus(ConsumerInvalidationBus invalidationBus)
+   {
+      listenToInvalidations(consumerCache, false);
+      this.invalidationBus = invalidationBus;
+      listenToInvalidations(consumerCache, true);
+   }
+
+   private void listenToInvalidations(ConsumerCache cache, boolean listen)
+   {
+      if (invalidationBus != null && cache instanceof ConsumerInvalidationListener)
+      {
+         final ConsumerInvalidationListener listener = (ConsumerInvalidationListener)cache;
+         if (listen)
+         {
+            invalidationBus.addListener(listener);
+         }
+         else
+         {
+            invalidationBus.removeListener(listener);
+         }
+
+         if (cache instanceof InMemoryConsumerCache)
+         {
+            ((InMemoryConsumerCache)cache).setUsingInvalidationBus(listen);
+         }
+      }
+   }
+
+   /**
+    * Notifies other registries, possibly on other cluster nodes, that the persisted state of the specified consumer has
+    * changed.
+    *
+    * @param id the identifier of the modified consumer
+    */
+   protected void publishInvalidationFor(String id)
+   {
+      if (invalidationBus != null)
+      {
+         invalidationBus.publishInvalidation(id);
+      }
    }
 
    public synchronized void setSessionRegistry(SessionRegistry sessionRegistry)
@@ -151,6 +222,7 @@ public abstract class AbstractConsumerRegistry implements ConsumerRegistrySPI
       info.getEndpointConfigurationInfo().setWsdlDefinitionURL(wsdlURL);
 
       save(info, "Couldn't create Consumer '" + id + "'");
+      publishInvalidationFor(id);
 
       log.debug(CONSUMER_WITH_ID + id + "' created");
       return createConsumerFrom(info, true);
@@ -186,6 +258,7 @@ public abstract class AbstractConsumerRegistry implements ConsumerRegistrySPI
 
          // remove from cache
          consumerCache.removeConsumer(id);
+         publishInvalidationFor(id);
       }
       else
       {
@@ -281,6 +354,7 @@ public abstract class AbstractConsumerRegistry implements ConsumerRegistrySPI
       if (producerInfo.getLastModified() > getPersistedLastModifiedForProducerInfoWith(producerInfo.getId()))
       {
          String oldId = update(producerInfo);
+         publishInvalidationFor(producerInfo.getId());
 
          // if we updated and oldId is not null, we need to update the local information
          if (oldId != null)
@@ -296,6 +370,7 @@ public abstract class AbstractConsumerRegistry implements ConsumerRegistrySPI
             // update cache
             consumerCache.removeConsumer(oldId);
             consumerCache.putConsumer(producerInfo.getId(), consumer);
+            publishInvalidationFor(oldId);
          }
 
          return oldId;
@@ -309,6 +384,37 @@ public abstract class AbstractConsumerRegistry implements ConsumerRegistrySPI
    public void start() throws Exception
    {
       reloadConsumers();
+
+      if (markupRenderer == null)
+      {
+         markupRenderer = new ParallelMarkupRenderer();
+      }
+
+      if (refreshExecutor == null)
+      {
+         refreshExecutor = ProducerInfoRefresher.createExecutor();
+      }
+   }
+
+   /**
+    * Retrieves the ParallelMarkupRenderer that can be used to retrieve the markup of several of this registry's consumers' portlets concurrently.
+    *
+    * @return the ParallelMarkupRenderer owned by this registry or <code>null</code> if this registry is not started
+    */
+   public ParallelMarkupRenderer getMarkupRenderer()
+   {
+      return markupRenderer;
+   }
+
+   /**
+    * Retrieves the executor on which the metadata of this registry's producers is refreshed in the background.
+    *
+    * @return the executor owned by this registry or <code>null</code> if this registry is not started
+    * @see ProducerInfoRefresher
+    */
+   public ScheduledExecutorService getRefreshExecutor()
+   {
+      return refreshExecutor;
    }
 
    public void reloadConsumers()
@@ -318,6 +424,28 @@ public abstract class AbstractConsumerRegistry implements ConsumerRegistrySPI
 
    public void stop() throws Exception
    {
+      final ParallelMarkupRenderer renderer = markupRenderer;
+      if (renderer != null)
+      {
+         markupRenderer = null;
+         renderer.shutdown();
+      }
+
+      final ScheduledExecutorService executor = refreshExecutor;
+      if (executor != null)
+      {
+         refreshExecutor = null;
+
+         // cancel refreshes that didn't run yet so that their ProducerInfoRefresher knows they won't happen
+         for (Runnable pending : executor.shutdownNow())
+         {
+            if (pending instanceof Future)
+            {
+               ((Future)pending).cancel(false);
+            }
+         }
+      }
+
       for (WSRPConsumer consumer : getConsumers(false))
       {
          // if producer is not active, it shouldn't be registered with the federating portlet invoker, hence do not
@@ -497,19 +625,82 @@ public abstract class AbstractConsumerRegistry implements ConsumerRegistrySPI
       }
    }
 
-   /** Implements a local cache for consumers. */
-   protected static class InMemoryConsumerCache implements ConsumerCache
+   /**
+    * Implements a local cache for consumers. By default, the persisted state of consumers is checked on each access.
+    * When a {@link ConsumerInvalidationBus} is used, cached consumers are only checked against persistence after
+    * they've been invalidated or when they haven't been checked for longer than the maximum staleness.
+    */
+   protected static class InMemoryConsumerCache implements ConsumerCache, ConsumerInvalidationListener
    {
+      /** Default maximum staleness, in milliseconds, of cached consumers when an invalidation bus is used. */
+      public static final long DEFAULT_MAXIMUM_STALENESS = 60 * 1000;
 
       private Map<String, WSRPConsumer> consumers = new ConcurrentHashMap<String, WSRPConsumer>(11);
       private boolean invalidated;
       private ConsumerRegistrySPI registry;
 
+      private volatile boolean usingInvalidationBus;
+      private volatile long maximumStaleness = DEFAULT_MAXIMUM_STALENESS;
+      /** Records when each consumer was last checked against persistence. */
+      private final Map<String, Long> lastChecked = new ConcurrentHashMap<String, Long>(11);
+      /** Identifiers of consumers invalidated since they were last checked against persistence. */
+      private final Set<String> invalidatedIds = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>(11));
+      /** When the whole set of consumers was last checked against persistence. */
+      private volatile long lastRefresh;
+
       public InMemoryConsumerCache(ConsumerRegistrySPI registry)
       {
          this.registry = registry;
       }
 
+      public boolean isUsingInvalidationBus()
+      {
+         return usingInvalidationBus;
+      }
+
+      public void setUsingInvalidationBus(boolean usingInvalidationBus)
+      {
+         this.usingInvalidationBus = usingInvalidationBus;
+      }
+
+      public long getMaximumStaleness()
+      {
+         return maximumStaleness;
+      }
+
+      /**
+       * Specifies how long, in milliseconds, a cached consumer can be used without being checked against persistence
+       * when an invalidation bus is used. This is a safety net in case an invalidation got lost.
+       *
+       * @param maximumStaleness the maximum staleness in milliseconds
+       */
+      public void setMaximumStaleness(long maximumStaleness)
+      {
+         if (maximumStaleness < 0)
+         {
+            throw new IllegalArgumentException("Maximum staleness cannot be negative");
+         }
+         this.maximumStaleness = maximumStaleness;
+      }
+
+      public void consumerInvalidated(String consumerId)
+      {
+         if (consumerId == null)
+         {
+            lastChecked.clear();
+            lastRefresh = 0;
+         }
+         else
+         {
+            invalidatedIds.add(consumerId);
+         }
+      }
+
+      private boolean isCurrent(Long lastCheck, long now)
+      {
+         return usingInvalidationBus && lastCheck != null && now - lastCheck < maximumStaleness;
+      }
+
       public void initFromStorage()
       {
          // first, remove all existing state
@@ -525,6 +716,19 @@ public abstract class AbstractConsumerRegistry implements ConsumerRegistrySPI
 
          // since our state is fresh from persistence, we can't possibly be invalidated! :)
          setInvalidated(false);
+         markAllAsChecked();
+      }
+
+      private void markAllAsChecked()
+      {
+         final long now = System.currentTimeMillis();
+         invalidatedIds.clear();
+         lastChecked.clear();
+         for (String id : consumers.keySet())
+         {
+            lastChecked.put(id, now);
+         }
+         lastRefresh = now;
       }
 
       private WSRPConsumer createConsumer(ProducerInfo info)
@@ -534,7 +738,14 @@ public abstract class AbstractConsumerRegistry implements ConsumerRegistrySPI
 
       public Collection<WSRPConsumer> getConsumers()
       {
+         // if we're notified of changes and nothing changed since we last checked, no need to go to persistence
+         if (!isInvalidated() && invalidatedIds.isEmpty() && isCurrent(lastRefresh, System.currentTimeMillis()))
+         {
+            return consumers.values();
+         }
+
          refreshIfNeeded();
+         markAllAsChecked();
          return consumers.values();
       }
 
@@ -543,6 +754,15 @@ public abstract class AbstractConsumerRegistry implements ConsumerRegistrySPI
          // try cache first
          WSRPConsumer consumer = consumers.get(id);
 
+         final long now = System.currentTimeMillis();
+         if (consumer != null && !invalidatedIds.contains(id) && isCurrent(lastChecked.get(id), now))
+         {
+            return consumer;
+         }
+
+         // remove invalidation before checking so that invalidations happening during the check are not lost
+         invalidatedIds.remove(id);
+         lastChecked.put(id, now);
          return getUpdatedConsumer(id, consumer);
       }
 
@@ -581,17 +801,20 @@ public abstract class AbstractConsumerRegistry implements ConsumerRegistrySPI
 
       public WSRPConsumer removeConsumer(String id)
       {
+         lastChecked.remove(id);
          return consumers.remove(id);
       }
 
       public void putConsumer(String id, WSRPConsumer consumer)
       {
          consumers.put(id, consumer);
+         lastChecked.put(id, System.currentTimeMillis());
       }
 
       public void clear()
       {
          consumers.clear();
+         lastChecked.clear();
          invalidated = true;
       }
 
@@ -0,0 +1,46 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2012, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wsrp.consumer.registry;
+
+/**
+ * Propagates notifications that the persisted state of consumers has changed so that cached consumers can be checked
+ * against persistence only when needed instead of on each access. Implementations meant to be used in a clustered
+ * environment should propagate invalidations to all cluster nodes.
+ *
+ * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
+ */
+public interface ConsumerInvalidationBus
+{
+   /**
+    * Notifies all registered listeners that the persisted state of the consumer identified by the specified identifier
+    * has changed.
+    *
+    * @param consumerId the identifier of the invalidated consumer or <code>null</code> to invalidate all consumers
+    */
+   void publishInvalidation(String consumerId);
+
+   void addListener(ConsumerInvalidationListener listener);
+
+   void removeListener(ConsumerInvalidationListener listener);
+}
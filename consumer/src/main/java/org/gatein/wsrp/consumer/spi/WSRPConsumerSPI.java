@@ -25,7 +25,9 @@ package org.gatein.wsrp.consumer.spi;
 
 import org.gatein.pc.api.PortletInvokerException;
 import org.gatein.pc.api.invocation.PortletInvocation;
+import org.gatein.pc.api.invocation.RenderInvocation;
 import org.gatein.wsrp.WSRPConsumer;
+import org.gatein.wsrp.consumer.handlers.PreparedInvocation;
 import org.gatein.wsrp.consumer.handlers.SessionHandler;
 import org.gatein.wsrp.consumer.handlers.session.SessionRegistry;
 import org.gatein.wsrp.consumer.portlet.info.WSRPPortletInfo;
@@ -108,6 +110,15 @@ public interface WSRPConsumerSPI extends WSRPConsumer
     */
    SessionRegistry getSessionRegistry();
 
+   /**
+    * Prepares the specified render invocation so that the associated WSRP call can be performed on a different thread.
+    *
+    * @param invocation the render invocation to prepare
+    * @return a PreparedInvocation which WSRP call can be performed on any thread and which then needs to be completed on the calling thread
+    * @throws PortletInvokerException
+    */
+   PreparedInvocation prepareRender(RenderInvocation invocation) throws PortletInvokerException;
+
    /**
     * Performs required operations when the consumer receives a ModifyRegistrationRequiredFault from the producer to get the consumer ready to call modifyRegistration.
     */
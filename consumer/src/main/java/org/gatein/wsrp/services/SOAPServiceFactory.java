@@ -55,6 +55,7 @@ import javax.xml.ws.Binding;
 import javax.xml.ws.BindingProvider;
 import javax.xml.ws.Service;
 import javax.xml.ws.handler.Handler;
+import javax.xml.ws.soap.SOAPBinding;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URL;
@@ -81,6 +82,13 @@ public class SOAPServiceFactory implements ManageableServiceFactory
    private static final RequestHeaderClientHandler REQUEST_HEADER_CLIENT_HANDLER = new RequestHeaderClientHandler();
    private static final String JBOSS_WS_STUBEXT_PROPERTY_CHUNKED_ENCODING_SIZE = "http://org.jboss.ws/http#chunksize";
 
+   /**
+    * System property activating MTOM so that binary data (uploaded files, in particular) is sent to producers as XOP attachments instead of
+    * being inlined as base64. Producers need to support MTOM so this is not active by default.
+    */
+   public static final String MTOM_ENABLED_PROPERTY = "org.gatein.wsrp.consumer.mtom";
+   private static final boolean MTOM_ENABLED = Boolean.parseBoolean(System.getProperty(MTOM_ENABLED_PROPERTY));
+
    private static final Logger log = LoggerFactory.getLogger(SOAPServiceFactory.class);
 
    private String wsdlDefinitionURL;
@@ -142,6 +150,12 @@ public class SOAPServiceFactory implements ManageableServiceFactory
 
       // Add client side handler via JAX-WS API
       Binding binding = bindingProvider.getBinding();
+
+      if (MTOM_ENABLED && binding instanceof SOAPBinding)
+      {
+         ((SOAPBinding)binding).setMTOMEnabled(true);
+      }
+
       List<Handler> handlerChain = binding.getHandlerChain();
       if (handlerChain != null)
       {
@@ -171,23 +185,15 @@ public class SOAPServiceFactory implements ManageableServiceFactory
 
       refresh(false);
 
-      // todo: only use caching if WSS is not enabled, WSS support should be fixed to properly support port caching if possible see BZ-888604
-      if (wssEnabled)
+      // WSS interceptors resolve user credentials for each message so ports can be cached even when WSS is enabled
+      Object service = ports.get(clazz);
+      if (service == null)
       {
          return initPortFor(clazz);
       }
       else
       {
-         Object service = ports.get(clazz);
-         if (service == null)
-         {
-            return initPortFor(clazz);
-         }
-         else
-         {
-            return clazz.cast(service);
-         }
-
+         return clazz.cast(service);
       }
    }
 
@@ -429,7 +435,13 @@ public class SOAPServiceFactory implements ManageableServiceFactory
 
    public void enableWSS(boolean enable)
    {
-      this.wssEnabled = enable;
+      if (this.wssEnabled != enable)
+      {
+         this.wssEnabled = enable;
+
+         // cached ports were customized according to the previous WSS status so they need to be re-created
+         ports.clear();
+      }
    }
 
    public boolean isWSSEnabled()
@@ -0,0 +1,155 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2012, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wsrp.consumer;
+
+import junit.framework.TestCase;
+import org.gatein.common.p3p.P3PConstants;
+import org.gatein.pc.api.spi.UserContext;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import javax.servlet.http.HttpSession;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.mockito.Matchers.anyObject;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
+ * @version $Revision$
+ */
+public class CachedUserContextTestCase extends TestCase
+{
+   private HttpSession session;
+   private Map<String, String> infos;
+   private UserContext userContext;
+
+   @Override
+   protected void setUp() throws Exception
+   {
+      final Map<String, Object> attributes = new HashMap<String, Object>();
+      session = mock(HttpSession.class);
+      when(session.getAttribute(anyString())).thenAnswer(new Answer<Object>()
+      {
+         public Object answer(InvocationOnMock invocation) throws Throwable
+         {
+            return attributes.get((String)invocation.getArguments()[0]);
+         }
+      });
+      doAnswer(new Answer<Object>()
+      {
+         public Object answer(InvocationOnMock invocation) throws Throwable
+         {
+            attributes.put((String)invocation.getArguments()[0], invocation.getArguments()[1]);
+            return null;
+         }
+      }).when(session).setAttribute(anyString(), anyObject());
+
+      infos = createFullyPopulatedInfos();
+      userContext = mock(UserContext.class);
+      when(userContext.getInformations()).thenReturn(infos);
+   }
+
+   public void testConversionIsReused()
+   {
+      org.oasis.wsrp.v2.UserContext converted = CachedUserContext.getWSRPUserContextFrom(session, userContext, "user", null);
+      assertNotNull(converted);
+      assertEquals("user", converted.getUserContextKey());
+      assertEquals("Doe", converted.getProfile().getName().getFamily());
+      assertNotNull(converted.getProfile().getBdate());
+
+      // a fully populated profile should only be converted once per session, subsequent calls not allocating anything new
+      for (int i = 0; i < 1000; i++)
+      {
+         assertSame(converted, CachedUserContext.getWSRPUserContextFrom(session, userContext, "user", null));
+      }
+   }
+
+   public void testModifiedInformationIsDetected()
+   {
+      org.oasis.wsrp.v2.UserContext converted = CachedUserContext.getWSRPUserContextFrom(session, userContext, "user", null);
+
+      infos.put(P3PConstants.INFO_USER_NAME_FAMILY, "Smith");
+      org.oasis.wsrp.v2.UserContext modified = CachedUserContext.getWSRPUserContextFrom(session, userContext, "user", null);
+      assertNotSame(converted, modified);
+      assertEquals("Smith", modified.getProfile().getName().getFamily());
+   }
+
+   public void testDifferentKeyOrCategoriesAreNotReused()
+   {
+      org.oasis.wsrp.v2.UserContext converted = CachedUserContext.getWSRPUserContextFrom(session, userContext, "user", null);
+
+      assertNotSame(converted, CachedUserContext.getWSRPUserContextFrom(session, userContext, "other", null));
+      assertNotSame(converted, CachedUserContext.getWSRPUserContextFrom(session, userContext, "user", Collections.singletonList("category")));
+   }
+
+   public void testNoSession()
+   {
+      org.oasis.wsrp.v2.UserContext converted = CachedUserContext.getWSRPUserContextFrom(null, userContext, "user", null);
+      assertNotNull(converted);
+      assertNotSame(converted, CachedUserContext.getWSRPUserContextFrom(null, userContext, "user", null));
+   }
+
+   private static Map<String, String> createFullyPopulatedInfos()
+   {
+      Map<String, String> infos = new HashMap<String, String>();
+      infos.put(P3PConstants.INFO_USER_BDATE, "1970-01-01T00:00:00Z");
+      infos.put(P3PConstants.INFO_USER_GENDER, "F");
+      infos.put(P3PConstants.INFO_USER_EMPLOYER, "JBoss");
+      infos.put(P3PConstants.INFO_USER_DEPARTMENT, "Portal");
+      infos.put(P3PConstants.INFO_USER_JOB_TITLE, "Developer");
+      infos.put(P3PConstants.INFO_USER_NAME_PREFIX, "Dr.");
+      infos.put(P3PConstants.INFO_USER_NAME_GIVEN, "Jane");
+      infos.put(P3PConstants.INFO_USER_NAME_FAMILY, "Doe");
+      infos.put(P3PConstants.INFO_USER_NAME_MIDDLE, "J.");
+      infos.put(P3PConstants.INFO_USER_NAME_SUFFIX, "Jr.");
+      infos.put(P3PConstants.INFO_USER_NAME_NICKNAME, "jdoe");
+
+      for (boolean business : new boolean[]{true, false})
+      {
+         for (P3PConstants.OnlineInfo info : P3PConstants.OnlineInfo.values())
+         {
+            infos.put(P3PConstants.getOnlineUserInfoKey(info, business), info + "@example.com");
+         }
+         for (P3PConstants.PostalInfo info : P3PConstants.PostalInfo.values())
+         {
+            infos.put(P3PConstants.getPostalUserInfoKey(info, business), info.toString());
+         }
+         for (P3PConstants.TelecomType type : P3PConstants.TelecomType.values())
+         {
+            for (P3PConstants.TelecomInfo info : P3PConstants.TelecomInfo.values())
+            {
+               infos.put(P3PConstants.getTelecomInfoKey(type, info, business), type + "-" + info);
+            }
+         }
+      }
+
+      return infos;
+   }
+}
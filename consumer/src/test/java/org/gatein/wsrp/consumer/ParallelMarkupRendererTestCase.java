@@ -0,0 +1,204 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2012, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wsrp.consumer;
+
+import junit.framework.TestCase;
+import org.gatein.pc.api.invocation.PortletInvocation;
+import org.gatein.pc.api.invocation.RenderInvocation;
+import org.gatein.pc.api.invocation.response.ErrorResponse;
+import org.gatein.pc.api.invocation.response.PortletInvocationResponse;
+import org.gatein.wsrp.consumer.handlers.PreparedInvocation;
+import org.gatein.wsrp.consumer.spi.WSRPConsumerSPI;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
+ * @version $Revision$
+ */
+public class ParallelMarkupRendererTestCase extends TestCase
+{
+   private ParallelMarkupRenderer renderer;
+   private volatile boolean performedOnCallingThread;
+
+   @Override
+   protected void tearDown() throws Exception
+   {
+      if (renderer != null)
+      {
+         renderer.shutdown();
+      }
+   }
+
+   public void testCallsArePerformedConcurrently() throws Exception
+   {
+      renderer = new ParallelMarkupRenderer(8, 4);
+
+      WSRPConsumerSPI producer1 = createConsumer("producer1", 200);
+      WSRPConsumerSPI producer2 = createConsumer("producer2", 200);
+      Map<RenderInvocation, WSRPConsumerSPI> invocations = new LinkedHashMap<RenderInvocation, WSRPConsumerSPI>();
+      invocations.put(mock(RenderInvocation.class), producer1);
+      invocations.put(mock(RenderInvocation.class), producer2);
+      invocations.put(mock(RenderInvocation.class), producer1);
+      invocations.put(mock(RenderInvocation.class), producer2);
+
+      long start = System.currentTimeMillis();
+      Map<RenderInvocation, PortletInvocationResponse> responses = renderer.render(invocations, 5000);
+      long duration = System.currentTimeMillis() - start;
+
+      assertTrue("Calls should have been performed concurrently, took " + duration + "ms", duration < 600);
+      assertEquals(4, responses.size());
+
+      // responses should be in the same order as the invocations
+      Iterator<RenderInvocation> invocationsIterator = invocations.keySet().iterator();
+      for (Map.Entry<RenderInvocation, PortletInvocationResponse> entry : responses.entrySet())
+      {
+         assertSame(invocationsIterator.next(), entry.getKey());
+         assertFalse(entry.getValue() instanceof ErrorResponse);
+      }
+      assertEquals(4, renderer.getDispatchedCount());
+      assertFalse("Calls should not have been performed on the calling thread", performedOnCallingThread);
+   }
+
+   public void testCallsPerProducerAreLimited() throws Exception
+   {
+      renderer = new ParallelMarkupRenderer(8, 1);
+
+      WSRPConsumerSPI consumer = createConsumer("producer", 100);
+      Map<RenderInvocation, WSRPConsumerSPI> invocations = new LinkedHashMap<RenderInvocation, WSRPConsumerSPI>();
+      invocations.put(mock(RenderInvocation.class), consumer);
+      invocations.put(mock(RenderInvocation.class), consumer);
+      invocations.put(mock(RenderInvocation.class), consumer);
+
+      long start = System.currentTimeMillis();
+      Map<RenderInvocation, PortletInvocationResponse> responses = renderer.render(invocations, 5000);
+      long duration = System.currentTimeMillis() - start;
+
+      assertTrue("Calls to the same producer should have been serialized, took " + duration + "ms", duration >= 300);
+      for (PortletInvocationResponse response : responses.values())
+      {
+         assertFalse(response instanceof ErrorResponse);
+      }
+   }
+
+   public void testDeadline() throws Exception
+   {
+      renderer = new ParallelMarkupRenderer();
+
+      Map<RenderInvocation, WSRPConsumerSPI> invocations = new LinkedHashMap<RenderInvocation, WSRPConsumerSPI>();
+      RenderInvocation slow = mock(RenderInvocation.class);
+      invocations.put(slow, createConsumer("slow", 5000));
+      RenderInvocation fast = mock(RenderInvocation.class);
+      invocations.put(fast, createConsumer("fast", 0));
+
+      long start = System.currentTimeMillis();
+      Map<RenderInvocation, PortletInvocationResponse> responses = renderer.render(invocations, 200);
+      assertTrue(System.currentTimeMillis() - start < 2000);
+
+      assertTrue(responses.get(slow) instanceof ErrorResponse);
+      assertFalse(responses.get(fast) instanceof ErrorResponse);
+      assertEquals(1, renderer.getTimedOutCount());
+   }
+
+   public void testRejectedCallsAreNotPerformedOnCallingThread() throws Exception
+   {
+      // one thread and a queue of 4 calls
+      renderer = new ParallelMarkupRenderer(1, 1);
+
+      Map<RenderInvocation, WSRPConsumerSPI> invocations = new LinkedHashMap<RenderInvocation, WSRPConsumerSPI>();
+      for (int i = 0; i < 6; i++)
+      {
+         invocations.put(mock(RenderInvocation.class), createConsumer("producer" + i, 100));
+      }
+
+      Map<RenderInvocation, PortletInvocationResponse> responses = renderer.render(invocations, 5000);
+      assertEquals(6, responses.size());
+
+      int errors = 0;
+      for (PortletInvocationResponse response : responses.values())
+      {
+         if (response instanceof ErrorResponse)
+         {
+            errors++;
+         }
+      }
+      assertEquals(1, errors);
+      assertEquals(1, renderer.getRejectedCount());
+      assertEquals(5, renderer.getDispatchedCount());
+      assertFalse("Rejected calls should not have been performed on the calling thread", performedOnCallingThread);
+   }
+
+   private WSRPConsumerSPI createConsumer(String producerId, final long latency) throws Exception
+   {
+      final Thread callingThread = Thread.currentThread();
+      WSRPConsumerSPI consumer = mock(WSRPConsumerSPI.class);
+      when(consumer.getProducerId()).thenReturn(producerId);
+      when(consumer.prepareRender(any(RenderInvocation.class))).thenAnswer(new Answer<PreparedInvocation>()
+      {
+         public PreparedInvocation answer(final InvocationOnMock invocation) throws Throwable
+         {
+            return new PreparedInvocation()
+            {
+               public PortletInvocation getInvocation()
+               {
+                  return (PortletInvocation)invocation.getArguments()[0];
+               }
+
+               public void perform()
+               {
+                  if (Thread.currentThread() == callingThread)
+                  {
+                     performedOnCallingThread = true;
+                  }
+
+                  try
+                  {
+                     Thread.sleep(latency);
+                  }
+                  catch (InterruptedException e)
+                  {
+                     Thread.currentThread().interrupt();
+                  }
+               }
+
+               public PortletInvocationResponse complete()
+               {
+                  // responses must be processed on the calling thread
+                  assertSame(callingThread, Thread.currentThread());
+                  return mock(PortletInvocationResponse.class);
+               }
+            };
+         }
+      });
+      return consumer;
+   }
+}
@@ -24,8 +24,10 @@
 package org.gatein.wsrp.consumer;
 
 import junit.framework.TestCase;
+import org.gatein.pc.api.NoSuchPortletException;
 import org.gatein.pc.api.Portlet;
 import org.gatein.pc.api.PortletInvokerException;
+import org.gatein.wsrp.consumer.registry.InMemoryConsumerRegistry;
 import org.gatein.wsrp.spec.v2.WSRP2Constants;
 import org.gatein.wsrp.spec.v2.WSRP2ExceptionFactory;
 import org.gatein.wsrp.test.protocol.v2.BehaviorBackedServiceFactory;
@@ -62,6 +64,7 @@ import javax.xml.ws.Holder;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 /**
  * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
@@ -331,6 +334,71 @@ public class ProducerInfoTestCase extends TestCase
       assertEquals(6, behavior.getCallCount());
    }
 
+   public void testStaleMetadataIsUsedWhileRefreshingInBackground() throws Exception
+   {
+      ServiceDescriptionBehavior behavior = new ServiceDescriptionBehavior();
+      behavior.addPortletDescription(behavior.createPortletDescription("test", null));
+      serviceFactory.getRegistry().setServiceDescriptionBehavior(behavior);
+
+      // background refreshes use the executor of a started registry
+      InMemoryConsumerRegistry registry = new InMemoryConsumerRegistry();
+      registry.start();
+      try
+      {
+         info = registry.createConsumer("test", 1, null).getProducerInfo();
+         info.setEndpointConfigurationInfo(new EndpointConfigurationInfo(serviceFactory));
+         final ProducerInfoRefresher refresher = info.getRefresher();
+         refresher.setMaximumJitter(0);
+
+         assertEquals(1, info.getNumberOfPortlets());
+         assertEquals(1, behavior.getCallCount());
+
+         // wait for cache expiration, stale metadata should be used while a refresh is scheduled
+         Thread.sleep(1100);
+         behavior.addPortletDescription(behavior.createPortletDescription("test2", null));
+         assertEquals(1, info.getNumberOfPortlets());
+         assertEquals(1, refresher.getStaleServedCount());
+         assertEquals(1, refresher.getScheduledRefreshCount());
+
+         // wait for the background refresh to happen
+         long timeout = System.currentTimeMillis() + 5000;
+         while (refresher.getSuccessfulRefreshCount() == 0 && System.currentTimeMillis() < timeout)
+         {
+            Thread.sleep(10);
+         }
+
+         assertEquals(1, refresher.getSuccessfulRefreshCount());
+         assertEquals(2, behavior.getCallCount());
+         assertEquals(2, info.getNumberOfPortlets());
+         assertEquals(2, behavior.getCallCount());
+      }
+      finally
+      {
+         registry.stop();
+      }
+   }
+
+   public void testMetadataIsRefreshedSynchronouslyWithoutStartedRegistry() throws Exception
+   {
+      ServiceDescriptionBehavior behavior = new ServiceDescriptionBehavior();
+      behavior.addPortletDescription(behavior.createPortletDescription("test", null));
+      serviceFactory.getRegistry().setServiceDescriptionBehavior(behavior);
+
+      info.setExpirationCacheSeconds(1);
+      final ProducerInfoRefresher refresher = info.getRefresher();
+      assertFalse(refresher.canRefreshInBackground());
+
+      assertEquals(1, info.getNumberOfPortlets());
+      assertEquals(1, behavior.getCallCount());
+
+      // once the cache has expired, there's no executor to refresh on so metadata is refreshed right away
+      Thread.sleep(1100);
+      behavior.addPortletDescription(behavior.createPortletDescription("test2", null));
+      assertEquals(2, info.getNumberOfPortlets());
+      assertEquals(2, behavior.getCallCount());
+      assertEquals(0, refresher.getStaleServedCount());
+   }
+
    public void testGetPortlet() throws Exception
    {
       ServiceDescriptionBehavior behavior = new ServiceDescriptionBehavior();
@@ -368,6 +436,66 @@ public class ProducerInfoTestCase extends TestCase
       assertEquals(portletContext, portlet.getContext());
    }
 
+   public void testExcludedPortletIsNotCachedAndDoesNotTriggerRefresh() throws Exception
+   {
+      ServiceDescriptionBehavior behavior = new ServiceDescriptionBehavior();
+      behavior.addPortletDescription(behavior.createPortletDescription("test", null));
+      serviceFactory.getRegistry().setServiceDescriptionBehavior(behavior);
+      info.setExpirationCacheSeconds(1000);
+      info.refresh(false);
+      assertEquals(1, behavior.getCallCount());
+
+      // portlets using the GET method are excluded by the consumer
+      TestPortletManagementBehavior pmBehavior = new TestPortletManagementBehavior();
+      pmBehavior.usesMethodGet = true;
+      serviceFactory.getRegistry().setPortletManagementBehavior(pmBehavior);
+
+      org.gatein.pc.api.PortletContext portletContext = org.gatein.pc.api.PortletContext.createPortletContext(TestPortletManagementBehavior.HANDLE_FOR_GET_DESCRIPTION, false);
+      try
+      {
+         info.getPortlet(portletContext);
+         fail("Excluded portlet should not be found");
+      }
+      catch (NoSuchPortletException expected)
+      {
+         // expected
+      }
+
+      // the portlet description was retrieved but the service description wasn't refreshed
+      assertEquals(1, pmBehavior.getCallCount());
+      assertEquals(1, behavior.getCallCount());
+      assertEquals(1, info.getNumberOfPortlets());
+   }
+
+   public void testPublishedPortletMapsAreImmutableSnapshots() throws Exception
+   {
+      ServiceDescriptionBehavior behavior = new ServiceDescriptionBehavior();
+      behavior.addPortletDescription(behavior.createPortletDescription("test", null));
+      behavior.addPortletDescription(behavior.createPortletDescription("other", null));
+      serviceFactory.getRegistry().setServiceDescriptionBehavior(behavior);
+      info.setExpirationCacheSeconds(1000);
+
+      Map<String, Portlet> pops = info.getProducerOffereedPortletMap();
+      assertEquals(2, pops.size());
+
+      try
+      {
+         pops.remove("test");
+         fail("Published POPs should not be modifiable");
+      }
+      catch (UnsupportedOperationException expected)
+      {
+         // expected
+      }
+
+      // removing a handle publishes a new snapshot without affecting the one previously obtained
+      info.removeHandleFromCaches("test");
+      assertEquals(2, pops.size());
+      assertEquals(1, info.getProducerOffereedPortletMap().size());
+      assertEquals(1, info.getNumberOfPortlets());
+      assertEquals(1, behavior.getCallCount());
+   }
+
    public void testRefreshAndRegistration() throws Exception
    {
       assertFalse(info.isRegistered());
@@ -554,12 +682,14 @@ public class ProducerInfoTestCase extends TestCase
    {
 
       public static final String HANDLE_FOR_GET_DESCRIPTION = "test2";
+      private boolean usesMethodGet;
 
       @Override
       public void getPortletDescription(@WebParam(name = "registrationContext", targetNamespace = "urn:oasis:names:tc:wsrp:v2:types") RegistrationContext registrationContext, @WebParam(name = "portletContext", targetNamespace = "urn:oasis:names:tc:wsrp:v2:types") PortletContext portletContext, @WebParam(name = "userContext", targetNamespace = "urn:oasis:names:tc:wsrp:v2:types") UserContext userContext, @WebParam(name = "desiredLocales", targetNamespace = "urn:oasis:names:tc:wsrp:v2:types") List<String> desiredLocales, @WebParam(name = "portletDescription", targetNamespace = "urn:oasis:names:tc:wsrp:v2:types", mode = WebParam.Mode.OUT) Holder<PortletDescription> portletDescription, @WebParam(name = "resourceList", targetNamespace = "urn:oasis:names:tc:wsrp:v2:types", mode = WebParam.Mode.OUT) Holder<ResourceList> resourceList, @WebParam(name = "extensions", targetNamespace = "urn:oasis:names:tc:wsrp:v2:types", mode = WebParam.Mode.OUT) Holder<List<Extension>> extensions) throws AccessDenied, InconsistentParameters, InvalidHandle, InvalidRegistration, InvalidUserCategory, MissingParameters, ModifyRegistrationRequired, OperationFailed, OperationNotSupported, ResourceSuspended
       {
          super.getPortletDescription(registrationContext, portletContext, userContext, desiredLocales, portletDescription, resourceList, extensions);
          portletDescription.value = createPortletDescription(HANDLE_FOR_GET_DESCRIPTION, null);
+         portletDescription.value.setUsesMethodGet(usesMethodGet);
       }
    }
 
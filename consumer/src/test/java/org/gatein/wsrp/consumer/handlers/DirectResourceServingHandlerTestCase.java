@@ -0,0 +1,275 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2012, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wsrp.consumer.handlers;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import junit.framework.TestCase;
+import org.gatein.pc.api.invocation.response.ContentResponse;
+import org.gatein.wsrp.WSRPTypeFactory;
+import org.gatein.wsrp.api.servlet.ServletAccess;
+import org.gatein.wsrp.test.support.MockWSRPConsumer;
+import org.oasis.wsrp.v2.GetResource;
+import org.oasis.wsrp.v2.ResourceContext;
+import org.oasis.wsrp.v2.ResourceParams;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
+ * @version $Revision$
+ */
+public class DirectResourceServingHandlerTestCase extends TestCase
+{
+   private static final String MARKUP = "<a href='wsrp_rewrite?wsrp-urlType=render/wsrp_rewrite'>link</a>";
+
+   private static final byte[] CONTENT = "content".getBytes();
+   private static final String ETAG = "\"tag\"";
+
+   private DirectResourceServingHandler handler;
+   private File file;
+   private HttpServer server;
+
+   @Override
+   protected void setUp() throws Exception
+   {
+      handler = new DirectResourceServingHandler(new MockWSRPConsumer("foo"));
+   }
+
+   @Override
+   protected void tearDown() throws Exception
+   {
+      ServletAccess.setRequestAndResponse(null, null);
+      if (file != null)
+      {
+         file.delete();
+      }
+      if (server != null)
+      {
+         server.stop(0);
+      }
+   }
+
+   public void testTextResourceIsKeptAsBytes() throws Exception
+   {
+      ResourceContext context = getResource(".html", MARKUP.getBytes("UTF-8"));
+
+      assertNull(context.getItemString());
+      assertEquals(MARKUP, new String(context.getItemBinary(), "UTF-8"));
+      assertTrue(context.isRequiresRewriting());
+   }
+
+   public void testLargeTextResourceIsNotRewritten() throws Exception
+   {
+      handler.setMaximumRewritableSize(10);
+      ResourceContext context = getResource(".html", MARKUP.getBytes("UTF-8"));
+
+      assertEquals(MARKUP, new String(context.getItemBinary(), "UTF-8"));
+      assertFalse(context.isRequiresRewriting());
+   }
+
+   public void testLargeResourceIsStreamed() throws Exception
+   {
+      HttpServletResponse response = mock(HttpServletResponse.class);
+      ServletOutputStream out = mock(ServletOutputStream.class);
+      when(response.getOutputStream()).thenReturn(out);
+      ServletAccess.setRequestAndResponse(null, response);
+
+      handler.setStreamingThreshold(10);
+      byte[] content = new byte[1024];
+      ResourceContext context = getResource(".gif", content);
+
+      assertEquals(0, context.getItemBinary().length);
+      assertFalse(context.isRequiresRewriting());
+      verify(response).setContentLength(content.length);
+      verify(out).flush();
+   }
+
+   public void testSmallResourceIsNotStreamed() throws Exception
+   {
+      HttpServletResponse response = mock(HttpServletResponse.class);
+      ServletAccess.setRequestAndResponse(null, response);
+
+      byte[] content = new byte[1024];
+      ResourceContext context = getResource(".gif", content);
+
+      assertEquals(content.length, context.getItemBinary().length);
+      verify(response, never()).getOutputStream();
+   }
+
+   public void testRewritableResourceIsNotStreamed() throws Exception
+   {
+      HttpServletResponse response = mock(HttpServletResponse.class);
+      ServletAccess.setRequestAndResponse(null, response);
+
+      handler.setStreamingThreshold(0);
+      ResourceContext context = getResource(".html", MARKUP.getBytes("UTF-8"));
+
+      assertTrue(context.isRequiresRewriting());
+      verify(response, never()).getOutputStream();
+   }
+
+   public void testConditionalHeadersAreNotForwardedIfResourceCannotBeStreamed() throws Exception
+   {
+      HttpServletResponse response = mock(HttpServletResponse.class);
+      ServletAccess.setRequestAndResponse(createConditionalRequest(), response);
+      handler.setStreamingThreshold(-1);
+
+      ResourceContext context = getResource(startServer());
+
+      // producer didn't get the conditional header so sent the whole content
+      assertEquals(new String(CONTENT), new String(context.getItemBinary()));
+      verify(response, never()).setStatus(anyInt());
+   }
+
+   public void testNotModifiedIsPassedThroughToStreamedResponse() throws Exception
+   {
+      HttpServletResponse response = mock(HttpServletResponse.class);
+      ServletAccess.setRequestAndResponse(createConditionalRequest(), response);
+
+      // content is small but the producer's status must be passed along
+      ResourceContext context = getResource(startServer());
+
+      assertEquals(0, context.getItemBinary().length);
+      verify(response).setStatus(HttpURLConnection.HTTP_NOT_MODIFIED);
+      verify(response, never()).getOutputStream();
+   }
+
+   public void testHeadersAreEitherStreamedOrReturned() throws Exception
+   {
+      final String url = startServer();
+
+      // streamed: headers are written to the portal's response and not returned
+      HttpServletResponse response = mock(HttpServletResponse.class);
+      when(response.getOutputStream()).thenReturn(mock(ServletOutputStream.class));
+      ServletAccess.setRequestAndResponse(null, response);
+      handler.setStreamingThreshold(1);
+      ResourceContext context = getResource(url);
+      verify(response).addHeader("Etag", ETAG);
+      ContentResponse contentResponse = (ContentResponse)handler.createContentResponse(context, null, null, context.getMimeType(), context.getItemBinary(), null, null);
+      assertNull(contentResponse.getProperties());
+
+      // buffered: headers are returned
+      handler.setStreamingThreshold(-1);
+      context = getResource(url);
+      contentResponse = (ContentResponse)handler.createContentResponse(context, null, null, context.getMimeType(), context.getItemBinary(), null, null);
+      assertEquals(ETAG, contentResponse.getProperties().getTransportHeaders().getValue("Etag"));
+      assertNull(contentResponse.getProperties().getTransportHeaders().getValue("Content-length"));
+   }
+
+   public void testReadContent() throws IOException
+   {
+      byte[] content = "content".getBytes("UTF-8");
+      assertEquals("content", new String(DirectResourceServingHandler.readContent(new ByteArrayInputStream(content), content.length), "UTF-8"));
+      assertEquals("content", new String(DirectResourceServingHandler.readContent(new ByteArrayInputStream(content), -1), "UTF-8"));
+
+      try
+      {
+         DirectResourceServingHandler.readContent(new ByteArrayInputStream(content), content.length + 1);
+         fail("Should have failed on truncated content");
+      }
+      catch (IOException e)
+      {
+         // expected
+      }
+   }
+
+   private ResourceContext getResource(String suffix, byte[] content) throws Exception
+   {
+      file = File.createTempFile("resource", suffix);
+      FileOutputStream out = new FileOutputStream(file);
+      try
+      {
+         out.write(content);
+      }
+      finally
+      {
+         out.close();
+      }
+
+      return getResource(file.toURI().toURL().toExternalForm());
+   }
+
+   private ResourceContext getResource(String url) throws Exception
+   {
+      ResourceParams params = WSRPTypeFactory.createDefaultResourceParams(url);
+      params.setClientData(WSRPTypeFactory.createClientData("test", "GET"));
+      GetResource getResource = WSRPTypeFactory.createGetResource(null, WSRPTypeFactory.createPortletContext("handle"),
+         WSRPTypeFactory.createRuntimeContext("none", "key", "ns"), null, params);
+
+      return handler.performRequest(getResource).getResourceContext();
+   }
+
+   private static HttpServletRequest createConditionalRequest()
+   {
+      HttpServletRequest request = mock(HttpServletRequest.class);
+      when(request.getHeader("If-None-Match")).thenReturn(ETAG);
+      return request;
+   }
+
+   /**
+    * Starts an HTTP server answering with a not modified status if the request matches its ETag.
+    *
+    * @return the URL of the resource served by the server
+    */
+   private String startServer() throws IOException
+   {
+      server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+      server.createContext("/resource", new HttpHandler()
+      {
+         public void handle(HttpExchange exchange) throws IOException
+         {
+            exchange.getResponseHeaders().add("Content-Type", "image/gif");
+            exchange.getResponseHeaders().add("ETag", ETAG);
+            if (ETAG.equals(exchange.getRequestHeaders().getFirst("If-None-Match")))
+            {
+               exchange.sendResponseHeaders(HttpURLConnection.HTTP_NOT_MODIFIED, -1);
+            }
+            else
+            {
+               exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, CONTENT.length);
+               exchange.getResponseBody().write(CONTENT);
+            }
+            exchange.close();
+         }
+      });
+      server.start();
+      return "http://localhost:" + server.getAddress().getPort() + "/resource";
+   }
+}
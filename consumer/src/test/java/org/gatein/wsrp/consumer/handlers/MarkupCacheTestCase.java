@@ -0,0 +1,189 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2012, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wsrp.consumer.handlers;
+
+import junit.framework.TestCase;
+import org.gatein.wsrp.WSRPConstants;
+import org.gatein.wsrp.WSRPTypeFactory;
+import org.oasis.wsrp.v2.CacheControl;
+import org.oasis.wsrp.v2.MarkupContext;
+import org.oasis.wsrp.v2.MarkupParams;
+import org.oasis.wsrp.v2.RuntimeContext;
+
+import java.util.Collections;
+
+/**
+ * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
+ * @version $Revision$
+ */
+public class MarkupCacheTestCase extends TestCase
+{
+   private static final String HANDLE = "handle";
+   private static final String USER = "user";
+   private static final RuntimeContext WINDOW = createRuntimeContext("window", "ns");
+   private MarkupCache cache;
+
+   @Override
+   protected void setUp() throws Exception
+   {
+      cache = new MarkupCache("producer");
+   }
+
+   public void testPerUserScope()
+   {
+      MarkupParams params = createMarkupParams(WSRPConstants.VIEW_MODE);
+      cache.put(HANDLE, WINDOW, params, USER, createMarkupContext(60, WSRPConstants.CACHE_PER_USER, null));
+
+      MarkupCache.Entry entry = cache.get(HANDLE, WINDOW, createMarkupParams(WSRPConstants.VIEW_MODE), USER);
+      assertNotNull(entry);
+      assertEquals("markup", entry.getMarkupContext().getItemString());
+      assertTrue(entry.isFresh(System.currentTimeMillis()));
+
+      assertNull(cache.get(HANDLE, WINDOW, params, "other"));
+      assertNull(cache.get(HANDLE, WINDOW, params, null));
+      assertNull(cache.get(HANDLE, WINDOW, createMarkupParams(WSRPConstants.EDIT_MODE), USER));
+   }
+
+   public void testPerUserScopeWithoutUserIsNotCached()
+   {
+      assertNull(cache.put(HANDLE, WINDOW, createMarkupParams(WSRPConstants.VIEW_MODE), null, createMarkupContext(60, WSRPConstants.CACHE_PER_USER, null)));
+      assertEquals(0, cache.size());
+   }
+
+   public void testForAllScope()
+   {
+      MarkupParams params = createMarkupParams(WSRPConstants.VIEW_MODE);
+      cache.put(HANDLE, WINDOW, params, USER, createMarkupContext(60, WSRPConstants.CACHE_FOR_ALL, null));
+
+      assertNotNull(cache.get(HANDLE, WINDOW, params, USER));
+      assertNotNull(cache.get(HANDLE, WINDOW, params, "other"));
+      assertNotNull(cache.get(HANDLE, WINDOW, params, null));
+   }
+
+   public void testNotCacheable()
+   {
+      MarkupParams params = createMarkupParams(WSRPConstants.VIEW_MODE);
+      assertNull(cache.put(HANDLE, WINDOW, params, USER, createMarkupContext(0, WSRPConstants.CACHE_FOR_ALL, null)));
+
+      MarkupContext noCacheControl = WSRPTypeFactory.createMarkupContext("text/html", "markup", null, null);
+      assertNull(cache.put(HANDLE, WINDOW, params, USER, noCacheControl));
+      assertEquals(0, cache.size());
+   }
+
+   public void testExpiredWithValidateTag()
+   {
+      MarkupParams params = createMarkupParams(WSRPConstants.VIEW_MODE);
+      MarkupCache.Entry entry = cache.put(HANDLE, WINDOW, params, USER, createMarkupContext(0, WSRPConstants.CACHE_FOR_ALL, "tag"));
+      assertNotNull(entry);
+      assertFalse(entry.isFresh(System.currentTimeMillis()));
+      assertEquals("tag", entry.getValidateTag());
+
+      entry = cache.put(HANDLE, WINDOW, params, USER, createMarkupContext(1, WSRPConstants.CACHE_FOR_ALL, "tag"));
+      assertTrue(entry.isFresh(System.currentTimeMillis()));
+      assertFalse(entry.isFresh(System.currentTimeMillis() + 1001));
+
+      entry = cache.put(HANDLE, WINDOW, params, USER, createMarkupContext(-1, WSRPConstants.CACHE_FOR_ALL, "tag"));
+      assertTrue(entry.isFresh(Long.MAX_VALUE));
+   }
+
+   public void testUseCachedItem()
+   {
+      MarkupParams params = createMarkupParams(WSRPConstants.VIEW_MODE);
+      assertNull(cache.useCachedItem(HANDLE, WINDOW, params, USER, null));
+
+      cache.put(HANDLE, WINDOW, params, USER, createMarkupContext(0, WSRPConstants.CACHE_PER_USER, "tag"));
+
+      MarkupContext cached = cache.useCachedItem(HANDLE, WINDOW, params, USER, WSRPTypeFactory.createCacheControl(30, WSRPConstants.CACHE_PER_USER));
+      assertNotNull(cached);
+      assertEquals("markup", cached.getItemString());
+      assertEquals(30, cached.getCacheControl().getExpires());
+
+      MarkupCache.Entry entry = cache.get(HANDLE, WINDOW, params, USER);
+      assertTrue(entry.isFresh(System.currentTimeMillis()));
+   }
+
+   public void testInvalidate()
+   {
+      cache.put(HANDLE, WINDOW, createMarkupParams(WSRPConstants.VIEW_MODE), USER, createMarkupContext(60, WSRPConstants.CACHE_PER_USER, null));
+      cache.put(HANDLE, WINDOW, createMarkupParams(WSRPConstants.EDIT_MODE), USER, createMarkupContext(60, WSRPConstants.CACHE_FOR_ALL, null));
+      cache.put("other", WINDOW, createMarkupParams(WSRPConstants.VIEW_MODE), USER, createMarkupContext(60, WSRPConstants.CACHE_FOR_ALL, null));
+      assertEquals(3, cache.size());
+
+      cache.invalidate(HANDLE);
+      assertEquals(1, cache.size());
+      assertNotNull(cache.get("other", WINDOW, createMarkupParams(WSRPConstants.VIEW_MODE), USER));
+   }
+
+   public void testMaximumSize()
+   {
+      cache = new MarkupCache("producer", 1);
+      cache.put(HANDLE, WINDOW, createMarkupParams(WSRPConstants.VIEW_MODE), USER, createMarkupContext(60, WSRPConstants.CACHE_FOR_ALL, null));
+      cache.put("other", WINDOW, createMarkupParams(WSRPConstants.VIEW_MODE), USER, createMarkupContext(60, WSRPConstants.CACHE_FOR_ALL, null));
+
+      assertEquals(1, cache.size());
+      assertNull(cache.get(HANDLE, WINDOW, createMarkupParams(WSRPConstants.VIEW_MODE), USER));
+   }
+
+   public void testWindowsOfSamePortletDontShareMarkup()
+   {
+      MarkupParams params = createMarkupParams(WSRPConstants.VIEW_MODE);
+      RuntimeContext other = createRuntimeContext("other", "ns2");
+      cache.put(HANDLE, WINDOW, params, USER, createMarkupContext(60, WSRPConstants.CACHE_FOR_ALL, null));
+
+      assertNotNull(cache.get(HANDLE, createRuntimeContext("window", "ns"), params, USER));
+      assertNull(cache.get(HANDLE, other, params, USER));
+      assertNull(cache.get(HANDLE, createRuntimeContext("window", "ns2"), params, USER));
+      assertNull(cache.get(HANDLE, createRuntimeContext("other", "ns"), params, USER));
+
+      MarkupContext otherMarkup = WSRPTypeFactory.createMarkupContext("text/html", "other markup", null, null);
+      otherMarkup.setCacheControl(WSRPTypeFactory.createCacheControl(60, WSRPConstants.CACHE_FOR_ALL));
+      cache.put(HANDLE, other, params, USER, otherMarkup);
+      assertEquals(2, cache.size());
+      assertEquals("markup", cache.get(HANDLE, WINDOW, params, USER).getMarkupContext().getItemString());
+      assertEquals("other markup", cache.get(HANDLE, other, params, USER).getMarkupContext().getItemString());
+
+      // invalidating the portlet should remove the fragments of all its windows
+      cache.invalidate(HANDLE);
+      assertEquals(0, cache.size());
+   }
+
+   private static RuntimeContext createRuntimeContext(String portletInstanceKey, String namespacePrefix)
+   {
+      return WSRPTypeFactory.createRuntimeContext(WSRPConstants.NONE_USER_AUTHENTICATION, portletInstanceKey, namespacePrefix);
+   }
+
+   private static MarkupParams createMarkupParams(String mode)
+   {
+      return WSRPTypeFactory.createMarkupParams(false, Collections.singletonList("en"), Collections.singletonList("text/html"), mode, WSRPConstants.NORMAL_WINDOW_STATE);
+   }
+
+   private static MarkupContext createMarkupContext(int expires, String userScope, String validateTag)
+   {
+      MarkupContext markupContext = WSRPTypeFactory.createMarkupContext("text/html", "markup", null, null);
+      CacheControl cacheControl = WSRPTypeFactory.createCacheControl(expires, userScope);
+      cacheControl.setValidateTag(validateTag);
+      markupContext.setCacheControl(cacheControl);
+      return markupContext;
+   }
+}
@@ -0,0 +1,110 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2012, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wsrp.consumer.handlers;
+
+import junit.framework.TestCase;
+import org.gatein.common.text.TextTools;
+
+/**
+ * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
+ * @version $Revision$
+ */
+public class MarkupRewriterTestCase extends TestCase
+{
+   private static final String NAMESPACE = "ns_";
+   private static final TextTools.StringReplacementGenerator GENERATOR = new TextTools.StringReplacementGenerator()
+   {
+      public String getReplacementFor(String match, String prefix, String suffix, boolean matchedPrefixOnly)
+      {
+         return "[" + match + "]";
+      }
+   };
+
+   public void testNothingToRewrite()
+   {
+      String markup = "<div>nothing to see here</div>";
+      assertSame(markup, MarkupRewriter.rewrite(markup, NAMESPACE, GENERATOR));
+      assertNull(MarkupRewriter.rewrite(null, NAMESPACE, GENERATOR));
+   }
+
+   public void testURLsAndTokens()
+   {
+      check("<a href='wsrp_rewrite?foo/wsrp_rewrite' id='wsrp_rewrite_bar'>wsrp_rewrite_</a>",
+         "<a href='[foo]' id='ns_bar'>ns_</a>");
+      check("wsrp_rewrite?a/wsrp_rewritewsrp_rewrite?b/wsrp_rewrite", "[a][b]");
+      check("wsrp_rewrite_wsrp_rewrite?a/wsrp_rewrite", "ns_[a]");
+      check("wsrp_rewrite?/wsrp_rewrite", "[]");
+   }
+
+   public void testUnterminatedURL()
+   {
+      check("wsrp_rewrite?a/wsrp_rewrite wsrp_rewrite?b wsrp_rewrite_", "[a] wsrp_rewrite?b ns_");
+      check("wsrp_rewrite?b wsrp_rewrite?c", "wsrp_rewrite?b wsrp_rewrite?c");
+   }
+
+   public void testStrayDelimitersAreKept()
+   {
+      check("/wsrp_rewrite wsrp_rewrite wsrp_rewrite", "/wsrp_rewrite wsrp_rewrite wsrp_rewrite");
+   }
+
+   public void testTokensInReplacementsAreReplaced()
+   {
+      TextTools.StringReplacementGenerator generator = new TextTools.StringReplacementGenerator()
+      {
+         public String getReplacementFor(String match, String prefix, String suffix, boolean matchedPrefixOnly)
+         {
+            return match;
+         }
+      };
+      assertEquals("ns_foo", MarkupRewriter.rewrite("wsrp_rewrite?wsrp_rewrite_foo/wsrp_rewrite", NAMESPACE, generator));
+   }
+
+   public void testNamespaceIsUsedLiterally()
+   {
+      assertEquals("a$1\\b", MarkupRewriter.rewrite("awsrp_rewrite_b", "$1\\", GENERATOR));
+   }
+
+   public void testMightNeedRewriting() throws Exception
+   {
+      assertFalse(MarkupRewriter.mightNeedRewriting(null, "UTF-8"));
+      assertFalse(MarkupRewriter.mightNeedRewriting("nothing".getBytes("UTF-8"), "UTF-8"));
+      assertFalse(MarkupRewriter.mightNeedRewriting("wsrp_rewrit".getBytes("UTF-8"), "UTF-8"));
+      assertTrue(MarkupRewriter.mightNeedRewriting("a wsrp_rewrite_".getBytes("UTF-8"), "UTF-8"));
+      assertTrue(MarkupRewriter.mightNeedRewriting("wsrp_rewrite".getBytes("ISO-8859-1"), "iso-8859-1"));
+
+      // can't look at raw bytes for other charsets
+      assertTrue(MarkupRewriter.mightNeedRewriting("nothing".getBytes("UTF-16"), "UTF-16"));
+   }
+
+   public void testReplace()
+   {
+      assertEquals("a-b-c", MarkupRewriter.replace("a\\x2Db\\x2Dc", "\\x2D", "-"));
+      assertEquals("abc", MarkupRewriter.replace("abc", "-", "+"));
+   }
+
+   private static void check(String markup, String expected)
+   {
+      assertEquals(expected, MarkupRewriter.rewrite(markup, NAMESPACE, GENERATOR));
+   }
+}
@@ -0,0 +1,65 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2012, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wsrp.consumer.handlers;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+
+/**
+ * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
+ * @version $Revision$
+ */
+public class MultiPartUtilTestCase extends TestCase
+{
+   public void testReadUploadDataInMemory() throws Exception
+   {
+      byte[] content = createContent(1000);
+      assertTrue(Arrays.equals(content, MultiPartUtil.readUploadData(new ByteArrayInputStream(content), 1000)));
+   }
+
+   public void testReadUploadDataSpooled() throws Exception
+   {
+      // larger than the copy buffer so that data is spooled in several chunks
+      byte[] content = createContent(50 * 1024 + 17);
+      assertTrue(Arrays.equals(content, MultiPartUtil.readUploadData(new ByteArrayInputStream(content), 10 * 1024)));
+      assertTrue(Arrays.equals(content, MultiPartUtil.readUploadData(new ByteArrayInputStream(content), 0)));
+   }
+
+   public void testReadEmptyUploadData() throws Exception
+   {
+      assertEquals(0, MultiPartUtil.readUploadData(new ByteArrayInputStream(new byte[0]), 0).length);
+   }
+
+   private static byte[] createContent(int size)
+   {
+      byte[] content = new byte[size];
+      for (int i = 0; i < size; i++)
+      {
+         content[i] = (byte)i;
+      }
+      return content;
+   }
+}
@@ -40,6 +40,7 @@ import java.net.URL;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
 
 /**
  * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
@@ -102,6 +103,22 @@ public abstract class ConsumerRegistryTestCase extends TestCase
       assertEquals(1, registry.getConfiguredConsumerNumber());
    }
 
+   public void testMarkupRendererFollowsRegistryLifecycle() throws Exception
+   {
+      assertNull(registry.getMarkupRenderer());
+      assertNull(registry.getRefreshExecutor());
+
+      registry.start();
+      assertNotNull(registry.getMarkupRenderer());
+      final ScheduledExecutorService refreshExecutor = registry.getRefreshExecutor();
+      assertNotNull(refreshExecutor);
+
+      registry.stop();
+      assertNull(registry.getMarkupRenderer());
+      assertNull(registry.getRefreshExecutor());
+      assertTrue(refreshExecutor.isShutdown());
+   }
+
    public void testGetConsumer()
    {
       assertNull(registry.getConsumer("inexistent"));
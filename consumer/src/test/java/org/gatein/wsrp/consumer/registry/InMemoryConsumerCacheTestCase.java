@@ -0,0 +1,113 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2012, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wsrp.consumer.registry;
+
+import junit.framework.TestCase;
+import org.gatein.wsrp.WSRPConsumer;
+import org.gatein.wsrp.consumer.ProducerInfo;
+import org.gatein.wsrp.consumer.spi.ConsumerRegistrySPI;
+
+import java.util.Collections;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
+ */
+public class InMemoryConsumerCacheTestCase extends TestCase
+{
+   private static final String ID = "producer";
+
+   private ConsumerRegistrySPI registry;
+   private AbstractConsumerRegistry.InMemoryConsumerCache cache;
+   private InMemoryConsumerInvalidationBus bus;
+
+   @Override
+   protected void setUp() throws Exception
+   {
+      registry = mock(ConsumerRegistrySPI.class);
+
+      ProducerInfo info = mock(ProducerInfo.class);
+      when(info.getId()).thenReturn(ID);
+      when(info.getLastModified()).thenReturn(1L);
+
+      WSRPConsumer consumer = mock(WSRPConsumer.class);
+      when(consumer.getProducerInfo()).thenReturn(info);
+
+      when(registry.getProducerInfosFromStorage()).thenReturn(Collections.singletonList(info).iterator());
+      when(registry.createConsumerFrom(info, false)).thenReturn(consumer);
+      when(registry.getPersistedLastModifiedForProducerInfoWith(ID)).thenReturn(1L);
+      when(registry.getConfiguredConsumersIds()).thenReturn(Collections.singletonList(ID));
+
+      cache = new AbstractConsumerRegistry.InMemoryConsumerCache(registry);
+      cache.initFromStorage();
+
+      bus = new InMemoryConsumerInvalidationBus();
+   }
+
+   public void testPersistenceIsCheckedOnEachAccessWithoutBus()
+   {
+      assertNotNull(cache.getConsumer(ID));
+      assertNotNull(cache.getConsumer(ID));
+      verify(registry, times(2)).getPersistedLastModifiedForProducerInfoWith(ID);
+
+      assertEquals(1, cache.getConsumers().size());
+      verify(registry, times(1)).getConfiguredConsumersIds();
+   }
+
+   public void testPersistenceIsOnlyCheckedAfterInvalidationWithBus()
+   {
+      bus.addListener(cache);
+      cache.setUsingInvalidationBus(true);
+
+      assertNotNull(cache.getConsumer(ID));
+      assertNotNull(cache.getConsumer(ID));
+      assertEquals(1, cache.getConsumers().size());
+      verify(registry, never()).getPersistedLastModifiedForProducerInfoWith(ID);
+      verify(registry, never()).getConfiguredConsumersIds();
+
+      bus.publishInvalidation(ID);
+      assertNotNull(cache.getConsumer(ID));
+      assertNotNull(cache.getConsumer(ID));
+      verify(registry, times(1)).getPersistedLastModifiedForProducerInfoWith(ID);
+
+      bus.publishInvalidation("other");
+      assertEquals(1, cache.getConsumers().size());
+      verify(registry, times(1)).getConfiguredConsumersIds();
+   }
+
+   public void testMaximumStaleness()
+   {
+      bus.addListener(cache);
+      cache.setUsingInvalidationBus(true);
+      cache.setMaximumStaleness(0);
+
+      assertNotNull(cache.getConsumer(ID));
+      verify(registry, times(1)).getPersistedLastModifiedForProducerInfoWith(ID);
+   }
+}
@@ -0,0 +1,182 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2012, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wsrp.protocol.v2;
+
+import org.gatein.pc.api.PortletContext;
+import org.gatein.pc.api.invocation.EventInvocation;
+import org.gatein.pc.api.invocation.response.ErrorResponse;
+import org.gatein.pc.api.invocation.response.PortletInvocationResponse;
+import org.gatein.pc.api.invocation.response.UpdateNavigationalStateResponse;
+import org.gatein.pc.portlet.impl.spi.AbstractInstanceContext;
+import org.gatein.pc.portlet.impl.spi.AbstractPortalContext;
+import org.gatein.pc.portlet.impl.spi.AbstractSecurityContext;
+import org.gatein.pc.portlet.impl.spi.AbstractWindowContext;
+import org.gatein.wsrp.spec.v2.WSRP2Constants;
+import org.gatein.wsrp.test.ExtendedAssert;
+import org.gatein.wsrp.test.protocol.v2.BehaviorRegistry;
+import org.gatein.wsrp.test.protocol.v2.behaviors.EventMarkupBehavior;
+import org.gatein.wsrp.test.support.MockHttpServletRequest;
+import org.gatein.wsrp.test.support.RequestedMarkupBehavior;
+import org.gatein.wsrp.test.support.TestPortletInvocationContext;
+
+import javax.xml.namespace.QName;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Checks that events targeting the same portlet window are sent to the producer in a single handleEvents call.
+ *
+ * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
+ * @version $Revision$
+ */
+public class EventTestCase extends V2ConsumerBaseTest
+{
+   private static final QName A = new QName("urn:test", "a");
+   private static final QName B = new QName("urn:test", "b");
+   private static final QName C = new QName("urn:test", "c");
+
+   private EventMarkupBehavior behavior;
+
+   public EventTestCase() throws Exception
+   {
+      super();
+   }
+
+   @Override
+   public void setUp() throws Exception
+   {
+      super.setUp();
+
+      consumer.getProducerInfo().setSupportedOption(WSRP2Constants.OPTIONS_EVENTS);
+   }
+
+   @Override
+   protected void registerAdditionalMarkupBehaviors(BehaviorRegistry registry)
+   {
+      super.registerAdditionalMarkupBehaviors(registry);
+
+      behavior = new EventMarkupBehavior(registry);
+      registry.registerMarkupBehavior(behavior);
+   }
+
+   public void testEventsForTheSameWindowAreSentInOneCall() throws Exception
+   {
+      List<PortletInvocationResponse> responses = consumer.invokeEvents(Arrays.asList(createEventInvocation("window", A),
+         createEventInvocation("window", B), createEventInvocation("window", C)));
+
+      ExtendedAssert.assertEquals(1, behavior.getCalls().size());
+      ExtendedAssert.assertEquals(Arrays.asList(A, B, C), behavior.getCalls().get(0));
+
+      // the update response reflects the processing of all the events and is only associated with the last one
+      ExtendedAssert.assertEquals(3, responses.size());
+      ExtendedAssert.assertNull(checkUpdate(responses.get(0)).getNavigationalState());
+      ExtendedAssert.assertNull(checkUpdate(responses.get(1)).getNavigationalState());
+      ExtendedAssert.assertEquals(C.getLocalPart(), checkUpdate(responses.get(2)).getNavigationalState().getStringValue());
+   }
+
+   public void testEventsForDifferentWindowsAreSentInSeparateCalls() throws Exception
+   {
+      List<PortletInvocationResponse> responses = consumer.invokeEvents(Arrays.asList(createEventInvocation("window1", A),
+         createEventInvocation("window2", B), createEventInvocation("window1", C)));
+
+      ExtendedAssert.assertEquals(2, behavior.getCalls().size());
+      ExtendedAssert.assertEquals(Arrays.asList(A, C), behavior.getCalls().get(0));
+      ExtendedAssert.assertEquals(Arrays.asList(B), behavior.getCalls().get(1));
+
+      // responses are returned in the order in which the invocations were passed
+      ExtendedAssert.assertEquals(3, responses.size());
+      ExtendedAssert.assertNull(checkUpdate(responses.get(0)).getNavigationalState());
+      ExtendedAssert.assertEquals(B.getLocalPart(), checkUpdate(responses.get(1)).getNavigationalState().getStringValue());
+      ExtendedAssert.assertEquals(C.getLocalPart(), checkUpdate(responses.get(2)).getNavigationalState().getStringValue());
+   }
+
+   public void testFailedEventsAreMappedBackToTheirInvocation() throws Exception
+   {
+      List<PortletInvocationResponse> responses = consumer.invokeEvents(Arrays.asList(createEventInvocation("window", A),
+         createEventInvocation("window", EventMarkupBehavior.FAILING_EVENT), createEventInvocation("window", C)));
+
+      ExtendedAssert.assertEquals(1, behavior.getCalls().size());
+      ExtendedAssert.assertEquals(3, responses.size());
+      ExtendedAssert.assertNull(checkUpdate(responses.get(0)).getNavigationalState());
+      ExtendedAssert.assertTrue(responses.get(1) instanceof ErrorResponse);
+      ExtendedAssert.assertTrue(((ErrorResponse)responses.get(1)).getMessage().contains(EventMarkupBehavior.FAILING_EVENT.toString()));
+      ExtendedAssert.assertEquals(C.getLocalPart(), checkUpdate(responses.get(2)).getNavigationalState().getStringValue());
+   }
+
+   public void testUpdateIsAssociatedWithLastSuccessfulEvent() throws Exception
+   {
+      List<PortletInvocationResponse> responses = consumer.invokeEvents(Arrays.asList(createEventInvocation("window", A),
+         createEventInvocation("window", B), createEventInvocation("window", EventMarkupBehavior.FAILING_EVENT)));
+
+      ExtendedAssert.assertEquals(3, responses.size());
+      ExtendedAssert.assertNull(checkUpdate(responses.get(0)).getNavigationalState());
+      ExtendedAssert.assertEquals(B.getLocalPart(), checkUpdate(responses.get(1)).getNavigationalState().getStringValue());
+      ExtendedAssert.assertTrue(responses.get(2) instanceof ErrorResponse);
+   }
+
+   public void testEventsAreSentOneByOneIfProducerRejectsSeveralEvents() throws Exception
+   {
+      behavior.setAcceptingSeveralEvents(false);
+
+      List<PortletInvocationResponse> responses = consumer.invokeEvents(Arrays.asList(createEventInvocation("window", A),
+         createEventInvocation("window", B)));
+
+      // the batched call is rejected then each event is sent on its own, in order
+      ExtendedAssert.assertEquals(3, behavior.getCalls().size());
+      ExtendedAssert.assertEquals(Arrays.asList(A, B), behavior.getCalls().get(0));
+      ExtendedAssert.assertEquals(Arrays.asList(A), behavior.getCalls().get(1));
+      ExtendedAssert.assertEquals(Arrays.asList(B), behavior.getCalls().get(2));
+
+      ExtendedAssert.assertEquals(2, responses.size());
+      ExtendedAssert.assertEquals(A.getLocalPart(), checkUpdate(responses.get(0)).getNavigationalState().getStringValue());
+      ExtendedAssert.assertEquals(B.getLocalPart(), checkUpdate(responses.get(1)).getNavigationalState().getStringValue());
+   }
+
+   private UpdateNavigationalStateResponse checkUpdate(PortletInvocationResponse response)
+   {
+      ExtendedAssert.assertNotNull(response);
+      if (response instanceof ErrorResponse)
+      {
+         ExtendedAssert.fail("Got an ErrorResponse instead of an UpdateNavigationalStateResponse. Message: " + ((ErrorResponse)response).getMessage());
+      }
+      ExtendedAssert.assertTrue("Was expecting an UpdateNavigationalStateResponse. Got: " + response, response instanceof UpdateNavigationalStateResponse);
+      return (UpdateNavigationalStateResponse)response;
+   }
+
+   private EventInvocation createEventInvocation(String windowId, QName name)
+   {
+      EventInvocation event = new EventInvocation(new TestPortletInvocationContext());
+      event.setTarget(PortletContext.createPortletContext(EventMarkupBehavior.PORTLET_HANDLE, false));
+      event.setName(name);
+      event.setInstanceContext(new AbstractInstanceContext(EventMarkupBehavior.PORTLET_HANDLE));
+      event.setWindowContext(new AbstractWindowContext(windowId));
+      event.setSecurityContext(new AbstractSecurityContext(MockHttpServletRequest.createMockRequest(null)));
+      event.setUserContext(new MarkupTestCase.MockUserContext());
+      event.setPortalContext(new AbstractPortalContext());
+
+      RequestedMarkupBehavior.setRequestedMarkupBehavior(EventMarkupBehavior.PORTLET_HANDLE);
+
+      return event;
+   }
+}
@@ -0,0 +1,151 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2012, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wsrp.test.protocol.v2.behaviors;
+
+import org.gatein.pc.api.Mode;
+import org.gatein.pc.api.OpaqueStateString;
+import org.gatein.pc.api.WindowState;
+import org.gatein.wsrp.WSRPTypeFactory;
+import org.gatein.wsrp.spec.v2.ErrorCodes;
+import org.gatein.wsrp.spec.v2.WSRP2ExceptionFactory;
+import org.gatein.wsrp.test.protocol.v2.BehaviorRegistry;
+import org.gatein.wsrp.test.protocol.v2.MarkupBehavior;
+import org.oasis.wsrp.v2.AccessDenied;
+import org.oasis.wsrp.v2.Event;
+import org.oasis.wsrp.v2.EventParams;
+import org.oasis.wsrp.v2.Extension;
+import org.oasis.wsrp.v2.GetMarkup;
+import org.oasis.wsrp.v2.HandleEventsFailed;
+import org.oasis.wsrp.v2.InconsistentParameters;
+import org.oasis.wsrp.v2.InvalidCookie;
+import org.oasis.wsrp.v2.InvalidHandle;
+import org.oasis.wsrp.v2.InvalidRegistration;
+import org.oasis.wsrp.v2.InvalidSession;
+import org.oasis.wsrp.v2.InvalidUserCategory;
+import org.oasis.wsrp.v2.MarkupParams;
+import org.oasis.wsrp.v2.MissingParameters;
+import org.oasis.wsrp.v2.ModifyRegistrationRequired;
+import org.oasis.wsrp.v2.OperationFailed;
+import org.oasis.wsrp.v2.OperationNotSupported;
+import org.oasis.wsrp.v2.PortletContext;
+import org.oasis.wsrp.v2.PortletStateChangeRequired;
+import org.oasis.wsrp.v2.RegistrationContext;
+import org.oasis.wsrp.v2.ResourceSuspended;
+import org.oasis.wsrp.v2.RuntimeContext;
+import org.oasis.wsrp.v2.UnsupportedLocale;
+import org.oasis.wsrp.v2.UnsupportedMimeType;
+import org.oasis.wsrp.v2.UnsupportedMode;
+import org.oasis.wsrp.v2.UnsupportedWindowState;
+import org.oasis.wsrp.v2.UpdateResponse;
+import org.oasis.wsrp.v2.UserContext;
+
+import javax.jws.WebParam;
+import javax.xml.namespace.QName;
+import javax.xml.ws.Holder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Behavior processing events. Records the names of the events received by each handleEvents call, fails events named {@link #FAILING_EVENT}
+ * and sets the navigational state to the local name of the last successfully processed event. Can be told to reject requests containing
+ * several events to mimic producers that don't support batched events.
+ *
+ * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
+ * @version $Revision$
+ */
+public class EventMarkupBehavior extends MarkupBehavior
+{
+   public static final String PORTLET_HANDLE = "EventPortletHandle";
+   public static final QName FAILING_EVENT = new QName("urn:test", "failing");
+
+   private final List<List<QName>> calls = new ArrayList<List<QName>>();
+   private boolean acceptingSeveralEvents = true;
+
+   public EventMarkupBehavior(BehaviorRegistry registry)
+   {
+      super(registry);
+      registerHandle(PORTLET_HANDLE);
+   }
+
+   @Override
+   protected String getMarkupString(Mode mode, WindowState windowState, String navigationalState, GetMarkup getMarkup)
+   {
+      return navigationalState;
+   }
+
+   /**
+    * Retrieves the names of the events received by each handleEvents call, in the order the calls were made.
+    *
+    * @return the names of the events received by each handleEvents call
+    */
+   public List<List<QName>> getCalls()
+   {
+      return calls;
+   }
+
+   public void setAcceptingSeveralEvents(boolean acceptingSeveralEvents)
+   {
+      this.acceptingSeveralEvents = acceptingSeveralEvents;
+   }
+
+   @Override
+   public void handleEvents(@WebParam(name = "registrationContext", targetNamespace = "urn:oasis:names:tc:wsrp:v2:types") RegistrationContext registrationContext, @WebParam(name = "portletContext", targetNamespace = "urn:oasis:names:tc:wsrp:v2:types") PortletContext portletContext, @WebParam(name = "runtimeContext", targetNamespace = "urn:oasis:names:tc:wsrp:v2:types") RuntimeContext runtimeContext, @WebParam(name = "userContext", targetNamespace = "urn:oasis:names:tc:wsrp:v2:types") UserContext userContext, @WebParam(name = "markupParams", targetNamespace = "urn:oasis:names:tc:wsrp:v2:types") MarkupParams markupParams, @WebParam(name = "eventParams", targetNamespace = "urn:oasis:names:tc:wsrp:v2:types") EventParams eventParams, @WebParam(name = "updateResponse", targetNamespace = "urn:oasis:names:tc:wsrp:v2:types", mode = WebParam.Mode.OUT) Holder<UpdateResponse> updateResponse, @WebParam(name = "failedEvents", targetNamespace = "urn:oasis:names:tc:wsrp:v2:types", mode = WebParam.Mode.OUT) Holder<List<HandleEventsFailed>> failedEvents, @WebParam(name = "extensions", targetNamespace = "urn:oasis:names:tc:wsrp:v2:types", mode = WebParam.Mode.OUT) Holder<List<Extension>> extensions) throws AccessDenied, InconsistentParameters, InvalidCookie, InvalidHandle, InvalidRegistration, InvalidSession, InvalidUserCategory, MissingParameters, ModifyRegistrationRequired, OperationFailed, OperationNotSupported, PortletStateChangeRequired, ResourceSuspended, UnsupportedLocale, UnsupportedMimeType, UnsupportedMode, UnsupportedWindowState
+   {
+      final List<Event> events = eventParams.getEvents();
+      List<QName> names = new ArrayList<QName>(events.size());
+      for (Event event : events)
+      {
+         names.add(event.getName());
+      }
+      calls.add(names);
+
+      if (!acceptingSeveralEvents && events.size() > 1)
+      {
+         throw WSRP2ExceptionFactory.throwWSException(OperationNotSupported.class, "Only one event per handleEvents call is supported", null);
+      }
+
+      List<HandleEventsFailed> failed = new ArrayList<HandleEventsFailed>(events.size());
+      String lastProcessed = null;
+      for (int i = 0; i < names.size(); i++)
+      {
+         QName name = names.get(i);
+         if (FAILING_EVENT.equals(name))
+         {
+            failed.add(WSRPTypeFactory.createHandleEventsFailed(i, ErrorCodes.Codes.OPERATIONFAILED, "Couldn't process " + name));
+         }
+         else
+         {
+            lastProcessed = name.getLocalPart();
+         }
+      }
+
+      if (lastProcessed != null)
+      {
+         UpdateResponse ur = WSRPTypeFactory.createUpdateResponse();
+         ur.setNavigationalContext(WSRPTypeFactory.createNavigationalContextOrNull(new OpaqueStateString(lastProcessed), null));
+         updateResponse.value = ur;
+      }
+      failedEvents.value = failed;
+   }
+}
@@ -29,7 +29,9 @@ import org.gatein.pc.api.PortletContext;
 import org.gatein.pc.api.PortletInvokerException;
 import org.gatein.pc.api.PortletStateType;
 import org.gatein.pc.api.PortletStatus;
+import org.gatein.pc.api.invocation.EventInvocation;
 import org.gatein.pc.api.invocation.PortletInvocation;
+import org.gatein.pc.api.invocation.RenderInvocation;
 import org.gatein.pc.api.invocation.response.PortletInvocationResponse;
 import org.gatein.pc.api.state.DestroyCloneFailure;
 import org.gatein.pc.api.state.PropertyChange;
@@ -37,6 +39,7 @@ import org.gatein.pc.api.state.PropertyMap;
 import org.gatein.wsrp.api.session.SessionEvent;
 import org.gatein.wsrp.consumer.ProducerInfo;
 import org.gatein.wsrp.consumer.RefreshResult;
+import org.gatein.wsrp.consumer.handlers.PreparedInvocation;
 import org.gatein.wsrp.consumer.handlers.ProducerSessionInformation;
 import org.gatein.wsrp.consumer.handlers.SessionHandler;
 import org.gatein.wsrp.consumer.handlers.session.SessionRegistry;
@@ -117,6 +120,11 @@ public class MockWSRPConsumer implements WSRPConsumerSPI
       throw new NotYetImplemented();
    }
 
+   public PreparedInvocation prepareRender(RenderInvocation invocation) throws PortletInvokerException
+   {
+      throw new NotYetImplemented();
+   }
+
    public void setSessionRegistry(SessionRegistry sessionInfos)
    {
       throw new NotYetImplemented();
@@ -199,6 +207,11 @@ public class MockWSRPConsumer implements WSRPConsumerSPI
       return null;
    }
 
+   public List<PortletInvocationResponse> invokeEvents(List<EventInvocation> invocations) throws PortletInvokerException
+   {
+      return null;
+   }
+
    public PortletContext createClone(PortletStateType stateType, PortletContext portletContext) throws IllegalArgumentException, PortletInvokerException, UnsupportedOperationException
    {
       return null;
@@ -142,32 +142,35 @@ public class JCRConsumerRegistry extends AbstractConsumerRegistry implements Sto
       this.configurationIS = is;
    }
 
-   public void save(ProducerInfo info, String messageOnError)
+   public void save(final ProducerInfo info, String messageOnError)
    {
-
       try
       {
-         ChromatticSession session = persister.getSession();
-
-         final long now = SupportsLastModified.now();
-
-         // since we're creating a new ProducerInfo, we need to modify the parent as well
-         ProducerInfosMapping pims = getProducerInfosMapping(session);
-         pims.setLastModified(now);
-
-         // use ProducerInfosMapping to create a child ProducerInfo node and initialize it
-         ProducerInfoMapping pim = pims.createProducerInfo(info.getId());
-         // we first need to persist the ProducerInfoMapping as a child of the ProducerInfosMapping element, using its id as path
-         String key = session.persist(pims, pim, info.getId());
-         info.setKey(key);
-         info.setLastModified(now);
-         pim.initFrom(info);
+         // the parent ProducerInfosMapping is modified by every save so perform it as a unit of work in case of conflicts
+         persister.execute(new ChromatticPersister.UnitOfWork<Object>()
+         {
+            public Object perform(ChromatticSession session)
+            {
+               final long now = SupportsLastModified.now();
+
+               // since we're creating a new ProducerInfo, we need to modify the parent as well
+               ProducerInfosMapping pims = getProducerInfosMapping(session);
+               pims.setLastModified(now);
+
+               // use ProducerInfosMapping to create a child ProducerInfo node and initialize it
+               ProducerInfoMapping pim = pims.createProducerInfo(info.getId());
+               // we first need to persist the ProducerInfoMapping as a child of the ProducerInfosMapping element, using its id as path
+               String key = session.persist(pims, pim, info.getId());
+               info.setKey(key);
+               info.setLastModified(now);
+               pim.initFrom(info);
 
-         persister.closeSession(true);
+               return null;
+            }
+         });
       }
       catch (Exception e)
       {
-         persister.closeSession(false);
          throw new ConsumerException(messageOnError, e);
       }
    }
@@ -180,61 +183,53 @@ public class JCRConsumerRegistry extends AbstractConsumerRegistry implements Sto
       }
    }
 
-   public String update(ProducerInfo producerInfo)
+   public String update(final ProducerInfo producerInfo)
    {
       // retrieve the ProducerInfo by its persistence key because it's producer identifier might change (if it's been renamed for example)
-      String key = producerInfo.getKey();
+      final String key = producerInfo.getKey();
       if (key == null)
       {
          throw new IllegalArgumentException("ProducerInfo '" + producerInfo.getId()
             + "' hasn't been persisted and thus cannot be updated.");
       }
 
-      String oldId;
-      String newId;
-      boolean idUnchanged;
-
-      try
+      // the parent ProducerInfosMapping is shared with concurrent writers so perform the update as a unit of work in case of conflicts
+      return persister.execute(new ChromatticPersister.UnitOfWork<String>()
       {
-         ChromatticSession session = persister.getSession();
-
-         // retrieve the mapping associated with the persistence key and if it exists, reset it to the data of the specified ProducerInfo
-         ProducerInfoMapping pim = session.findById(ProducerInfoMapping.class, key);
-         if (pim == null)
+         public String perform(ChromatticSession session)
          {
-            throw new IllegalArgumentException("Couldn't find ProducerInfoMapping associated with key " + key);
-         }
-         oldId = pim.getId();
-         newId = producerInfo.getId();
-         pim.initFrom(producerInfo);
-
-         idUnchanged = oldId.equals(newId);
+            // retrieve the mapping associated with the persistence key and if it exists, reset it to the data of the specified ProducerInfo
+            ProducerInfoMapping pim = session.findById(ProducerInfoMapping.class, key);
+            if (pim == null)
+            {
+               throw new IllegalArgumentException("Couldn't find ProducerInfoMapping associated with key " + key);
+            }
+            String oldId = pim.getId();
+            String newId = producerInfo.getId();
+            pim.initFrom(producerInfo);
 
-         // if the ProducerInfo's last modified date is posterior to the set it's contained in, modify that one too
-         ProducerInfosMapping pims = getProducerInfosMapping(session);
-         final long pimsLastModified = pims.getLastModified();
-         final long lastModified = producerInfo.getLastModified();
-         if (lastModified > pimsLastModified)
-         {
-            pims.setLastModified(lastModified);
-         }
+            boolean idUnchanged = oldId.equals(newId);
 
-         if (!idUnchanged)
-         {
-            // the consumer was renamed, we need to update its parent
-            Map<String, ProducerInfoMapping> nameToProducerInfoMap = pims.getNameToProducerInfoMap();
-            nameToProducerInfoMap.put(pim.getId(), pim);
-         }
+            // if the ProducerInfo's last modified date is posterior to the set it's contained in, modify that one too
+            ProducerInfosMapping pims = getProducerInfosMapping(session);
+            final long pimsLastModified = pims.getLastModified();
+            final long lastModified = producerInfo.getLastModified();
+            if (lastModified > pimsLastModified)
+            {
+               pims.setLastModified(lastModified);
+            }
 
-         persister.save();
+            if (!idUnchanged)
+            {
+               // the consumer was renamed, we need to update its parent
+               Map<String, ProducerInfoMapping> nameToProducerInfoMap = pims.getNameToProducerInfoMap();
+               nameToProducerInfoMap.put(pim.getId(), pim);
+            }
 
-         // if the consumer's id has changed, return the old one so that state can be updated
-         return idUnchanged ? null : oldId;
-      }
-      finally
-      {
-         persister.closeSession(false);
-      }
+            // if the consumer's id has changed, return the old one so that state can be updated
+            return idUnchanged ? null : oldId;
+         }
+      });
    }
 
    public Iterator<ProducerInfo> getProducerInfosFromStorage()
@@ -30,21 +30,39 @@ import org.gatein.common.util.ParameterValidation;
 import org.gatein.wsrp.SupportsLastModified;
 import org.gatein.wsrp.jcr.mapping.BaseMapping;
 import org.gatein.wsrp.jcr.mapping.mixins.LastModified;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import javax.jcr.InvalidItemStateException;
+import javax.jcr.ItemExistsException;
+import javax.jcr.RepositoryException;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Base class for ChromatticPersister implementations.
+ * <p/>
+ * Each thread works with its own session and saves are not serialized across sessions: conflicts between concurrent sessions are detected
+ * by the JCR repository when saving. Since the conflicting changes were computed from stale data, saving them again cannot succeed so
+ * {@link #execute(UnitOfWork)} discards them and performs the whole unit of work again against the latest persisted state. Saves are
+ * timed and conflicts are counted so that write latency and contention can be monitored.
  *
  * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
  * @version $Revision$
  */
 public abstract class BaseChromatticPersister implements ChromatticPersister
 {
+   private static final Logger log = LoggerFactory.getLogger(BaseChromatticPersister.class);
+
+   /** System property specifying how many times a unit of work is attempted when it conflicts with changes made by concurrent sessions */
+   public static final String SAVE_ATTEMPTS_PROPERTY = "org.gatein.wsrp.jcr.saveAttempts";
+   public static final int DEFAULT_SAVE_ATTEMPTS = 3;
+
    private Chromattic chrome;
 
    // todo: these constants are used in the GateIn integration and maybe should be moved there.
@@ -60,9 +78,41 @@ public abstract class BaseChromatticPersister implements ChromatticPersister
    /** Holds thread-specific ChromatticSessions. */
    private ThreadLocal<ChromatticSession> sessionHolder = new ThreadLocal<ChromatticSession>();
 
+   private final int saveAttempts;
+
+   // write metrics
+   private final AtomicLong saves = new AtomicLong();
+   private final AtomicLong failedSaves = new AtomicLong();
+   private final AtomicLong conflicts = new AtomicLong();
+   private final AtomicLong totalSaveTime = new AtomicLong();
+   private final AtomicLong maxSaveTime = new AtomicLong();
+
    public BaseChromatticPersister(String workspaceName)
    {
       this.workspaceName = workspaceName;
+      saveAttempts = getSaveAttempts();
+   }
+
+   private static int getSaveAttempts()
+   {
+      final String attempts = System.getProperty(SAVE_ATTEMPTS_PROPERTY);
+      if (attempts != null)
+      {
+         try
+         {
+            final int value = Integer.parseInt(attempts);
+            if (value > 0)
+            {
+               return value;
+            }
+         }
+         catch (NumberFormatException e)
+         {
+            // ignore and use default
+         }
+         log.info("Ignoring invalid value '" + attempts + "' for " + SAVE_ATTEMPTS_PROPERTY + ", using default: " + DEFAULT_SAVE_ATTEMPTS);
+      }
+      return DEFAULT_SAVE_ATTEMPTS;
    }
 
    /**
@@ -116,18 +166,33 @@ public abstract class BaseChromatticPersister implements ChromatticPersister
       }
    }
 
+   /**
+    * Opens a new ChromatticSession which, contrary to the ones returned by {@link #getSession()}, is not bound to the
+    * current thread. This is useful for long-lived sessions, such as ones used to listen to JCR observation events.
+    * Callers are responsible for closing the returned session.
+    *
+    * @return a new ChromatticSession not bound to the current thread
+    */
+   public ChromatticSession openDetachedSession()
+   {
+      return chrome.openSession();
+   }
+
    public void closeSession(boolean save)
    {
       ChromatticSession session = getOpenedSessionOrFail();
-      if (save)
+      try
       {
-         synchronized (this)
+         if (save)
          {
-            session.save();
+            save(session);
          }
       }
-      session.close();
-      sessionHolder.set(null);
+      finally
+      {
+         session.close();
+         sessionHolder.set(null);
+      }
    }
 
    @Override
@@ -147,41 +212,203 @@ public abstract class BaseChromatticPersister implements ChromatticPersister
       return session;
    }
 
-   public synchronized void save()
+   public void save()
    {
-      getOpenedSessionOrFail().save();
+      save(getOpenedSessionOrFail());
    }
 
-   public <T> boolean delete(T toDelete, StoresByPathManager<T> manager)
+   public <T> T execute(UnitOfWork<T> work)
    {
-      Class<?> modelClass = toDelete.getClass();
-      Class<? extends BaseMapping> baseMappingClass = modelToMapping.get(modelClass);
-      if (baseMappingClass == null)
+      ParameterValidation.throwIllegalArgExceptionIfNull(work, "UnitOfWork");
+
+      // if a caller already opened a session on this thread, it owns it: don't close it and don't discard its pending changes on conflict
+      final ChromatticSession current = sessionHolder.get();
+      if (current != null && !current.isClosed())
       {
-         throw new IllegalArgumentException("Cannot find a mapping class for " + modelClass.getName());
+         T result = work.perform(current);
+         save(current);
+         return result;
       }
 
-      ChromatticSession session = getSession();
+      try
+      {
+         ChromatticSession session = getSession();
+
+         int attempt = 1;
+         while (true)
+         {
+            // conflicts on the last attempt are propagated
+            final boolean retryOnConflict = attempt < saveAttempts;
+            try
+            {
+               T result = work.perform(session);
+               if (save(session, retryOnConflict))
+               {
+                  return result;
+               }
+            }
+            catch (RuntimeException e)
+            {
+               // the unit of work itself can run into a conflict, e.g. when adding a node that a concurrent session just created
+               if (!retryOnConflict || !isConflict(e))
+               {
+                  throw e;
+               }
+               conflicts.incrementAndGet();
+            }
+
+            log.debug("Unit of work conflicted with concurrent changes, performing it again (attempt " + attempt + ").");
+            attempt++;
+
+            try
+            {
+               // discard our stale changes so that the unit of work is performed again against the latest persisted state
+               session.getJCRSession().refresh(false);
+            }
+            catch (RepositoryException e)
+            {
+               failedSaves.incrementAndGet();
+               throw new RuntimeException("Couldn't refresh session after conflicting save", e);
+            }
+         }
+      }
+      finally
+      {
+         closeSession(false);
+      }
+   }
 
-      Object old = session.findByPath(baseMappingClass, manager.getChildPath(toDelete));
+   private void save(ChromatticSession session)
+   {
+      save(session, false);
+   }
+
+   /**
+    * Saves the specified session once.
+    *
+    * @param session          the session to save
+    * @param returnOnConflict whether conflicts with changes made by concurrent sessions are handled by the caller instead of being
+    *                         propagated
+    * @return <code>true</code> if the save succeeded, <code>false</code> if it conflicted and <code>returnOnConflict</code> was
+    *         <code>true</code>
+    */
+   private boolean save(ChromatticSession session, boolean returnOnConflict)
+   {
+      final long start = System.nanoTime();
+      try
+      {
+         session.save();
+         saves.incrementAndGet();
+         return true;
+      }
+      catch (RuntimeException e)
+      {
+         if (isConflict(e))
+         {
+            conflicts.incrementAndGet();
+            if (returnOnConflict)
+            {
+               return false;
+            }
+         }
 
-      if (old != null)
+         failedSaves.incrementAndGet();
+         throw e;
+      }
+      finally
       {
-         session.remove(old);
+         recordSaveTime(System.nanoTime() - start);
+      }
+   }
 
-         // update last modified of element linked to toDelete if needed
-         final LastModified lastModified = manager.lastModifiedToUpdateOnDelete(session);
-         if (lastModified != null)
+   private static boolean isConflict(Throwable throwable)
+   {
+      while (throwable != null)
+      {
+         // an item concurrently created with the same name surfaces as an ItemExistsException instead of an InvalidItemStateException
+         if (throwable instanceof InvalidItemStateException || throwable instanceof ItemExistsException)
          {
-            lastModified.setLastModified(SupportsLastModified.now());
+            return true;
          }
-         closeSession(true);
-         return true;
+         throwable = throwable.getCause();
       }
-      else
+      return false;
+   }
+
+   private void recordSaveTime(long elapsed)
+   {
+      totalSaveTime.addAndGet(elapsed);
+
+      long max = maxSaveTime.get();
+      while (elapsed > max && !maxSaveTime.compareAndSet(max, elapsed))
       {
-         closeSession(false);
-         return false;
+         max = maxSaveTime.get();
       }
    }
+
+   /** @return the number of successful saves */
+   public long getSaveCount()
+   {
+      return saves.get();
+   }
+
+   /** @return the number of saves that failed, excluding conflicts which were resolved by performing the unit of work again */
+   public long getFailedSaveCount()
+   {
+      return failedSaves.get();
+   }
+
+   /** @return the number of times a save conflicted with changes made by concurrent sessions */
+   public long getConflictCount()
+   {
+      return conflicts.get();
+   }
+
+   /** @return the cumulated time spent saving, in milliseconds */
+   public long getTotalSaveTime()
+   {
+      return TimeUnit.NANOSECONDS.toMillis(totalSaveTime.get());
+   }
+
+   /** @return the longest time spent in a single save, in milliseconds */
+   public long getMaxSaveTime()
+   {
+      return TimeUnit.NANOSECONDS.toMillis(maxSaveTime.get());
+   }
+
+   public <T> boolean delete(final T toDelete, final StoresByPathManager<T> manager)
+   {
+      Class<?> modelClass = toDelete.getClass();
+      final Class<? extends BaseMapping> baseMappingClass = modelToMapping.get(modelClass);
+      if (baseMappingClass == null)
+      {
+         throw new IllegalArgumentException("Cannot find a mapping class for " + modelClass.getName());
+      }
+
+      // the element linked to toDelete is usually shared by concurrent writers so perform the deletion as a unit of work
+      return execute(new UnitOfWork<Boolean>()
+      {
+         public Boolean perform(ChromatticSession session)
+         {
+            Object old = session.findByPath(baseMappingClass, manager.getChildPath(toDelete));
+
+            if (old != null)
+            {
+               session.remove(old);
+
+               // update last modified of element linked to toDelete if needed
+               final LastModified lastModified = manager.lastModifiedToUpdateOnDelete(session);
+               if (lastModified != null)
+               {
+                  lastModified.setLastModified(SupportsLastModified.now());
+               }
+               return true;
+            }
+            else
+            {
+               return false;
+            }
+         }
+      });
+   }
 }
@@ -49,9 +49,28 @@ public interface ChromatticPersister
     */
    void closeSession(boolean save);
 
-   /** Saves the modifications made in the context of the current session but keep the session open. */
+   /**
+    * Saves the modifications made in the context of the current session but keep the session open. Saves that conflict with changes made
+    * by concurrent sessions are not retried since the pending changes were computed from stale data: use {@link #execute(UnitOfWork)}
+    * for modifications that might be made concurrently.
+    */
    void save();
 
+   /**
+    * Performs the specified unit of work in the current session, saves it and closes the session. If saving conflicts with changes made by
+    * concurrent sessions, the pending changes are discarded and the whole unit of work is performed again against the latest persisted
+    * state, a limited number of times.
+    * <p/>
+    * If a session is already open on the current thread, it belongs to the caller: the unit of work is then performed and saved in that
+    * session, which is left open, and conflicts are propagated without retrying since discarding the session's changes would also discard
+    * the caller's.
+    *
+    * @param work the modifications to perform and save
+    * @param <T>  the type of the result of the unit of work
+    * @return the result of the last, successfully saved, execution of the unit of work
+    */
+   <T> T execute(UnitOfWork<T> work);
+
    /**
     * Deletes the specified object from the specified manager, the manager being, most of the time, the parent of the object to be deleted.
     *
@@ -68,6 +87,24 @@ public interface ChromatticPersister
     */
    boolean isSessionClosed();
 
+   /**
+    * A set of modifications that are saved together and can be performed again if they conflict with concurrent modifications.
+    *
+    * @param <T> the type of the result of the unit of work
+    */
+   interface UnitOfWork<T>
+   {
+      /**
+       * Performs the modifications using the specified session. Since this method might be called several times, implementations must
+       * retrieve the persisted data they modify from the session each time and
+       * only have side effects that can safely be repeated.
+       *
+       * @param session the ChromatticSession to use
+       * @return the result of the unit of work
+       */
+      T perform(ChromatticSession session);
+   }
+
    /**
     * Encodes and decodes QName to be properly persisted in JCR since ':', '{' and '}' are reserved chars.
     */
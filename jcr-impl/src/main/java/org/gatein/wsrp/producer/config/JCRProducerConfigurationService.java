@@ -25,29 +25,58 @@ package org.gatein.wsrp.producer.config;
 
 import org.chromattic.api.ChromatticSession;
 import org.gatein.common.util.ParameterValidation;
+import org.gatein.wsrp.jcr.BaseChromatticPersister;
 import org.gatein.wsrp.jcr.ChromatticPersister;
 import org.gatein.wsrp.producer.config.impl.AbstractProducerConfigurationService;
 import org.gatein.wsrp.producer.config.impl.xml.SimpleXMLProducerConfigurationService;
 import org.gatein.wsrp.producer.config.mapping.ProducerConfigurationMapping;
 import org.gatein.wsrp.producer.config.mapping.RegistrationRequirementsMapping;
 import org.gatein.wsrp.registration.mapping.RegistrationPropertyDescriptionMapping;
-
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.observation.Event;
+import javax.jcr.observation.EventIterator;
+import javax.jcr.observation.EventListener;
+import javax.jcr.observation.ObservationManager;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
 /**
+ * A ProducerConfigurationService persisting the configuration in JCR. When possible, JCR observation is used to get
+ * notified of changes made to the persisted configuration instead of checking its state each time it is accessed.
+ * <p/>
+ * Note that JCR observation only reports changes made through the local repository instance. Whether changes made by
+ * other cluster nodes are reported depends on the repository's clustering support, so the persisted state is still
+ * checked once the {@link #getMaximumStaleness() maximum staleness} period has elapsed.
+ *
  * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
  * @version $Revision$
  */
 public class JCRProducerConfigurationService extends AbstractProducerConfigurationService
 {
+   private static final Logger log = LoggerFactory.getLogger(JCRProducerConfigurationService.class);
+
    private static String PRODUCER_CONFIGURATION_PATH = ProducerConfigurationMapping.NODE_NAME;
+   private static final int OBSERVED_EVENTS = Event.NODE_ADDED | Event.NODE_REMOVED | Event.PROPERTY_ADDED
+      | Event.PROPERTY_CHANGED | Event.PROPERTY_REMOVED;
 
    private InputStream defaultConfigurationIS;
    private ChromatticPersister persister;
 
+   /** Session kept open to receive observation events, <code>null</code> if we're not observing the configuration. */
+   private ChromatticSession observationSession;
+   private final EventListener observer = new EventListener()
+   {
+      public void onEvent(EventIterator events)
+      {
+         invalidateConfiguration();
+      }
+   };
+
    public static final List<Class> mappingClasses = new ArrayList<Class>(3);
 
    static
@@ -70,6 +99,7 @@ public class JCRProducerConfigurationService extends AbstractProducerConfigurati
 
    protected void loadConfiguration() throws Exception
    {
+      String configurationPath;
       try
       {
          // Try loading configuration from JCR first
@@ -93,11 +123,77 @@ public class JCRProducerConfigurationService extends AbstractProducerConfigurati
          {
             configuration.set(pcm.toModel(null, this));
          }
+
+         configurationPath = session.getPath(pcm);
       }
       finally
       {
          persister.closeSession(false);
       }
+
+      startObservingIfNeeded(configurationPath);
+   }
+
+   /**
+    * Registers a JCR observation listener on the persisted configuration so that we don't need to check its state each
+    * time the configuration is accessed. This is only possible if the ChromatticPersister can provide a session that
+    * is not bound to the current thread, otherwise we fall back to checking the persisted state.
+    *
+    * @param configurationPath the absolute JCR path of the persisted configuration
+    */
+   private synchronized void startObservingIfNeeded(String configurationPath)
+   {
+      if (observationSession == null && persister instanceof BaseChromatticPersister)
+      {
+         ChromatticSession session = ((BaseChromatticPersister)persister).openDetachedSession();
+         try
+         {
+            ObservationManager observationManager = session.getJCRSession().getWorkspace().getObservationManager();
+            observationManager.addEventListener(observer, OBSERVED_EVENTS, configurationPath, true, null, null, false);
+            observationSession = session;
+            enablePushInvalidation();
+         }
+         catch (RepositoryException e)
+         {
+            session.close();
+            log.debug("Couldn't observe producer configuration at " + configurationPath + ", will check its persisted state on each access instead.", e);
+         }
+      }
+   }
+
+   /**
+    * Starts listening to changes made to the persisted configuration again after a {@link #stop()}. The configuration is
+    * reloaded in the process since it might have been modified while we weren't listening.
+    *
+    * @throws Exception
+    */
+   @Override
+   public synchronized void start() throws Exception
+   {
+      reloadConfiguration();
+   }
+
+   /** Stops listening to changes made to the persisted configuration. */
+   @Override
+   public synchronized void stop()
+   {
+      super.stop();
+      if (observationSession != null)
+      {
+         try
+         {
+            observationSession.getJCRSession().getWorkspace().getObservationManager().removeEventListener(observer);
+         }
+         catch (RepositoryException e)
+         {
+            log.debug("Couldn't remove producer configuration observer", e);
+         }
+         finally
+         {
+            observationSession.close();
+            observationSession = null;
+         }
+      }
    }
 
    public void saveConfiguration() throws Exception
@@ -31,35 +31,64 @@ import org.gatein.pc.portlet.state.NoSuchStateException;
 import org.gatein.pc.portlet.state.producer.AbstractPortletStatePersistenceManager;
 import org.gatein.pc.portlet.state.producer.PortletStateContext;
 import org.gatein.wsrp.jcr.ChromatticPersister;
+import org.gatein.wsrp.producer.state.mapping.PortletStateBucketMapping;
 import org.gatein.wsrp.producer.state.mapping.PortletStateContextMapping;
 import org.gatein.wsrp.producer.state.mapping.PortletStateContextsMapping;
 import org.gatein.wsrp.producer.state.mapping.PortletStateMapping;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 /**
+ * Persists producer-side portlet states in JCR. To avoid having a single node with a huge number of children, which most JCR
+ * implementations don't handle well, portlet state contexts are stored in a two-level hierarchy of {@link PortletStateBucketMapping
+ * buckets} derived from the name of the state context node. State contexts are still identified by their JCR identifier so lookups don't
+ * depend on where contexts are located, which means that contexts stored using the previous flat layout remain accessible and can be
+ * migrated at leisure using {@link #migrateToBuckets(int)}.
+ *
  * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
  * @version $Revision$
  */
 public class JCRPortletStatePersistenceManager extends AbstractPortletStatePersistenceManager
 {
+   private static final Logger log = LoggerFactory.getLogger(JCRPortletStatePersistenceManager.class);
+
+   /** System property specifying whether portlet state contexts stored using the flat layout should be migrated when this manager starts */
+   public static final String MIGRATE_ON_STARTUP_PROPERTY = "org.gatein.wsrp.producer.state.migrateToBuckets";
+   public static final int DEFAULT_MIGRATION_BATCH_SIZE = 500;
+
+   /** Number of hexadecimal characters of the context name used to name the bucket at each level */
+   private static final int BUCKET_NAME_LENGTH = 2;
+   private static final int BUCKET_LEVELS = 2;
+
    private ChromatticPersister persister;
    private static final String PATH = PortletStateContextsMapping.NODE_NAME + "/";
 
-   public static final List<Class> mappingClasses = new ArrayList<Class>(3);
+   public static final List<Class> mappingClasses = new ArrayList<Class>(4);
 
    static
    {
-      Collections.addAll(mappingClasses, PortletStateContextsMapping.class, PortletStateContextMapping.class, PortletStateMapping.class);
+      Collections.addAll(mappingClasses, PortletStateContextsMapping.class, PortletStateBucketMapping.class, PortletStateContextMapping.class, PortletStateMapping.class);
    }
 
    public JCRPortletStatePersistenceManager(ChromatticPersister persister) throws Exception
    {
       ParameterValidation.throwIllegalArgExceptionIfNull(persister, "ChromatticPersister");
       this.persister = persister;
+
+      if (Boolean.parseBoolean(System.getProperty(MIGRATE_ON_STARTUP_PROPERTY)))
+      {
+         migrateToBuckets(DEFAULT_MIGRATION_BATCH_SIZE);
+      }
    }
 
    private PortletStateContextsMapping getContexts(ChromatticSession session)
@@ -122,32 +151,26 @@ public class JCRPortletStatePersistenceManager extends AbstractPortletStatePersi
    }
 
    @Override
-   protected String createStateContext(String portletId, PropertyMap propertyMap)
+   protected String createStateContext(final String portletId, final PropertyMap propertyMap)
    {
-      try
+      // another session might concurrently create one of the buckets we need, in which case the unit of work is performed again and uses it
+      return persister.execute(new ChromatticPersister.UnitOfWork<String>()
       {
-         ChromatticSession session = persister.getSession();
-
-         PortletStateContextsMapping portletStateContexts = getContexts(session);
-         PortletStateContextMapping pscm = portletStateContexts.createPortletStateContext(UUID.randomUUID().toString());
-         portletStateContexts.getPortletStateContexts().add(pscm);
-
-         PortletStateMapping psm = pscm.getState();
-         psm.setPortletID(portletId);
-         psm.setProperties(propertyMap);
+         public String perform(ChromatticSession session)
+         {
+            final String name = UUID.randomUUID().toString();
+            PortletStateBucketMapping bucket = getBucketFor(getContexts(session), name);
+            PortletStateContextMapping pscm = bucket.createPortletStateContext(name);
+            bucket.getPortletStateContexts().put(name, pscm);
 
-         // get the key
-         final String key = pscm.getPersistentKey();
+            PortletStateMapping psm = pscm.getState();
+            psm.setPortletID(portletId);
+            psm.setProperties(propertyMap);
 
-         // then save
-         persister.save();
-
-         return key;
-      }
-      finally
-      {
-         persister.closeSession(false);
-      }
+            // get the key
+            return pscm.getPersistentKey();
+         }
+      });
    }
 
    @Override
@@ -165,8 +188,10 @@ public class JCRPortletStatePersistenceManager extends AbstractPortletStatePersi
          }
          else
          {
-            getContexts(session).getPortletStateContexts().remove(pscm);
             result = pscm.toPortletStateContext();
+
+            // removing the context directly works regardless of whether it's been stored in a bucket or not
+            session.remove(pscm);
          }
 
          persister.save();
@@ -184,6 +209,145 @@ public class JCRPortletStatePersistenceManager extends AbstractPortletStatePersi
       throw new UnsupportedOperationException("Shouldn't be called as updateState method is overriden!");
    }
 
+   /**
+    * Moves portlet state contexts stored directly under the root node, as was done before buckets were introduced, to their bucket. Since
+    * nodes keep their identifier when moved, state identifiers known by consumers are not affected. Changes are saved after each batch so
+    * that the migration of a large repository doesn't need to hold all moved nodes in a single session.
+    *
+    * @param batchSize the number of state contexts to move before saving
+    * @return the number of migrated state contexts
+    */
+   public int migrateToBuckets(int batchSize)
+   {
+      if (batchSize <= 0)
+      {
+         throw new IllegalArgumentException("Batch size must be positive");
+      }
+
+      int migrated = 0;
+      int moved;
+      do
+      {
+         try
+         {
+            ChromatticSession session = persister.getSession();
+            PortletStateContextsMapping contexts = getContexts(session);
+            Session jcrSession = session.getJCRSession();
+            Node root = (Node)jcrSession.getItem(session.getPath(contexts));
+
+            // first gather the nodes to move since we can't move nodes while iterating over their parent's children
+            List<String> names = new ArrayList<String>(batchSize);
+            NodeIterator children = root.getNodes();
+            while (children.hasNext() && names.size() < batchSize)
+            {
+               Node child = children.nextNode();
+               if (child.isNodeType(PortletStateContextMapping.NODE_NAME))
+               {
+                  names.add(child.getName());
+               }
+            }
+
+            final String rootPath = root.getPath() + "/";
+            for (String name : names)
+            {
+               PortletStateBucketMapping bucket = getBucketFor(contexts, name);
+               jcrSession.move(rootPath + name, session.getPath(bucket) + "/" + name);
+            }
+            moved = names.size();
+
+            persister.save();
+         }
+         catch (RepositoryException e)
+         {
+            throw new RuntimeException("Couldn't migrate portlet state contexts after migrating " + migrated + " of them", e);
+         }
+         finally
+         {
+            persister.closeSession(false);
+         }
+
+         migrated += moved;
+         if (moved > 0)
+         {
+            log.info("Migrated " + migrated + " portlet state contexts to bucketed layout.");
+         }
+      }
+      while (moved == batchSize);
+
+      return migrated;
+   }
+
+   /**
+    * Retrieves the bucket in which the state context with the specified node name should be stored, creating the intermediate buckets if
+    * needed.
+    */
+   private PortletStateBucketMapping getBucketFor(PortletStateContextsMapping contexts, String name)
+   {
+      final String[] bucketNames = getBucketNamesFor(name);
+
+      Map<String, PortletStateBucketMapping> buckets = contexts.getBuckets();
+      PortletStateBucketMapping bucket = buckets.get(bucketNames[0]);
+      if (bucket == null)
+      {
+         bucket = contexts.createBucket(bucketNames[0]);
+         buckets.put(bucketNames[0], bucket);
+      }
+
+      for (int i = 1; i < bucketNames.length; i++)
+      {
+         buckets = bucket.getBuckets();
+         PortletStateBucketMapping child = buckets.get(bucketNames[i]);
+         if (child == null)
+         {
+            child = bucket.createBucket(bucketNames[i]);
+            buckets.put(bucketNames[i], child);
+         }
+         bucket = child;
+      }
+
+      return bucket;
+   }
+
+   /**
+    * Computes the names of the buckets in which the state context with the specified node name should be stored. Context names are random
+    * UUIDs so their first characters are uniformly distributed and can be used directly. Other names are hashed.
+    *
+    * @param name the node name of a state context
+    * @return the names of the buckets for each level of the hierarchy
+    */
+   static String[] getBucketNamesFor(String name)
+   {
+      final int length = BUCKET_NAME_LENGTH * BUCKET_LEVELS;
+      String prefix;
+      if (name.length() >= length && isHexadecimal(name, length))
+      {
+         prefix = name;
+      }
+      else
+      {
+         prefix = String.format("%08x", name.hashCode());
+      }
+
+      String[] bucketNames = new String[BUCKET_LEVELS];
+      for (int i = 0; i < BUCKET_LEVELS; i++)
+      {
+         bucketNames[i] = prefix.substring(i * BUCKET_NAME_LENGTH, (i + 1) * BUCKET_NAME_LENGTH);
+      }
+      return bucketNames;
+   }
+
+   private static boolean isHexadecimal(String s, int length)
+   {
+      for (int i = 0; i < length; i++)
+      {
+         if (Character.digit(s.charAt(i), 16) < 0)
+         {
+            return false;
+         }
+      }
+      return true;
+   }
+
    private PortletStateContextMapping getPortletStateContextMapping(ChromatticSession session, String stateId)
    {
       return getContexts(session).findPortletStateContextById(stateId);
@@ -0,0 +1,55 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2012, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wsrp.producer.state.mapping;
+
+import org.chromattic.api.annotations.Create;
+import org.chromattic.api.annotations.OneToMany;
+import org.chromattic.api.annotations.PrimaryType;
+
+import java.util.Map;
+
+/**
+ * An intermediate node used to spread portlet state contexts over a hierarchy of nodes instead of having all of them as direct children
+ * of the same node, which doesn't scale well with most JCR implementations when the number of cloned portlets grows.
+ *
+ * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
+ * @version $Revision$
+ */
+@PrimaryType(name = PortletStateBucketMapping.NODE_NAME)
+public abstract class PortletStateBucketMapping
+{
+   public static final String NODE_NAME = "pc:statebucket";
+
+   @OneToMany
+   public abstract Map<String, PortletStateBucketMapping> getBuckets();
+
+   @Create
+   public abstract PortletStateBucketMapping createBucket(String name);
+
+   @OneToMany
+   public abstract Map<String, PortletStateContextMapping> getPortletStateContexts();
+
+   @Create
+   public abstract PortletStateContextMapping createPortletStateContext(String name);
+}
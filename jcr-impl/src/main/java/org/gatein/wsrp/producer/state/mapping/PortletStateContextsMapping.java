@@ -31,6 +31,7 @@ import org.chromattic.api.annotations.PrimaryType;
 import org.gatein.wsrp.jcr.ChromatticPersister;
 
 import java.util.Collection;
+import java.util.Map;
 
 /**
  * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
@@ -42,9 +43,21 @@ public abstract class PortletStateContextsMapping
 {
    public static final String NODE_NAME = "pc:producerstates";
 
+   /**
+    * Portlet state contexts used to be stored directly under this node. They are now stored in {@link #getBuckets() buckets} but contexts
+    * that haven't been migrated yet are still accessible here.
+    *
+    * @return the portlet state contexts stored directly under this node
+    */
    @OneToMany
    public abstract Collection<PortletStateContextMapping> getPortletStateContexts();
 
+   @OneToMany
+   public abstract Map<String, PortletStateBucketMapping> getBuckets();
+
+   @Create
+   public abstract PortletStateBucketMapping createBucket(String name);
+
    @Create
    public abstract PortletStateContextMapping createPortletStateContext(String id);
 
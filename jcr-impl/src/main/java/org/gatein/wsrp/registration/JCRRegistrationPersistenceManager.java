@@ -25,6 +25,7 @@ package org.gatein.wsrp.registration;
 
 import org.chromattic.api.ChromatticSession;
 import org.gatein.common.util.ParameterValidation;
+import org.gatein.pc.api.PortletContext;
 import org.gatein.registration.Consumer;
 import org.gatein.registration.ConsumerGroup;
 import org.gatein.registration.Registration;
@@ -320,6 +321,51 @@ public class JCRRegistrationPersistenceManager extends AbstractRegistrationPersi
       return registrationSPI;
    }
 
+   @Override
+   protected void internalSaveAddedPortletContext(Registration registration, PortletContext portletContext) throws RegistrationException
+   {
+      try
+      {
+         ChromatticSession session = persister.getSession();
+
+         RegistrationMapping rm = session.findById(RegistrationMapping.class, registration.getPersistentKey());
+         rm.savePortletContext(portletContext);
+
+         persister.save();
+      }
+      catch (Exception e)
+      {
+         throw new RegistrationException(e);
+      }
+      finally
+      {
+         persister.closeSession(false);
+      }
+   }
+
+   @Override
+   protected void internalSaveRemovedPortletContext(Registration registration, PortletContext portletContext) throws RegistrationException
+   {
+      try
+      {
+         ChromatticSession session = persister.getSession();
+
+         RegistrationMapping rm = session.findById(RegistrationMapping.class, registration.getPersistentKey());
+         if (rm.removePortletContext(portletContext.getId()))
+         {
+            persister.save();
+         }
+      }
+      catch (Exception e)
+      {
+         throw new RegistrationException(e);
+      }
+      finally
+      {
+         persister.closeSession(false);
+      }
+   }
+
    @Override
    protected void internalAddConsumerGroup(ConsumerGroupSPI group) throws RegistrationException
    {
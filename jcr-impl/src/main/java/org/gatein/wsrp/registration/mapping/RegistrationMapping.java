@@ -46,9 +46,12 @@ import org.gatein.wsrp.jcr.mapping.BaseMapping;
 import org.gatein.wsrp.registration.JCRRegistrationPersistenceManager;
 
 import javax.xml.namespace.QName;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
@@ -75,6 +78,15 @@ public abstract class RegistrationMapping implements BaseMapping<RegistrationSPI
    @OneToMany
    public abstract Collection<PortletContextMapping> getPortletContexts();
 
+   /**
+    * Portlet context mappings are named after the identifier of the portlet context they represent, which allows direct lookup instead of
+    * having to iterate over all of them.
+    *
+    * @return the portlet context mappings keyed by portlet context identifier
+    */
+   @OneToMany
+   public abstract Map<String, PortletContextMapping> getIdToPortletContextMap();
+
    @Create
    public abstract PortletContextMapping createPortletContext(String id);
 
@@ -104,30 +116,23 @@ public abstract class RegistrationMapping implements BaseMapping<RegistrationSPI
       setStatus(registration.getStatus());
       setRegistrationHandle(registration.getRegistrationHandle());
 
-      // clear and recreate portlet context mappings
-      Collection<PortletContextMapping> contextMappings = getPortletContexts();
-      contextMappings.clear();
-      for (PortletContext portletContext : registration.getKnownPortletContexts())
+      // only update the portlet context mappings that changed instead of recreating all of them since registrations can know about
+      // a lot of portlet contexts (e.g. when implicit cloning is used)
+      Map<String, PortletContextMapping> contextMappings = getIdToPortletContextMap();
+      Set<PortletContext> portletContexts = registration.getKnownPortletContexts();
+      Set<String> knownIds = new HashSet<String>(portletContexts.size());
+      for (PortletContext portletContext : portletContexts)
       {
-         String id = portletContext.getId();
-         PortletContextMapping contextMapping = createPortletContext(id);
-         contextMappings.add(contextMapping);
+         knownIds.add(portletContext.getId());
+         savePortletContext(portletContext);
+      }
 
-         if (portletContext instanceof StatefulPortletContext)
-         {
-            StatefulPortletContext context = (StatefulPortletContext)portletContext;
-            if (PortletStateType.OPAQUE.equals(context.getType()))
-            {
-               contextMapping.initFrom(id, ((StatefulPortletContext<byte[]>)context).getState());
-            }
-            else
-            {
-               throw new IllegalArgumentException("Cannot handle PortletContext state: " + context.getState());
-            }
-         }
-         else
+      // remove the mappings associated with portlet contexts the registration doesn't know about anymore
+      for (String id : new ArrayList<String>(contextMappings.keySet()))
+      {
+         if (!knownIds.contains(id))
          {
-            contextMapping.initFrom(id, null);
+            contextMappings.remove(id);
          }
       }
 
@@ -147,6 +152,55 @@ public abstract class RegistrationMapping implements BaseMapping<RegistrationSPI
       }
    }
 
+   /**
+    * Adds a mapping for the specified portlet context or updates the existing one if needed, without touching the other portlet context
+    * mappings.
+    *
+    * @param portletContext the portlet context to persist
+    */
+   public void savePortletContext(PortletContext portletContext)
+   {
+      final String id = portletContext.getId();
+      final Map<String, PortletContextMapping> contextMappings = getIdToPortletContextMap();
+
+      PortletContextMapping contextMapping = contextMappings.get(id);
+      final boolean isNew = contextMapping == null;
+      if (isNew)
+      {
+         contextMapping = createPortletContext(id);
+         contextMappings.put(id, contextMapping);
+      }
+
+      if (portletContext instanceof StatefulPortletContext)
+      {
+         StatefulPortletContext context = (StatefulPortletContext)portletContext;
+         if (PortletStateType.OPAQUE.equals(context.getType()))
+         {
+            contextMapping.initFrom(id, ((StatefulPortletContext<byte[]>)context).getState());
+         }
+         else
+         {
+            throw new IllegalArgumentException("Cannot handle PortletContext state: " + context.getState());
+         }
+      }
+      else if (isNew)
+      {
+         contextMapping.initFrom(id, null);
+      }
+   }
+
+   /**
+    * Removes the mapping associated with the specified portlet context identifier, if any, without touching the other portlet context
+    * mappings.
+    *
+    * @param portletContextId the identifier of the portlet context to remove
+    * @return <code>true</code> if a mapping was removed, <code>false</code> otherwise
+    */
+   public boolean removePortletContext(String portletContextId)
+   {
+      return getIdToPortletContextMap().remove(portletContextId) != null;
+   }
+
    public RegistrationSPI toModel(RegistrationSPI initial, JCRRegistrationPersistenceManager persistenceManager)
    {
       ParameterValidation.throwIllegalArgExceptionIfNull(initial, "RegistrationSPI");
@@ -0,0 +1,261 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2012, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wsrp.jcr;
+
+import junit.framework.TestCase;
+import org.chromattic.api.ChromatticBuilder;
+import org.chromattic.api.ChromatticSession;
+import org.gatein.pc.portlet.state.SimplePropertyMap;
+import org.gatein.wsrp.producer.state.JCRPortletStatePersistenceManager;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
+ * @version $Revision$
+ */
+public class BaseChromatticPersisterTestCase extends TestCase
+{
+   private BaseChromatticPersister persister;
+   private JCRPortletStatePersistenceManager manager;
+   private String workspaceName;
+
+   @Override
+   protected void setUp() throws Exception
+   {
+      workspaceName = "/wsrp-jcr-test" + Math.round(Math.abs(100000 * Math.random()));
+      persister = new BaseChromatticPersister(workspaceName)
+      {
+         @Override
+         protected void setBuilderOptions(ChromatticBuilder builder)
+         {
+            builder.setOptionValue(ChromatticBuilder.ROOT_NODE_PATH, workspaceName);
+            builder.setOptionValue(ChromatticBuilder.ROOT_NODE_TYPE, "nt:unstructured");
+            builder.setOptionValue(ChromatticBuilder.CREATE_ROOT_NODE, true);
+         }
+      };
+      persister.initializeBuilderFor(JCRPortletStatePersistenceManager.mappingClasses);
+      manager = new JCRPortletStatePersistenceManager(persister);
+   }
+
+   @Override
+   protected void tearDown() throws Exception
+   {
+      final Session session = persister.getSession().getJCRSession();
+      final NodeIterator nodes = session.getRootNode().getNodes();
+      while (nodes.hasNext())
+      {
+         nodes.nextNode().remove();
+      }
+
+      persister.closeSession(true);
+   }
+
+   public void testConcurrentSavesAreNotSerialized() throws Exception
+   {
+      // make sure both writers modify an already persisted node
+      final String path = workspaceName;
+      persister.execute(new ChromatticPersister.UnitOfWork<Object>()
+      {
+         public Object perform(ChromatticSession session)
+         {
+            try
+            {
+               ((Node)session.getJCRSession().getItem(path)).setProperty("counter", 0L);
+               return null;
+            }
+            catch (RepositoryException e)
+            {
+               throw new RuntimeException(e);
+            }
+         }
+      });
+
+      // both writers read the counter before either of them saves so that one of them is guaranteed to conflict
+      final int writers = 2;
+      final CyclicBarrier readsDone = new CyclicBarrier(writers);
+      ExecutorService executor = Executors.newFixedThreadPool(writers);
+      try
+      {
+         List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>(writers);
+         for (int i = 0; i < writers; i++)
+         {
+            tasks.add(new Callable<Integer>()
+            {
+               public Integer call() throws Exception
+               {
+                  final AtomicInteger performed = new AtomicInteger();
+                  persister.execute(new ChromatticPersister.UnitOfWork<Object>()
+                  {
+                     public Object perform(ChromatticSession session)
+                     {
+                        try
+                        {
+                           Node node = (Node)session.getJCRSession().getItem(path);
+                           node.setProperty("counter", node.getProperty("counter").getLong() + 1);
+
+                           if (performed.incrementAndGet() == 1)
+                           {
+                              readsDone.await(10, TimeUnit.SECONDS);
+                           }
+                           return null;
+                        }
+                        catch (Exception e)
+                        {
+                           throw new RuntimeException(e);
+                        }
+                     }
+                  });
+                  return performed.get();
+               }
+            });
+         }
+
+         int performed = 0;
+         for (Future<Integer> future : executor.invokeAll(tasks))
+         {
+            performed += future.get();
+         }
+
+         // the writer that lost the race performed its unit of work again against the other writer's changes
+         assertTrue(performed > writers);
+      }
+      finally
+      {
+         executor.shutdown();
+      }
+
+      // no update was lost
+      final Session session = persister.getSession().getJCRSession();
+      try
+      {
+         assertEquals(writers, ((Node)session.getItem(path)).getProperty("counter").getLong());
+      }
+      finally
+      {
+         persister.closeSession(false);
+      }
+
+      assertTrue(persister.getConflictCount() >= 1);
+      assertEquals(0, persister.getFailedSaveCount());
+      assertEquals(writers + 1, persister.getSaveCount());
+      assertTrue(persister.getTotalSaveTime() >= persister.getMaxSaveTime());
+   }
+
+   public void testConflictingSaveIsNotRetried() throws Exception
+   {
+      manager.createState("portlet", new SimplePropertyMap());
+      final String path = workspaceName;
+
+      // modify the node in a session that won't be saved until another session has modified the same node
+      final ChromatticSession stale = persister.getSession();
+      ((Node)stale.getJCRSession().getItem(path)).setProperty("value", "stale");
+
+      ExecutorService executor = Executors.newSingleThreadExecutor();
+      try
+      {
+         executor.submit(new Callable<Object>()
+         {
+            public Object call() throws Exception
+            {
+               Session session = persister.getSession().getJCRSession();
+               ((Node)session.getItem(path)).setProperty("value", "fresh");
+               persister.closeSession(true);
+               return null;
+            }
+         }).get();
+      }
+      finally
+      {
+         executor.shutdown();
+      }
+
+      final long saves = persister.getSaveCount();
+      try
+      {
+         persister.closeSession(true);
+         fail("Saving changes made to stale data should fail");
+      }
+      catch (RuntimeException expected)
+      {
+         // expected
+      }
+
+      assertEquals(saves, persister.getSaveCount());
+      assertEquals(1, persister.getConflictCount());
+      assertEquals(1, persister.getFailedSaveCount());
+   }
+
+   public void testNestedUnitOfWorkLeavesCallerSessionOpen() throws Exception
+   {
+      final String path = workspaceName;
+      final ChromatticSession outer = persister.getSession();
+
+      persister.execute(new ChromatticPersister.UnitOfWork<Object>()
+      {
+         public Object perform(ChromatticSession session)
+         {
+            assertSame(outer, session);
+            try
+            {
+               ((Node)session.getJCRSession().getItem(path)).setProperty("nested", "value");
+               return null;
+            }
+            catch (RepositoryException e)
+            {
+               throw new RuntimeException(e);
+            }
+         }
+      });
+
+      // the caller still owns its session
+      assertFalse(persister.isSessionClosed());
+      assertFalse(outer.isClosed());
+      assertSame(outer, persister.getSession());
+      persister.closeSession(false);
+
+      // the nested unit of work was saved nonetheless
+      final Session session = persister.getSession().getJCRSession();
+      try
+      {
+         assertEquals("value", ((Node)session.getItem(path)).getProperty("nested").getString());
+      }
+      finally
+      {
+         persister.closeSession(false);
+      }
+   }
+}
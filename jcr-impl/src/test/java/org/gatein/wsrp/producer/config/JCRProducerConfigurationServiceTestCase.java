@@ -23,8 +23,10 @@
 package org.gatein.wsrp.producer.config;
 
 import org.chromattic.api.ChromatticBuilder;
+import org.chromattic.api.ChromatticSession;
 import org.gatein.wsrp.jcr.BaseChromatticPersister;
 import org.gatein.wsrp.jcr.ChromatticPersister;
+import org.gatein.wsrp.producer.config.mapping.ProducerConfigurationMapping;
 
 import javax.jcr.Node;
 import javax.jcr.NodeIterator;
@@ -58,6 +60,8 @@ public class JCRProducerConfigurationServiceTestCase extends ProducerConfigurati
    @Override
    protected void tearDown() throws Exception
    {
+      getService().stop();
+
       // remove node containing consumer informations so that we can start with a clean state
       final ChromatticPersister persister = getService().getPersister();
       final Session session = persister.getSession().getJCRSession();
@@ -72,6 +76,44 @@ public class JCRProducerConfigurationServiceTestCase extends ProducerConfigurati
       persister.closeSession(true);
    }
 
+   public void testPersistedChangesAreObserved() throws Exception
+   {
+      ProducerConfiguration configuration = getProducerConfiguration(null);
+      assertTrue(service.isUsingPushInvalidation());
+      assertSame(configuration, service.getConfiguration());
+
+      // modify the persisted configuration behind the service's back, as another session would
+      final ChromatticPersister persister = getService().getPersister();
+      ChromatticSession session = persister.getSession();
+      ProducerConfigurationMapping pcm = session.findByPath(ProducerConfigurationMapping.class, ProducerConfigurationMapping.NODE_NAME);
+      pcm.setUsingStrictMode(!configuration.isUsingStrictMode());
+      pcm.setLastModified(configuration.getLastModified() + 1);
+      persister.closeSession(true);
+
+      // observation events might be delivered asynchronously
+      long timeout = System.currentTimeMillis() + 5000;
+      while (service.getConfiguration() == configuration && System.currentTimeMillis() < timeout)
+      {
+         Thread.sleep(50);
+      }
+
+      ProducerConfiguration reloaded = service.getConfiguration();
+      assertNotSame(configuration, reloaded);
+      assertEquals(!configuration.isUsingStrictMode(), reloaded.isUsingStrictMode());
+   }
+
+   public void testObservationResumesAfterRestart() throws Exception
+   {
+      getProducerConfiguration(null);
+      assertTrue(service.isUsingPushInvalidation());
+
+      getService().stop();
+      assertFalse(service.isUsingPushInvalidation());
+
+      getService().start();
+      assertTrue(service.isUsingPushInvalidation());
+   }
+
    private JCRProducerConfigurationService getService()
    {
       return (JCRProducerConfigurationService)service;
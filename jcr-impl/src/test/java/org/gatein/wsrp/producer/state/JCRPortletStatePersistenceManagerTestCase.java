@@ -0,0 +1,175 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2012, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wsrp.producer.state;
+
+import junit.framework.TestCase;
+import org.chromattic.api.ChromatticBuilder;
+import org.chromattic.api.ChromatticSession;
+import org.gatein.pc.portlet.state.SimplePropertyMap;
+import org.gatein.pc.portlet.state.producer.PortletStateContext;
+import org.gatein.wsrp.jcr.BaseChromatticPersister;
+import org.gatein.wsrp.producer.state.mapping.PortletStateContextMapping;
+import org.gatein.wsrp.producer.state.mapping.PortletStateContextsMapping;
+import org.gatein.wsrp.producer.state.mapping.PortletStateMapping;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.Session;
+import java.util.UUID;
+
+/**
+ * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
+ * @version $Revision$
+ */
+public class JCRPortletStatePersistenceManagerTestCase extends TestCase
+{
+   private BaseChromatticPersister persister;
+   private JCRPortletStatePersistenceManager manager;
+
+   @Override
+   protected void setUp() throws Exception
+   {
+      final String workspaceName = "/wsrp-jcr-test" + Math.round(Math.abs(100000 * Math.random()));
+      persister = new BaseChromatticPersister(workspaceName)
+      {
+         @Override
+         protected void setBuilderOptions(ChromatticBuilder builder)
+         {
+            builder.setOptionValue(ChromatticBuilder.ROOT_NODE_PATH, workspaceName);
+            builder.setOptionValue(ChromatticBuilder.ROOT_NODE_TYPE, "nt:unstructured");
+            builder.setOptionValue(ChromatticBuilder.CREATE_ROOT_NODE, true);
+         }
+      };
+      persister.initializeBuilderFor(JCRPortletStatePersistenceManager.mappingClasses);
+      manager = new JCRPortletStatePersistenceManager(persister);
+   }
+
+   @Override
+   protected void tearDown() throws Exception
+   {
+      // remove nodes so that we can start with a clean state
+      final Session session = persister.getSession().getJCRSession();
+      final NodeIterator nodes = session.getRootNode().getNodes();
+      while (nodes.hasNext())
+      {
+         nodes.nextNode().remove();
+      }
+
+      persister.closeSession(true);
+   }
+
+   public void testStateContextsAreStoredInBuckets() throws Exception
+   {
+      String stateId = manager.createStateContext("portlet", new SimplePropertyMap());
+
+      PortletStateContext context = manager.getStateContext(stateId);
+      assertNotNull(context);
+      assertEquals(stateId, context.getId());
+      assertEquals("portlet", context.getPortletId());
+
+      assertEquals(2, getBucketDepth(stateId));
+
+      assertNotNull(manager.destroyStateContext(stateId));
+      assertNull(manager.getStateContext(stateId));
+   }
+
+   public void testMigrateToBuckets() throws Exception
+   {
+      // create state contexts using the previous flat layout
+      String[] stateIds = new String[3];
+      try
+      {
+         ChromatticSession session = persister.getSession();
+         PortletStateContextsMapping contexts = session.insert(PortletStateContextsMapping.class, PortletStateContextsMapping.NODE_NAME);
+         for (int i = 0; i < stateIds.length; i++)
+         {
+            PortletStateContextMapping pscm = contexts.createPortletStateContext(UUID.randomUUID().toString());
+            contexts.getPortletStateContexts().add(pscm);
+            PortletStateMapping psm = pscm.getState();
+            psm.setPortletID("portlet" + i);
+            psm.setProperties(new SimplePropertyMap());
+            stateIds[i] = pscm.getPersistentKey();
+         }
+         persister.save();
+      }
+      finally
+      {
+         persister.closeSession(false);
+      }
+
+      // flat contexts should still be accessible
+      for (String stateId : stateIds)
+      {
+         assertEquals(0, getBucketDepth(stateId));
+         assertNotNull(manager.getStateContext(stateId));
+      }
+
+      assertEquals(3, manager.migrateToBuckets(2));
+
+      // contexts should have been moved but retain their identifier
+      for (int i = 0; i < stateIds.length; i++)
+      {
+         String stateId = stateIds[i];
+         assertEquals(2, getBucketDepth(stateId));
+         assertEquals("portlet" + i, manager.getStateContext(stateId).getPortletId());
+      }
+
+      // nothing left to migrate
+      assertEquals(0, manager.migrateToBuckets(2));
+   }
+
+   public void testGetBucketNamesFor()
+   {
+      String[] names = JCRPortletStatePersistenceManager.getBucketNamesFor("3f2a5c4d-0000-0000-0000-000000000000");
+      assertEquals(2, names.length);
+      assertEquals("3f", names[0]);
+      assertEquals("2a", names[1]);
+
+      names = JCRPortletStatePersistenceManager.getBucketNamesFor("foo");
+      assertEquals(2, names.length);
+      assertEquals(2, names[0].length());
+      assertEquals(2, names[1].length());
+   }
+
+   private int getBucketDepth(String stateId) throws Exception
+   {
+      try
+      {
+         ChromatticSession session = persister.getSession();
+         Node node = session.getJCRSession().getNodeByUUID(stateId);
+         int depth = 0;
+         Node parent = node.getParent();
+         while (!parent.isNodeType(PortletStateContextsMapping.NODE_NAME))
+         {
+            depth++;
+            parent = parent.getParent();
+         }
+         return depth;
+      }
+      finally
+      {
+         persister.closeSession(false);
+      }
+   }
+}
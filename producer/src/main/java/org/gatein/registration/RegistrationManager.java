@@ -266,4 +266,18 @@ public interface RegistrationManager extends RegistrationPropertyChangeListener,
     * @param listener the RegistrationDestructionListener to remove
     */
    void removeRegistrationDestructionListener(RegistrationDestructionListener listener);
+
+   /**
+    * Adds the specified {@link RegistrationStatusChangeListener}.
+    *
+    * @param listener the RegistrationStatusChangeListener to add
+    */
+   void addRegistrationStatusChangeListener(RegistrationStatusChangeListener listener);
+
+   /**
+    * Removes the specified {@link RegistrationStatusChangeListener}.
+    *
+    * @param listener the RegistrationStatusChangeListener to remove
+    */
+   void removeRegistrationStatusChangeListener(RegistrationStatusChangeListener listener);
 }
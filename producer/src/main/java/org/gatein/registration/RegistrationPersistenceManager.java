@@ -23,6 +23,7 @@
 
 package org.gatein.registration;
 
+import org.gatein.pc.api.PortletContext;
 import org.gatein.registration.spi.ConsumerSPI;
 import org.gatein.registration.spi.RegistrationSPI;
 
@@ -59,6 +60,24 @@ public interface RegistrationPersistenceManager
     */
    void saveChangesTo(Registration registration) throws RegistrationException;
 
+   /**
+    * Saves the fact that the specified portlet context was added to the specified registration, without having to save the other
+    * portlet contexts associated with the registration.
+    *
+    * @param registration   the registration the portlet context was added to
+    * @param portletContext the added portlet context
+    */
+   void saveAddedPortletContext(Registration registration, PortletContext portletContext) throws RegistrationException;
+
+   /**
+    * Saves the fact that the specified portlet context was removed from the specified registration, without having to save the other
+    * portlet contexts associated with the registration.
+    *
+    * @param registration   the registration the portlet context was removed from
+    * @param portletContext the removed portlet context
+    */
+   void saveRemovedPortletContext(Registration registration, PortletContext portletContext) throws RegistrationException;
+
    /**
     * Retrieves the ConsumerGroup identified by the specified name.
     *
@@ -24,6 +24,7 @@
 package org.gatein.registration.impl;
 
 import org.gatein.common.util.ParameterValidation;
+import org.gatein.pc.api.PortletContext;
 import org.gatein.registration.Consumer;
 import org.gatein.registration.ConsumerGroup;
 import org.gatein.registration.DuplicateRegistrationException;
@@ -88,6 +89,29 @@ public abstract class AbstractRegistrationPersistenceManager implements Registra
       internalSaveChangesTo(registration);
    }
 
+   public void saveAddedPortletContext(Registration registration, PortletContext portletContext) throws RegistrationException
+   {
+      checkPortletContextChange(registration, portletContext);
+      internalSaveAddedPortletContext(registration, portletContext);
+   }
+
+   public void saveRemovedPortletContext(Registration registration, PortletContext portletContext) throws RegistrationException
+   {
+      checkPortletContextChange(registration, portletContext);
+      internalSaveRemovedPortletContext(registration, portletContext);
+   }
+
+   private void checkPortletContextChange(Registration registration, PortletContext portletContext)
+   {
+      ParameterValidation.throwIllegalArgExceptionIfNull(registration, "Registration");
+      ParameterValidation.throwIllegalArgExceptionIfNull(portletContext, "PortletContext");
+
+      if (registration.getPersistentKey() == null)
+      {
+         throw new IllegalArgumentException("Registration " + registration + " hasn't yet been persisted and thus cannot be updated");
+      }
+   }
+
    public ConsumerGroup createConsumerGroup(String name) throws RegistrationException
    {
       ParameterValidation.throwIllegalArgExceptionIfNullOrEmpty(name, "ConsumerGroup name", null);
@@ -226,6 +250,24 @@ public abstract class AbstractRegistrationPersistenceManager implements Registra
 
    protected abstract RegistrationSPI internalSaveChangesTo(Registration registration) throws RegistrationException;
 
+   /**
+    * Persists the addition of the specified portlet context to the specified registration. Defaults to saving the whole registration,
+    * subclasses should override this method if they can persist the change more efficiently.
+    */
+   protected void internalSaveAddedPortletContext(Registration registration, PortletContext portletContext) throws RegistrationException
+   {
+      internalSaveChangesTo(registration);
+   }
+
+   /**
+    * Persists the removal of the specified portlet context from the specified registration. Defaults to saving the whole registration,
+    * subclasses should override this method if they can persist the change more efficiently.
+    */
+   protected void internalSaveRemovedPortletContext(Registration registration, PortletContext portletContext) throws RegistrationException
+   {
+      internalSaveChangesTo(registration);
+   }
+
    protected abstract void internalAddConsumerGroup(ConsumerGroupSPI group) throws RegistrationException;
 
    protected abstract ConsumerGroupSPI internalRemoveConsumerGroup(String name) throws RegistrationException;
@@ -35,9 +35,9 @@ import org.gatein.registration.spi.RegistrationSPI;
 import javax.xml.namespace.QName;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
@@ -49,8 +49,9 @@ public class RegistrationImpl implements RegistrationSPI
 
    private String key;
    private ConsumerSPI consumer;
-   private RegistrationStatus status;
-   private Map<QName, Object> properties;
+   // registrations might be cached and therefore accessed concurrently by several requests: properties are copied on write so that readers never see a map being modified
+   private volatile RegistrationStatus status;
+   private volatile Map<QName, Object> properties;
    private String registrationHandle;
    private Set<PortletContext> portletContexts;
    private transient RegistrationPersistenceManager manager;
@@ -61,7 +62,7 @@ public class RegistrationImpl implements RegistrationSPI
       this.consumer = consumer;
       this.status = status;
       this.properties = new HashMap<QName, Object>(properties);
-      portletContexts = new HashSet<PortletContext>();
+      portletContexts = Collections.newSetFromMap(new ConcurrentHashMap<PortletContext, Boolean>());
       this.manager = manager;
    }
 
@@ -125,10 +126,9 @@ public class RegistrationImpl implements RegistrationSPI
 
    public void addPortletContext(PortletContext portletContext, boolean needsSaving) throws RegistrationException
    {
-      portletContexts.add(portletContext);
-      if (needsSaving)
+      if (portletContexts.add(portletContext) && needsSaving)
       {
-         manager.saveChangesTo(this);
+         manager.saveAddedPortletContext(this, portletContext);
       }
    }
 
@@ -139,8 +139,10 @@ public class RegistrationImpl implements RegistrationSPI
 
    public void removePortletContext(PortletContext portletContext, boolean needsSaving) throws RegistrationException
    {
-      portletContexts.remove(portletContext);
-      manager.saveChangesTo(this);
+      if (portletContexts.remove(portletContext) && needsSaving)
+      {
+         manager.saveRemovedPortletContext(this, portletContext);
+      }
    }
 
    public Map<QName, Object> getProperties()
@@ -153,11 +155,16 @@ public class RegistrationImpl implements RegistrationSPI
       ParameterValidation.throwIllegalArgExceptionIfNull(propertyName, "Property name");
       ParameterValidation.throwIllegalArgExceptionIfNull(value, "Property value");
 
-      // avoid modifying the properties if new value is the same as old one
-      Object oldValue = properties.get(propertyName);
-      if (!value.equals(oldValue))
+      synchronized (this)
       {
-         properties.put(propertyName, value);
+         // avoid modifying the properties if new value is the same as old one
+         Object oldValue = properties.get(propertyName);
+         if (!value.equals(oldValue))
+         {
+            Map<QName, Object> newProperties = new HashMap<QName, Object>(properties);
+            newProperties.put(propertyName, value);
+            properties = newProperties;
+         }
       }
    }
 
@@ -183,7 +190,16 @@ public class RegistrationImpl implements RegistrationSPI
    public void removeProperty(QName propertyName)
    {
       ParameterValidation.throwIllegalArgExceptionIfNull(propertyName, "Property name");
-      properties.remove(propertyName);
+
+      synchronized (this)
+      {
+         if (properties.containsKey(propertyName))
+         {
+            Map<QName, Object> newProperties = new HashMap<QName, Object>(properties);
+            newProperties.remove(propertyName);
+            properties = newProperties;
+         }
+      }
    }
 
    public void removeProperty(String propertyName)
@@ -210,13 +226,15 @@ public class RegistrationImpl implements RegistrationSPI
          return false;
       }
 
-      if (properties.size() != registrationProperties.size())
+      // work on a consistent snapshot of the properties
+      final Map<QName, Object> current = properties;
+      if (current.size() != registrationProperties.size())
       {
          return false;
       }
 
       // check properties
-      for (Map.Entry<QName, Object> entry : properties.entrySet())
+      for (Map.Entry<QName, Object> entry : current.entrySet())
       {
          // we should have a 1-1 match between name/value pair
          QName name = entry.getKey();
@@ -245,7 +263,7 @@ public class RegistrationImpl implements RegistrationSPI
       this.status = status;
    }
 
-   public void updateProperties(Map registrationProperties)
+   public synchronized void updateProperties(Map registrationProperties)
    {
       properties = new HashMap(registrationProperties);
    }
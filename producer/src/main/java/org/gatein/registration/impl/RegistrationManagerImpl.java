@@ -30,6 +30,7 @@ import org.gatein.registration.InvalidConsumerDataException;
 import org.gatein.registration.NoSuchRegistrationException;
 import org.gatein.registration.Registration;
 import org.gatein.registration.RegistrationDestructionListener;
+import org.gatein.registration.RegistrationStatusChangeListener;
 import org.gatein.registration.RegistrationException;
 import org.gatein.registration.RegistrationManager;
 import org.gatein.registration.RegistrationPersistenceManager;
@@ -63,6 +64,7 @@ public class RegistrationManagerImpl implements RegistrationManager
    private RegistrationPolicy policy;
    private RegistrationPersistenceManager persistenceManager;
    private AtomicReference<CopyOnWriteArrayList<RegistrationDestructionListener>> listeners = new AtomicReference<CopyOnWriteArrayList<RegistrationDestructionListener>>();
+   private final CopyOnWriteArrayList<RegistrationStatusChangeListener> statusListeners = new CopyOnWriteArrayList<RegistrationStatusChangeListener>();
    public static final String NON_REGISTERED_CONSUMER = "NONREGISTERED";
 
    public RegistrationManagerImpl()
@@ -109,6 +111,38 @@ public class RegistrationManagerImpl implements RegistrationManager
       listeners.get().remove(listener);
    }
 
+   public void addRegistrationStatusChangeListener(RegistrationStatusChangeListener listener)
+   {
+      ParameterValidation.throwIllegalArgExceptionIfNull(listener, "RegistrationStatusChangeListener");
+      statusListeners.addIfAbsent(listener);
+   }
+
+   public void removeRegistrationStatusChangeListener(RegistrationStatusChangeListener listener)
+   {
+      ParameterValidation.throwIllegalArgExceptionIfNull(listener, "RegistrationStatusChangeListener");
+      statusListeners.remove(listener);
+   }
+
+   /**
+    * Changes the status of the specified Registration, notifying the registered {@link RegistrationStatusChangeListener}s if the status actually changed.
+    *
+    * @param registration the Registration which status we want to change
+    * @param status       the new status
+    */
+   private void changeStatus(Registration registration, RegistrationStatus status)
+   {
+      final RegistrationStatus oldStatus = registration.getStatus();
+      registration.setStatus(status);
+
+      if (oldStatus != status)
+      {
+         for (RegistrationStatusChangeListener listener : statusListeners)
+         {
+            listener.statusChanged(registration, oldStatus);
+         }
+      }
+   }
+
    public Registration addRegistrationTo(String consumerName, Map<QName, Object> registrationProperties, final Map<QName, ? extends PropertyDescription> expectations, boolean createConsumerIfNeeded)
       throws RegistrationException
    {
@@ -289,7 +323,7 @@ public class RegistrationManagerImpl implements RegistrationManager
       if (unregConsumer == null)
       {
          Registration registration = addRegistrationTo(NON_REGISTERED_CONSUMER, new HashMap<QName, Object>(), null, true);
-         registration.setStatus(RegistrationStatus.VALID);
+         changeStatus(registration, RegistrationStatus.VALID);
          getPersistenceManager().saveChangesTo(registration);
          return registration;
       }
@@ -303,7 +337,7 @@ public class RegistrationManagerImpl implements RegistrationManager
          {
             // if we have improper persisted state, correct it
             createAndSetRegistrationHandle((RegistrationSPI)registration);
-            registration.setStatus(RegistrationStatus.VALID);
+            changeStatus(registration, RegistrationStatus.VALID);
             getPersistenceManager().saveChangesTo(registration);
          }
          return registration;
@@ -324,7 +358,7 @@ public class RegistrationManagerImpl implements RegistrationManager
    {
       ParameterValidation.throwIllegalArgExceptionIfNull(registration, "Registration");
 
-      registration.setStatus(RegistrationStatus.INVALID); // just in case...
+      changeStatus(registration, RegistrationStatus.INVALID); // just in case...
 
       AtomicBoolean canRemove = new AtomicBoolean(true);
       if (listeners.get() != null)
@@ -447,7 +481,7 @@ public class RegistrationManagerImpl implements RegistrationManager
             Registration reg = (Registration)registration;
 
             // pending instead of invalid as technically, the registration is not yet invalid
-            reg.setStatus(RegistrationStatus.PENDING);
+            changeStatus(reg, RegistrationStatus.PENDING);
 
             // make changes persistent
             Consumer consumer = reg.getConsumer();
@@ -242,7 +242,7 @@ public class Utils
 
    public static void throwOperationFaultOnSessionOperation() throws OperationFailed
    {
-      throw WSRP2ExceptionFactory.throwWSException(OperationFailed.class, "GateIn's Producer manages sessions completely on the server side, passing or trying to release sessionIDs is therefore an error.",
+      throw WSRP2ExceptionFactory.throwWSException(OperationFailed.class, "This producer doesn't issue WSRP sessionIDs, managing sessions completely on the server side, passing or trying to release sessionIDs is therefore an error.",
          null);
    }
 }
@@ -30,6 +30,7 @@ import org.gatein.registration.RegistrationManager;
 import org.gatein.wsrp.api.context.ProducerContext;
 import org.gatein.wsrp.producer.config.ProducerConfigurationChangeListener;
 import org.gatein.wsrp.producer.config.ProducerConfigurationService;
+import org.gatein.wsrp.producer.session.ProducerSessionStore;
 
 /**
  * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
@@ -114,4 +115,11 @@ public interface WSRPProducer extends ProducerConfigurationChangeListener, Manag
     * @param producerContext the ProducerContext implementation that this producer should be using.
     */
    void setProducerContext(ProducerContext producerContext);
+
+   /**
+    * Sets the store keeping track of the WSRP sessions issued by this WSRPProducer.
+    *
+    * @param sessionStore the ProducerSessionStore to use or <code>null</code> to let the servlet container manage sessions using cookies
+    */
+   void setSessionStore(ProducerSessionStore sessionStore);
 }
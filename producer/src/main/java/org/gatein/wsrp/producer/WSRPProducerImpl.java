@@ -41,11 +41,17 @@ import org.gatein.wsrp.api.extensions.DefaultProducerExtensionAccessor;
 import org.gatein.wsrp.producer.config.ProducerConfiguration;
 import org.gatein.wsrp.producer.config.ProducerConfigurationService;
 import org.gatein.wsrp.producer.config.ProducerRegistrationRequirements;
+import org.gatein.wsrp.producer.config.impl.AbstractProducerConfigurationService;
 import org.gatein.wsrp.producer.handlers.MarkupHandler;
 import org.gatein.wsrp.producer.handlers.PortletManagementHandler;
 import org.gatein.wsrp.producer.handlers.RegistrationHandler;
 import org.gatein.wsrp.producer.handlers.ServiceDescriptionHandler;
+import org.gatein.wsrp.producer.handlers.processors.MarkupRequestCache;
 import org.gatein.wsrp.producer.handlers.processors.ProducerHelper;
+import org.gatein.wsrp.producer.session.ProducerSessionStore;
+import org.gatein.wsrp.producer.session.impl.AbstractProducerSessionStore;
+import org.gatein.wsrp.producer.session.impl.FileProducerSessionStore;
+import org.gatein.wsrp.producer.session.impl.InMemoryProducerSessionStore;
 import org.gatein.wsrp.producer.v2.WSRP2Producer;
 import org.gatein.wsrp.spec.v2.WSRP2ExceptionFactory;
 import org.oasis.wsrp.v2.AccessDenied;
@@ -116,6 +122,7 @@ import org.oasis.wsrp.v2.UnsupportedWindowState;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
@@ -132,6 +139,17 @@ public class WSRPProducerImpl implements WSRP2Producer, ProducerHelper
    /** logger used for logging ;) */
    private static final Logger log = LoggerFactory.getLogger(WSRPProducerImpl.class);
 
+   /** Which kind of session store to use: {@link #NO_SESSION_STORE} (default), {@link #MEMORY_SESSION_STORE} or {@link #FILE_SESSION_STORE} */
+   public static final String SESSION_STORE_PROPERTY = "org.gatein.wsrp.producer.session.store";
+   public static final String MEMORY_SESSION_STORE = "memory";
+   public static final String FILE_SESSION_STORE = "file";
+   /** Don't issue WSRP session ids, relying on the servlet container (and therefore cookies) to manage sessions instead */
+   public static final String NO_SESSION_STORE = "none";
+   /** Directory in which the file session store keeps sessions, should be shared by all producer nodes */
+   public static final String SESSION_DIRECTORY_PROPERTY = "org.gatein.wsrp.producer.session.directory";
+   /** Number of seconds sessions can remain inactive before they expire */
+   public static final String SESSION_MAX_INACTIVE_INTERVAL_PROPERTY = "org.gatein.wsrp.producer.session.maxInactiveInterval";
+
    /** The invoker used to retrieve portlet information and invoke methods. */
    private PortletInvoker invoker;
 
@@ -147,6 +165,12 @@ public class WSRPProducerImpl implements WSRP2Producer, ProducerHelper
    /** Handles Portlet Management interface calls. */
    private final PortletManagementHandler portletManagementHandler;
 
+   /** Caches resolved markup requests, invalidated when portlet metadata changes. */
+   private final MarkupRequestCache markupRequestCache = new MarkupRequestCache();
+
+   /** Keeps track of the WSRP sessions issued to consumers, <code>null</code> if sessions are managed by the servlet container. */
+   private volatile ProducerSessionStore sessionStore = createSessionStore();
+
    /** Registration Manager */
    private RegistrationManager registrationManager; //todo: make sure it's multi-thread safe
 
@@ -160,6 +184,8 @@ public class WSRPProducerImpl implements WSRP2Producer, ProducerHelper
    private ProducerContext producerContext;
 
    private boolean started = false;
+   /** Whether we stopped the configuration service, in which case it needs to be started again when we're restarted. */
+   private boolean configurationServiceStopped = false;
 
    // On-demand class holder Singleton pattern (multi-thread safe)
 
@@ -354,6 +380,9 @@ public class WSRPProducerImpl implements WSRP2Producer, ProducerHelper
    public void setRegistrationManager(RegistrationManager registrationManager)
    {
       this.registrationManager = registrationManager;
+
+      // registrations cached from a previous RegistrationManager are not relevant anymore
+      registrationHandler.getRegistrationCache().clear();
    }
 
    public void setConfigurationService(ProducerConfigurationService configurationService)
@@ -394,6 +423,20 @@ public class WSRPProducerImpl implements WSRP2Producer, ProducerHelper
    {
       if (!started)
       {
+         // resume watching the persisted configuration if we stopped it
+         if (configurationServiceStopped)
+         {
+            try
+            {
+               ((AbstractProducerConfigurationService)configurationService).start();
+            }
+            catch (Exception e)
+            {
+               throw new RuntimeException("Couldn't restart producer configuration service", e);
+            }
+            configurationServiceStopped = false;
+         }
+
          ProducerConfiguration configuration = configurationService.getConfiguration();
 
          // register to listen to changes in configuration and get initial state
@@ -404,6 +447,11 @@ public class WSRPProducerImpl implements WSRP2Producer, ProducerHelper
          registrationRequirements.addRegistrationPolicyChangeListener(registrationManager);
          registrationRequirements.addRegistrationPropertyChangeListener(registrationManager);
 
+         // keep the registration cache in sync with registration changes
+         registrationRequirements.addRegistrationPropertyChangeListener(registrationHandler);
+         registrationManager.addRegistrationDestructionListener(registrationHandler);
+         registrationManager.addRegistrationStatusChangeListener(registrationHandler);
+
          registrationManager.setPolicy(registrationRequirements.getPolicy());
 
          started = true;
@@ -418,8 +466,20 @@ public class WSRPProducerImpl implements WSRP2Producer, ProducerHelper
          registrationRequirements.removeRegistrationPropertyChangeListener(registrationManager);
          registrationRequirements.removeRegistrationPolicyChangeListener(registrationManager);
 
+         registrationRequirements.removeRegistrationPropertyChangeListener(registrationHandler);
+         registrationManager.removeRegistrationDestructionListener(registrationHandler);
+         registrationManager.removeRegistrationStatusChangeListener(registrationHandler);
+         registrationHandler.getRegistrationCache().clear();
+
          getProducerConfiguration().removeChangeListener(this);
 
+         // release resources used to watch the persisted configuration, which would otherwise leak on redeploy
+         if (configurationService instanceof AbstractProducerConfigurationService)
+         {
+            ((AbstractProducerConfigurationService)configurationService).stop();
+            configurationServiceStopped = true;
+         }
+
          started = false;
       }
    }
@@ -507,6 +567,72 @@ public class WSRPProducerImpl implements WSRP2Producer, ProducerHelper
    public void reset()
    {
       serviceDescriptionHandler.reset();
+      markupRequestCache.invalidate();
+   }
+
+   public MarkupRequestCache getMarkupRequestCache()
+   {
+      return markupRequestCache;
+   }
+
+   public ProducerSessionStore getSessionStore()
+   {
+      return sessionStore;
+   }
+
+   public void setSessionStore(ProducerSessionStore sessionStore)
+   {
+      this.sessionStore = sessionStore;
+   }
+
+   private static ProducerSessionStore createSessionStore()
+   {
+      final String store = System.getProperty(SESSION_STORE_PROPERTY, NO_SESSION_STORE).trim();
+      final boolean file = FILE_SESSION_STORE.equalsIgnoreCase(store);
+      if (!file && !MEMORY_SESSION_STORE.equalsIgnoreCase(store))
+      {
+         if (!NO_SESSION_STORE.equalsIgnoreCase(store))
+         {
+            log.info("Ignoring invalid value '" + store + "' for " + SESSION_STORE_PROPERTY + ", using default: " + NO_SESSION_STORE);
+         }
+
+         // sessions are managed by the servlet container
+         return null;
+      }
+
+      int maxInactiveInterval = AbstractProducerSessionStore.DEFAULT_MAX_INACTIVE_INTERVAL;
+      final String interval = System.getProperty(SESSION_MAX_INACTIVE_INTERVAL_PROPERTY);
+      if (interval != null)
+      {
+         try
+         {
+            final int value = Integer.parseInt(interval.trim());
+            if (value <= 0)
+            {
+               throw new NumberFormatException();
+            }
+            maxInactiveInterval = value;
+         }
+         catch (NumberFormatException e)
+         {
+            log.info("Ignoring invalid value '" + interval + "' for " + SESSION_MAX_INACTIVE_INTERVAL_PROPERTY + ", using default: " + maxInactiveInterval);
+         }
+      }
+
+      if (file)
+      {
+         final String directory = System.getProperty(SESSION_DIRECTORY_PROPERTY, System.getProperty("java.io.tmpdir") + File.separator + "gatein-wsrp-sessions");
+         try
+         {
+            return new FileProducerSessionStore(new File(directory), maxInactiveInterval);
+         }
+         catch (IllegalArgumentException e)
+         {
+            log.info("Couldn't use " + directory + " to store sessions, keeping them in memory instead: " + e.getLocalizedMessage());
+         }
+      }
+
+      return new InMemoryProducerSessionStore(maxInactiveInterval);
    }
 
    private Boolean remotableByDefault;
@@ -569,5 +695,8 @@ public class WSRPProducerImpl implements WSRP2Producer, ProducerHelper
    public void onEvent(ManagedObjectRegistryEvent event)
    {
       serviceDescriptionHandler.onEvent(event);
+
+      // portlet metadata might have changed so previously resolved markup requests might not be accurate anymore
+      markupRequestCache.invalidate();
    }
 }
@@ -33,19 +33,35 @@ import org.gatein.wsrp.producer.config.ProducerRegistrationRequirements;
 
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 
 /**
+ * Base ProducerConfigurationService implementation. By default, the persisted state of the configuration is checked each
+ * time the configuration is accessed so that it can be reloaded if it was modified. Implementations which are able to
+ * get notified when the persisted configuration changes should call {@link #enablePushInvalidation()} and then {@link
+ * #invalidateConfiguration()} upon changes: the persisted state is then only checked after such an invalidation or once
+ * the maximum staleness period has elapsed, making {@link #getConfiguration()} a simple read in the common case.
+ *
  * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
  * @version $Revision$
  */
 public abstract class AbstractProducerConfigurationService implements ProducerConfigurationService
 {
+   /** Default maximum staleness, in milliseconds, of the configuration when push invalidation is enabled. */
+   public static final long DEFAULT_MAXIMUM_STALENESS = 60 * 1000;
+
    protected AtomicReference<ProducerConfiguration> configuration = new AtomicReference<ProducerConfiguration>();
 
+   private final AtomicBoolean invalidated = new AtomicBoolean(false);
+   private volatile boolean pushInvalidation;
+   private volatile long maximumStaleness = DEFAULT_MAXIMUM_STALENESS;
+   private volatile long lastChecked;
+
    public ProducerConfiguration getConfiguration()
    {
-      if (configuration.get() == null || configuration.get().getLastModified() < getPersistedLastModifiedForConfiguration())
+      ProducerConfiguration current = configuration.get();
+      if (current == null || (needsPersistedStateCheck() && current.getLastModified() < getPersistedLastModifiedForConfiguration()))
       {
          try
          {
@@ -60,6 +76,95 @@ public abstract class AbstractProducerConfigurationService implements ProducerCo
       return configuration.get();
    }
 
+   private boolean needsPersistedStateCheck()
+   {
+      if (!pushInvalidation)
+      {
+         return true;
+      }
+
+      final boolean wasInvalidated = invalidated.getAndSet(false);
+      final long now = System.currentTimeMillis();
+      if (wasInvalidated || now - lastChecked >= maximumStaleness)
+      {
+         lastChecked = now;
+         return true;
+      }
+
+      return false;
+   }
+
+   /**
+    * Records that the persisted configuration has been modified so that its state is checked the next time the
+    * configuration is accessed.
+    */
+   public void invalidateConfiguration()
+   {
+      invalidated.set(true);
+   }
+
+   /**
+    * Called by implementations which are notified of changes made to the persisted configuration and will call {@link
+    * #invalidateConfiguration()} accordingly.
+    */
+   protected void enablePushInvalidation()
+   {
+      lastChecked = System.currentTimeMillis();
+      pushInvalidation = true;
+   }
+
+   /** Reverts to checking the persisted configuration state each time the configuration is accessed. */
+   protected void disablePushInvalidation()
+   {
+      pushInvalidation = false;
+   }
+
+   /**
+    * (Re)starts watching the persisted configuration so that changes are pushed to this service, if the implementation supports it. Called when the producer using this
+    * service is started again after having been {@link #stop() stopped}. The default implementation does nothing.
+    *
+    * @throws Exception
+    */
+   public void start() throws Exception
+   {
+      // nothing to do by default
+   }
+
+   /**
+    * Releases any resource (threads, sessions, listeners, etc.) this service acquired to get notified of changes made to the persisted configuration. The service can still be
+    * used afterwards but will then check the persisted state of the configuration each time it is accessed, until {@link #start()} is called.
+    */
+   public void stop()
+   {
+      disablePushInvalidation();
+   }
+
+   public boolean isUsingPushInvalidation()
+   {
+      return pushInvalidation;
+   }
+
+   public long getMaximumStaleness()
+   {
+      return maximumStaleness;
+   }
+
+   /**
+    * Specifies how long, in milliseconds, the configuration can be used without checking its persisted state when push
+    * invalidation is enabled. This acts as a safety net for changes which wouldn't be notified, e.g. changes made by
+    * other cluster nodes. A value of <code>0</code> results in the persisted state being checked on each access.
+    *
+    * @param maximumStaleness the maximum staleness in milliseconds
+    */
+   public void setMaximumStaleness(long maximumStaleness)
+   {
+      if (maximumStaleness < 0)
+      {
+         throw new IllegalArgumentException("Maximum staleness cannot be negative");
+      }
+      this.maximumStaleness = maximumStaleness;
+   }
+
    public void reloadConfiguration() throws Exception
    {
       reloadConfiguration(false);
@@ -24,17 +24,23 @@
 package org.gatein.wsrp.producer.config.impl.xml;
 
 import org.gatein.common.net.URLTools;
+import org.gatein.wsrp.SupportsLastModified;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.net.URL;
 import java.util.Enumeration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A ProducerConfigurationService that can load an initial seed of an XML configuration file and then store
  * modifications made to it on the file system, in the <code>${java.io.tmpdir}/portal/wsrp-producer-config.xml</code>
- * file.
+ * file. The configuration file is watched so that external modifications are picked up without having to check the
+ * file each time the configuration is accessed.
  *
  * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
  * @version $Revision: 12276 $
@@ -48,6 +54,34 @@ public class FileSystemXMLProducerConfigurationService extends SimpleXMLProducer
 
    private File config;
 
+   /** Default interval, in milliseconds, between two checks of the configuration file. */
+   public static final long DEFAULT_WATCH_INTERVAL = 5000;
+
+   private long watchInterval = DEFAULT_WATCH_INTERVAL;
+   private ScheduledExecutorService watcher;
+
+   /** Modification time of the configuration file as of our last load or save. */
+   private volatile long knownFileModification;
+
+   /** When we last detected an external modification of the configuration file, <code>0</code> if none is pending. */
+   private volatile long externallyModifiedAt;
+
+   public long getWatchInterval()
+   {
+      return watchInterval;
+   }
+
+   /**
+    * Specifies how often, in milliseconds, the configuration file is checked for external modifications. A value of
+    * <code>0</code> or less disables watching.
+    *
+    * @param watchInterval the interval between two checks of the configuration file
+    */
+   public void setWatchInterval(long watchInterval)
+   {
+      this.watchInterval = watchInterval;
+   }
+
    public String getConfigLocation()
    {
       return configLocation;
@@ -58,7 +92,7 @@ public class FileSystemXMLProducerConfigurationService extends SimpleXMLProducer
       this.configLocation = configLocation;
    }
 
-
+   @Override
    public void start() throws Exception
    {
       File dataDir = new File(System.getProperty("java.io.tmpdir"));
@@ -84,6 +118,57 @@ public class FileSystemXMLProducerConfigurationService extends SimpleXMLProducer
       config = new File(portalDir, "wsrp-producer-config.xml");
 
       reloadConfiguration();
+
+      startWatching();
+   }
+
+   @Override
+   public synchronized void stop()
+   {
+      super.stop();
+      if (watcher != null)
+      {
+         watcher.shutdownNow();
+         watcher = null;
+      }
+   }
+
+   private synchronized void startWatching()
+   {
+      if (watcher == null && watchInterval > 0)
+      {
+         watcher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+         {
+            public Thread newThread(Runnable r)
+            {
+               Thread thread = new Thread(r, "WSRP producer configuration watcher");
+               thread.setDaemon(true);
+               return thread;
+            }
+         });
+         watcher.scheduleWithFixedDelay(new Runnable()
+         {
+            public void run()
+            {
+               long modified = config.lastModified();
+               if (modified != knownFileModification)
+               {
+                  log.debug("Producer configuration file " + config.getAbsolutePath() + " was modified, configuration will be reloaded.");
+                  knownFileModification = modified;
+                  externallyModifiedAt = SupportsLastModified.now();
+                  invalidateConfiguration();
+               }
+            }
+         }, watchInterval, watchInterval, TimeUnit.MILLISECONDS);
+
+         enablePushInvalidation();
+      }
+   }
+
+   @Override
+   public long getPersistedLastModifiedForConfiguration()
+   {
+      return Math.max(super.getPersistedLastModifiedForConfiguration(), externallyModifiedAt);
    }
 
    public void loadConfiguration() throws Exception
@@ -104,6 +189,9 @@ public class FileSystemXMLProducerConfigurationService extends SimpleXMLProducer
             loadConfigurationAt(getConfigLocationURL());
          }
       }
+
+      knownFileModification = config.lastModified();
+      externallyModifiedAt = 0;
    }
 
    private void loadConfigurationAt(URL configURL) throws Exception
@@ -151,5 +239,6 @@ public class FileSystemXMLProducerConfigurationService extends SimpleXMLProducer
    public void saveConfiguration() throws Exception
    {
       saveConfigurationTo(config);
+      knownFileModification = config.lastModified();
    }
 }
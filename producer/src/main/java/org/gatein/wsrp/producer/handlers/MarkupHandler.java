@@ -24,7 +24,6 @@
 package org.gatein.wsrp.producer.handlers;
 
 import org.gatein.pc.api.PortletInvokerException;
-import org.gatein.pc.api.invocation.PortletInvocation;
 import org.gatein.pc.api.invocation.response.ContentResponse;
 import org.gatein.pc.api.invocation.response.ErrorResponse;
 import org.gatein.pc.api.invocation.response.FragmentResponse;
@@ -41,6 +40,8 @@ import org.gatein.wsrp.producer.Utils;
 import org.gatein.wsrp.producer.WSRPProducerImpl;
 import org.gatein.wsrp.producer.handlers.processors.ProcessorFactory;
 import org.gatein.wsrp.producer.handlers.processors.RequestProcessor;
+import org.gatein.wsrp.producer.session.ProducerSession;
+import org.gatein.wsrp.producer.session.ProducerSessionStore;
 import org.gatein.wsrp.spec.v2.WSRP2ExceptionFactory;
 import org.oasis.wsrp.v2.AccessDenied;
 import org.oasis.wsrp.v2.BlockingInteractionResponse;
@@ -147,9 +148,43 @@ public class MarkupHandler extends ServiceHandler implements MarkupInterface
       throws AccessDenied, InvalidRegistration, MissingParameters, ModifyRegistrationRequired, OperationFailed,
       OperationNotSupported, ResourceSuspended
    {
-      // our producer never sends session ids so a Consumer trying to release sessions is an error condition
-      Utils.throwOperationFaultOnSessionOperation();
-      return null;
+      WSRP2ExceptionFactory.throwOperationFailedIfValueIsMissing(releaseSessions, "ReleaseSessions");
+
+      // if we don't manage WSRP sessions, we never sent session ids so a Consumer trying to release sessions is an error condition
+      final ProducerSessionStore sessionStore = producer.getSessionStore();
+      if (sessionStore == null)
+      {
+         Utils.throwOperationFaultOnSessionOperation();
+      }
+
+      try
+      {
+         final Registration registration = producer.getRegistrationOrFailIfInvalid(releaseSessions.getRegistrationContext());
+         final String registrationHandle = registration != null ? registration.getRegistrationHandle() : null;
+
+         final List<String> sessionIDs = releaseSessions.getSessionIDs();
+         if (sessionIDs == null || sessionIDs.isEmpty())
+         {
+            WSRP2ExceptionFactory.throwMissingParametersIfValueIsMissing(null, "session IDs", "ReleaseSessions");
+         }
+
+         for (String sessionID : sessionIDs)
+         {
+            // only release sessions issued to the requesting consumer, unknown or expired sessions being already released
+            final ProducerSession session = sessionStore.getSession(sessionID);
+            if (session != null && session.belongsTo(registrationHandle))
+            {
+               sessionStore.releaseSession(sessionID);
+               log.debug("Released session " + sessionID);
+            }
+         }
+
+         return Collections.emptyList();
+      }
+      finally
+      {
+         RequestRegistrationContext.clear();
+      }
    }
 
    public List<Extension> initCookie(InitCookie initCookie)
@@ -157,12 +192,23 @@ public class MarkupHandler extends ServiceHandler implements MarkupInterface
       ResourceSuspended
    {
       WSRP2ExceptionFactory.throwOperationFailedIfValueIsMissing(initCookie, "InitCookie");
-      producer.getRegistrationOrFailIfInvalid(initCookie.getRegistrationContext());
+      try
+      {
+         producer.getRegistrationOrFailIfInvalid(initCookie.getRegistrationContext());
+      }
+      finally
+      {
+         RequestRegistrationContext.clear();
+      }
 
-      // Force HTTP session creation... this is required for BEA Weblogic version < 9.2.
-      // See http://jira.jboss.com/jira/browse/JBPORTAL-1220
-      String sessionId = ServletAccess.getRequest().getSession().getId();
-      log.debug("Got init cookie operation, created a session with id " + sessionId);
+      // sessions are resolved from WSRP session ids when we manage them so there's no need for an HTTP session then
+      if (producer.getSessionStore() == null)
+      {
+         // Force HTTP session creation... this is required for BEA Weblogic version < 9.2.
+         // See http://jira.jboss.com/jira/browse/JBPORTAL-1220
+         String sessionId = ServletAccess.getRequest().getSession().getId();
+         log.debug("Got init cookie operation, created a session with id " + sessionId);
+      }
 
       return Collections.emptyList();
    }
@@ -176,59 +222,50 @@ public class MarkupHandler extends ServiceHandler implements MarkupInterface
       return invoke(handleEvents);
    }
 
-   private <Request, Response> Response invoke(Request request) throws OperationFailed, ModifyRegistrationRequired, InvalidRegistration, UnsupportedMimeType, MissingParameters, UnsupportedLocale, InvalidHandle, UnsupportedWindowState, UnsupportedMode, PortletStateChangeRequired, OperationNotSupported
+   private <Request, Response> Response invoke(Request request) throws OperationFailed, ModifyRegistrationRequired, InvalidRegistration, UnsupportedMimeType, MissingParameters, UnsupportedLocale, InvalidHandle, UnsupportedWindowState, UnsupportedMode, PortletStateChangeRequired, OperationNotSupported, InvalidSession
    {
-      // get the proper RequestProcessor based on the request
-      RequestProcessor<Request, Response> requestProcessor = ProcessorFactory.getProcessorFor(producer, request);
-
-      final PortletInvocationResponse response;
-      String handle = requestProcessor.getPortletContext().getPortletHandle();
-      String invocationType = request.getClass().getSimpleName();
-
       try
       {
-         log.debug(invocationType + " on portlet '" + handle + "'");
+         // get the proper RequestProcessor based on the request
+         RequestProcessor<Request, Response> requestProcessor = ProcessorFactory.getProcessorFor(producer, request);
 
-         // check the registration and make it available to other parts of the code via RegistrationLocal
-         Registration registration = producer.getRegistrationOrFailIfInvalid(requestProcessor.getRegistrationContext());
-         RegistrationLocal.setRegistration(registration);
+         final PortletInvocationResponse response;
+         String handle = requestProcessor.getPortletContext().getPortletHandle();
+         String invocationType = request.getClass().getSimpleName();
 
-         // get the portlet container invocation from the RequestProcessor
-         final PortletInvocation invocation = requestProcessor.getInvocation();
-
-         // let the producer invocation handler delegate process the invocation before we perform the actual invocation
-         final InvocationHandlerDelegate delegate = InvocationHandlerDelegate.producerDelegate();
-         if (delegate != null)
+         try
          {
-            delegate.processInvocation(invocation);
-         }
+            log.debug(invocationType + " on portlet '" + handle + "'");
 
-         // get the portlet invoker to perform the invocation
-         response = producer.getPortletInvoker().invoke(invocation);
+            // make the registration, already checked by the RequestProcessor, available to other parts of the code via RegistrationLocal
+            RegistrationLocal.setRegistration(requestProcessor.getRegistration());
 
-         // let the producer invocation handler delegate get a chance to process the response
-         if (delegate != null)
+            // let the RequestProcessor perform the portlet container invocation(s), using the portlet invoker and the producer invocation handler delegate
+            response = requestProcessor.invoke(producer.getPortletInvoker(), InvocationHandlerDelegate.producerDelegate());
+
+            log.debug(invocationType + " done");
+
+         }
+         catch (PortletStateChangeRequiredException e)
+         {
+            throw WSRP2ExceptionFactory.throwWSException(PortletStateChangeRequired.class, e.getLocalizedMessage(), e);
+         }
+         catch (PortletInvokerException e)
          {
-            delegate.processInvocationResponse(response, invocation);
+            throw WSRP2ExceptionFactory.throwWSException(OperationFailed.class, "Could not perform " + invocationType + " on portlet '" + handle + "'", e);
          }
 
-         log.debug(invocationType + " done");
+         // check if the response is actually an error and react in consequence
+         checkForError(response);
 
+         // let the RequestProcessor finalize the response if needed
+         return requestProcessor.processResponse(response);
       }
-      catch (PortletStateChangeRequiredException e)
+      finally
       {
-         throw WSRP2ExceptionFactory.throwWSException(PortletStateChangeRequired.class, e.getLocalizedMessage(), e);
+         // the operation is finished so forget the registrations resolved while processing it
+         RequestRegistrationContext.clear();
       }
-      catch (PortletInvokerException e)
-      {
-         throw WSRP2ExceptionFactory.throwWSException(OperationFailed.class, "Could not perform " + invocationType + " on portlet '" + handle + "'", e);
-      }
-
-      // check if the response is actually an error and react in consequence
-      checkForError(response);
-
-      // let the RequestProcessor finalize the response if needed
-      return requestProcessor.processResponse(response);
    }
 
    private void checkForError(PortletInvocationResponse response) throws UnsupportedMode, OperationFailed, UnsupportedWindowState
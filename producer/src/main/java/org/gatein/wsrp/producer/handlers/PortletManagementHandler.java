@@ -212,6 +212,7 @@ public class PortletManagementHandler extends ServiceHandler implements PortletM
       finally
       {
          RegistrationLocal.setRegistration(null);
+         RequestRegistrationContext.clear();
       }
    }
 
@@ -251,6 +252,7 @@ public class PortletManagementHandler extends ServiceHandler implements PortletM
       finally
       {
          RegistrationLocal.setRegistration(null);
+         RequestRegistrationContext.clear();
       }
    }
 
@@ -308,6 +310,7 @@ public class PortletManagementHandler extends ServiceHandler implements PortletM
       finally
       {
          RegistrationLocal.setRegistration(null);
+         RequestRegistrationContext.clear();
       }
    }
 
@@ -435,6 +438,7 @@ public class PortletManagementHandler extends ServiceHandler implements PortletM
       finally
       {
          RegistrationLocal.setRegistration(null);
+         RequestRegistrationContext.clear();
       }
    }
 
@@ -630,6 +634,7 @@ public class PortletManagementHandler extends ServiceHandler implements PortletM
       finally
       {
          RegistrationLocal.setRegistration(null);
+         RequestRegistrationContext.clear();
       }
    }
 
@@ -780,6 +785,7 @@ public class PortletManagementHandler extends ServiceHandler implements PortletM
       finally
       {
          RegistrationLocal.setRegistration(null);
+         RequestRegistrationContext.clear();
       }
    }
 
@@ -906,6 +912,7 @@ public class PortletManagementHandler extends ServiceHandler implements PortletM
       finally
       {
          RegistrationLocal.setRegistration(null);
+         RequestRegistrationContext.clear();
       }
    }
 
@@ -972,6 +979,7 @@ public class PortletManagementHandler extends ServiceHandler implements PortletM
       finally
       {
          RegistrationLocal.setRegistration(null);
+         RequestRegistrationContext.clear();
       }
    }
 
@@ -1000,6 +1008,7 @@ public class PortletManagementHandler extends ServiceHandler implements PortletM
       finally
       {
          RegistrationLocal.setRegistration(null);
+         RequestRegistrationContext.clear();
       }
    }
 
@@ -0,0 +1,192 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2012, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wsrp.producer.handlers;
+
+import org.gatein.registration.Registration;
+import org.gatein.registration.RegistrationStatus;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded, thread-safe cache of {@link Registration}s keyed by registration handle, used to avoid hitting the
+ * persistence layer each time a WSRP call needs to resolve its RegistrationContext. Entries are only kept for a limited
+ * amount of time so that changes made outside of this producer instance (e.g. by another cluster node) are eventually
+ * seen.
+ *
+ * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
+ * @version $Revision$
+ */
+public class RegistrationCache
+{
+   public static final int DEFAULT_MAXIMUM_SIZE = 1000;
+   public static final long DEFAULT_TIME_TO_LIVE = 30 * 1000;
+
+   private final ConcurrentMap<String, Entry> registrations;
+   private final int maximumSize;
+   private final long timeToLive;
+
+   private final AtomicLong hits = new AtomicLong();
+   private final AtomicLong misses = new AtomicLong();
+
+   public RegistrationCache()
+   {
+      this(DEFAULT_MAXIMUM_SIZE, DEFAULT_TIME_TO_LIVE);
+   }
+
+   /**
+    * @param maximumSize the maximum number of registrations to cache
+    * @param timeToLive  the number of milliseconds a cached registration is considered current
+    */
+   public RegistrationCache(int maximumSize, long timeToLive)
+   {
+      if (maximumSize < 0 || timeToLive < 0)
+      {
+         throw new IllegalArgumentException("Maximum size and time to live must be positive");
+      }
+      this.maximumSize = maximumSize;
+      this.timeToLive = timeToLive;
+      registrations = new ConcurrentHashMap<String, Entry>(Math.min(maximumSize, 16));
+   }
+
+   /**
+    * Retrieves the cached Registration associated with the specified handle, if any.
+    *
+    * @param registrationHandle the handle of the Registration to retrieve
+    * @return the cached Registration or <code>null</code> if no current Registration was cached for that handle
+    */
+   public Registration get(String registrationHandle)
+   {
+      if (registrationHandle != null)
+      {
+         Entry entry = registrations.get(registrationHandle);
+         if (entry != null)
+         {
+            if (entry.isCurrent(System.currentTimeMillis(), timeToLive))
+            {
+               hits.incrementAndGet();
+               return entry.registration;
+            }
+
+            registrations.remove(registrationHandle, entry);
+         }
+      }
+
+      misses.incrementAndGet();
+      return null;
+   }
+
+   /**
+    * Caches the specified Registration if it's valid. Invalid or pending registrations are not cached since consumers
+    * are expected to modify or recreate them.
+    *
+    * @param registration the Registration to cache
+    */
+   public void put(Registration registration)
+   {
+      if (registration == null || maximumSize == 0 || !RegistrationStatus.VALID.equals(registration.getStatus()))
+      {
+         return;
+      }
+
+      String handle = registration.getRegistrationHandle();
+      if (handle == null)
+      {
+         return;
+      }
+
+      // make room if needed: we don't need strict LRU semantics here, registrations are few and long-lived
+      if (registrations.size() >= maximumSize && !registrations.containsKey(handle))
+      {
+         Iterator<String> iterator = registrations.keySet().iterator();
+         if (iterator.hasNext())
+         {
+            iterator.next();
+            iterator.remove();
+         }
+      }
+
+      registrations.put(handle, new Entry(registration, System.currentTimeMillis()));
+   }
+
+   public void invalidate(String registrationHandle)
+   {
+      if (registrationHandle != null)
+      {
+         registrations.remove(registrationHandle);
+      }
+   }
+
+   /**
+    * Marks all cached registrations as pending, mirroring what the RegistrationManager does when registration
+    * properties change, and empties the cache.
+    */
+   public void invalidateAllAsPending()
+   {
+      for (Entry entry : registrations.values())
+      {
+         entry.registration.setStatus(RegistrationStatus.PENDING);
+      }
+      clear();
+   }
+
+   public void clear()
+   {
+      registrations.clear();
+   }
+
+   public int size()
+   {
+      return registrations.size();
+   }
+
+   public long getHits()
+   {
+      return hits.get();
+   }
+
+   public long getMisses()
+   {
+      return misses.get();
+   }
+
+   private static class Entry
+   {
+      private final Registration registration;
+      private final long cachedAt;
+
+      private Entry(Registration registration, long cachedAt)
+      {
+         this.registration = registration;
+         this.cachedAt = cachedAt;
+      }
+
+      private boolean isCurrent(long now, long timeToLive)
+      {
+         return now - cachedAt < timeToLive && RegistrationStatus.VALID.equals(registration.getStatus());
+      }
+   }
+}
@@ -30,14 +30,18 @@ import org.gatein.registration.Consumer;
 import org.gatein.registration.ConsumerCapabilities;
 import org.gatein.registration.NoSuchRegistrationException;
 import org.gatein.registration.Registration;
+import org.gatein.registration.RegistrationDestructionListener;
 import org.gatein.registration.RegistrationException;
+import org.gatein.registration.RegistrationPropertyChangeListener;
 import org.gatein.registration.RegistrationStatus;
+import org.gatein.registration.RegistrationStatusChangeListener;
 import org.gatein.registration.RegistrationUtils;
 import org.gatein.wsrp.WSRPTypeFactory;
 import org.gatein.wsrp.WSRPUtils;
 import org.gatein.wsrp.producer.RegistrationInterface;
 import org.gatein.wsrp.producer.WSRPProducerImpl;
 import org.gatein.wsrp.producer.config.ProducerRegistrationRequirements;
+import org.gatein.wsrp.registration.PropertyDescription;
 import org.gatein.wsrp.spec.v2.WSRP2ExceptionFactory;
 import org.oasis.wsrp.v2.AccessDenied;
 import org.oasis.wsrp.v2.Deregister;
@@ -66,21 +70,72 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Handles registration operations on behalf of the producer.
+ * Handles registration operations on behalf of the producer. Resolved registrations are kept in a {@link
+ * RegistrationCache} which is invalidated when registrations are destroyed or modified or when the producer's
+ * registration properties change.
  *
  * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
  * @version $Revision: 13202 $
  * @since 2.4
  */
-public class RegistrationHandler extends ServiceHandler implements RegistrationInterface
+public class RegistrationHandler extends ServiceHandler implements RegistrationInterface, RegistrationDestructionListener, RegistrationPropertyChangeListener, RegistrationStatusChangeListener
 {
+   private final RegistrationCache registrationCache = new RegistrationCache();
+   private final AtomicLong persistenceLookups = new AtomicLong();
+
    public RegistrationHandler(WSRPProducerImpl producer)
    {
       super(producer);
    }
 
+   /**
+    * Retrieves the cache used to avoid resolving registrations from persistence on each request.
+    *
+    * @return the RegistrationCache used by this RegistrationHandler
+    */
+   public RegistrationCache getRegistrationCache()
+   {
+      return registrationCache;
+   }
+
+   /**
+    * Retrieves the number of times Registrations had to be retrieved from the RegistrationManager (and therefore, from
+    * persistence) to resolve the RegistrationContext of WSRP calls since this RegistrationHandler was created.
+    *
+    * @return the number of registration lookups performed against the RegistrationManager
+    */
+   public long getPersistenceLookups()
+   {
+      return persistenceLookups.get();
+   }
+
+   public Vote destructionScheduledFor(Registration registration)
+   {
+      registrationCache.invalidate(registration.getRegistrationHandle());
+      RequestRegistrationContext.invalidate(registration.getRegistrationHandle());
+      return SUCCESS;
+   }
+
+   public void statusChanged(Registration registration, RegistrationStatus oldStatus)
+   {
+      // cached registrations might be different instances than the one which status changed so make sure they're not used anymore
+      registrationCache.invalidate(registration.getRegistrationHandle());
+      RequestRegistrationContext.invalidate(registration.getRegistrationHandle());
+   }
+
+   public void propertiesHaveChanged(Map<QName, ? extends PropertyDescription> registrationProperties)
+   {
+      // all registrations are put in pending state by the RegistrationManager so cached ones must not be used anymore
+      registrationCache.invalidateAllAsPending();
+      // this only clears the registrations resolved by the request being processed by this thread (if any): concurrent
+      // requests keep the registrations they already resolved until their operation is finished, which can't be helped
+      // since they might already be using them, but subsequent operations will all go through registrationCache
+      RequestRegistrationContext.clear();
+   }
+
    public RegistrationContext register(Register register) throws MissingParameters, OperationFailed, OperationNotSupported
    {
       WSRP2ExceptionFactory.throwOperationFailedIfValueIsMissing(register, "Register");
@@ -237,6 +292,10 @@ public class RegistrationHandler extends ServiceHandler implements RegistrationI
 
             registration.updateProperties(properties);
             updateRegistrationInformation(registration, registrationData);
+
+            // make sure we don't keep using a stale version of the registration
+            registrationCache.invalidate(registrationHandle);
+            RequestRegistrationContext.invalidate(registrationHandle);
          }
          catch (NoSuchRegistrationException e)
          {
@@ -337,7 +396,9 @@ public class RegistrationHandler extends ServiceHandler implements RegistrationI
    }
 
    /**
-    * Retrieves the Registration associated with the specified RegistrationContext.
+    * Retrieves the Registration associated with the specified RegistrationContext. Registrations resolved during the
+    * processing of the current WSRP request are remembered for the remainder of that request (see {@link
+    * RequestRegistrationContext}) so that the RegistrationManager is consulted at most once per operation.
     *
     * @param registrationContext
     * @return
@@ -361,13 +422,30 @@ public class RegistrationHandler extends ServiceHandler implements RegistrationI
             throwInvalidRegistrationFault("registration handle is missing but registration is required");
          }
 
+         // first check if we already resolved the registration while processing the current request
+         Registration registration = RequestRegistrationContext.getRegistration(regHandle);
+         if (registration != null)
+         {
+            return registration;
+         }
+
+         registration = registrationCache.get(regHandle);
+         if (registration != null)
+         {
+            RequestRegistrationContext.setRegistration(regHandle, registration);
+            return registration;
+         }
+
          try
          {
-            Registration registration = producer.getRegistrationManager().getRegistration(regHandle);
+            persistenceLookups.incrementAndGet();
+            registration = producer.getRegistrationManager().getRegistration(regHandle);
             if (registration == null)
             {
                throwInvalidRegistrationFault("provided registration handle '" + regHandle + "' is not registered with this producer");
             }
+            registrationCache.put(registration);
+            RequestRegistrationContext.setRegistration(regHandle, registration);
             return registration;
          }
          catch (RegistrationException e)
@@ -378,13 +456,21 @@ public class RegistrationHandler extends ServiceHandler implements RegistrationI
       }
       else
       {
+         Registration registration = RequestRegistrationContext.getRegistration(null);
+         if (registration != null)
+         {
+            return registration;
+         }
+
          try
          {
-            Registration registration = producer.getRegistrationManager().getNonRegisteredRegistration();
+            persistenceLookups.incrementAndGet();
+            registration = producer.getRegistrationManager().getNonRegisteredRegistration();
             if (registration == null)
             {
                throwInvalidRegistrationFault("Could not acquire the nonregistered registration from the RegistrationManager");
             }
+            RequestRegistrationContext.setRegistration(null, registration);
             return registration;
          }
          catch (RegistrationException e)
@@ -0,0 +1,157 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2012, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wsrp.producer.handlers;
+
+import org.gatein.registration.Registration;
+import org.gatein.wsrp.api.servlet.ServletAccess;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps track of the Registrations resolved while processing the HTTP request carrying the current WSRP SOAP message so
+ * that the handlers, request processors and portlet invoker taking part in a single WSRP operation don't each need to go
+ * back to the RegistrationManager. Resolved registrations are kept as an attribute of the current request (as provided by
+ * {@link ServletAccess}) which handlers need to remove using {@link #clear()} once the operation is finished since the
+ * request is also made available to portlets (e.g. via cross-context includes). If no request is currently available,
+ * nothing is remembered.
+ * <p/>
+ * Since resolved registrations are scoped to a request, all the methods of this class only ever affect the request
+ * being processed by the calling thread: other requests being processed concurrently keep using the registrations they
+ * already resolved until the end of their own operation. This is deemed acceptable since these registrations were
+ * valid when that operation started and are never kept past it.
+ *
+ * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
+ * @version $Revision$
+ */
+public class RequestRegistrationContext
+{
+   static final String REGISTRATIONS_ATTRIBUTE = RequestRegistrationContext.class.getName();
+
+   /** Key used for the registration associated with non-registered consumers since they don't provide a handle. */
+   private static final String NON_REGISTERED = RequestRegistrationContext.class.getName() + ".nonregistered";
+
+   private RequestRegistrationContext()
+   {
+   }
+
+   /**
+    * Retrieves the Registration associated with the specified handle if it has already been resolved during the current
+    * request.
+    *
+    * @param registrationHandle the handle of the Registration to retrieve, <code>null</code> to retrieve the Registration
+    *                           associated with non-registered consumers
+    * @return the Registration resolved earlier during the current request or <code>null</code> if none was
+    */
+   public static Registration getRegistration(String registrationHandle)
+   {
+      Map<String, Registration> registrations = getRegistrations(false);
+      return registrations != null ? registrations.get(keyFor(registrationHandle)) : null;
+   }
+
+   /**
+    * Records the specified Registration as resolved for the specified handle for the remainder of the current request.
+    *
+    * @param registrationHandle the handle used to resolve the Registration, <code>null</code> for the Registration
+    *                           associated with non-registered consumers
+    * @param registration       the resolved Registration
+    */
+   public static void setRegistration(String registrationHandle, Registration registration)
+   {
+      if (registration != null)
+      {
+         Map<String, Registration> registrations = getRegistrations(true);
+         if (registrations != null)
+         {
+            registrations.put(keyFor(registrationHandle), registration);
+         }
+      }
+   }
+
+   /**
+    * Forgets the Registration associated with the specified handle, if any, so that it is resolved again if needed
+    * during the remainder of the current request.
+    *
+    * @param registrationHandle the handle of the Registration to forget
+    */
+   public static void invalidate(String registrationHandle)
+   {
+      Map<String, Registration> registrations = getRegistrations(false);
+      if (registrations != null)
+      {
+         registrations.remove(keyFor(registrationHandle));
+      }
+   }
+
+   /**
+    * Forgets all the Registrations resolved so far during the current request, removing the associated request
+    * attribute. Note that only the request processed by the calling thread is affected, see the class documentation.
+    */
+   public static void clear()
+   {
+      HttpServletRequest request = ServletAccess.getRequest();
+      if (request != null)
+      {
+         request.removeAttribute(REGISTRATIONS_ATTRIBUTE);
+      }
+   }
+
+   private static String keyFor(String registrationHandle)
+   {
+      return registrationHandle != null ? registrationHandle : NON_REGISTERED;
+   }
+
+   private static Map<String, Registration> getRegistrations(boolean create)
+   {
+      HttpServletRequest request = ServletAccess.getRequest();
+      if (request == null)
+      {
+         return null;
+      }
+
+      final Object attribute = request.getAttribute(REGISTRATIONS_ATTRIBUTE);
+      if (attribute instanceof Registrations)
+      {
+         return ((Registrations)attribute).byHandle;
+      }
+      else if (create)
+      {
+         final Registrations registrations = new Registrations();
+         request.setAttribute(REGISTRATIONS_ATTRIBUTE, registrations);
+         return registrations.byHandle;
+      }
+      else
+      {
+         return null;
+      }
+   }
+
+   /** Typed holder for the resolved Registrations so that we don't need to rely on unchecked casts of the request attribute. */
+   private static final class Registrations
+   {
+      // a request is processed by a single thread so no need for a concurrent map here
+      private final Map<String, Registration> byHandle = new HashMap<String, Registration>(3);
+   }
+}
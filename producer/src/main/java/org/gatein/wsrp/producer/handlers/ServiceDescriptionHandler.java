@@ -76,6 +76,7 @@ import org.oasis.wsrp.v2.ServiceDescription;
 
 import javax.xml.namespace.QName;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -84,6 +85,9 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Handles service description calls on behalf of the producer. Implements {@link ManagedObjectRegistryEventListener} to listen to portlet deployment operations to be able to
@@ -98,7 +102,7 @@ public class ServiceDescriptionHandler extends ServiceHandler implements Service
    // JBPORTAL-1220: force call to initCookie... Required so that BEA version < 9.2 will behave properly as a Consumer
    private static final CookieProtocol BEA_8_CONSUMER_FIX = CookieProtocol.PER_USER;
    /** Stores service description so that we don't constantly need to regenerate it on each call. */
-   private ServiceDescriptionInfo serviceDescription;
+   private final ServiceDescriptionInfo serviceDescription = new ServiceDescriptionInfo();
 
    private static final List<String> OPTIONS = new ArrayList<String>(5);
 
@@ -113,7 +117,6 @@ public class ServiceDescriptionHandler extends ServiceHandler implements Service
    public ServiceDescriptionHandler(WSRPProducerImpl producer)
    {
       super(producer);
-      reset();
    }
 
    public ServiceDescription getServiceDescription(GetServiceDescription gs)
@@ -151,6 +154,7 @@ public class ServiceDescriptionHandler extends ServiceHandler implements Service
       finally
       {
          RegistrationLocal.setRegistration(null);
+         RequestRegistrationContext.clear();
       }
    }
 
@@ -265,7 +269,7 @@ public class ServiceDescriptionHandler extends ServiceHandler implements Service
    /** Resets the service description to its original, pristine state */
    public void reset()
    {
-      serviceDescription = new ServiceDescriptionInfo();
+      serviceDescription.reset();
    }
 
    /**
@@ -284,39 +288,27 @@ public class ServiceDescriptionHandler extends ServiceHandler implements Service
    /** Stores all service description related metadata so that we don't constantly need to re-generate it on each call. */
    private class ServiceDescriptionInfo
    {
-      /** When were we last generated? */
-      private long lastGenerated;
-      /** Event descriptions */
-      private Map<QName, EventDescription> eventDescriptions;
+      /** The current metadata, atomically replaced on each modification so that readers always get a consistent view without locking */
+      private final AtomicReference<Registry> registry = new AtomicReference<Registry>(Registry.EMPTY);
       /**
-       * Since events can be declared by several portlets, we need to have a reference counting mechanism on event descriptions so that we can ensure that, when a portlet is
-       * removed, we only remove the related event description if and only if no other portlets reference it.
+       * Service descriptions we've already generated, keyed by the registry version they were generated from and the request parameters
+       * determining their content. Cached descriptions are shared between calls and must therefore not be modified.
        */
-      private Map<QName, Integer> eventReferenceCount;
-      /** Portlet descriptions */
-      private Map<String, PortletDescriptionInfo> portletDescriptions;
-      /** Registration properties */
-      private ModelDescription registrationProperties;
-      /** Whether we've already been initialized or not */
-      private boolean initialized = false;
-      /** Does the associated producer require registration? */
-      private boolean requireRegistrations;
-
-      private ServiceDescriptionInfo()
-      {
-         reset();
-      }
+      private final ConcurrentMap<List<Object>, ServiceDescription> cachedDescriptions = new ConcurrentHashMap<List<Object>, ServiceDescription>();
+      /** Limits how many descriptions we cache in case consumers ask for many different locale combinations */
+      private static final int MAXIMUM_CACHED_DESCRIPTIONS = 64;
 
       /** Resets all metadata. */
       void reset()
       {
-         lastGenerated = 0;
-         eventDescriptions = new HashMap<QName, EventDescription>(37);
-         eventReferenceCount = new HashMap<QName, Integer>(37);
-         portletDescriptions = new HashMap<String, PortletDescriptionInfo>(37);
-         registrationProperties = null;
-         initialized = false;
-         requireRegistrations = false;
+         Registry current;
+         do
+         {
+            current = registry.get();
+         }
+         while (!registry.compareAndSet(current, current.reset()));
+
+         cachedDescriptions.clear();
       }
 
       /**
@@ -328,7 +320,7 @@ public class ServiceDescriptionHandler extends ServiceHandler implements Service
       {
          // only update our information if the new requirements are posterior to our last modification, since, presumably, we updated them at that time
          long lastModified = requirements.getLastModified();
-         if (lastModified > lastGenerated)
+         if (lastModified > registry.get().lastGenerated)
          {
             if (log.isDebugEnabled())
             {
@@ -337,6 +329,7 @@ public class ServiceDescriptionHandler extends ServiceHandler implements Service
 
             // do not create a ModelDescription if there is no registration properties
             Map<QName, RegistrationPropertyDescription> info = requirements.getRegistrationProperties();
+            ModelDescription registrationProperties;
             if (ParameterValidation.existsAndIsNotEmpty(info))
             {
                registrationProperties = Utils.convertRegistrationPropertiesToModelDescription(info);
@@ -347,32 +340,68 @@ public class ServiceDescriptionHandler extends ServiceHandler implements Service
             }
 
             // update need to register
-            requireRegistrations = requirements.isRegistrationRequired();
+            boolean requireRegistrations = requirements.isRegistrationRequired();
 
             // we just got re-generated
-            lastGenerated = SupportsLastModified.now();
+            long now = SupportsLastModified.now();
+
+            Registry current;
+            do
+            {
+               current = registry.get();
+               if (lastModified <= current.lastGenerated)
+               {
+                  // another thread already updated the registration properties
+                  return;
+               }
+            }
+            while (!registry.compareAndSet(current, current.withRegistrationProperties(registrationProperties, requireRegistrations, now)));
+
+            cachedDescriptions.clear();
          }
       }
 
-      /** Updates portlet descriptions from the set of remotable portlets known by the associated producer. */
-      private void updatePortletDescriptions()
+      /**
+       * Updates portlet descriptions from the set of remotable portlets known by the associated producer.
+       *
+       * @return the registry resulting from the update
+       */
+      private Registry updatePortletDescriptions()
       {
          try
          {
+            Map<String, PortletDescriptionInfo> descriptions = new HashMap<String, PortletDescriptionInfo>();
             Set<Portlet> portlets = producer.getRemotablePortlets();
             if (ParameterValidation.existsAndIsNotEmpty(portlets))
             {
                for (Portlet portlet : portlets)
                {
-                  addPortletDescription(portlet.getContext(), portlet.getInfo());
+                  String handle = portlet.getContext().getId();
+                  descriptions.put(handle, createPortletDescription(portlet.getInfo(), handle));
                }
             }
 
-            initialized = true;
+            Registry current;
+            Registry updated;
+            do
+            {
+               current = registry.get();
+               if (current.initialized)
+               {
+                  // another thread initialized the metadata in the mean time
+                  return current;
+               }
+               updated = current.withPortlets(descriptions, true);
+            }
+            while (!registry.compareAndSet(current, updated));
+
+            cachedDescriptions.clear();
+            return updated;
          }
          catch (PortletInvokerException e)
          {
             log.warn("Couldn't get remotable portlets", e);
+            return registry.get();
          }
       }
 
@@ -383,25 +412,54 @@ public class ServiceDescriptionHandler extends ServiceHandler implements Service
        * @param needsPortletDescriptions    do we want to include portlet descriptions?
        * @param portletHandles              list of portlet handles that we only want to include in the service description
        * @param desiredLocales              desired locales for which the service description should be adapted along a best effort policy
-       * @return a ServiceDescription instance ready to be sent to the consumer with the specified information.
+       * @return a ServiceDescription instance ready to be sent to the consumer with the specified information. This instance might be shared with
+       *         other calls and must therefore not be modified.
        */
       private ServiceDescription getServiceDescription(boolean needsRegistrationProperties, boolean needsPortletDescriptions, List<String> portletHandles, List<String> desiredLocales)
       {
          // initialize if needed
-         initIfNeeded();
+         final Registry current = initIfNeeded();
 
+         // descriptions targeting specific portlets are not cached since they are less frequent and would make the cache harder to bound
+         if (ParameterValidation.existsAndIsNotEmpty(portletHandles))
+         {
+            return createServiceDescription(current, needsRegistrationProperties, needsPortletDescriptions, portletHandles, desiredLocales);
+         }
+
+         final List<Object> key = Arrays.<Object>asList(current.version, needsRegistrationProperties, needsPortletDescriptions, new ArrayList<String>(desiredLocales));
+         ServiceDescription serviceDescription = cachedDescriptions.get(key);
+         if (serviceDescription == null)
+         {
+            serviceDescription = createServiceDescription(current, needsRegistrationProperties, needsPortletDescriptions, portletHandles, desiredLocales);
+
+            // only cache descriptions generated from the current metadata
+            if (registry.get() == current)
+            {
+               if (cachedDescriptions.size() >= MAXIMUM_CACHED_DESCRIPTIONS)
+               {
+                  cachedDescriptions.clear();
+               }
+               cachedDescriptions.put(key, serviceDescription);
+            }
+         }
+
+         return serviceDescription;
+      }
+
+      private ServiceDescription createServiceDescription(Registry current, boolean needsRegistrationProperties, boolean needsPortletDescriptions, List<String> portletHandles, List<String> desiredLocales)
+      {
          // only add registration properties if we asked for them
-         ModelDescription registrationProperties = needsRegistrationProperties ? this.registrationProperties : null;
+         ModelDescription registrationProperties = needsRegistrationProperties ? current.registrationProperties : null;
 
          // set the service description details
          ServiceDescription serviceDescription = WSRPTypeFactory.createServiceDescription(false);
          serviceDescription.setRequiresInitCookie(BEA_8_CONSUMER_FIX);
          serviceDescription.getSupportedOptions().addAll(OPTIONS);
          serviceDescription.setRegistrationPropertyDescription(registrationProperties);
-         serviceDescription.setRequiresRegistration(requireRegistrations);
+         serviceDescription.setRequiresRegistration(current.requireRegistrations);
 
          // init supported locales. Note that this doesn't mean that all portlets support all these languages but rather that at least one portlet supports at least one of these languages.
-         final Set<String> knownPortletHandles = portletDescriptions.keySet();
+         final Set<String> knownPortletHandles = current.portletDescriptions.keySet();
          Set<String> supportedLocales = new HashSet<String>(knownPortletHandles.size() * 2);
 
          // if we asked for portlet decriptions, add them to the service description we will return
@@ -419,7 +477,7 @@ public class ServiceDescriptionHandler extends ServiceHandler implements Service
             for (String handle : portletHandles)
             {
                // retrieve the associated description
-               PortletDescriptionInfo descriptionInfo = portletDescriptions.get(handle);
+               PortletDescriptionInfo descriptionInfo = current.portletDescriptions.get(handle);
                if (descriptionInfo != null)
                {
                   // add the languages that the portlet supports to the set of supported languages
@@ -433,86 +491,45 @@ public class ServiceDescriptionHandler extends ServiceHandler implements Service
          serviceDescription.getLocales().addAll(supportedLocales);
 
          // events
-         Collection<EventDescription> events = eventDescriptions.values();
+         Collection<EventDescription> events = current.eventDescriptions.values();
          serviceDescription.getEventDescriptions().addAll(events);
 
          return serviceDescription;
       }
 
-      /** Initializes this service description if we were not already */
-      private void initIfNeeded()
-      {
-         if (!initialized)
-         {
-            updatePortletDescriptions();
-         }
-      }
-
       /**
-       * Adds the specified event metadata in the specified locale
+       * Initializes this service description if we were not already
        *
-       * @param info
-       * @param locale
+       * @return the current metadata
        */
-      private void addEventInfo(EventInfo info, Locale locale)
+      private Registry initIfNeeded()
       {
-         QName name = info.getName();
-         if (!eventDescriptions.containsKey(name))
+         final Registry current = registry.get();
+         if (!current.initialized)
          {
-            EventDescription desc = WSRPTypeFactory.createEventDescription(name);
-            desc.setDescription(Utils.convertToWSRPLocalizedString(info.getDescription(), locale));
-            desc.setLabel(Utils.convertToWSRPLocalizedString(info.getDisplayName(), locale));
-            Collection<QName> aliases = info.getAliases();
-            if (ParameterValidation.existsAndIsNotEmpty(aliases))
-            {
-               desc.getAliases().addAll(aliases);
-            }
-            // todo: deal with type info...
-            eventDescriptions.put(name, desc);
-            eventReferenceCount.put(name, 1);
-         }
-         else
-         {
-            Integer current = eventReferenceCount.get(name);
-            eventReferenceCount.put(name, current + 1); // increase reference count
-         }
-      }
-
-      /**
-       * Removes the even information associated with the specified QName
-       *
-       * @param name the name of the event which information we want to remove
-       */
-      private void removeEvent(QName name)
-      {
-         // retrieve the reference count for this event
-         Integer current = eventReferenceCount.get(name);
-         if (current != null)
-         {
-            if (current == 1)
-            {
-               // only remove the even description if we only have one reference to it left
-               eventDescriptions.remove(name);
-               eventReferenceCount.remove(name);
-            }
-            else
-            {
-               // otherwise, simply decrease the reference count for that event
-               eventReferenceCount.put(name, current - 1);
-            }
+            return updatePortletDescriptions();
          }
+         return current;
       }
 
       private void addPortletDescription(org.gatein.pc.api.PortletContext context, PortletInfo info)
       {
          String handle = context.getId();
-         PortletDescriptionInfo desc = createPortletDescription(info, handle);
+         Map<String, PortletDescriptionInfo> desc = Collections.singletonMap(handle, createPortletDescription(info, handle));
 
-         portletDescriptions.put(handle, desc);
+         Registry current;
+         do
+         {
+            current = registry.get();
+         }
+         while (!registry.compareAndSet(current, current.withPortlets(desc, current.initialized)));
+
+         cachedDescriptions.clear();
       }
 
       /**
-       * Creates the portlet description metadata associated with the specified portlet.
+       * Creates the portlet description metadata associated with the specified portlet. The returned metadata is not yet visible to other threads:
+       * it needs to be published in a new {@link Registry}.
        *
        * @param info   the portlet metadata from the portlet container
        * @param handle the portlet handle of the portlet for which we want to create the metadata
@@ -551,12 +568,7 @@ public class ServiceDescriptionHandler extends ServiceHandler implements Service
             supportedLanguages = WSRPUtils.convertLocalesToRFC3066LanguageTags(new ArrayList<Locale>(supportedLocales));
          }
 
-         PortletDescriptionInfo descriptionInfo = portletDescriptions.get(handle);
-         if (descriptionInfo == null)
-         {
-            descriptionInfo = new PortletDescriptionInfo(supportedLanguages);
-            portletDescriptions.put(handle, descriptionInfo);
-         }
+         PortletDescriptionInfo descriptionInfo = new PortletDescriptionInfo(supportedLanguages);
 
          // iterate over locales and create a portlet description for each
          MetaInfo metaInfo = info.getMeta();
@@ -609,7 +621,7 @@ public class ServiceDescriptionHandler extends ServiceHandler implements Service
                   for (Map.Entry<QName, ? extends EventInfo> entry : producedEvents.entrySet())
                   {
                      publishedEvents.add(entry.getKey());
-                     addEventInfo(entry.getValue(), localeMatch);
+                     descriptionInfo.addEventInfo(entry.getValue(), localeMatch);
                   }
                }
 
@@ -621,7 +633,7 @@ public class ServiceDescriptionHandler extends ServiceHandler implements Service
                   for (Map.Entry<QName, ? extends EventInfo> entry : consumedEvents.entrySet())
                   {
                      handledEvents.add(entry.getKey());
-                     addEventInfo(entry.getValue(), localeMatch);
+                     descriptionInfo.addEventInfo(entry.getValue(), localeMatch);
                   }
                }
             }
@@ -694,14 +706,14 @@ public class ServiceDescriptionHandler extends ServiceHandler implements Service
        */
       public PortletDescription getPortletDescription(PortletContext context, List<String> desiredLocales, Registration registration)
       {
-         initIfNeeded();
+         final Registry current = initIfNeeded();
 
          org.gatein.pc.api.PortletContext pcContext = WSRPUtils.convertToPortalPortletContext(context);
 
          // does the specified registration allow access to the specified portlet?
          if (producer.getRegistrationManager().getPolicy().allowAccessTo(pcContext, registration, "getPortletDescription"))
          {
-            PortletDescription description = getPortletDescription(context.getPortletHandle(), desiredLocales);
+            PortletDescription description = current.getPortletDescription(context.getPortletHandle(), desiredLocales);
 
             // the producer doesn't know of the portlet so it's not a producer-offered portlet
             if (description == null)
@@ -715,7 +727,7 @@ public class ServiceDescriptionHandler extends ServiceHandler implements Service
                      Portlet portlet = producer.getPortletWith(pcContext, registration);
                      PortletInfo info = portlet.getInfo();
                      org.gatein.pc.api.PortletContext original = org.gatein.pc.api.PortletContext.createPortletContext(info.getApplicationName(), info.getName());
-                     return getPortletDescription(original.getId(), desiredLocales);
+                     return current.getPortletDescription(original.getId(), desiredLocales);
                   }
                   catch (Exception e)
                   {
@@ -732,19 +744,6 @@ public class ServiceDescriptionHandler extends ServiceHandler implements Service
          }
       }
 
-      private PortletDescription getPortletDescription(final String portletHandle, List<String> desiredLocales)
-      {
-         PortletDescriptionInfo descriptionInfo = portletDescriptions.get(portletHandle);
-         if (descriptionInfo != null)
-         {
-            return descriptionInfo.getBestDescriptionFor(desiredLocales);
-         }
-         else
-         {
-            return null;
-         }
-      }
-
       /**
        * Removes the description for the portlet identified by the specified context
        *
@@ -754,114 +753,303 @@ public class ServiceDescriptionHandler extends ServiceHandler implements Service
       {
          String handle = WSRPUtils.convertToWSRPPortletContext(pc).getPortletHandle();
 
-         PortletDescription description = getPortletDescription(handle, null);
-         if (description != null)
+         Registry current;
+         Registry updated;
+         do
          {
-            // remove associated events
-            for (QName event : description.getHandledEvents())
+            current = registry.get();
+            updated = current.withoutPortlet(handle);
+            if (updated == current)
             {
-               removeEvent(event);
+               // we didn't know about that portlet
+               return;
             }
-            for (QName event : description.getPublishedEvents())
+         }
+         while (!registry.compareAndSet(current, updated));
+
+         cachedDescriptions.clear();
+      }
+   }
+
+   /**
+    * An immutable snapshot of the service description metadata. Modifications create a new instance with an incremented version, which is then
+    * atomically published by {@link ServiceDescriptionInfo}.
+    */
+   private static final class Registry
+   {
+      private static final Registry EMPTY = new Registry(0, false, 0, null, false, Collections.<String, PortletDescriptionInfo>emptyMap(),
+         Collections.<QName, EventDescription>emptyMap(), Collections.<QName, Integer>emptyMap());
+
+      /** Monotonically increasing version of the metadata */
+      private final long version;
+      /** Whether we've already been initialized or not */
+      private final boolean initialized;
+      /** When were the registration properties last generated? */
+      private final long lastGenerated;
+      /** Registration properties */
+      private final ModelDescription registrationProperties;
+      /** Does the associated producer require registration? */
+      private final boolean requireRegistrations;
+      /** Portlet descriptions */
+      private final Map<String, PortletDescriptionInfo> portletDescriptions;
+      /** Event descriptions */
+      private final Map<QName, EventDescription> eventDescriptions;
+      /**
+       * Since events can be declared by several portlets, we need to have a reference counting mechanism on event descriptions so that we can ensure that, when a portlet is
+       * removed, we only remove the related event description if and only if no other portlets reference it.
+       */
+      private final Map<QName, Integer> eventReferenceCount;
+
+      private Registry(long version, boolean initialized, long lastGenerated, ModelDescription registrationProperties, boolean requireRegistrations,
+                       Map<String, PortletDescriptionInfo> portletDescriptions, Map<QName, EventDescription> eventDescriptions,
+                       Map<QName, Integer> eventReferenceCount)
+      {
+         this.version = version;
+         this.initialized = initialized;
+         this.lastGenerated = lastGenerated;
+         this.registrationProperties = registrationProperties;
+         this.requireRegistrations = requireRegistrations;
+         this.portletDescriptions = portletDescriptions;
+         this.eventDescriptions = eventDescriptions;
+         this.eventReferenceCount = eventReferenceCount;
+      }
+
+      private Registry reset()
+      {
+         return new Registry(version + 1, false, 0, null, false, EMPTY.portletDescriptions, EMPTY.eventDescriptions, EMPTY.eventReferenceCount);
+      }
+
+      private Registry withRegistrationProperties(ModelDescription registrationProperties, boolean requireRegistrations, long lastGenerated)
+      {
+         return new Registry(version + 1, initialized, lastGenerated, registrationProperties, requireRegistrations, portletDescriptions,
+            eventDescriptions, eventReferenceCount);
+      }
+
+      /**
+       * Creates a new Registry adding (or replacing) the specified portlet descriptions.
+       *
+       * @param descriptions the descriptions to add, keyed by portlet handle
+       * @param initialized  whether the resulting Registry should be considered initialized
+       * @return a new Registry with the specified descriptions
+       */
+      private Registry withPortlets(Map<String, PortletDescriptionInfo> descriptions, boolean initialized)
+      {
+         Map<String, PortletDescriptionInfo> portlets = new HashMap<String, PortletDescriptionInfo>(portletDescriptions);
+         Map<QName, EventDescription> events = new HashMap<QName, EventDescription>(eventDescriptions);
+         Map<QName, Integer> eventCounts = new HashMap<QName, Integer>(eventReferenceCount);
+
+         for (Map.Entry<String, PortletDescriptionInfo> entry : descriptions.entrySet())
+         {
+            PortletDescriptionInfo previous = portlets.put(entry.getKey(), entry.getValue());
+            if (previous != null)
             {
-               removeEvent(event);
+               releaseEvents(previous, events, eventCounts);
             }
 
-            portletDescriptions.remove(handle);
+            // increase the reference count of the events this portlet declares, adding their descriptions if we didn't know them yet
+            for (EventDescription event : entry.getValue().getEventDescriptions())
+            {
+               QName name = event.getName();
+               Integer current = eventCounts.get(name);
+               if (current == null)
+               {
+                  events.put(name, event);
+                  eventCounts.put(name, 1);
+               }
+               else
+               {
+                  eventCounts.put(name, current + 1);
+               }
+            }
          }
+
+         return new Registry(version + 1, initialized, lastGenerated, registrationProperties, requireRegistrations,
+            Collections.unmodifiableMap(portlets), Collections.unmodifiableMap(events), Collections.unmodifiableMap(eventCounts));
       }
 
       /**
-       * Records the description for each supported languages for a given portlet. These are generated only once when the associated portlets are added so that we only need to
-       * filter the proper information when we return a service description to the consumer.
+       * Creates a new Registry without the description for the portlet identified by the specified handle.
+       *
+       * @param handle the handle of the portlet to remove
+       * @return a new Registry without the specified portlet or this Registry if it didn't know about the portlet
        */
-      private class PortletDescriptionInfo
+      private Registry withoutPortlet(String handle)
       {
-         /** Associates a language to a portlet description */
-         private Map<String, PortletDescription> languageToDescription;
+         if (!portletDescriptions.containsKey(handle))
+         {
+            return this;
+         }
 
-         private PortletDescriptionInfo(List<String> supportedLanguages)
+         Map<String, PortletDescriptionInfo> portlets = new HashMap<String, PortletDescriptionInfo>(portletDescriptions);
+         Map<QName, EventDescription> events = new HashMap<QName, EventDescription>(eventDescriptions);
+         Map<QName, Integer> eventCounts = new HashMap<QName, Integer>(eventReferenceCount);
+
+         releaseEvents(portlets.remove(handle), events, eventCounts);
+
+         return new Registry(version + 1, initialized, lastGenerated, registrationProperties, requireRegistrations,
+            Collections.unmodifiableMap(portlets), Collections.unmodifiableMap(events), Collections.unmodifiableMap(eventCounts));
+      }
+
+      /** Decreases the reference count of the events declared by the specified portlet, removing their description if no other portlet references them. */
+      private static void releaseEvents(PortletDescriptionInfo portlet, Map<QName, EventDescription> events, Map<QName, Integer> eventCounts)
+      {
+         for (EventDescription event : portlet.getEventDescriptions())
          {
-            languageToDescription = new HashMap<String, PortletDescription>(supportedLanguages.size());
-            for (String supportedLanguage : supportedLanguages)
+            QName name = event.getName();
+            Integer current = eventCounts.get(name);
+            if (current != null)
             {
-               languageToDescription.put(supportedLanguage, null);
+               if (current == 1)
+               {
+                  // only remove the even description if we only have one reference to it left
+                  events.remove(name);
+                  eventCounts.remove(name);
+               }
+               else
+               {
+                  // otherwise, simply decrease the reference count for that event
+                  eventCounts.put(name, current - 1);
+               }
             }
          }
+      }
 
-         /**
-          * Retrieves a Set of all supported languages by the portlet.
-          *
-          * @return a Set of languages by the associated portlet
-          */
-         public Set<String> getSupportedLanguages()
+      private PortletDescription getPortletDescription(final String portletHandle, List<String> desiredLocales)
+      {
+         PortletDescriptionInfo descriptionInfo = portletDescriptions.get(portletHandle);
+         if (descriptionInfo != null)
          {
-            return languageToDescription.keySet();
+            return descriptionInfo.getBestDescriptionFor(desiredLocales);
+         }
+         else
+         {
+            return null;
          }
+      }
+   }
 
-         /**
-          * Retrieves the best description for the specified languages based on what the portlet supports.
-          *
-          * @param desiredLanguages a List of ordered (most desired first) languages for which we're willing to accept a description for the associated portlet
-          * @return
-          */
-         public PortletDescription getBestDescriptionFor(List<String> desiredLanguages)
+   /**
+    * Records the description for each supported languages for a given portlet. These are generated only once when the associated portlets are added so that we only need to
+    * filter the proper information when we return a service description to the consumer. Instances must not be modified once they've been published
+    * in a {@link Registry}.
+    */
+   private static class PortletDescriptionInfo
+   {
+      /** Associates a language to a portlet description */
+      private final Map<String, PortletDescription> languageToDescription;
+      /** Descriptions of the events the portlet publishes or handles */
+      private final Map<QName, EventDescription> eventDescriptions = new HashMap<QName, EventDescription>(7);
+
+      private PortletDescriptionInfo(List<String> supportedLanguages)
+      {
+         languageToDescription = new HashMap<String, PortletDescription>(supportedLanguages.size());
+         for (String supportedLanguage : supportedLanguages)
          {
-            String language = null;
+            languageToDescription.put(supportedLanguage, null);
+         }
+      }
+
+      /**
+       * Retrieves a Set of all supported languages by the portlet.
+       *
+       * @return a Set of languages by the associated portlet
+       */
+      public Set<String> getSupportedLanguages()
+      {
+         return languageToDescription.keySet();
+      }
 
-            Set<String> supportedLanguages = getSupportedLanguages();
-            if (desiredLanguages != null && !desiredLanguages.isEmpty())
+      /**
+       * Retrieves the best description for the specified languages based on what the portlet supports.
+       *
+       * @param desiredLanguages a List of ordered (most desired first) languages for which we're willing to accept a description for the associated portlet
+       * @return
+       */
+      public PortletDescription getBestDescriptionFor(List<String> desiredLanguages)
+      {
+         String language = null;
+
+         Set<String> supportedLanguages = getSupportedLanguages();
+         if (desiredLanguages != null && !desiredLanguages.isEmpty())
+         {
+            // check first if we have an exact match
+            for (String languageTag : desiredLanguages)
             {
-               // check first if we have an exact match
-               for (String languageTag : desiredLanguages)
+               if (supportedLanguages.contains(languageTag))
                {
-                  if (supportedLanguages.contains(languageTag))
-                  {
-                     language = languageTag;
-                     break; // exit loop as soon as we've found a match
-                  }
+                  language = languageTag;
+                  break; // exit loop as soon as we've found a match
                }
+            }
 
-               // if we haven't found an exact match, check if we can find a partial match based on country
-               if (language == null)
+            // if we haven't found an exact match, check if we can find a partial match based on country
+            if (language == null)
+            {
+               for (String desiredLanguage : desiredLanguages)
                {
-                  for (String desiredLanguage : desiredLanguages)
+                  for (String supportedLanguage : supportedLanguages)
                   {
-                     for (String supportedLanguage : supportedLanguages)
+                     if (supportedLanguage.startsWith(desiredLanguage))
                      {
-                        if (supportedLanguage.startsWith(desiredLanguage))
-                        {
-                           language = supportedLanguage;
-                           break; // exit loop as soon as we've found a match
-                        }
+                        language = supportedLanguage;
+                        break; // exit loop as soon as we've found a match
                      }
                   }
                }
             }
+         }
 
-            if (language == null)
+         if (language == null)
+         {
+            // if we still haven't determined a language, use the first available one
+            for (String supportedLanguage : supportedLanguages)
             {
-               // if we still haven't determined a language, use the first available one
-               for (String supportedLanguage : supportedLanguages)
-               {
-                  language = supportedLanguage;
-                  break;
-               }
+               language = supportedLanguage;
+               break;
             }
-
-            return languageToDescription.get(language);
          }
 
-         /**
-          * Adds the specified portlet description for the specified language.
-          *
-          * @param language the language for which we're adding a description
-          * @param desc     the portlet description to associate to the specified language
-          */
-         public void addDescriptionFor(String language, PortletDescription desc)
+         return languageToDescription.get(language);
+      }
+
+      /**
+       * Adds the specified portlet description for the specified language.
+       *
+       * @param language the language for which we're adding a description
+       * @param desc     the portlet description to associate to the specified language
+       */
+      public void addDescriptionFor(String language, PortletDescription desc)
+      {
+         languageToDescription.put(language, desc);
+      }
+
+      /**
+       * Adds the specified event metadata in the specified locale, if we don't already know about that event
+       *
+       * @param info
+       * @param locale
+       */
+      private void addEventInfo(EventInfo info, Locale locale)
+      {
+         QName name = info.getName();
+         if (!eventDescriptions.containsKey(name))
          {
-            languageToDescription.put(language, desc);
+            EventDescription desc = WSRPTypeFactory.createEventDescription(name);
+            desc.setDescription(Utils.convertToWSRPLocalizedString(info.getDescription(), locale));
+            desc.setLabel(Utils.convertToWSRPLocalizedString(info.getDisplayName(), locale));
+            Collection<QName> aliases = info.getAliases();
+            if (ParameterValidation.existsAndIsNotEmpty(aliases))
+            {
+               desc.getAliases().addAll(aliases);
+            }
+            // todo: deal with type info...
+            eventDescriptions.put(name, desc);
          }
       }
+
+      private Collection<EventDescription> getEventDescriptions()
+      {
+         return eventDescriptions.values();
+      }
    }
 }
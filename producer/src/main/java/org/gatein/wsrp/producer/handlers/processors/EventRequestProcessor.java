@@ -23,24 +23,31 @@
 
 package org.gatein.wsrp.producer.handlers.processors;
 
-import org.gatein.common.NotYetImplemented;
 import org.gatein.common.util.ParameterValidation;
+import org.gatein.pc.api.PortletInvoker;
+import org.gatein.pc.api.PortletInvokerException;
 import org.gatein.pc.api.invocation.EventInvocation;
 import org.gatein.pc.api.invocation.PortletInvocation;
+import org.gatein.pc.api.invocation.response.ErrorResponse;
 import org.gatein.pc.api.invocation.response.PortletInvocationResponse;
 import org.gatein.pc.api.invocation.response.UpdateNavigationalStateResponse;
 import org.gatein.pc.api.state.AccessMode;
+import org.gatein.pc.portlet.state.producer.PortletStateChangeRequiredException;
 import org.gatein.wsrp.WSRPTypeFactory;
 import org.gatein.wsrp.WSRPUtils;
+import org.gatein.wsrp.api.extensions.InvocationHandlerDelegate;
 import org.gatein.wsrp.payload.PayloadUtils;
+import org.gatein.wsrp.spec.v2.ErrorCodes;
 import org.gatein.wsrp.spec.v2.WSRP2ExceptionFactory;
 import org.oasis.wsrp.v2.Event;
 import org.oasis.wsrp.v2.EventParams;
 import org.oasis.wsrp.v2.Extension;
 import org.oasis.wsrp.v2.HandleEvents;
+import org.oasis.wsrp.v2.HandleEventsFailed;
 import org.oasis.wsrp.v2.HandleEventsResponse;
 import org.oasis.wsrp.v2.InvalidHandle;
 import org.oasis.wsrp.v2.InvalidRegistration;
+import org.oasis.wsrp.v2.InvalidSession;
 import org.oasis.wsrp.v2.MimeRequest;
 import org.oasis.wsrp.v2.MissingParameters;
 import org.oasis.wsrp.v2.ModifyRegistrationRequired;
@@ -57,15 +64,27 @@ import org.oasis.wsrp.v2.UnsupportedWindowState;
 import org.oasis.wsrp.v2.UpdateResponse;
 import org.oasis.wsrp.v2.UserContext;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
+ * Processes HandleEvents requests. Events are dispatched in order to the portlet container, each in its own EventInvocation sharing the same invocation
+ * context and seeing the state resulting from the processing of the previous events. Failures to process a given event are reported in the response's
+ * failed events instead of aborting the whole request, while the state changes resulting from the successfully processed events are merged in a single
+ * UpdateResponse.
+ *
  * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
  * @version $Revision$
  */
 class EventRequestProcessor extends UpdateNavigationalStateResponseProcessor<HandleEvents, HandleEventsResponse>
 {
-   public EventRequestProcessor(ProducerHelper producer, HandleEvents handleEvents) throws OperationFailed, UnsupportedMode, InvalidHandle, MissingParameters, UnsupportedMimeType, UnsupportedWindowState, InvalidRegistration, OperationNotSupported, ModifyRegistrationRequired, UnsupportedLocale
+   private WSRPPortletInvocationContext context;
+   private final List<HandleEventsFailed> failedEvents = new ArrayList<HandleEventsFailed>();
+   private boolean atLeastOneEventProcessed;
+
+   public EventRequestProcessor(ProducerHelper producer, HandleEvents handleEvents) throws OperationFailed, UnsupportedMode, InvalidHandle, MissingParameters, UnsupportedMimeType, UnsupportedWindowState, InvalidRegistration, OperationNotSupported, ModifyRegistrationRequired, UnsupportedLocale, InvalidSession
    {
       super(producer, handleEvents);
    }
@@ -82,11 +101,6 @@ class EventRequestProcessor extends UpdateNavigationalStateResponseProcessor<Han
          throw WSRP2ExceptionFactory.createWSException(MissingParameters.class,
             "EventParams must provide at least one event to process", null);
       }
-
-      if (events.size() > 1)
-      {
-         throw WSRP2ExceptionFactory.createWSException(OperationNotSupported.class, "GateIn currently doesn't support sending multiple events to process at once.", null);
-      }
    }
 
    @Override
@@ -130,26 +144,155 @@ class EventRequestProcessor extends UpdateNavigationalStateResponseProcessor<Han
    @Override
    PortletInvocation initInvocation(WSRPPortletInvocationContext context)
    {
-      EventInvocation eventInvocation = new EventInvocation(context);
+      // keep the context around so that we can create invocations for the other events
+      this.context = context;
 
       final EventParams eventParams = request.getEventParams();
-      List<Event> events = eventParams.getEvents();
+      EventInvocation eventInvocation = createEventInvocation(eventParams.getEvents().get(0));
 
-      if (events.size() > 1)
-      {
-         throw new NotYetImplemented("Need to support multiple events at once...");
-      }
+      // Extensions
+      processExtensionsFrom(eventParams.getClass(), eventParams.getExtensions());
 
-      // since we currently don't support sending multiple events to process at once, assume there's only one
-      Event event = events.get(0);
+      return eventInvocation;
+   }
 
+   private EventInvocation createEventInvocation(Event event)
+   {
+      EventInvocation eventInvocation = new EventInvocation(context);
       eventInvocation.setName(event.getName());
       eventInvocation.setPayload(PayloadUtils.getPayloadAsSerializable(event));
+      return eventInvocation;
+   }
 
-      // Extensions
-      processExtensionsFrom(eventParams.getClass(), eventParams.getExtensions());
+   @Override
+   public PortletInvocationResponse invoke(PortletInvoker invoker, InvocationHandlerDelegate delegate) throws PortletInvokerException
+   {
+      final List<Event> events = request.getEventParams().getEvents();
+      final int size = events.size();
 
-      return eventInvocation;
+      // single event: errors are reported as faults, as for other requests
+      if (size == 1)
+      {
+         return super.invoke(invoker, delegate);
+      }
+
+      UpdateNavigationalStateResponse merged = new UpdateNavigationalStateResponse();
+      PortletInvocation current = invocation;
+      for (int i = 0; i < size; i++)
+      {
+         if (i > 0)
+         {
+            current = createNextInvocation(events.get(i), current, merged);
+         }
+
+         final PortletInvocationResponse response;
+         try
+         {
+            response = invoke(invoker, delegate, current);
+         }
+         catch (PortletStateChangeRequiredException e)
+         {
+            // the consumer needs to change the portlet state change mode, which applies to all events so abort
+            throw e;
+         }
+         catch (PortletInvokerException e)
+         {
+            failedEvents.add(WSRPTypeFactory.createHandleEventsFailed(i, ErrorCodes.Codes.OPERATIONFAILED, e.getLocalizedMessage()));
+            continue;
+         }
+
+         if (response instanceof UpdateNavigationalStateResponse)
+         {
+            merge(merged, (UpdateNavigationalStateResponse)response);
+            atLeastOneEventProcessed = true;
+         }
+         else
+         {
+            String reason = response instanceof ErrorResponse ? ((ErrorResponse)response).getMessage() : "Unsupported result type: " + response.getClass().getName();
+            failedEvents.add(WSRPTypeFactory.createHandleEventsFailed(i, ErrorCodes.Codes.OPERATIONFAILED, reason));
+         }
+      }
+
+      return merged;
+   }
+
+   /**
+    * Creates the invocation for the specified event, based on the previous invocation and taking into account the state changes resulting from the processing
+    * of the previous events.
+    */
+   private PortletInvocation createNextInvocation(Event event, PortletInvocation previous, UpdateNavigationalStateResponse merged)
+   {
+      EventInvocation next = createEventInvocation(event);
+      next.setRequestAttributes(new HashMap<String, Object>(previous.getRequestAttributes()));
+
+      // if a previous event modified the portlet (possibly cloning it), subsequent events need to target the modified portlet
+      if (instanceContext.wasModified())
+      {
+         instanceContext.useModifiedPortletContext();
+         next.setTarget(instanceContext.getPortletContext());
+      }
+      else
+      {
+         next.setTarget(previous.getTarget());
+      }
+
+      next.setMode(merged.getMode() != null ? merged.getMode() : previous.getMode());
+      next.setWindowState(merged.getWindowState() != null ? merged.getWindowState() : previous.getWindowState());
+      next.setNavigationalState(merged.getNavigationalState() != null ? merged.getNavigationalState() : previous.getNavigationalState());
+
+      final Map<String, String[]> publicUpdates = merged.getPublicNavigationalStateUpdates();
+      if (ParameterValidation.existsAndIsNotEmpty(publicUpdates))
+      {
+         final Map<String, String[]> previousPublicNS = previous.getPublicNavigationalState();
+         Map<String, String[]> publicNS = previousPublicNS != null ? new HashMap<String, String[]>(previousPublicNS) : new HashMap<String, String[]>();
+         publicNS.putAll(publicUpdates);
+         next.setPublicNavigationalState(publicNS);
+      }
+      else
+      {
+         next.setPublicNavigationalState(previous.getPublicNavigationalState());
+      }
+
+      context.contextualize(next);
+      return next;
+   }
+
+   /**
+    * Merges the specified response into the accumulated one: the last specified mode, window state and navigational state win while public navigational state
+    * updates and emitted events are accumulated.
+    */
+   private static void merge(UpdateNavigationalStateResponse merged, UpdateNavigationalStateResponse response)
+   {
+      if (response.getMode() != null)
+      {
+         merged.setMode(response.getMode());
+      }
+      if (response.getWindowState() != null)
+      {
+         merged.setWindowState(response.getWindowState());
+      }
+      if (response.getNavigationalState() != null)
+      {
+         merged.setNavigationalState(response.getNavigationalState());
+      }
+
+      final Map<String, String[]> publicUpdates = response.getPublicNavigationalStateUpdates();
+      if (ParameterValidation.existsAndIsNotEmpty(publicUpdates))
+      {
+         final Map<String, String[]> previousUpdates = merged.getPublicNavigationalStateUpdates();
+         Map<String, String[]> updates = previousUpdates != null ? new HashMap<String, String[]>(previousUpdates) : new HashMap<String, String[]>();
+         updates.putAll(publicUpdates);
+         merged.setPublicNavigationalStateUpdates(updates);
+      }
+
+      final List<UpdateNavigationalStateResponse.Event> events = response.getEvents();
+      if (ParameterValidation.existsAndIsNotEmpty(events))
+      {
+         for (UpdateNavigationalStateResponse.Event event : events)
+         {
+            merged.queueEvent(event);
+         }
+      }
    }
 
    @Override
@@ -166,8 +309,13 @@ class EventRequestProcessor extends UpdateNavigationalStateResponseProcessor<Han
          UpdateNavigationalStateResponse unsResponse = (UpdateNavigationalStateResponse)response;
          HandleEventsResponse eventsResponse = WSRPTypeFactory.createHandleEventsReponse();
 
-         UpdateResponse updateResponse = createUpdateResponse(unsResponse);
-         eventsResponse.setUpdateResponse(updateResponse);
+         // only send an UpdateResponse if at least one event was successfully processed when processing several events
+         if (failedEvents.isEmpty() || atLeastOneEventProcessed)
+         {
+            UpdateResponse updateResponse = createUpdateResponse(unsResponse);
+            eventsResponse.setUpdateResponse(updateResponse);
+         }
+         eventsResponse.getFailedEvents().addAll(failedEvents);
 
          return eventsResponse;
       }
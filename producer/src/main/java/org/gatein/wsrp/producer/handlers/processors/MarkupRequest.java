@@ -23,39 +23,62 @@
 
 package org.gatein.wsrp.producer.handlers.processors;
 
+import org.gatein.common.net.media.MediaType;
 import org.gatein.pc.api.Mode;
-import org.gatein.pc.api.Portlet;
 import org.gatein.pc.api.WindowState;
 import org.gatein.wsrp.WSRPUtils;
 import org.oasis.wsrp.v2.MarkupType;
+import org.oasis.wsrp.v2.PortletDescription;
 
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Set;
 
 /**
- * Wrapper around information needed to perform a Markup invocation.
+ * Wrapper around information needed to perform a Markup invocation. Instances are immutable and only depend on the targeted portlet and the
+ * requested markup parameters so that they can be reused across requests, see {@link MarkupRequestCache}.
  *
  * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
  * @since 2.6
  */
 class MarkupRequest
 {
-   private String mode;
-   private String windowState;
-   private MarkupType markupType;
-   private String characterSet;
-   private Portlet portlet;
+   private final String mode;
+   private final String windowState;
+   private final MarkupType markupType;
+   private final String characterSet;
+   private final MediaType mediaType;
+   private final PortletDescription portletDescription;
+   private final Set<Mode> supportedModes;
+   private final Set<WindowState> supportedWindowStates;
    private static final String CHARSET_SEPARATOR = "; charset=";
 
-   public MarkupRequest(MarkupType markupType, String mode, String windowState, String characterSet, Portlet portlet)
+   public MarkupRequest(MarkupType markupType, String mode, String windowState, String characterSet, MediaType mediaType, PortletDescription portletDescription)
    {
       this.characterSet = characterSet;
       this.markupType = markupType;
       this.mode = mode;
       this.windowState = windowState;
-      this.portlet = portlet;
+      this.mediaType = mediaType;
+      this.portletDescription = portletDescription;
+
+      List<String> modes = markupType.getModes();
+      Set<Mode> supportedModes = new HashSet<Mode>(modes.size());
+      for (String supportedMode : modes)
+      {
+         supportedModes.add(WSRPUtils.getJSR168PortletModeFromWSRPName(supportedMode));
+      }
+      this.supportedModes = Collections.unmodifiableSet(supportedModes);
+
+      List<String> states = markupType.getWindowStates();
+      Set<WindowState> supportedWindowStates = new HashSet<WindowState>(states.size());
+      for (String state : states)
+      {
+         supportedWindowStates.add(WSRPUtils.getJSR168WindowStateFromWSRPName(state));
+      }
+      this.supportedWindowStates = Collections.unmodifiableSet(supportedWindowStates);
    }
 
    public String getMediaTypeWithCharset()
@@ -68,6 +91,11 @@ class MarkupRequest
       return markupType.getMimeType();
    }
 
+   public MediaType getParsedMediaType()
+   {
+      return mediaType;
+   }
+
    public String getLocale()
    {
       List<String> locales = markupType.getLocales();
@@ -101,30 +129,18 @@ class MarkupRequest
       return characterSet;
    }
 
-   public Portlet getPortlet()
+   public PortletDescription getPortletDescription()
    {
-      return portlet;
+      return portletDescription;
    }
 
    public Set<Mode> getSupportedModes()
    {
-      List<String> modes = markupType.getModes();
-      Set<Mode> result = new HashSet<Mode>(modes.size());
-      for (String mode : modes)
-      {
-         result.add(WSRPUtils.getJSR168PortletModeFromWSRPName(mode));
-      }
-      return result;
+      return supportedModes;
    }
 
    public Set<WindowState> getSupportedWindowStates()
    {
-      List<String> states = markupType.getWindowStates();
-      Set<WindowState> result = new HashSet<WindowState>(states.size());
-      for (String state : states)
-      {
-         result.add(WSRPUtils.getJSR168WindowStateFromWSRPName(state));
-      }
-      return result;
+      return supportedWindowStates;
    }
 }
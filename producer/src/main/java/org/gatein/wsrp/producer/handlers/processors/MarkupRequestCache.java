@@ -0,0 +1,155 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2012, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wsrp.producer.handlers.processors;
+
+import org.oasis.wsrp.v2.MimeRequest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded, thread-safe cache of resolved {@link MarkupRequest}s, keyed by the information that was used to resolve them: registration,
+ * portlet handle and the markup-related parameters (MIME types, mode, window state, locales and character sets) of the request. This allows
+ * subsequent requests targeting the same portlet with the same parameters to skip portlet description retrieval and markup type matching.
+ * <p/>
+ * Cached requests are only as current as the portlet metadata they were computed from so the cache needs to be {@link #invalidate()
+ * invalidated} whenever that metadata changes.
+ *
+ * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
+ * @version $Revision$
+ */
+public class MarkupRequestCache
+{
+   public static final int DEFAULT_MAXIMUM_SIZE = 1000;
+
+   private final ConcurrentMap<List<Object>, MarkupRequest> requests;
+   private final int maximumSize;
+
+   /** Incremented on each invalidation so that requests resolved against stale metadata don't get cached */
+   private final AtomicLong generation = new AtomicLong();
+
+   private final AtomicLong hits = new AtomicLong();
+   private final AtomicLong misses = new AtomicLong();
+
+   public MarkupRequestCache()
+   {
+      this(DEFAULT_MAXIMUM_SIZE);
+   }
+
+   /** @param maximumSize the maximum number of markup requests to cache */
+   public MarkupRequestCache(int maximumSize)
+   {
+      if (maximumSize < 0)
+      {
+         throw new IllegalArgumentException("Maximum size must be positive");
+      }
+      this.maximumSize = maximumSize;
+      requests = new ConcurrentHashMap<List<Object>, MarkupRequest>(Math.min(maximumSize, 16));
+   }
+
+   /**
+    * Computes the key identifying the markup request associated with the specified information. The returned key also records the current
+    * generation of this cache so that it can be passed to {@link #put(java.util.List, MarkupRequest)} once the request is resolved.
+    *
+    * @param registrationHandle the handle of the registration the request is performed in the scope of, if any
+    * @param portletHandle      the handle of the targeted portlet
+    * @param params             the markup parameters of the request
+    * @return the key identifying the markup request for the specified information
+    */
+   List<Object> createKey(String registrationHandle, String portletHandle, MimeRequest params)
+   {
+      // copy lists since they are mutable JAXB-backed lists
+      return Arrays.<Object>asList(generation.get(), registrationHandle, portletHandle, new ArrayList<String>(params.getMimeTypes()),
+         params.getMode(), params.getWindowState(), new ArrayList<String>(params.getLocales()),
+         new ArrayList<String>(params.getMarkupCharacterSets()));
+   }
+
+   /**
+    * Retrieves the cached MarkupRequest associated with the specified key, if any.
+    *
+    * @param key a key created by {@link #createKey(String, String, org.oasis.wsrp.v2.MimeRequest)}
+    * @return the cached MarkupRequest or <code>null</code> if none was cached for that key
+    */
+   MarkupRequest get(List<Object> key)
+   {
+      MarkupRequest markupRequest = requests.get(key);
+      if (markupRequest != null)
+      {
+         hits.incrementAndGet();
+      }
+      else
+      {
+         misses.incrementAndGet();
+      }
+      return markupRequest;
+   }
+
+   /**
+    * Caches the specified MarkupRequest unless the cache was invalidated since the specified key was created.
+    *
+    * @param key           a key created by {@link #createKey(String, String, org.oasis.wsrp.v2.MimeRequest)}
+    * @param markupRequest the resolved MarkupRequest
+    */
+   void put(List<Object> key, MarkupRequest markupRequest)
+   {
+      if (markupRequest == null || maximumSize == 0 || !key.get(0).equals(generation.get()))
+      {
+         return;
+      }
+
+      // resolved requests are cheap to recompute so just start over when full instead of tracking usage
+      if (requests.size() >= maximumSize)
+      {
+         requests.clear();
+      }
+
+      requests.put(key, markupRequest);
+   }
+
+   /** Discards all cached markup requests, to be called when portlet metadata changes. */
+   public void invalidate()
+   {
+      generation.incrementAndGet();
+      requests.clear();
+   }
+
+   public int size()
+   {
+      return requests.size();
+   }
+
+   public long getHits()
+   {
+      return hits.get();
+   }
+
+   public long getMisses()
+   {
+      return misses.get();
+   }
+}
@@ -26,6 +26,7 @@ package org.gatein.wsrp.producer.handlers.processors;
 import org.gatein.common.net.URLTools;
 import org.gatein.common.util.MultiValuedPropertyMap;
 import org.gatein.common.util.ParameterValidation;
+import org.gatein.pc.api.cache.CacheScope;
 import org.gatein.pc.api.invocation.PortletInvocation;
 import org.gatein.pc.api.invocation.response.ContentResponse;
 import org.gatein.pc.api.invocation.response.PortletInvocationResponse;
@@ -36,19 +37,25 @@ import org.gatein.wsrp.WSRPTypeFactory;
 import org.gatein.wsrp.WSRPUtils;
 import org.gatein.wsrp.api.servlet.ServletAccess;
 import org.gatein.wsrp.payload.PayloadUtils;
+import org.oasis.wsrp.v2.CacheControl;
 import org.oasis.wsrp.v2.InvalidHandle;
 import org.oasis.wsrp.v2.InvalidRegistration;
+import org.oasis.wsrp.v2.InvalidSession;
 import org.oasis.wsrp.v2.MimeResponse;
 import org.oasis.wsrp.v2.MissingParameters;
 import org.oasis.wsrp.v2.ModifyRegistrationRequired;
 import org.oasis.wsrp.v2.OperationFailed;
 import org.oasis.wsrp.v2.OperationNotSupported;
+import org.oasis.wsrp.v2.SessionContext;
 import org.oasis.wsrp.v2.UnsupportedLocale;
 import org.oasis.wsrp.v2.UnsupportedMimeType;
 import org.oasis.wsrp.v2.UnsupportedMode;
 import org.oasis.wsrp.v2.UnsupportedWindowState;
 import org.w3c.dom.Element;
 
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.List;
 
 /**
@@ -61,8 +68,10 @@ import java.util.List;
 abstract class MimeResponseProcessor<Request, LocalMimeResponse extends MimeResponse, Response> extends RequestProcessor<Request, Response>
 {
    private static final String EMPTY = "";
+   private static final String DIGEST_ALGORITHM = "MD5";
+   private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
 
-   protected MimeResponseProcessor(ProducerHelper producer, Request request) throws InvalidRegistration, InvalidHandle, UnsupportedLocale, UnsupportedMimeType, UnsupportedWindowState, OperationFailed, MissingParameters, UnsupportedMode, ModifyRegistrationRequired, OperationNotSupported
+   protected MimeResponseProcessor(ProducerHelper producer, Request request) throws InvalidRegistration, InvalidHandle, UnsupportedLocale, UnsupportedMimeType, UnsupportedWindowState, OperationFailed, MissingParameters, UnsupportedMode, ModifyRegistrationRequired, OperationNotSupported, InvalidSession
    {
       super(producer, request);
    }
@@ -124,19 +133,20 @@ abstract class MimeResponseProcessor<Request, LocalMimeResponse extends MimeResp
 
       mimeResponse.setLocale(markupRequest.getLocale());
 
-      //TODO: figure out useCachedItem
-      Boolean useCachedItem = false;
       mimeResponse.setRequiresRewriting(requiresRewriting);
-      mimeResponse.setUseCachedItem(useCachedItem);
+      mimeResponse.setUseCachedItem(Boolean.FALSE);
 
       //TODO: check if anything actually uses the ccpp profile warning
       String ccppProfileWarning = null;
       mimeResponse.setCcppProfileWarning(ccppProfileWarning);
 
       // cache information
-      int expires = content.getCacheControl().getExpirationSecs();
-      // only create a CacheControl if expiration time is not 0
-      if (expires != 0)
+      final org.gatein.pc.api.cache.CacheControl portletCacheControl = content.getCacheControl();
+      int expires = portletCacheControl.getExpirationSecs();
+      String validateTag = portletCacheControl.getValidationToken();
+
+      // only create a CacheControl if expiration time is not 0 or if the portlet provided a validation token (ETag) that the consumer can use to validate its cached item
+      if (expires != 0 || validateTag != null)
       {
          // if expires is negative, replace by -1 to make sure
          if (expires < 0)
@@ -144,7 +154,25 @@ abstract class MimeResponseProcessor<Request, LocalMimeResponse extends MimeResp
             expires = -1;
          }
 
-         mimeResponse.setCacheControl(WSRPTypeFactory.createCacheControl(expires, WSRPConstants.CACHE_PER_USER));
+         // use portlet-declared scope
+         final String userScope = CacheScope.PUBLIC.equals(portletCacheControl.getCacheScope()) ? WSRPConstants.CACHE_FOR_ALL : WSRPConstants.CACHE_PER_USER;
+         final CacheControl cacheControl = WSRPTypeFactory.createCacheControl(expires, userScope);
+
+         // if the portlet didn't provide a validation token, compute one from the content
+         if (validateTag == null)
+         {
+            validateTag = computeValidateTag(contentType, itemString, itemBinary);
+         }
+         cacheControl.setValidateTag(validateTag);
+         mimeResponse.setCacheControl(cacheControl);
+
+         // if the consumer sent us the validate tag of the item it has cached and it matches the current one, tell it to use its cached version instead of sending content again
+         if (validateTag != null && validateTag.equals(getParams().getValidateTag()))
+         {
+            mimeResponse.setItemString(null);
+            mimeResponse.setItemBinary(null);
+            mimeResponse.setUseCachedItem(Boolean.TRUE);
+         }
       }
 
       // GTNWSRP-336: make sure we transmit response properties to the consumer
@@ -157,7 +185,53 @@ abstract class MimeResponseProcessor<Request, LocalMimeResponse extends MimeResp
 
       additionallyProcessIfNeeded(mimeResponse, response);
 
-      return createResponse(mimeResponse);
+      // if a session was used, let the consumer know which session id it should send with subsequent requests
+      return createResponse(mimeResponse, getSessionContextOrNull());
+   }
+
+   /**
+    * Computes a validate tag for the specified content so that consumers can check whether their cached version of the content is still valid.
+    *
+    * @param contentType the content type of the content
+    * @param itemString  the textual content, if any
+    * @param itemBinary  the binary content, if any
+    * @return a digest of the specified content or <code>null</code> if it couldn't be computed
+    */
+   static String computeValidateTag(String contentType, String itemString, byte[] itemBinary)
+   {
+      try
+      {
+         MessageDigest digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+         if (contentType != null)
+         {
+            digest.update(contentType.getBytes(MIMEUtils.UTF_8));
+         }
+         if (itemString != null)
+         {
+            digest.update(itemString.getBytes(MIMEUtils.UTF_8));
+         }
+         else if (itemBinary != null)
+         {
+            digest.update(itemBinary);
+         }
+
+         final byte[] bytes = digest.digest();
+         char[] hex = new char[bytes.length * 2];
+         for (int i = 0; i < bytes.length; i++)
+         {
+            hex[2 * i] = HEX_DIGITS[(bytes[i] >> 4) & 0xF];
+            hex[2 * i + 1] = HEX_DIGITS[bytes[i] & 0xF];
+         }
+         return new String(hex);
+      }
+      catch (NoSuchAlgorithmException e)
+      {
+         return null;
+      }
+      catch (UnsupportedEncodingException e)
+      {
+         return null;
+      }
    }
 
    private <T> void populateClientAttributesWith(LocalMimeResponse mimeResponse, MultiValuedPropertyMap<T> transportHeaders)
@@ -185,10 +259,11 @@ abstract class MimeResponseProcessor<Request, LocalMimeResponse extends MimeResp
    /**
     * Lets subclasses create the actual WSRP response based on the actual MimeResponse.
     *
-    * @param mimeResponse the MimeResponse used as the basis for the WSRP response
+    * @param mimeResponse   the MimeResponse used as the basis for the WSRP response
+    * @param sessionContext the SessionContext to send to the consumer, <code>null</code> if no session was used
     * @return the WSRP response
     */
-   protected abstract Response createResponse(LocalMimeResponse mimeResponse);
+   protected abstract Response createResponse(LocalMimeResponse mimeResponse, SessionContext sessionContext);
 
    /**
     * Retrieves the actual class of the MimeResponse subclass this class deals with.
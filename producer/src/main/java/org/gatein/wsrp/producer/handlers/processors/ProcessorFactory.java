@@ -29,6 +29,7 @@ import org.oasis.wsrp.v2.GetResource;
 import org.oasis.wsrp.v2.HandleEvents;
 import org.oasis.wsrp.v2.InvalidHandle;
 import org.oasis.wsrp.v2.InvalidRegistration;
+import org.oasis.wsrp.v2.InvalidSession;
 import org.oasis.wsrp.v2.MissingParameters;
 import org.oasis.wsrp.v2.ModifyRegistrationRequired;
 import org.oasis.wsrp.v2.OperationFailed;
@@ -47,7 +48,7 @@ public class ProcessorFactory
 {
    public static <Request, Response> RequestProcessor<Request, Response> getProcessorFor(ProducerHelper producer, Request request)
       throws OperationFailed, UnsupportedMode, InvalidHandle, MissingParameters, UnsupportedMimeType,
-      UnsupportedWindowState, InvalidRegistration, ModifyRegistrationRequired, UnsupportedLocale, OperationNotSupported
+      UnsupportedWindowState, InvalidRegistration, ModifyRegistrationRequired, UnsupportedLocale, OperationNotSupported, InvalidSession
    {
       RequestProcessor processor;
       if (request instanceof GetMarkup)
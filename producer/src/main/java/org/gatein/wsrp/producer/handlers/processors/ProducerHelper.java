@@ -26,6 +26,7 @@ package org.gatein.wsrp.producer.handlers.processors;
 import org.gatein.pc.api.Portlet;
 import org.gatein.pc.api.PortletInvokerException;
 import org.gatein.registration.Registration;
+import org.gatein.wsrp.producer.session.ProducerSessionStore;
 import org.oasis.wsrp.v2.InvalidHandle;
 import org.oasis.wsrp.v2.InvalidRegistration;
 import org.oasis.wsrp.v2.ModifyRegistrationRequired;
@@ -49,4 +50,19 @@ public interface ProducerHelper
    Registration getRegistrationOrFailIfInvalid(RegistrationContext registrationContext) throws InvalidRegistration, OperationFailed, ModifyRegistrationRequired;
 
    void reset();
+
+   /**
+    * Retrieves the cache used to avoid resolving markup requests targeting the same portlet with the same parameters over and over.
+    *
+    * @return the MarkupRequestCache associated with this producer or <code>null</code> if markup requests shouldn't be cached
+    */
+   MarkupRequestCache getMarkupRequestCache();
+
+   /**
+    * Retrieves the store keeping track of the WSRP sessions issued by this producer.
+    *
+    * @return the ProducerSessionStore associated with this producer or <code>null</code> if sessions are managed by the servlet container instead of
+    *         being identified by WSRP session ids
+    */
+   ProducerSessionStore getSessionStore();
 }
@@ -0,0 +1,183 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2012, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wsrp.producer.handlers.processors;
+
+import org.gatein.wsrp.producer.session.ProducerSession;
+import org.gatein.wsrp.producer.session.ProducerSessionStore;
+
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpSession;
+import javax.servlet.http.HttpSessionContext;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+
+/**
+ * Exposes a {@link ProducerSession} as an HttpSession so that the servlet container and portlet applications see the WSRP session identifier as the
+ * session identifier of the current request.
+ *
+ * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
+ * @version $Revision$
+ */
+class ProducerHttpSession implements HttpSession
+{
+   private final ProducerSession session;
+   private final ProducerSessionStore store;
+   private final HttpServletRequest request;
+   private final boolean isNew;
+   private boolean invalidated;
+
+   /**
+    * @param session the adapted session
+    * @param store   the store in which the session is kept
+    * @param request the request during which the session is used, giving access to the servlet context
+    * @param isNew   whether the session was created during the current request
+    */
+   ProducerHttpSession(ProducerSession session, ProducerSessionStore store, HttpServletRequest request, boolean isNew)
+   {
+      this.session = session;
+      this.store = store;
+      this.request = request;
+      this.isNew = isNew;
+   }
+
+   ProducerSession getProducerSession()
+   {
+      return session;
+   }
+
+   boolean isInvalidated()
+   {
+      return invalidated;
+   }
+
+   public long getCreationTime()
+   {
+      checkValid();
+      return session.getCreationTime();
+   }
+
+   public String getId()
+   {
+      return session.getId();
+   }
+
+   public long getLastAccessedTime()
+   {
+      checkValid();
+      return session.getLastAccessedTime();
+   }
+
+   public ServletContext getServletContext()
+   {
+      return request.getServletContext();
+   }
+
+   public void setMaxInactiveInterval(int interval)
+   {
+      session.setMaxInactiveInterval(interval);
+   }
+
+   public int getMaxInactiveInterval()
+   {
+      return session.getMaxInactiveInterval();
+   }
+
+   /** @deprecated */
+   public HttpSessionContext getSessionContext()
+   {
+      return null;
+   }
+
+   public Object getAttribute(String name)
+   {
+      checkValid();
+      return session.getAttribute(name);
+   }
+
+   /** @deprecated */
+   public Object getValue(String name)
+   {
+      return getAttribute(name);
+   }
+
+   public Enumeration<String> getAttributeNames()
+   {
+      checkValid();
+      return session.getAttributeNames();
+   }
+
+   /** @deprecated */
+   public String[] getValueNames()
+   {
+      List<String> names = Collections.list(getAttributeNames());
+      return names.toArray(new String[names.size()]);
+   }
+
+   public void setAttribute(String name, Object value)
+   {
+      checkValid();
+      session.setAttribute(name, value);
+   }
+
+   /** @deprecated */
+   public void putValue(String name, Object value)
+   {
+      setAttribute(name, value);
+   }
+
+   public void removeAttribute(String name)
+   {
+      checkValid();
+      session.removeAttribute(name);
+   }
+
+   /** @deprecated */
+   public void removeValue(String name)
+   {
+      removeAttribute(name);
+   }
+
+   public void invalidate()
+   {
+      checkValid();
+      invalidated = true;
+      store.releaseSession(session.getId());
+   }
+
+   public boolean isNew()
+   {
+      checkValid();
+      return isNew;
+   }
+
+   private void checkValid()
+   {
+      if (invalidated)
+      {
+         throw new IllegalStateException("Session " + session.getId() + " has been invalidated");
+      }
+   }
+}
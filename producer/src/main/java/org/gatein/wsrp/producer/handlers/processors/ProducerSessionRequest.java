@@ -0,0 +1,135 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2012, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wsrp.producer.handlers.processors;
+
+import org.gatein.wsrp.producer.session.ProducerSession;
+import org.gatein.wsrp.producer.session.ProducerSessionStore;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpSession;
+
+/**
+ * Resolves the HTTP session of a WSRP request from the WSRP session identifier sent by the consumer instead of from the session cookie. When a
+ * portlet application requests a session, a new {@link ProducerSession} is created and its identifier is used by the servlet container to create
+ * the portlet application session, which can then be found again by any producer node receiving that identifier.
+ *
+ * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
+ * @version $Revision$
+ */
+class ProducerSessionRequest extends HttpServletRequestWrapper
+{
+   private final ProducerSessionStore store;
+   private final String registrationHandle;
+   private final String requestedSessionId;
+   private ProducerHttpSession session;
+
+   /**
+    * @param request            the wrapped request
+    * @param store              the store in which to create new sessions
+    * @param registrationHandle the handle of the registration associated with the current request, if any
+    * @param session            the session matching the identifier sent by the consumer or <code>null</code> if the consumer didn't send any
+    */
+   ProducerSessionRequest(HttpServletRequest request, ProducerSessionStore store, String registrationHandle, ProducerSession session)
+   {
+      super(request);
+      this.store = store;
+      this.registrationHandle = registrationHandle;
+      if (session != null)
+      {
+         this.requestedSessionId = session.getId();
+         this.session = new ProducerHttpSession(session, store, this, false);
+      }
+      else
+      {
+         this.requestedSessionId = null;
+      }
+   }
+
+   @Override
+   public HttpSession getSession(boolean create)
+   {
+      if (session != null && session.isInvalidated())
+      {
+         session = null;
+      }
+
+      if (session == null && create)
+      {
+         session = new ProducerHttpSession(store.createSession(registrationHandle), store, this, true);
+      }
+
+      return session;
+   }
+
+   @Override
+   public HttpSession getSession()
+   {
+      return getSession(true);
+   }
+
+   @Override
+   public String getRequestedSessionId()
+   {
+      return requestedSessionId;
+   }
+
+   @Override
+   public boolean isRequestedSessionIdValid()
+   {
+      return requestedSessionId != null && session != null && !session.isInvalidated() && requestedSessionId.equals(session.getId());
+   }
+
+   @Override
+   public boolean isRequestedSessionIdFromCookie()
+   {
+      return false;
+   }
+
+   @Override
+   public boolean isRequestedSessionIdFromURL()
+   {
+      return false;
+   }
+
+   /**
+    * Retrieves the session used during this request, if any.
+    *
+    * @return the current valid ProducerSession or <code>null</code> if no session was used during this request
+    */
+   ProducerSession getProducerSession()
+   {
+      return session != null && !session.isInvalidated() ? session.getProducerSession() : null;
+   }
+
+   /** Records the state of the session used during this request, if any, in the store. */
+   void saveSession()
+   {
+      final ProducerSession producerSession = getProducerSession();
+      if (producerSession != null)
+      {
+         store.saveSession(producerSession);
+      }
+   }
+}
@@ -32,6 +32,7 @@ import org.oasis.wsrp.v2.Extension;
 import org.oasis.wsrp.v2.GetMarkup;
 import org.oasis.wsrp.v2.InvalidHandle;
 import org.oasis.wsrp.v2.InvalidRegistration;
+import org.oasis.wsrp.v2.InvalidSession;
 import org.oasis.wsrp.v2.MarkupContext;
 import org.oasis.wsrp.v2.MarkupResponse;
 import org.oasis.wsrp.v2.MimeRequest;
@@ -42,6 +43,7 @@ import org.oasis.wsrp.v2.OperationNotSupported;
 import org.oasis.wsrp.v2.PortletContext;
 import org.oasis.wsrp.v2.RegistrationContext;
 import org.oasis.wsrp.v2.RuntimeContext;
+import org.oasis.wsrp.v2.SessionContext;
 import org.oasis.wsrp.v2.UnsupportedLocale;
 import org.oasis.wsrp.v2.UnsupportedMimeType;
 import org.oasis.wsrp.v2.UnsupportedMode;
@@ -57,7 +59,7 @@ import java.util.List;
 class RenderRequestProcessor extends MimeResponseProcessor<GetMarkup, MarkupContext, MarkupResponse>
 {
    public RenderRequestProcessor(ProducerHelper producer, GetMarkup getMarkup) throws UnsupportedMimeType, UnsupportedWindowState, InvalidHandle, UnsupportedMode,
-      MissingParameters, InvalidRegistration, OperationFailed, ModifyRegistrationRequired, UnsupportedLocale, OperationNotSupported
+      MissingParameters, InvalidRegistration, OperationFailed, ModifyRegistrationRequired, UnsupportedLocale, OperationNotSupported, InvalidSession
    {
       super(producer, getMarkup);
    }
@@ -102,13 +104,18 @@ class RenderRequestProcessor extends MimeResponseProcessor<GetMarkup, MarkupCont
    {
       final RenderInvocation renderInvocation = new RenderInvocation(context);
       renderInvocation.setEncoding(markupRequest.getCharacterSet());
+
+      // pass the consumer's validate tag to the portlet so that it can decide whether the consumer can use its cached version (ETag)
+      renderInvocation.setValidationToken(request.getMarkupParams().getValidateTag());
       return renderInvocation;
    }
 
    @Override
-   protected MarkupResponse createResponse(MarkupContext mimeResponse)
+   protected MarkupResponse createResponse(MarkupContext mimeResponse, SessionContext sessionContext)
    {
-      return WSRPTypeFactory.createMarkupResponse(mimeResponse);
+      MarkupResponse markupResponse = WSRPTypeFactory.createMarkupResponse(mimeResponse);
+      markupResponse.setSessionContext(sessionContext);
+      return markupResponse;
    }
 
    @Override
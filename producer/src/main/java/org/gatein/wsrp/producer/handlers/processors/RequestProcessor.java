@@ -27,6 +27,7 @@ import org.gatein.common.net.media.MediaType;
 import org.gatein.common.util.ParameterValidation;
 import org.gatein.pc.api.Mode;
 import org.gatein.pc.api.Portlet;
+import org.gatein.pc.api.PortletInvoker;
 import org.gatein.pc.api.PortletInvokerException;
 import org.gatein.pc.api.StateString;
 import org.gatein.pc.api.WindowState;
@@ -46,14 +47,18 @@ import org.gatein.wsrp.WSRPConstants;
 import org.gatein.wsrp.WSRPTypeFactory;
 import org.gatein.wsrp.WSRPUtils;
 import org.gatein.wsrp.api.extensions.ExtensionAccess;
+import org.gatein.wsrp.api.extensions.InvocationHandlerDelegate;
 import org.gatein.wsrp.api.extensions.UnmarshalledExtension;
 import org.gatein.wsrp.api.servlet.ServletAccess;
 import org.gatein.wsrp.payload.PayloadUtils;
 import org.gatein.wsrp.producer.Utils;
+import org.gatein.wsrp.producer.session.ProducerSession;
+import org.gatein.wsrp.producer.session.ProducerSessionStore;
 import org.gatein.wsrp.spec.v2.WSRP2ExceptionFactory;
 import org.oasis.wsrp.v2.Extension;
 import org.oasis.wsrp.v2.InvalidHandle;
 import org.oasis.wsrp.v2.InvalidRegistration;
+import org.oasis.wsrp.v2.InvalidSession;
 import org.oasis.wsrp.v2.MarkupType;
 import org.oasis.wsrp.v2.MimeRequest;
 import org.oasis.wsrp.v2.MissingParameters;
@@ -66,6 +71,7 @@ import org.oasis.wsrp.v2.PortletContext;
 import org.oasis.wsrp.v2.PortletDescription;
 import org.oasis.wsrp.v2.RegistrationContext;
 import org.oasis.wsrp.v2.RuntimeContext;
+import org.oasis.wsrp.v2.SessionContext;
 import org.oasis.wsrp.v2.SessionParams;
 import org.oasis.wsrp.v2.UnsupportedLocale;
 import org.oasis.wsrp.v2.UnsupportedMimeType;
@@ -102,9 +108,11 @@ public abstract class RequestProcessor<Request, Response>
    protected Portlet portlet;
    protected WSRPInstanceContext instanceContext;
    protected ProducerHelper producer;
+   protected Registration registration;
    protected final Request request;
+   private ProducerSessionRequest sessionRequest;
 
-   protected RequestProcessor(ProducerHelper producer, Request request) throws MissingParameters, InvalidRegistration, InvalidHandle, UnsupportedLocale, UnsupportedMimeType, UnsupportedWindowState, OperationFailed, UnsupportedMode, ModifyRegistrationRequired, OperationNotSupported
+   protected RequestProcessor(ProducerHelper producer, Request request) throws MissingParameters, InvalidRegistration, InvalidHandle, UnsupportedLocale, UnsupportedMimeType, UnsupportedWindowState, OperationFailed, UnsupportedMode, ModifyRegistrationRequired, OperationNotSupported, InvalidSession
    {
       this.producer = producer;
       this.request = request;
@@ -138,20 +146,21 @@ public abstract class RequestProcessor<Request, Response>
     * @throws MissingParameters
     * @throws ModifyRegistrationRequired
     * @throws UnsupportedLocale
+    * @throws InvalidSession
     */
    void prepareInvocation(Request request) throws InvalidRegistration, OperationFailed, InvalidHandle,
-      UnsupportedMimeType, UnsupportedWindowState, UnsupportedMode, MissingParameters, ModifyRegistrationRequired, UnsupportedLocale
+      UnsupportedMimeType, UnsupportedWindowState, UnsupportedMode, MissingParameters, ModifyRegistrationRequired, UnsupportedLocale, InvalidSession
    {
       // the context name for error messages
       final String contextName = request.getClass().getSimpleName();
 
       // retrieve the registration associated with the request or fail
-      Registration registration = producer.getRegistrationOrFailIfInvalid(getRegistrationContext());
+      registration = producer.getRegistrationOrFailIfInvalid(getRegistrationContext());
 
       // get session information and deal with it
       final RuntimeContext runtimeContext = getRuntimeContext();
       WSRP2ExceptionFactory.throwMissingParametersIfValueIsMissing(runtimeContext, "RuntimeContext", contextName);
-      checkForSessionIDs(runtimeContext);
+      final HttpServletRequest servletRequest = resolveSession(runtimeContext, registration);
 
       // get parameters
       final MimeRequest params = getParams();
@@ -162,21 +171,7 @@ public abstract class RequestProcessor<Request, Response>
       WSRP2ExceptionFactory.throwMissingParametersIfValueIsMissing(wsrpPC, "PortletContext", contextName);
       org.gatein.pc.api.PortletContext portletContext = WSRPUtils.convertToPortalPortletContext(wsrpPC);
 
-      // check locales
-      final List<String> desiredLocales = params.getLocales();
-      for (String locale : desiredLocales)
-      {
-         try
-         {
-            WSRPUtils.getLocale(locale);
-         }
-         catch (IllegalArgumentException e)
-         {
-            throw WSRP2ExceptionFactory.throwWSException(UnsupportedLocale.class, e.getLocalizedMessage(), null);
-         }
-      }
-
-      // retrieve the portlet
+      // retrieve the portlet: this needs to happen for each request since access to the portlet depends on the registration
       try
       {
          // calls RegistrationLocal.setRegistration so no need to here
@@ -187,23 +182,63 @@ public abstract class RequestProcessor<Request, Response>
          throw WSRP2ExceptionFactory.throwWSException(OperationFailed.class, "Could not retrieve portlet '" + portletContext + "'", e);
       }
 
-      // get portlet description for the desired portlet...
-      portletDescription = producer.getPortletDescription(wsrpPC, null, registration);
-      if (Boolean.TRUE.equals(portletDescription.isUsesMethodGet()))
+      // check if we've already resolved a markup request for the same portlet and parameters
+      final MarkupRequestCache cache = producer.getMarkupRequestCache();
+      final List<Object> key;
+      if (cache != null)
       {
-         throw WSRP2ExceptionFactory.throwWSException(OperationFailed.class, "Portlets using GET method in forms are not currently supported.", null);
+         key = cache.createKey(registration != null ? registration.getRegistrationHandle() : null, wsrpPC.getPortletHandle(), params);
+         markupRequest = cache.get(key);
+      }
+      else
+      {
+         key = null;
+         markupRequest = null;
       }
 
-      List<MarkupType> markupTypes = portletDescription.getMarkupTypes();
+      final List<String> desiredLocales = params.getLocales();
+      if (markupRequest == null)
+      {
+         // check locales
+         for (String locale : desiredLocales)
+         {
+            try
+            {
+               WSRPUtils.getLocale(locale);
+            }
+            catch (IllegalArgumentException e)
+            {
+               throw WSRP2ExceptionFactory.throwWSException(UnsupportedLocale.class, e.getLocalizedMessage(), null);
+            }
+         }
 
-      // based on the markup parameters and portlet description generate the most appropriate markup request
-      markupRequest = createMarkupRequestFrom(markupTypes, params, portlet);
+         // get portlet description for the desired portlet...
+         PortletDescription description = producer.getPortletDescription(wsrpPC, null, registration);
+         if (Boolean.TRUE.equals(description.isUsesMethodGet()))
+         {
+            throw WSRP2ExceptionFactory.throwWSException(OperationFailed.class, "Portlets using GET method in forms are not currently supported.", null);
+         }
+
+         List<MarkupType> markupTypes = description.getMarkupTypes();
+
+         // based on the markup parameters and portlet description generate the most appropriate markup request
+         markupRequest = createMarkupRequestFrom(markupTypes, params, description);
+
+         if (cache != null)
+         {
+            cache.put(key, markupRequest);
+         }
+      }
+      portletDescription = markupRequest.getPortletDescription();
+
+      // extensions
+      processExtensionsFrom(params.getClass(), params.getExtensions());
 
       // prepare information for invocation
       final org.oasis.wsrp.v2.UserContext wsrpUserContext = getUserContext();
       checkUserContext(wsrpUserContext);
       SecurityContext securityContext = createSecurityContext(params, runtimeContext, wsrpUserContext);
-      final MediaType mediaType = createMediaType(markupRequest);
+      final MediaType mediaType = markupRequest.getParsedMediaType();
       PortalContext portalContext = createPortalContext(params, markupRequest);
       UserContext userContext = createUserContext(wsrpUserContext, markupRequest.getLocale(), desiredLocales);
       String portletInstanceKey = runtimeContext.getPortletInstanceKey();
@@ -211,7 +246,7 @@ public abstract class RequestProcessor<Request, Response>
       WindowContext windowContext = createWindowContext(portletContext.getId(), runtimeContext);
 
       // prepare the invocation context
-      WSRPPortletInvocationContext context = new WSRPPortletInvocationContext(mediaType, securityContext, portalContext, userContext, instanceContext, windowContext);
+      WSRPPortletInvocationContext context = new WSRPPortletInvocationContext(mediaType, securityContext, portalContext, userContext, instanceContext, windowContext, servletRequest);
       // and use it to initialize the invocation that will send to the PortletInvoker
       PortletInvocation invocation = initInvocation(context);
 
@@ -245,6 +280,17 @@ public abstract class RequestProcessor<Request, Response>
       setInvocation(invocation);
    }
 
+   /**
+    * Retrieves the Registration that was resolved and validated from the request's RegistrationContext when this RequestProcessor was created, so that callers don't need to
+    * resolve it again.
+    *
+    * @return the Registration associated with the processed request
+    */
+   public Registration getRegistration()
+   {
+      return registration;
+   }
+
    // The following method allows generic processing of the request by providing a way for subclasses to extract information from the specific requests they handle since requests
    // don't share common hierarchy that would have allowed use of polymorphism
 
@@ -276,6 +322,40 @@ public abstract class RequestProcessor<Request, Response>
     */
    abstract List<Extension> getResponseExtensionsFor(Response response);
 
+   /**
+    * Performs the portlet container invocation(s) needed to process the request, giving the specified delegate, if any, a chance to pre- and post-process each
+    * invocation. Most requests only need the single invocation prepared when this RequestProcessor was created but some (e.g. HandleEvents requests carrying
+    * several events) might need more.
+    *
+    * @param invoker  the PortletInvoker used to perform the invocation(s)
+    * @param delegate the producer-side InvocationHandlerDelegate, if any
+    * @return the response to pass to {@link #processResponse(org.gatein.pc.api.invocation.response.PortletInvocationResponse)}
+    * @throws PortletInvokerException
+    */
+   public PortletInvocationResponse invoke(PortletInvoker invoker, InvocationHandlerDelegate delegate) throws PortletInvokerException
+   {
+      return invoke(invoker, delegate, invocation);
+   }
+
+   protected PortletInvocationResponse invoke(PortletInvoker invoker, InvocationHandlerDelegate delegate, PortletInvocation invocation) throws PortletInvokerException
+   {
+      // let the producer invocation handler delegate process the invocation before we perform the actual invocation
+      if (delegate != null)
+      {
+         delegate.processInvocation(invocation);
+      }
+
+      final PortletInvocationResponse response = invoker.invoke(invocation);
+
+      // let the producer invocation handler delegate get a chance to process the response
+      if (delegate != null)
+      {
+         delegate.processInvocationResponse(response, invocation);
+      }
+
+      return response;
+   }
+
    /**
     * Processes the response if needed, cleaning things up.
     *
@@ -296,6 +376,8 @@ public abstract class RequestProcessor<Request, Response>
       }
       finally
       {
+         // record the state of the session used during the invocation, if any
+         saveSessionIfNeeded();
          // remove the Registration since the invocation is finished
          RegistrationLocal.setRegistration(null);
          // remove the extensions from the ProducerExtensionsAccessor
@@ -318,10 +400,10 @@ public abstract class RequestProcessor<Request, Response>
     *
     * @param markupTypes the Portlet's specified markup types
     * @param params      the markup request parameters
-    * @param portlet
+    * @param description the description of the targeted portlet
     * @return a MarkupRequest containing the most appropriate information to base markup generation for this request
     */
-   private MarkupRequest createMarkupRequestFrom(List<MarkupType> markupTypes, MimeRequest params, Portlet portlet)
+   private MarkupRequest createMarkupRequestFrom(List<MarkupType> markupTypes, MimeRequest params, PortletDescription description)
       throws UnsupportedMimeType, UnsupportedMode, UnsupportedWindowState, UnsupportedLocale
    {
       List<String> desiredMIMETypes = params.getMimeTypes();
@@ -371,7 +453,7 @@ public abstract class RequestProcessor<Request, Response>
       // no MIME type was found: error!
       if (markupType == null)
       {
-         throw WSRP2ExceptionFactory.throwWSException(UnsupportedMimeType.class, "None of the specified MIME types are supported by portlet '" + portlet.getContext().getId() + "'", null);
+         throw WSRP2ExceptionFactory.throwWSException(UnsupportedMimeType.class, "None of the specified MIME types are supported by portlet '" + description.getPortletHandle() + "'", null);
       }
 
       // use user-desired locales
@@ -413,11 +495,7 @@ public abstract class RequestProcessor<Request, Response>
       // get the character set
       String characterSet = getMatchingOrDefaultFrom(Collections.<String>emptyList(), params.getMarkupCharacterSets(), WSRPConstants.DEFAULT_CHARACTER_SET);
 
-      // extensions
-      final List<Extension> extensions = params.getExtensions();
-      processExtensionsFrom(params.getClass(), extensions);
-
-      return new MarkupRequest(markupTypeCopy, mode, windowState, characterSet, portlet);
+      return new MarkupRequest(markupTypeCopy, mode, windowState, characterSet, createMediaType(markupTypeCopy.getMimeType()), description);
    }
 
    protected void processExtensionsFrom(Class paramsClass, List<Extension> extensions)
@@ -491,12 +569,71 @@ public abstract class RequestProcessor<Request, Response>
    }
 
 
-   private void checkForSessionIDs(RuntimeContext runtimeContext) throws OperationFailed
+   /**
+    * Resolves the session associated with the session identifier sent by the consumer, if any, and returns the servlet request the portlet container
+    * should use so that the session is resolved from the WSRP session identifier instead of from the session cookie.
+    *
+    * @param runtimeContext the RuntimeContext of the current request
+    * @param registration   the Registration associated with the current request
+    * @return the servlet request to use for the portlet invocation
+    * @throws OperationFailed if the consumer sent a session identifier while this producer doesn't manage WSRP sessions
+    * @throws InvalidSession  if the session identifier sent by the consumer doesn't match a current session issued for the same registration
+    */
+   private HttpServletRequest resolveSession(RuntimeContext runtimeContext, Registration registration) throws OperationFailed, InvalidSession
+   {
+      final HttpServletRequest servletRequest = ServletAccess.getRequest();
+      final SessionParams sessionParams = runtimeContext.getSessionParams();
+      final String sessionID = sessionParams != null ? sessionParams.getSessionID() : null;
+
+      final ProducerSessionStore store = producer.getSessionStore();
+      if (store == null || servletRequest == null)
+      {
+         // sessions are then handled by the servlet container using cookies so consumers shouldn't be sending session ids
+         if (sessionID != null)
+         {
+            Utils.throwOperationFaultOnSessionOperation();
+         }
+         return servletRequest;
+      }
+
+      final String registrationHandle = registration != null ? registration.getRegistrationHandle() : null;
+      ProducerSession session = null;
+      if (sessionID != null)
+      {
+         session = store.getSession(sessionID);
+         if (session == null || !session.belongsTo(registrationHandle))
+         {
+            throw WSRP2ExceptionFactory.throwWSException(InvalidSession.class, "Session '" + sessionID + "' is unknown or expired.", null);
+         }
+         session.access(System.currentTimeMillis());
+      }
+
+      sessionRequest = new ProducerSessionRequest(servletRequest, store, registrationHandle, session);
+      return sessionRequest;
+   }
+
+   /**
+    * Retrieves the SessionContext to send back to the consumer so that it can reference the session used while processing the request, if any.
+    *
+    * @return the SessionContext associated with the session used during the invocation or <code>null</code> if no session was used
+    */
+   protected SessionContext getSessionContextOrNull()
+   {
+      final ProducerSession session = sessionRequest != null ? sessionRequest.getProducerSession() : null;
+      if (session == null)
+      {
+         return null;
+      }
+
+      final int expires = session.getMaxInactiveInterval();
+      return WSRPTypeFactory.createSessionContext(session.getId(), expires < 0 ? WSRPConstants.SESSION_NEVER_EXPIRES : expires);
+   }
+
+   private void saveSessionIfNeeded()
    {
-      SessionParams sessionParams = runtimeContext.getSessionParams();
-      if (sessionParams != null && sessionParams.getSessionID() != null)
+      if (sessionRequest != null)
       {
-         Utils.throwOperationFaultOnSessionOperation();
+         sessionRequest.saveSession();
       }
    }
 
@@ -599,11 +736,11 @@ public abstract class RequestProcessor<Request, Response>
       };
    }
 
-   private MediaType createMediaType(MarkupRequest markupRequest) throws UnsupportedMimeType
+   private MediaType createMediaType(String mimeType) throws UnsupportedMimeType
    {
       try
       {
-         return MediaType.create(markupRequest.getMediaType());
+         return MediaType.create(mimeType);
       }
       catch (IllegalArgumentException e)
       {
@@ -33,6 +33,7 @@ import org.oasis.wsrp.v2.Extension;
 import org.oasis.wsrp.v2.GetResource;
 import org.oasis.wsrp.v2.InvalidHandle;
 import org.oasis.wsrp.v2.InvalidRegistration;
+import org.oasis.wsrp.v2.InvalidSession;
 import org.oasis.wsrp.v2.MimeRequest;
 import org.oasis.wsrp.v2.MissingParameters;
 import org.oasis.wsrp.v2.ModifyRegistrationRequired;
@@ -44,6 +45,7 @@ import org.oasis.wsrp.v2.ResourceContext;
 import org.oasis.wsrp.v2.ResourceParams;
 import org.oasis.wsrp.v2.ResourceResponse;
 import org.oasis.wsrp.v2.RuntimeContext;
+import org.oasis.wsrp.v2.SessionContext;
 import org.oasis.wsrp.v2.UnsupportedLocale;
 import org.oasis.wsrp.v2.UnsupportedMimeType;
 import org.oasis.wsrp.v2.UnsupportedMode;
@@ -58,7 +60,7 @@ import java.util.List;
  */
 class ResourceRequestProcessor extends MimeResponseProcessor<GetResource, ResourceContext, ResourceResponse>
 {
-   public ResourceRequestProcessor(ProducerHelper producer, GetResource getResource) throws InvalidRegistration, OperationFailed, MissingParameters, InvalidHandle, UnsupportedMimeType, UnsupportedWindowState, UnsupportedMode, ModifyRegistrationRequired, UnsupportedLocale, OperationNotSupported
+   public ResourceRequestProcessor(ProducerHelper producer, GetResource getResource) throws InvalidRegistration, OperationFailed, MissingParameters, InvalidHandle, UnsupportedMimeType, UnsupportedWindowState, UnsupportedMode, ModifyRegistrationRequired, UnsupportedLocale, OperationNotSupported, InvalidSession
    {
       super(producer, getResource);
    }
@@ -121,9 +123,8 @@ class ResourceRequestProcessor extends MimeResponseProcessor<GetResource, Resour
       resourceInvocation.setRequestContext(requestContext);
       resourceInvocation.setForm(requestContext.getForm());
 
-      //TODO: property set validation token for caching (ie ETAG)
-      String validationToken = null;
-      resourceInvocation.setValidationToken(validationToken);
+      // pass the consumer's validate tag to the portlet so that it can decide whether the consumer can use its cached version (ETag)
+      resourceInvocation.setValidationToken(resourceParams.getValidateTag());
 
       resourceInvocation.setResourceState(createNavigationalState(resourceParams.getResourceState()));
 
@@ -143,9 +144,11 @@ class ResourceRequestProcessor extends MimeResponseProcessor<GetResource, Resour
    }
 
    @Override
-   protected ResourceResponse createResponse(ResourceContext resourceContext)
+   protected ResourceResponse createResponse(ResourceContext resourceContext, SessionContext sessionContext)
    {
-      return WSRPTypeFactory.createResourceResponse(resourceContext);
+      ResourceResponse resourceResponse = WSRPTypeFactory.createResourceResponse(resourceContext);
+      resourceResponse.setSessionContext(sessionContext);
+      return resourceResponse;
    }
 
    @Override
@@ -29,6 +29,7 @@ import org.gatein.wsrp.WSRPTypeFactory;
 import org.gatein.wsrp.WSRPUtils;
 import org.oasis.wsrp.v2.InvalidHandle;
 import org.oasis.wsrp.v2.InvalidRegistration;
+import org.oasis.wsrp.v2.InvalidSession;
 import org.oasis.wsrp.v2.MissingParameters;
 import org.oasis.wsrp.v2.ModifyRegistrationRequired;
 import org.oasis.wsrp.v2.NavigationalContext;
@@ -51,7 +52,7 @@ import java.util.List;
  */
 abstract class UpdateNavigationalStateResponseProcessor<Request, Response> extends RequestProcessor<Request, Response>
 {
-   public UpdateNavigationalStateResponseProcessor(ProducerHelper producer, Request request) throws InvalidRegistration, InvalidHandle, UnsupportedLocale, UnsupportedMimeType, UnsupportedWindowState, OperationFailed, MissingParameters, UnsupportedMode, ModifyRegistrationRequired, OperationNotSupported
+   public UpdateNavigationalStateResponseProcessor(ProducerHelper producer, Request request) throws InvalidRegistration, InvalidHandle, UnsupportedLocale, UnsupportedMimeType, UnsupportedWindowState, OperationFailed, MissingParameters, UnsupportedMode, ModifyRegistrationRequired, OperationNotSupported, InvalidSession
    {
       super(producer, request);
    }
@@ -89,6 +90,9 @@ abstract class UpdateNavigationalStateResponseProcessor<Request, Response> exten
          PortletContext updatedPortletContext = WSRPUtils.convertToWSRPPortletContext(instanceContext.getPortletContext());
          updateResponse.setPortletContext(updatedPortletContext);
       }
+
+      // if a session was used, let the consumer know which session id it should send with subsequent requests
+      updateResponse.setSessionContext(getSessionContextOrNull());
       return updateResponse;
    }
 }
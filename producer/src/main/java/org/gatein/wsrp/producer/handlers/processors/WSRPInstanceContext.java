@@ -40,7 +40,7 @@ public class WSRPInstanceContext implements InstanceContext
 {
    private PortletContext context;
    private String instanceId;
-   private final AccessMode accessMode;
+   private AccessMode accessMode;
    private boolean wasModified = false;
 
    public WSRPInstanceContext(PortletContext portletContext, AccessMode accessMode, String instanceId)
@@ -79,6 +79,19 @@ public class WSRPInstanceContext implements InstanceContext
       context = portletContext;
    }
 
+   /**
+    * Makes subsequent invocations using this context modify the portlet resulting of previous modifications (e.g. the clone created by a previous
+    * invocation in {@link AccessMode#CLONE_BEFORE_WRITE} mode) instead of applying them to the original portlet again. This is needed when several
+    * invocations are performed on behalf of the same WSRP request.
+    */
+   void useModifiedPortletContext()
+   {
+      if (wasModified && AccessMode.CLONE_BEFORE_WRITE.equals(accessMode))
+      {
+         accessMode = AccessMode.READ_WRITE;
+      }
+   }
+
    public boolean wasModified()
    {
       return wasModified;
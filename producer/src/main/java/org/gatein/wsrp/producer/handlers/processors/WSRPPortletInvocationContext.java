@@ -68,7 +68,7 @@ class WSRPPortletInvocationContext extends AbstractPortletInvocationContext impl
    private HttpServletResponse response;
 
    public WSRPPortletInvocationContext(MediaType mediaType, SecurityContext securityContext, PortalContext portalContext, UserContext userContext,
-                                       WSRPInstanceContext instanceContext, WindowContext windowContext)
+                                       WSRPInstanceContext instanceContext, WindowContext windowContext, HttpServletRequest request)
    {
       super(mediaType);
 
@@ -78,8 +78,8 @@ class WSRPPortletInvocationContext extends AbstractPortletInvocationContext impl
       this.instanceContext = instanceContext;
       this.windowContext = windowContext;
 
-      // access to the servlet environment the request is running in
-      request = ServletAccess.getRequest();
+      // access to the servlet environment the request is running in, the request being possibly wrapped to resolve the session from the WSRP session id
+      this.request = request;
       response = ServletAccess.getResponse();
    }
 
@@ -0,0 +1,164 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2012, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wsrp.producer.session;
+
+import org.gatein.common.util.ParameterValidation;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Producer-side state associated with a WSRP session identifier, as sent to consumers in a SessionContext. Since WSRP
+ * sessions are identified by the consumer passing the session identifier back with each request, they don't depend on
+ * cookies and can therefore be resolved by any producer node having access to the {@link ProducerSessionStore} in which
+ * they are kept.
+ *
+ * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
+ * @version $Revision$
+ */
+public class ProducerSession implements Serializable
+{
+   private final String id;
+   private final String registrationHandle;
+   private final long creationTime;
+   private volatile long lastAccessedTime;
+   private volatile int maxInactiveInterval;
+   private final Map<String, Object> attributes = new ConcurrentHashMap<String, Object>();
+
+   /**
+    * @param id                  the session identifier
+    * @param registrationHandle  the handle of the registration of the consumer for which the session was created, <code>null</code> if the producer doesn't
+    *                            require registration
+    * @param creationTime        when this session was created
+    * @param maxInactiveInterval the maximum number of seconds between requests referencing this session before it is considered expired, a negative value
+    *                            indicating that the session never expires
+    */
+   public ProducerSession(String id, String registrationHandle, long creationTime, int maxInactiveInterval)
+   {
+      ParameterValidation.throwIllegalArgExceptionIfNullOrEmpty(id, "session id", null);
+      this.id = id;
+      this.registrationHandle = registrationHandle;
+      this.creationTime = creationTime;
+      this.lastAccessedTime = creationTime;
+      this.maxInactiveInterval = maxInactiveInterval;
+   }
+
+   public String getId()
+   {
+      return id;
+   }
+
+   public String getRegistrationHandle()
+   {
+      return registrationHandle;
+   }
+
+   /**
+    * Determines whether this session can be used by a consumer using the registration with the specified handle.
+    *
+    * @param registrationHandle the handle of the registration associated with the current request, <code>null</code> if the producer doesn't require
+    *                           registration
+    * @return <code>true</code> if this session was created for the specified registration, <code>false</code> otherwise
+    */
+   public boolean belongsTo(String registrationHandle)
+   {
+      return this.registrationHandle == null ? registrationHandle == null : this.registrationHandle.equals(registrationHandle);
+   }
+
+   public long getCreationTime()
+   {
+      return creationTime;
+   }
+
+   public long getLastAccessedTime()
+   {
+      return lastAccessedTime;
+   }
+
+   /**
+    * Records that this session was accessed at the specified time.
+    *
+    * @param now the time at which the session was accessed
+    */
+   public void access(long now)
+   {
+      lastAccessedTime = now;
+   }
+
+   public int getMaxInactiveInterval()
+   {
+      return maxInactiveInterval;
+   }
+
+   public void setMaxInactiveInterval(int maxInactiveInterval)
+   {
+      this.maxInactiveInterval = maxInactiveInterval;
+   }
+
+   public boolean isExpired(long now)
+   {
+      return maxInactiveInterval >= 0 && now - lastAccessedTime >= maxInactiveInterval * 1000L;
+   }
+
+   public Object getAttribute(String name)
+   {
+      return name == null ? null : attributes.get(name);
+   }
+
+   public void setAttribute(String name, Object value)
+   {
+      ParameterValidation.throwIllegalArgExceptionIfNull(name, "attribute name");
+      if (value == null)
+      {
+         attributes.remove(name);
+      }
+      else
+      {
+         attributes.put(name, value);
+      }
+   }
+
+   public void removeAttribute(String name)
+   {
+      if (name != null)
+      {
+         attributes.remove(name);
+      }
+   }
+
+   public Enumeration<String> getAttributeNames()
+   {
+      return Collections.enumeration(new HashSet<String>(attributes.keySet()));
+   }
+
+   @Override
+   public String toString()
+   {
+      return "ProducerSession{id='" + id + "', registration='" + registrationHandle + "'}";
+   }
+}
@@ -0,0 +1,80 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2012, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wsrp.producer.session;
+
+/**
+ * Keeps track of the {@link ProducerSession}s the producer issued to consumers. Implementations must be thread-safe. Implementations sharing their
+ * storage across producer nodes allow any node to serve requests referencing a session, without relying on servlet container session stickiness.
+ *
+ * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
+ * @version $Revision$
+ */
+public interface ProducerSessionStore
+{
+   /**
+    * Creates and records a new session for the consumer with the specified registration.
+    *
+    * @param registrationHandle the handle of the registration associated with the consumer requesting the session, <code>null</code> if the producer
+    *                           doesn't require registration
+    * @return the newly created session
+    */
+   ProducerSession createSession(String registrationHandle);
+
+   /**
+    * Retrieves the current session associated with the specified identifier.
+    *
+    * @param sessionId the identifier of the session to retrieve
+    * @return the session associated with the specified identifier or <code>null</code> if no such session exists or if it expired
+    */
+   ProducerSession getSession(String sessionId);
+
+   /**
+    * Records the current state of the specified session, which might have been modified since it was retrieved from this store.
+    *
+    * @param session the session to save
+    */
+   void saveSession(ProducerSession session);
+
+   /**
+    * Releases the session associated with the specified identifier, if any.
+    *
+    * @param sessionId the identifier of the session to release
+    * @return the released session or <code>null</code> if no session was associated with the specified identifier
+    */
+   ProducerSession releaseSession(String sessionId);
+
+   /**
+    * Releases all the sessions that expired.
+    *
+    * @return the number of sessions that were released
+    */
+   int purgeExpiredSessions();
+
+   /**
+    * Retrieves the number of seconds between requests referencing a session before that session is considered expired by this store.
+    *
+    * @return the maximum number of seconds newly created sessions can remain inactive
+    */
+   int getMaxInactiveInterval();
+}
@@ -0,0 +1,197 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2012, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wsrp.producer.session.impl;
+
+import org.gatein.wsrp.producer.session.ProducerSession;
+import org.gatein.wsrp.producer.session.ProducerSessionStore;
+
+import java.security.SecureRandom;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Provides session identifier generation, expiration and periodic purging of expired sessions so that implementations
+ * only need to deal with the actual storage of sessions.
+ *
+ * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
+ * @version $Revision$
+ */
+public abstract class AbstractProducerSessionStore implements ProducerSessionStore
+{
+   public static final int DEFAULT_MAX_INACTIVE_INTERVAL = 30 * 60;
+
+   /** How often, in milliseconds, expired sessions are purged when new sessions are created */
+   static final long PURGE_INTERVAL = 60 * 1000;
+
+   /** Number of random bytes in session identifiers */
+   private static final int ID_BYTES = 16;
+   private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+   private final SecureRandom random = new SecureRandom();
+   private final int maxInactiveInterval;
+   private final AtomicLong lastPurge = new AtomicLong(System.currentTimeMillis());
+
+   /** @param maxInactiveInterval the maximum number of seconds sessions created by this store can remain inactive before they expire */
+   protected AbstractProducerSessionStore(int maxInactiveInterval)
+   {
+      if (maxInactiveInterval <= 0)
+      {
+         throw new IllegalArgumentException("Maximum inactive interval must be strictly positive");
+      }
+      this.maxInactiveInterval = maxInactiveInterval;
+   }
+
+   public int getMaxInactiveInterval()
+   {
+      return maxInactiveInterval;
+   }
+
+   public ProducerSession createSession(String registrationHandle)
+   {
+      purgeExpiredSessionsIfNeeded();
+
+      ProducerSession session;
+      do
+      {
+         session = new ProducerSession(generateId(), registrationHandle, System.currentTimeMillis(), maxInactiveInterval);
+      }
+      while (!storeIfAbsent(session));
+
+      return session;
+   }
+
+   public ProducerSession getSession(String sessionId)
+   {
+      if (!isValidId(sessionId))
+      {
+         return null;
+      }
+
+      ProducerSession session = load(sessionId);
+      if (session != null && session.isExpired(System.currentTimeMillis()))
+      {
+         remove(sessionId);
+         return null;
+      }
+
+      return session;
+   }
+
+   public ProducerSession releaseSession(String sessionId)
+   {
+      return isValidId(sessionId) ? remove(sessionId) : null;
+   }
+
+   public int purgeExpiredSessions()
+   {
+      final long now = System.currentTimeMillis();
+      lastPurge.set(now);
+
+      int purged = 0;
+      for (String id : getSessionIds())
+      {
+         ProducerSession session = load(id);
+         if (session != null && session.isExpired(now) && remove(id) != null)
+         {
+            purged++;
+         }
+      }
+      return purged;
+   }
+
+   /** Purges expired sessions if this wasn't done for {@link #PURGE_INTERVAL} milliseconds, making sure only one thread does it. */
+   protected void purgeExpiredSessionsIfNeeded()
+   {
+      final long last = lastPurge.get();
+      if (System.currentTimeMillis() - last >= PURGE_INTERVAL && lastPurge.compareAndSet(last, System.currentTimeMillis()))
+      {
+         purgeExpiredSessions();
+      }
+   }
+
+   private String generateId()
+   {
+      byte[] bytes = new byte[ID_BYTES];
+      random.nextBytes(bytes);
+
+      char[] hex = new char[bytes.length * 2];
+      for (int i = 0; i < bytes.length; i++)
+      {
+         hex[2 * i] = HEX_DIGITS[(bytes[i] >> 4) & 0xF];
+         hex[2 * i + 1] = HEX_DIGITS[bytes[i] & 0xF];
+      }
+      return new String(hex);
+   }
+
+   /**
+    * Session identifiers are sent by consumers so we make sure they at least look like identifiers we generated before using them to look sessions up.
+    *
+    * @param sessionId the session identifier to check
+    * @return <code>true</code> if the specified identifier could have been generated by this class, <code>false</code> otherwise
+    */
+   static boolean isValidId(String sessionId)
+   {
+      if (sessionId == null || sessionId.length() != ID_BYTES * 2)
+      {
+         return false;
+      }
+
+      for (int i = 0; i < sessionId.length(); i++)
+      {
+         char c = sessionId.charAt(i);
+         if ((c < '0' || c > '9') && (c < 'a' || c > 'f'))
+         {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   /**
+    * Stores the specified newly created session unless a session with the same identifier already exists.
+    *
+    * @param session the session to store
+    * @return <code>true</code> if the session was stored, <code>false</code> if a session with the same identifier already existed
+    */
+   protected abstract boolean storeIfAbsent(ProducerSession session);
+
+   /**
+    * Loads the session with the specified identifier, regardless of whether it expired or not.
+    *
+    * @param sessionId the identifier of the session to load
+    * @return the stored session or <code>null</code> if no such session exists
+    */
+   protected abstract ProducerSession load(String sessionId);
+
+   /**
+    * Removes the session with the specified identifier.
+    *
+    * @param sessionId the identifier of the session to remove
+    * @return the removed session or <code>null</code> if no such session existed
+    */
+   protected abstract ProducerSession remove(String sessionId);
+
+   /** @return the identifiers of all the sessions currently stored */
+   protected abstract Collection<String> getSessionIds();
+}
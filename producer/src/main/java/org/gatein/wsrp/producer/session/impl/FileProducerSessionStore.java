@@ -0,0 +1,238 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2012, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wsrp.producer.session.impl;
+
+import org.gatein.common.util.ParameterValidation;
+import org.gatein.wsrp.producer.session.ProducerSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Keeps each session serialized in its own file in a given directory. When that directory is shared by several producer
+ * nodes (e.g. on a network file system), any of them can resolve sessions created by the others.
+ *
+ * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
+ * @version $Revision$
+ */
+public class FileProducerSessionStore extends AbstractProducerSessionStore
+{
+   private static final Logger log = LoggerFactory.getLogger(FileProducerSessionStore.class);
+   private static final String SUFFIX = ".session";
+   private static final String TEMP_SUFFIX = ".tmp";
+
+   private final File directory;
+
+   public FileProducerSessionStore(File directory)
+   {
+      this(directory, DEFAULT_MAX_INACTIVE_INTERVAL);
+   }
+
+   public FileProducerSessionStore(File directory, int maxInactiveInterval)
+   {
+      super(maxInactiveInterval);
+
+      ParameterValidation.throwIllegalArgExceptionIfNull(directory, "session directory");
+      if (!directory.isDirectory() && !directory.mkdirs())
+      {
+         throw new IllegalArgumentException("Couldn't create session directory " + directory);
+      }
+      this.directory = directory;
+   }
+
+   public File getDirectory()
+   {
+      return directory;
+   }
+
+   public void saveSession(ProducerSession session)
+   {
+      if (session != null)
+      {
+         final File file = getFileFor(session.getId());
+
+         // don't resurrect released sessions
+         if (file.exists())
+         {
+            write(session, file);
+         }
+      }
+   }
+
+   @Override
+   protected boolean storeIfAbsent(ProducerSession session)
+   {
+      final File file = getFileFor(session.getId());
+      try
+      {
+         // atomically reserve the session id
+         if (!file.createNewFile())
+         {
+            return false;
+         }
+      }
+      catch (IOException e)
+      {
+         throw new IllegalStateException("Couldn't create file for session " + session.getId() + " in " + directory, e);
+      }
+
+      write(session, file);
+      return true;
+   }
+
+   @Override
+   protected ProducerSession load(String sessionId)
+   {
+      final File file = getFileFor(sessionId);
+      if (!file.isFile() || file.length() == 0)
+      {
+         // either no such session or the session is currently being created
+         return null;
+      }
+
+      ObjectInputStream in = null;
+      try
+      {
+         in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)));
+         return (ProducerSession)in.readObject();
+      }
+      catch (Exception e)
+      {
+         log.debug("Couldn't read session " + sessionId + " from " + file, e);
+         return null;
+      }
+      finally
+      {
+         close(in);
+      }
+   }
+
+   @Override
+   protected ProducerSession remove(String sessionId)
+   {
+      final ProducerSession session = load(sessionId);
+      final File file = getFileFor(sessionId);
+      if (file.exists() && !file.delete())
+      {
+         log.debug("Couldn't delete " + file);
+      }
+      return session;
+   }
+
+   @Override
+   protected Collection<String> getSessionIds()
+   {
+      final String[] names = directory.list(new FilenameFilter()
+      {
+         public boolean accept(File dir, String name)
+         {
+            return name.endsWith(SUFFIX);
+         }
+      });
+
+      if (names == null)
+      {
+         return new ArrayList<String>(0);
+      }
+
+      List<String> ids = new ArrayList<String>(names.length);
+      for (String name : names)
+      {
+         ids.add(name.substring(0, name.length() - SUFFIX.length()));
+      }
+      return ids;
+   }
+
+   /**
+    * Writes the specified session to a temporary file first and then moves it in place so that readers never see partially written sessions.
+    *
+    * @param session the session to write
+    * @param file    the file associated with the session
+    */
+   private void write(ProducerSession session, File file)
+   {
+      File temp = null;
+      ObjectOutputStream out = null;
+      try
+      {
+         temp = File.createTempFile(session.getId(), TEMP_SUFFIX, directory);
+         out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+         out.writeObject(session);
+         out.close();
+         out = null;
+
+         // renaming over an existing file fails on some platforms
+         if (!temp.renameTo(file) && !(file.delete() && temp.renameTo(file)))
+         {
+            log.warn("Couldn't save session " + session.getId() + " to " + file);
+         }
+      }
+      catch (IOException e)
+      {
+         log.warn("Couldn't save session " + session.getId() + ": " + e.getLocalizedMessage());
+      }
+      finally
+      {
+         close(out);
+         if (temp != null && temp.exists() && !temp.delete())
+         {
+            temp.deleteOnExit();
+         }
+      }
+   }
+
+   private File getFileFor(String sessionId)
+   {
+      // session ids are validated by the superclass before reaching here so they can be safely used as file names
+      return new File(directory, sessionId + SUFFIX);
+   }
+
+   private static void close(Closeable closeable)
+   {
+      if (closeable != null)
+      {
+         try
+         {
+            closeable.close();
+         }
+         catch (IOException e)
+         {
+            // ignore
+         }
+      }
+   }
+}
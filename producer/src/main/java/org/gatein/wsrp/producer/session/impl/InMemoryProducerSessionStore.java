@@ -0,0 +1,90 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2012, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wsrp.producer.session.impl;
+
+import org.gatein.wsrp.producer.session.ProducerSession;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Keeps sessions in memory. Sessions are therefore only visible to the producer node that created them.
+ *
+ * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
+ * @version $Revision$
+ */
+public class InMemoryProducerSessionStore extends AbstractProducerSessionStore
+{
+   private final ConcurrentMap<String, ProducerSession> sessions = new ConcurrentHashMap<String, ProducerSession>();
+
+   public InMemoryProducerSessionStore()
+   {
+      this(DEFAULT_MAX_INACTIVE_INTERVAL);
+   }
+
+   public InMemoryProducerSessionStore(int maxInactiveInterval)
+   {
+      super(maxInactiveInterval);
+   }
+
+   public void saveSession(ProducerSession session)
+   {
+      // sessions are kept by reference so there's nothing to save but we shouldn't resurrect released sessions
+      if (session != null)
+      {
+         sessions.replace(session.getId(), session);
+      }
+   }
+
+   @Override
+   protected boolean storeIfAbsent(ProducerSession session)
+   {
+      return sessions.putIfAbsent(session.getId(), session) == null;
+   }
+
+   @Override
+   protected ProducerSession load(String sessionId)
+   {
+      return sessions.get(sessionId);
+   }
+
+   @Override
+   protected ProducerSession remove(String sessionId)
+   {
+      return sessions.remove(sessionId);
+   }
+
+   @Override
+   protected Collection<String> getSessionIds()
+   {
+      return new ArrayList<String>(sessions.keySet());
+   }
+
+   public int size()
+   {
+      return sessions.size();
+   }
+}
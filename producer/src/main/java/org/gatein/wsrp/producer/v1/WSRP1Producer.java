@@ -35,7 +35,9 @@ import org.gatein.wsrp.api.context.ProducerContext;
 import org.gatein.wsrp.producer.ProducerHolder;
 import org.gatein.wsrp.producer.WSRPProducer;
 import org.gatein.wsrp.producer.config.ProducerConfigurationService;
+import org.gatein.wsrp.producer.handlers.processors.MarkupRequestCache;
 import org.gatein.wsrp.producer.handlers.processors.ProducerHelper;
+import org.gatein.wsrp.producer.session.ProducerSessionStore;
 import org.gatein.wsrp.producer.v2.WSRP2Producer;
 import org.gatein.wsrp.spec.v1.V1ToV2Converter;
 import org.gatein.wsrp.spec.v1.V2ToV1Converter;
@@ -137,6 +139,21 @@ public class WSRP1Producer implements WSRPProducer, V1MarkupInterface, V1Portlet
       ((ProducerHelper)producer).reset();
    }
 
+   public MarkupRequestCache getMarkupRequestCache()
+   {
+      return ((ProducerHelper)producer).getMarkupRequestCache();
+   }
+
+   public ProducerSessionStore getSessionStore()
+   {
+      return ((ProducerHelper)producer).getSessionStore();
+   }
+
+   public void setSessionStore(ProducerSessionStore sessionStore)
+   {
+      producer.setSessionStore(sessionStore);
+   }
+
    // On-demand class holder Singleton pattern (multi-thread safe)
 
    private static final class InstanceHolder
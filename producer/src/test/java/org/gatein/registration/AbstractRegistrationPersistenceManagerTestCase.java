@@ -24,6 +24,8 @@ package org.gatein.registration;
 
 import junit.framework.TestCase;
 import org.gatein.common.util.MapBuilder;
+import org.gatein.pc.api.PortletContext;
+import org.gatein.registration.spi.RegistrationSPI;
 
 import javax.xml.namespace.QName;
 import java.util.ArrayList;
@@ -32,6 +34,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
@@ -440,4 +443,45 @@ public abstract class AbstractRegistrationPersistenceManagerTestCase extends Tes
       reg = consumer.getRegistrations().iterator().next();
       assertEquals(MapBuilder.hashMap().put(new QName("prop2"), "value2").put(new QName("prop3"), "value3").get(), reg.getProperties());
    }
+
+   public void testPortletContextChangesArePersisted() throws Exception
+   {
+      getManager().createConsumer("Bar", "Bar");
+      RegistrationSPI reg = getManager().addRegistrationFor("Bar", registrationProperties);
+      String regId = reg.getPersistentKey();
+
+      PortletContext foo = PortletContext.createPortletContext("foo");
+      PortletContext bar = PortletContext.createPortletContext("bar", new byte[]{1, 2, 3});
+      reg.addPortletContext(foo);
+      reg.addPortletContext(bar);
+
+      Registration registration = getManager().getRegistration(regId);
+      assertEquals(2, registration.getKnownPortletContexts().size());
+      assertTrue(registration.knows("foo"));
+      assertTrue(registration.knows("bar"));
+
+      // removing a portlet context shouldn't affect the other ones
+      reg = (RegistrationSPI)registration;
+      reg.removePortletContext(PortletContext.createPortletContext("foo"));
+
+      registration = getManager().getRegistration(regId);
+      assertEquals(1, registration.getKnownPortletContexts().size());
+      assertFalse(registration.knows("foo"));
+      assertTrue(registration.knows("bar"));
+
+      // saving the whole registration should keep the known portlet contexts
+      getManager().saveChangesTo(registration);
+      registration = getManager().getRegistration(regId);
+      assertEquals(Collections.singleton("bar"), getIds(registration.getKnownPortletContexts()));
+   }
+
+   private static Set<String> getIds(Collection<PortletContext> portletContexts)
+   {
+      Set<String> ids = new HashSet<String>(portletContexts.size());
+      for (PortletContext portletContext : portletContexts)
+      {
+         ids.add(portletContext.getId());
+      }
+      return ids;
+   }
 }
@@ -32,8 +32,10 @@ import org.gatein.wsrp.WSRPConstants;
 import org.gatein.wsrp.registration.RegistrationPropertyDescription;
 
 import javax.xml.namespace.QName;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -339,6 +341,42 @@ public class RegistrationManagerTestCase extends TestCase
       assertNull(manager.getConsumerFor(handle));
    }
 
+   public void testStatusChangeListenersAreNotified() throws Exception
+   {
+      final List<RegistrationStatus> oldStatuses = new ArrayList<RegistrationStatus>();
+      final List<RegistrationStatus> newStatuses = new ArrayList<RegistrationStatus>();
+      RegistrationStatusChangeListener listener = new RegistrationStatusChangeListener()
+      {
+         public void statusChanged(Registration registration, RegistrationStatus oldStatus)
+         {
+            oldStatuses.add(oldStatus);
+            newStatuses.add(registration.getStatus());
+         }
+      };
+      manager.addRegistrationStatusChangeListener(listener);
+
+      String consumerName = "consumer";
+      manager.createConsumer(consumerName);
+      Registration reg = manager.addRegistrationTo(consumerName, registrationProperties, expectations, false);
+      reg.setStatus(RegistrationStatus.VALID);
+
+      manager.propertiesHaveChanged(expectations);
+      assertEquals(1, newStatuses.size());
+      assertEquals(RegistrationStatus.VALID, oldStatuses.get(0));
+      assertEquals(RegistrationStatus.PENDING, newStatuses.get(0));
+
+      manager.removeRegistration(reg);
+      assertEquals(2, newStatuses.size());
+      assertEquals(RegistrationStatus.PENDING, oldStatuses.get(1));
+      assertEquals(RegistrationStatus.INVALID, newStatuses.get(1));
+
+      // no notification once the listener is removed
+      manager.removeRegistrationStatusChangeListener(listener);
+      reg = manager.addRegistrationTo(consumerName, registrationProperties, expectations, false);
+      manager.removeRegistration(reg);
+      assertEquals(2, newStatuses.size());
+   }
+
    public void testRemoveRegistrationOnConsumerWithOtherRegistrations() throws Exception
    {
       String consumerName = "consumer";
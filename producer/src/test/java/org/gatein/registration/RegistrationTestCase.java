@@ -134,6 +134,25 @@ public class RegistrationTestCase extends TestCase
       assertNull(registration.getPropertyValueFor(name));
    }
 
+   public void testPropertiesAreCopiedOnWrite()
+   {
+      // readers (e.g. requests using a cached registration) should never see a properties map being modified
+      Map<QName, Object> properties = registration.getProperties();
+
+      registration.setPropertyValueFor("prop1", "new value");
+      registration.setPropertyValueFor("prop3", "value3");
+      registration.removeProperty("prop2");
+
+      assertEquals("value1", properties.get(new QName("prop1")));
+      assertEquals("value2", properties.get(new QName("prop2")));
+      assertEquals(2, properties.size());
+
+      properties = registration.getProperties();
+      assertEquals("new value", properties.get(new QName("prop1")));
+      assertNull(properties.get(new QName("prop2")));
+      assertEquals("value3", properties.get(new QName("prop3")));
+   }
+
    public void testUpdateProperties()
    {
       registrationProperties.remove(new QName("prop1"));
@@ -0,0 +1,137 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2012, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wsrp.producer.config;
+
+import junit.framework.TestCase;
+import org.gatein.wsrp.api.plugins.PluginsAccess;
+import org.gatein.wsrp.producer.config.impl.xml.FileSystemXMLProducerConfigurationService;
+
+import java.io.File;
+
+/**
+ * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
+ * @version $Revision$
+ */
+public class FileSystemXMLProducerConfigurationServiceTestCase extends TestCase
+{
+   private static final String WATCHER_THREAD_NAME = "WSRP producer configuration watcher";
+
+   private FileSystemXMLProducerConfigurationService service;
+   private File config;
+
+   static
+   {
+      if (PluginsAccess.getPlugins() == null)
+      {
+         PluginsAccess.register(new TestPlugins());
+      }
+   }
+
+   @Override
+   protected void setUp() throws Exception
+   {
+      // start from the seed configuration
+      config = new File(new File(System.getProperty("java.io.tmpdir"), "portal"), "wsrp-producer-config.xml");
+      config.delete();
+
+      service = new FileSystemXMLProducerConfigurationService();
+      service.setConfigLocation("minimal.xml");
+      service.setWatchInterval(10);
+   }
+
+   @Override
+   protected void tearDown() throws Exception
+   {
+      service.stop();
+      config.delete();
+   }
+
+   public void testExternalModificationsArePickedUp() throws Exception
+   {
+      service.start();
+      assertTrue(service.isUsingPushInvalidation());
+
+      ProducerConfiguration configuration = service.getConfiguration();
+      assertSame(configuration, service.getConfiguration());
+
+      service.saveConfiguration();
+      assertTrue(config.exists());
+
+      // modify the configuration file behind the service's back
+      long persistedLastModified = service.getPersistedLastModifiedForConfiguration();
+      assertTrue(config.setLastModified(config.lastModified() + 10000));
+
+      long timeout = System.currentTimeMillis() + 5000;
+      while (service.getPersistedLastModifiedForConfiguration() == persistedLastModified && System.currentTimeMillis() < timeout)
+      {
+         Thread.sleep(10);
+      }
+
+      assertNotSame(configuration, service.getConfiguration());
+   }
+
+   public void testStopReleasesWatcher() throws Exception
+   {
+      service.start();
+      assertTrue(service.isUsingPushInvalidation());
+      assertTrue(isWatcherRunning());
+
+      service.stop();
+      assertFalse(service.isUsingPushInvalidation());
+
+      long timeout = System.currentTimeMillis() + 5000;
+      while (isWatcherRunning() && System.currentTimeMillis() < timeout)
+      {
+         Thread.sleep(10);
+      }
+      assertFalse(isWatcherRunning());
+
+      // service should still be usable, checking the persisted state on each access
+      assertNotNull(service.getConfiguration());
+
+      // stopping again should be harmless
+      service.stop();
+   }
+
+   public void testNoWatcherIfDisabled() throws Exception
+   {
+      service.setWatchInterval(0);
+      service.start();
+
+      assertFalse(service.isUsingPushInvalidation());
+      assertNotNull(service.getConfiguration());
+   }
+
+   private static boolean isWatcherRunning()
+   {
+      for (Thread thread : Thread.getAllStackTraces().keySet())
+      {
+         if (WATCHER_THREAD_NAME.equals(thread.getName()) && thread.isAlive())
+         {
+            return true;
+         }
+      }
+      return false;
+   }
+}
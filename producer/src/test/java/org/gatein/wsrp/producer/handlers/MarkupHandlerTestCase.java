@@ -0,0 +1,197 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2012, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wsrp.producer.handlers;
+
+import junit.framework.TestCase;
+import org.gatein.common.net.media.MediaType;
+import org.gatein.pc.api.Portlet;
+import org.gatein.pc.api.PortletContext;
+import org.gatein.pc.api.PortletInvoker;
+import org.gatein.pc.api.PortletInvokerException;
+import org.gatein.pc.api.cache.CacheControl;
+import org.gatein.pc.api.cache.CacheScope;
+import org.gatein.pc.api.invocation.PortletInvocation;
+import org.gatein.pc.api.invocation.response.ContentResponse;
+import org.gatein.registration.Registration;
+import org.gatein.registration.RegistrationLocal;
+import org.gatein.registration.RegistrationManager;
+import org.gatein.registration.RegistrationStatus;
+import org.gatein.wsrp.WSRPConstants;
+import org.gatein.wsrp.WSRPTypeFactory;
+import org.gatein.wsrp.api.servlet.ServletAccess;
+import org.gatein.wsrp.producer.WSRPProducerImpl;
+import org.gatein.wsrp.producer.config.ProducerRegistrationRequirements;
+import org.gatein.wsrp.test.support.MockHttpServletRequest;
+import org.gatein.wsrp.test.support.MockHttpServletResponse;
+import org.gatein.wsrp.test.support.MockHttpSession;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.oasis.wsrp.v2.GetMarkup;
+import org.oasis.wsrp.v2.MarkupResponse;
+import org.oasis.wsrp.v2.MarkupType;
+import org.oasis.wsrp.v2.OperationFailed;
+import org.oasis.wsrp.v2.PortletDescription;
+import org.oasis.wsrp.v2.RegistrationContext;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
+ * @version $Revision$
+ */
+public class MarkupHandlerTestCase extends TestCase
+{
+   private static final String PORTLET_HANDLE = "/app.portletHandle";
+   private static final String PORTLET_MIME_TYPE = MediaType.TEXT_HTML.getValue();
+
+   private MarkupHandler handler;
+   private RegistrationHandler registrationHandler;
+   private RegistrationManager manager;
+   private PortletInvoker invoker;
+   private WSRPProducerImpl producer;
+   private Registration registration;
+
+   @Override
+   protected void setUp() throws Exception
+   {
+      manager = mock(RegistrationManager.class);
+      invoker = mock(PortletInvoker.class);
+
+      // non-registered consumers aren't covered by the registration cache so all the lookups need to go through the request context
+      ProducerRegistrationRequirements requirements = mock(ProducerRegistrationRequirements.class);
+      when(requirements.isRegistrationRequired()).thenReturn(false);
+
+      registration = mock(Registration.class);
+      when(registration.getStatus()).thenReturn(RegistrationStatus.VALID);
+      when(manager.getNonRegisteredRegistration()).thenReturn(registration);
+
+      producer = mock(WSRPProducerImpl.class);
+      when(producer.getRegistrationManager()).thenReturn(manager);
+      when(producer.getProducerRegistrationRequirements()).thenReturn(requirements);
+      when(producer.getPortletInvoker()).thenReturn(invoker);
+
+      registrationHandler = new RegistrationHandler(producer);
+      handler = new MarkupHandler(producer);
+
+      // resolve registrations the same way WSRPProducerImpl does
+      when(producer.getRegistrationOrFailIfInvalid(any(RegistrationContext.class))).thenAnswer(new Answer<Registration>()
+      {
+         public Registration answer(InvocationOnMock invocation) throws Throwable
+         {
+            Registration registration = registrationHandler.getRegistrationFrom((RegistrationContext)invocation.getArguments()[0]);
+            registrationHandler.isRegistrationValid(registration, true);
+            return registration;
+         }
+      });
+
+      final Portlet portlet = mock(Portlet.class);
+      when(portlet.getContext()).thenReturn(PortletContext.createPortletContext(PORTLET_HANDLE));
+      when(producer.getPortletWith(any(PortletContext.class), any(Registration.class))).thenReturn(portlet);
+      when(producer.getPortletDescription(any(org.oasis.wsrp.v2.PortletContext.class), any(List.class), any(Registration.class))).thenReturn(createPortletDescription());
+
+      ServletAccess.setRequestAndResponse(MockHttpServletRequest.createMockRequest(MockHttpSession.createMockSession()), MockHttpServletResponse.createMockResponse());
+   }
+
+   @Override
+   protected void tearDown() throws Exception
+   {
+      RegistrationLocal.setRegistration(null);
+      ServletAccess.setRequestAndResponse(null, null);
+   }
+
+   public void testGetMarkupLooksUpRegistrationOnce() throws Exception
+   {
+      when(invoker.invoke(any(PortletInvocation.class))).thenAnswer(new Answer<ContentResponse>()
+      {
+         public ContentResponse answer(InvocationOnMock invocation) throws Throwable
+         {
+            // the registration resolved by the RequestProcessor should be made available to the portlet invocation
+            assertSame(registration, RegistrationLocal.getRegistration());
+
+            // and resolving it again during the operation shouldn't require going back to persistence
+            assertSame(registration, producer.getRegistrationOrFailIfInvalid(null));
+
+            return new ContentResponse(null, null, PORTLET_MIME_TYPE, null, "markup", new CacheControl(0, CacheScope.PRIVATE, null));
+         }
+      });
+
+      MarkupResponse response = handler.getMarkup(createGetMarkup());
+      assertEquals("markup", response.getMarkupContext().getItemString());
+
+      assertEquals(1, registrationHandler.getPersistenceLookups());
+      verify(manager, times(1)).getNonRegisteredRegistration();
+
+      // resolved registrations shouldn't outlive the operation
+      assertNull(ServletAccess.getRequest().getAttribute(RequestRegistrationContext.REGISTRATIONS_ATTRIBUTE));
+      assertNull(RegistrationLocal.getRegistration());
+   }
+
+   public void testRegistrationsAreForgottenWhenGetMarkupFails() throws Exception
+   {
+      when(invoker.invoke(any(PortletInvocation.class))).thenThrow(new PortletInvokerException("failed"));
+
+      try
+      {
+         handler.getMarkup(createGetMarkup());
+         fail("Should have failed since the portlet invocation failed");
+      }
+      catch (OperationFailed expected)
+      {
+         // expected
+      }
+
+      assertEquals(1, registrationHandler.getPersistenceLookups());
+      assertNull(ServletAccess.getRequest().getAttribute(RequestRegistrationContext.REGISTRATIONS_ATTRIBUTE));
+   }
+
+   private static GetMarkup createGetMarkup()
+   {
+      return WSRPTypeFactory.createGetMarkup(null, WSRPTypeFactory.createPortletContext(PORTLET_HANDLE),
+         WSRPTypeFactory.createRuntimeContext(WSRPConstants.NONE_USER_AUTHENTICATION, "foo", "ns"), null,
+         WSRPTypeFactory.createMarkupParams(false, WSRPConstants.getDefaultLocales(), WSRPConstants.getDefaultMimeTypes(), WSRPConstants.VIEW_MODE, WSRPConstants.NORMAL_WINDOW_STATE));
+   }
+
+   private static PortletDescription createPortletDescription()
+   {
+      List<String> modeNames = new ArrayList<String>(1);
+      modeNames.add(WSRPConstants.VIEW_MODE);
+
+      List<String> windowStateNames = new ArrayList<String>(1);
+      windowStateNames.add(WSRPConstants.NORMAL_WINDOW_STATE);
+
+      List<MarkupType> markupTypes = new ArrayList<MarkupType>(1);
+      markupTypes.add(WSRPTypeFactory.createMarkupType(PORTLET_MIME_TYPE, modeNames, windowStateNames, WSRPConstants.getDefaultLocales()));
+
+      final PortletDescription description = WSRPTypeFactory.createPortletDescription(PORTLET_HANDLE, markupTypes);
+      description.setTitle(WSRPTypeFactory.createLocalizedString("title"));
+      return description;
+   }
+}
@@ -0,0 +1,136 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2012, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wsrp.producer.handlers;
+
+import junit.framework.TestCase;
+import org.gatein.registration.Registration;
+import org.gatein.registration.RegistrationStatus;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
+ * @version $Revision$
+ */
+public class RegistrationCacheTestCase extends TestCase
+{
+   private RegistrationCache cache;
+
+   @Override
+   protected void setUp() throws Exception
+   {
+      cache = new RegistrationCache();
+   }
+
+   public void testGetAndPut()
+   {
+      assertNull(cache.get("handle"));
+      assertEquals(0, cache.getHits());
+      assertEquals(1, cache.getMisses());
+
+      Registration registration = createRegistration("handle", RegistrationStatus.VALID);
+      cache.put(registration);
+      assertEquals(1, cache.size());
+
+      assertSame(registration, cache.get("handle"));
+      assertEquals(1, cache.getHits());
+      assertEquals(1, cache.getMisses());
+
+      assertNull(cache.get(null));
+      assertEquals(2, cache.getMisses());
+   }
+
+   public void testOnlyValidRegistrationsAreCached()
+   {
+      cache.put(createRegistration("pending", RegistrationStatus.PENDING));
+      cache.put(createRegistration("invalid", RegistrationStatus.INVALID));
+      cache.put(createRegistration(null, RegistrationStatus.VALID));
+      cache.put(null);
+
+      assertEquals(0, cache.size());
+   }
+
+   public void testStatusChangeIsDetected()
+   {
+      Registration registration = createRegistration("handle", RegistrationStatus.VALID);
+      cache.put(registration);
+
+      when(registration.getStatus()).thenReturn(RegistrationStatus.PENDING);
+      assertNull(cache.get("handle"));
+      assertEquals(0, cache.size());
+   }
+
+   public void testInvalidate()
+   {
+      cache.put(createRegistration("handle", RegistrationStatus.VALID));
+      cache.put(createRegistration("other", RegistrationStatus.VALID));
+
+      cache.invalidate("handle");
+      assertNull(cache.get("handle"));
+      assertNotNull(cache.get("other"));
+   }
+
+   public void testInvalidateAllAsPending()
+   {
+      Registration registration = createRegistration("handle", RegistrationStatus.VALID);
+      cache.put(registration);
+
+      cache.invalidateAllAsPending();
+      assertEquals(0, cache.size());
+      verify(registration).setStatus(RegistrationStatus.PENDING);
+   }
+
+   public void testTimeToLive() throws InterruptedException
+   {
+      cache = new RegistrationCache(10, 1);
+      cache.put(createRegistration("handle", RegistrationStatus.VALID));
+
+      Thread.sleep(5);
+      assertNull(cache.get("handle"));
+   }
+
+   public void testMaximumSize()
+   {
+      cache = new RegistrationCache(1, RegistrationCache.DEFAULT_TIME_TO_LIVE);
+      cache.put(createRegistration("handle", RegistrationStatus.VALID));
+      cache.put(createRegistration("other", RegistrationStatus.VALID));
+
+      assertEquals(1, cache.size());
+      assertNotNull(cache.get("other"));
+
+      cache = new RegistrationCache(0, RegistrationCache.DEFAULT_TIME_TO_LIVE);
+      cache.put(createRegistration("handle", RegistrationStatus.VALID));
+      assertEquals(0, cache.size());
+   }
+
+   private static Registration createRegistration(String handle, RegistrationStatus status)
+   {
+      Registration registration = mock(Registration.class);
+      when(registration.getRegistrationHandle()).thenReturn(handle);
+      when(registration.getStatus()).thenReturn(status);
+      return registration;
+   }
+}
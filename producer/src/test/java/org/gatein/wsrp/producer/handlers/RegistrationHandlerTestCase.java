@@ -0,0 +1,176 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2012, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wsrp.producer.handlers;
+
+import junit.framework.TestCase;
+import org.gatein.registration.Registration;
+import org.gatein.registration.RegistrationManager;
+import org.gatein.registration.RegistrationStatus;
+import org.gatein.wsrp.WSRPTypeFactory;
+import org.gatein.wsrp.api.servlet.ServletAccess;
+import org.gatein.wsrp.producer.WSRPProducerImpl;
+import org.gatein.wsrp.producer.config.ProducerRegistrationRequirements;
+import org.gatein.wsrp.test.support.MockHttpServletRequest;
+import org.gatein.wsrp.test.support.MockHttpServletResponse;
+import org.gatein.wsrp.test.support.MockHttpSession;
+import org.oasis.wsrp.v2.RegistrationContext;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
+ * @version $Revision$
+ */
+public class RegistrationHandlerTestCase extends TestCase
+{
+   private static final String HANDLE = "handle";
+
+   private RegistrationHandler handler;
+   private RegistrationManager manager;
+   private ProducerRegistrationRequirements requirements;
+
+   @Override
+   protected void setUp() throws Exception
+   {
+      manager = mock(RegistrationManager.class);
+      requirements = mock(ProducerRegistrationRequirements.class);
+
+      WSRPProducerImpl producer = mock(WSRPProducerImpl.class);
+      when(producer.getRegistrationManager()).thenReturn(manager);
+      when(producer.getProducerRegistrationRequirements()).thenReturn(requirements);
+
+      handler = new RegistrationHandler(producer);
+
+      startRequest();
+   }
+
+   @Override
+   protected void tearDown() throws Exception
+   {
+      ServletAccess.setRequestAndResponse(null, null);
+   }
+
+   public void testRegistrationIsLookedUpOncePerOperation() throws Exception
+   {
+      when(requirements.isRegistrationRequired()).thenReturn(true);
+      Registration registration = createRegistration(HANDLE);
+      when(manager.getRegistration(HANDLE)).thenReturn(registration);
+
+      // a getMarkup resolves the registration context several times: when the request is prepared and when it's invoked
+      RegistrationContext registrationContext = WSRPTypeFactory.createRegistrationContext(HANDLE);
+      assertSame(registration, handler.getRegistrationFrom(registrationContext));
+      assertSame(registration, handler.getRegistrationFrom(registrationContext));
+      assertEquals(1, handler.getPersistenceLookups());
+
+      // the registration cache should spare us persistence lookups for subsequent operations
+      startRequest();
+      assertSame(registration, handler.getRegistrationFrom(registrationContext));
+      assertEquals(1, handler.getPersistenceLookups());
+
+      // but once the cached registration is stale, we should only go back to persistence once for the whole operation
+      handler.getRegistrationCache().clear();
+      startRequest();
+      assertSame(registration, handler.getRegistrationFrom(registrationContext));
+      assertSame(registration, handler.getRegistrationFrom(registrationContext));
+      assertEquals(2, handler.getPersistenceLookups());
+      verify(manager, times(2)).getRegistration(HANDLE);
+   }
+
+   public void testNonRegisteredRegistrationIsLookedUpOncePerOperation() throws Exception
+   {
+      when(requirements.isRegistrationRequired()).thenReturn(false);
+      Registration registration = createRegistration(null);
+      when(manager.getNonRegisteredRegistration()).thenReturn(registration);
+
+      assertSame(registration, handler.getRegistrationFrom(null));
+      assertSame(registration, handler.getRegistrationFrom(null));
+      assertEquals(1, handler.getPersistenceLookups());
+
+      startRequest();
+      assertSame(registration, handler.getRegistrationFrom(null));
+      assertSame(registration, handler.getRegistrationFrom(null));
+      assertEquals(2, handler.getPersistenceLookups());
+      verify(manager, times(2)).getNonRegisteredRegistration();
+   }
+
+   public void testDestroyedRegistrationIsLookedUpAgain() throws Exception
+   {
+      when(requirements.isRegistrationRequired()).thenReturn(true);
+      Registration registration = createRegistration(HANDLE);
+      when(manager.getRegistration(HANDLE)).thenReturn(registration);
+
+      RegistrationContext registrationContext = WSRPTypeFactory.createRegistrationContext(HANDLE);
+      handler.getRegistrationFrom(registrationContext);
+      assertEquals(1, handler.getPersistenceLookups());
+
+      handler.destructionScheduledFor(registration);
+      handler.getRegistrationFrom(registrationContext);
+      assertEquals(2, handler.getPersistenceLookups());
+   }
+
+   public void testRegistrationIsLookedUpAgainAfterStatusChange() throws Exception
+   {
+      when(requirements.isRegistrationRequired()).thenReturn(true);
+      Registration registration = createRegistration(HANDLE);
+      when(manager.getRegistration(HANDLE)).thenReturn(registration);
+
+      RegistrationContext registrationContext = WSRPTypeFactory.createRegistrationContext(HANDLE);
+      handler.getRegistrationFrom(registrationContext);
+      assertEquals(1, handler.getRegistrationCache().size());
+
+      handler.statusChanged(registration, RegistrationStatus.VALID);
+      assertEquals(0, handler.getRegistrationCache().size());
+
+      handler.getRegistrationFrom(registrationContext);
+      assertEquals(2, handler.getPersistenceLookups());
+   }
+
+   public void testNothingIsRememberedWithoutRequest() throws Exception
+   {
+      ServletAccess.setRequestAndResponse(null, null);
+
+      when(requirements.isRegistrationRequired()).thenReturn(false);
+      when(manager.getNonRegisteredRegistration()).thenReturn(createRegistration(null));
+
+      handler.getRegistrationFrom(null);
+      handler.getRegistrationFrom(null);
+      assertEquals(2, handler.getPersistenceLookups());
+   }
+
+   private static void startRequest()
+   {
+      ServletAccess.setRequestAndResponse(MockHttpServletRequest.createMockRequest(MockHttpSession.createMockSession()), MockHttpServletResponse.createMockResponse());
+   }
+
+   private static Registration createRegistration(String handle)
+   {
+      Registration registration = mock(Registration.class);
+      when(registration.getRegistrationHandle()).thenReturn(handle);
+      when(registration.getStatus()).thenReturn(RegistrationStatus.VALID);
+      return registration;
+   }
+}
@@ -0,0 +1,303 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2012, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wsrp.producer.handlers;
+
+import junit.framework.TestCase;
+import org.gatein.pc.api.info.CapabilitiesInfo;
+import org.gatein.pc.api.info.EventInfo;
+import org.gatein.pc.api.info.EventingInfo;
+import org.gatein.pc.api.info.MetaInfo;
+import org.gatein.pc.api.info.NavigationInfo;
+import org.gatein.pc.api.info.PortletInfo;
+import org.gatein.pc.api.info.RuntimeOptionInfo;
+import org.gatein.pc.api.info.SecurityInfo;
+import org.gatein.pc.portlet.container.managed.LifeCycleStatus;
+import org.gatein.pc.portlet.container.managed.ManagedObjectLifeCycleEvent;
+import org.gatein.pc.portlet.container.managed.ManagedPortletApplication;
+import org.gatein.pc.portlet.container.managed.ManagedPortletContainer;
+import org.gatein.wsrp.WSRPTypeFactory;
+import org.gatein.wsrp.producer.WSRPProducerImpl;
+import org.gatein.wsrp.producer.config.ProducerRegistrationRequirements;
+import org.oasis.wsrp.v2.EventDescription;
+import org.oasis.wsrp.v2.PortletDescription;
+import org.oasis.wsrp.v2.ServiceDescription;
+
+import javax.xml.namespace.QName;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
+ * @version $Revision$
+ */
+public class ServiceDescriptionHandlerTestCase extends TestCase
+{
+   private static final String APPLICATION = "app";
+   private static final QName SHARED_EVENT = new QName("urn:test", "shared");
+
+   private ServiceDescriptionHandler handler;
+   private ProducerRegistrationRequirements requirements;
+
+   @Override
+   protected void setUp() throws Exception
+   {
+      requirements = mock(ProducerRegistrationRequirements.class);
+
+      // no remotable portlets initially, portlets are only added via deployment events
+      WSRPProducerImpl producer = mock(WSRPProducerImpl.class);
+      when(producer.getProducerRegistrationRequirements()).thenReturn(requirements);
+
+      handler = new ServiceDescriptionHandler(producer);
+   }
+
+   public void testConcurrentAdditionsAndRemovals() throws Exception
+   {
+      final int threads = 8;
+      final int portletsPerThread = 20;
+      final CyclicBarrier start = new CyclicBarrier(threads);
+      final CountDownLatch done = new CountDownLatch(threads);
+      final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+      for (int i = 0; i < threads; i++)
+      {
+         final int thread = i;
+         new Thread(new Runnable()
+         {
+            public void run()
+            {
+               try
+               {
+                  start.await();
+                  for (int j = 0; j < portletsPerThread; j++)
+                  {
+                     deploy(portletName(thread, j), SHARED_EVENT);
+                     // interleave reads with modifications
+                     getServiceDescription();
+                  }
+
+                  // remove every other portlet we added
+                  for (int j = 0; j < portletsPerThread; j += 2)
+                  {
+                     undeploy(portletName(thread, j));
+                  }
+               }
+               catch (Throwable t)
+               {
+                  failure.compareAndSet(null, t);
+               }
+               finally
+               {
+                  done.countDown();
+               }
+            }
+         }).start();
+      }
+
+      done.await();
+      if (failure.get() != null)
+      {
+         throw new AssertionError(failure.get());
+      }
+
+      // no modification should have been lost
+      Set<String> expected = new HashSet<String>();
+      for (int i = 0; i < threads; i++)
+      {
+         for (int j = 1; j < portletsPerThread; j += 2)
+         {
+            expected.add(handleFor(portletName(i, j)));
+         }
+      }
+      assertEquals(expected, getOfferedHandles(getServiceDescription()));
+      assertEquals(Collections.singleton(SHARED_EVENT), getEventNames(getServiceDescription()));
+
+      // removing all the remaining portlets should also remove the event they all declared
+      for (int i = 0; i < threads; i++)
+      {
+         for (int j = 1; j < portletsPerThread; j += 2)
+         {
+            undeploy(portletName(i, j));
+         }
+      }
+      assertTrue(getOfferedHandles(getServiceDescription()).isEmpty());
+      assertTrue(getEventNames(getServiceDescription()).isEmpty());
+   }
+
+   public void testSharedEventSurvivesRemovalOfOneOfItsPortlets() throws Exception
+   {
+      QName other = new QName("urn:test", "other");
+
+      // events declared in several locales by a portlet should only be counted once for that portlet
+      deploy("first", SHARED_EVENT);
+      deploy("second", SHARED_EVENT, other);
+      assertEquals(new HashSet<QName>(Arrays.asList(SHARED_EVENT, other)), getEventNames(getServiceDescription()));
+
+      undeploy("second");
+      assertEquals(Collections.singleton(SHARED_EVENT), getEventNames(getServiceDescription()));
+
+      // redeploying a portlet replaces its previous description, releasing the events it previously declared
+      deploy("first", other);
+      assertEquals(Collections.singleton(other), getEventNames(getServiceDescription()));
+
+      undeploy("first");
+      assertTrue(getEventNames(getServiceDescription()).isEmpty());
+   }
+
+   public void testDescriptionIsRegeneratedWhenMetadataChanges() throws Exception
+   {
+      ServiceDescription description = getServiceDescription();
+      assertTrue(getOfferedHandles(description).isEmpty());
+      assertFalse(description.isRequiresRegistration());
+
+      // descriptions are cached as long as metadata doesn't change
+      assertSame(description, getServiceDescription());
+
+      // adding a portlet should result in a new description
+      deploy("portlet");
+      ServiceDescription updated = getServiceDescription();
+      assertNotSame(description, updated);
+      assertEquals(Collections.singleton(handleFor("portlet")), getOfferedHandles(updated));
+      assertSame(updated, getServiceDescription());
+
+      // as should changing the registration requirements
+      when(requirements.isRegistrationRequired()).thenReturn(true);
+      when(requirements.getLastModified()).thenReturn(System.currentTimeMillis() + 1000);
+      description = getServiceDescription();
+      assertNotSame(updated, description);
+      assertTrue(description.isRequiresRegistration());
+
+      // or removing the portlet
+      undeploy("portlet");
+      updated = getServiceDescription();
+      assertNotSame(description, updated);
+      assertTrue(getOfferedHandles(updated).isEmpty());
+
+      // and resetting the handler
+      handler.reset();
+      assertNotSame(updated, getServiceDescription());
+   }
+
+   private ServiceDescription getServiceDescription() throws Exception
+   {
+      return handler.getServiceDescription(WSRPTypeFactory.createGetServiceDescription(null, null));
+   }
+
+   private void deploy(String portletName, QName... events)
+   {
+      handler.onEvent(new ManagedObjectLifeCycleEvent(createContainer(portletName, createPortletInfo(events)), LifeCycleStatus.STARTED));
+   }
+
+   private void undeploy(String portletName)
+   {
+      handler.onEvent(new ManagedObjectLifeCycleEvent(createContainer(portletName, null), LifeCycleStatus.CREATED));
+   }
+
+   private static String portletName(int thread, int index)
+   {
+      return "portlet" + thread + "_" + index;
+   }
+
+   private static String handleFor(String portletName)
+   {
+      return org.gatein.pc.api.PortletContext.createPortletContext(APPLICATION, portletName).getId();
+   }
+
+   private static Set<String> getOfferedHandles(ServiceDescription description)
+   {
+      Set<String> handles = new HashSet<String>();
+      for (PortletDescription portletDescription : description.getOfferedPortlets())
+      {
+         handles.add(portletDescription.getPortletHandle());
+      }
+      return handles;
+   }
+
+   private static Set<QName> getEventNames(ServiceDescription description)
+   {
+      Set<QName> names = new HashSet<QName>();
+      for (EventDescription eventDescription : description.getEventDescriptions())
+      {
+         names.add(eventDescription.getName());
+      }
+      return names;
+   }
+
+   private static ManagedPortletContainer createContainer(String portletName, PortletInfo info)
+   {
+      ManagedPortletApplication application = mock(ManagedPortletApplication.class);
+      when(application.getId()).thenReturn(APPLICATION);
+
+      ManagedPortletContainer container = mock(ManagedPortletContainer.class);
+      when(container.getManagedPortletApplication()).thenReturn(application);
+      when(container.getId()).thenReturn(portletName);
+      when(container.getInfo()).thenReturn(info);
+      return container;
+   }
+
+   private static PortletInfo createPortletInfo(QName... events)
+   {
+      // several locales so that event metadata is gathered several times for the same portlet
+      CapabilitiesInfo capabilities = mock(CapabilitiesInfo.class);
+      when(capabilities.getAllLocales()).thenReturn(new HashSet<Locale>(Arrays.asList(Locale.ENGLISH, Locale.FRENCH)));
+
+      Map<QName, EventInfo> eventInfos = new HashMap<QName, EventInfo>();
+      for (QName event : events)
+      {
+         EventInfo eventInfo = mock(EventInfo.class);
+         when(eventInfo.getName()).thenReturn(event);
+         eventInfos.put(event, eventInfo);
+      }
+      EventingInfo eventing = mock(EventingInfo.class);
+      doReturn(eventInfos).when(eventing).getProducedEvents();
+
+      RuntimeOptionInfo remotable = mock(RuntimeOptionInfo.class);
+      List<String> values = new ArrayList<String>(1);
+      values.add("true");
+      when(remotable.getValues()).thenReturn(values);
+      Map<String, RuntimeOptionInfo> runtimeOptions = Collections.singletonMap(RuntimeOptionInfo.REMOTABLE_RUNTIME_OPTION, remotable);
+
+      PortletInfo info = mock(PortletInfo.class);
+      when(info.getCapabilities()).thenReturn(capabilities);
+      when(info.getMeta()).thenReturn(mock(MetaInfo.class));
+      when(info.getEventing()).thenReturn(eventing);
+      when(info.getNavigation()).thenReturn(mock(NavigationInfo.class));
+      when(info.getSecurity()).thenReturn(mock(SecurityInfo.class));
+      doReturn(runtimeOptions).when(info).getRuntimeOptionsInfo();
+      return info;
+   }
+}
@@ -0,0 +1,178 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2012, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wsrp.producer.handlers.processors;
+
+import junit.framework.TestCase;
+import org.gatein.pc.api.Mode;
+import org.gatein.pc.api.Portlet;
+import org.gatein.pc.api.PortletContext;
+import org.gatein.pc.api.PortletInvoker;
+import org.gatein.pc.api.StateString;
+import org.gatein.pc.api.invocation.EventInvocation;
+import org.gatein.pc.api.invocation.PortletInvocation;
+import org.gatein.pc.api.invocation.response.ErrorResponse;
+import org.gatein.pc.api.invocation.response.PortletInvocationResponse;
+import org.gatein.pc.api.invocation.response.UpdateNavigationalStateResponse;
+import org.gatein.registration.Registration;
+import org.gatein.wsrp.WSRPConstants;
+import org.gatein.wsrp.WSRPTypeFactory;
+import org.gatein.wsrp.api.servlet.ServletAccess;
+import org.gatein.wsrp.test.support.MockHttpServletRequest;
+import org.gatein.wsrp.test.support.MockHttpServletResponse;
+import org.gatein.wsrp.test.support.MockHttpSession;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.oasis.wsrp.v2.Event;
+import org.oasis.wsrp.v2.HandleEvents;
+import org.oasis.wsrp.v2.HandleEventsFailed;
+import org.oasis.wsrp.v2.HandleEventsResponse;
+import org.oasis.wsrp.v2.MarkupType;
+import org.oasis.wsrp.v2.RegistrationContext;
+import org.oasis.wsrp.v2.StateChange;
+import org.oasis.wsrp.v2.UpdateResponse;
+
+import javax.xml.namespace.QName;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
+ * @version $Revision$
+ */
+public class EventRequestProcessorTestCase extends TestCase
+{
+   private static final String PORTLET_HANDLE = "/app.portletHandle";
+   private static final QName FIRST = new QName("urn:test", "first");
+   private static final QName FAILING = new QName("urn:test", "failing");
+   private static final QName LAST = new QName("urn:test", "last");
+
+   private ProducerHelper producer;
+
+   @Override
+   protected void setUp() throws Exception
+   {
+      ServletAccess.setRequestAndResponse(MockHttpServletRequest.createMockRequest(MockHttpSession.createMockSession()), MockHttpServletResponse.createMockResponse());
+
+      Portlet portlet = mock(Portlet.class);
+      when(portlet.getContext()).thenReturn(PortletContext.createPortletContext(PORTLET_HANDLE));
+
+      List<MarkupType> markupTypes = Collections.singletonList(WSRPTypeFactory.createMarkupType(WSRPConstants.getDefaultMimeTypes().get(0),
+         Collections.singletonList(WSRPConstants.VIEW_MODE), Collections.singletonList(WSRPConstants.NORMAL_WINDOW_STATE), null));
+
+      producer = mock(ProducerHelper.class);
+      when(producer.getPortletWith(any(PortletContext.class), any(Registration.class))).thenReturn(portlet);
+      when(producer.getPortletDescription(any(org.oasis.wsrp.v2.PortletContext.class), any(List.class), any(Registration.class)))
+         .thenReturn(WSRPTypeFactory.createPortletDescription(PORTLET_HANDLE, markupTypes));
+      when(producer.getRegistrationOrFailIfInvalid(any(RegistrationContext.class))).thenReturn(null);
+   }
+
+   public void testShouldProcessAllEventsInOrderAndReportFailures() throws Exception
+   {
+      final List<PortletInvocation> invocations = new ArrayList<PortletInvocation>();
+      PortletInvoker invoker = mock(PortletInvoker.class);
+      when(invoker.invoke(any(PortletInvocation.class))).thenAnswer(new Answer<PortletInvocationResponse>()
+      {
+         public PortletInvocationResponse answer(InvocationOnMock invocationOnMock) throws Throwable
+         {
+            EventInvocation invocation = (EventInvocation)invocationOnMock.getArguments()[0];
+            invocations.add(invocation);
+
+            if (FIRST.equals(invocation.getName()))
+            {
+               UpdateNavigationalStateResponse response = new UpdateNavigationalStateResponse();
+               response.setMode(Mode.EDIT);
+               response.setNavigationalState(StateString.create("first"));
+               response.queueEvent(new UpdateNavigationalStateResponse.Event(new QName("urn:test", "emitted"), null));
+               return response;
+            }
+            else if (FAILING.equals(invocation.getName()))
+            {
+               return new ErrorResponse("failed");
+            }
+            else
+            {
+               UpdateNavigationalStateResponse response = new UpdateNavigationalStateResponse();
+               response.setNavigationalState(StateString.create("last"));
+               return response;
+            }
+         }
+      });
+
+      EventRequestProcessor processor = new EventRequestProcessor(producer, createHandleEvents(FIRST, FAILING, LAST));
+      HandleEventsResponse response = processor.processResponse(processor.invoke(invoker, null));
+
+      // all events were dispatched, in order, each seeing the state resulting from the previous ones
+      assertEquals(3, invocations.size());
+      assertEquals(FIRST, ((EventInvocation)invocations.get(0)).getName());
+      assertEquals(FAILING, ((EventInvocation)invocations.get(1)).getName());
+      assertEquals(Mode.EDIT, invocations.get(1).getMode());
+      assertEquals(LAST, ((EventInvocation)invocations.get(2)).getName());
+      assertEquals(Mode.EDIT, invocations.get(2).getMode());
+      assertEquals(StateString.create("first"), invocations.get(2).getNavigationalState());
+
+      // failure is reported for the failing event only
+      List<HandleEventsFailed> failedEvents = response.getFailedEvents();
+      assertEquals(1, failedEvents.size());
+      assertEquals(Collections.singletonList(BigInteger.ONE), failedEvents.get(0).getIndex());
+
+      // state changes are merged
+      UpdateResponse updateResponse = response.getUpdateResponse();
+      assertNotNull(updateResponse);
+      assertEquals(WSRPConstants.EDIT_MODE, updateResponse.getNewMode());
+      assertEquals("last", updateResponse.getNavigationalContext().getOpaqueValue());
+      assertEquals(1, updateResponse.getEvents().size());
+   }
+
+   public void testShouldNotSendUpdateResponseIfAllEventsFailed() throws Exception
+   {
+      PortletInvoker invoker = mock(PortletInvoker.class);
+      when(invoker.invoke(any(PortletInvocation.class))).thenReturn(new ErrorResponse("failed"));
+
+      EventRequestProcessor processor = new EventRequestProcessor(producer, createHandleEvents(FIRST, LAST));
+      HandleEventsResponse response = processor.processResponse(processor.invoke(invoker, null));
+
+      assertNull(response.getUpdateResponse());
+      assertEquals(2, response.getFailedEvents().size());
+   }
+
+   private static HandleEvents createHandleEvents(QName... names)
+   {
+      List<Event> events = new ArrayList<Event>(names.length);
+      for (QName name : names)
+      {
+         events.add(WSRPTypeFactory.createEvent(name, null));
+      }
+
+      return WSRPTypeFactory.createHandleEvents(null, WSRPTypeFactory.createPortletContext(PORTLET_HANDLE),
+         WSRPTypeFactory.createRuntimeContext(WSRPConstants.NONE_USER_AUTHENTICATION, "foo", "ns"), null,
+         WSRPTypeFactory.createMarkupParams(false, WSRPConstants.getDefaultLocales(), WSRPConstants.getDefaultMimeTypes(), WSRPConstants.VIEW_MODE, WSRPConstants.NORMAL_WINDOW_STATE),
+         WSRPTypeFactory.createEventParams(events, StateChange.READ_WRITE));
+   }
+}
@@ -28,16 +28,26 @@ import org.gatein.common.net.media.MediaType;
 import org.gatein.pc.api.Portlet;
 import org.gatein.pc.api.PortletContext;
 import org.gatein.pc.api.PortletInvokerException;
+import org.gatein.pc.api.cache.CacheControl;
+import org.gatein.pc.api.cache.CacheScope;
 import org.gatein.pc.api.info.PortletInfo;
+import org.gatein.pc.api.invocation.RenderInvocation;
+import org.gatein.pc.api.invocation.response.ContentResponse;
 import org.gatein.registration.Registration;
 import org.gatein.wsrp.WSRPConstants;
 import org.gatein.wsrp.WSRPTypeFactory;
 import org.gatein.wsrp.api.servlet.ServletAccess;
+import org.gatein.wsrp.producer.session.ProducerSessionStore;
+import org.gatein.wsrp.producer.session.impl.AbstractProducerSessionStore;
+import org.gatein.wsrp.producer.session.impl.InMemoryProducerSessionStore;
 import org.gatein.wsrp.test.support.MockHttpServletRequest;
 import org.gatein.wsrp.test.support.MockHttpServletResponse;
 import org.gatein.wsrp.test.support.MockHttpSession;
 import org.oasis.wsrp.v2.InvalidHandle;
 import org.oasis.wsrp.v2.InvalidRegistration;
+import org.oasis.wsrp.v2.InvalidSession;
+import org.oasis.wsrp.v2.MarkupContext;
+import org.oasis.wsrp.v2.MarkupParams;
 import org.oasis.wsrp.v2.MarkupType;
 import org.oasis.wsrp.v2.MissingParameters;
 import org.oasis.wsrp.v2.ModifyRegistrationRequired;
@@ -45,11 +55,14 @@ import org.oasis.wsrp.v2.OperationFailed;
 import org.oasis.wsrp.v2.OperationNotSupported;
 import org.oasis.wsrp.v2.PortletDescription;
 import org.oasis.wsrp.v2.RegistrationContext;
+import org.oasis.wsrp.v2.RuntimeContext;
+import org.oasis.wsrp.v2.SessionContext;
 import org.oasis.wsrp.v2.UnsupportedLocale;
 import org.oasis.wsrp.v2.UnsupportedMimeType;
 import org.oasis.wsrp.v2.UnsupportedMode;
 import org.oasis.wsrp.v2.UnsupportedWindowState;
 
+import javax.servlet.http.HttpSession;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -61,7 +74,7 @@ public class MimeResponseProcessorTestCase extends TestCase
 {
    private static final String PORTLET_HANDLE = "/app.portletHandle";
 
-   public void testShouldUseProvidedNamespace() throws OperationFailed, UnsupportedMode, InvalidHandle, MissingParameters, UnsupportedMimeType, UnsupportedWindowState, InvalidRegistration, ModifyRegistrationRequired, UnsupportedLocale, OperationNotSupported
+   public void testShouldUseProvidedNamespace() throws OperationFailed, UnsupportedMode, InvalidHandle, MissingParameters, UnsupportedMimeType, UnsupportedWindowState, InvalidRegistration, ModifyRegistrationRequired, UnsupportedLocale, OperationNotSupported, InvalidSession
    {
       String namespace = "namespace";
       ServletAccess.setRequestAndResponse(MockHttpServletRequest.createMockRequest(MockHttpSession.createMockSession()), MockHttpServletResponse.createMockResponse());
@@ -74,7 +87,7 @@ public class MimeResponseProcessorTestCase extends TestCase
       assertEquals("namespace", processor.invocation.getWindowContext().getNamespace());
    }
 
-   public void testShouldProperlyHandleWildCardsInRequestedMimeTypes() throws OperationFailed, UnsupportedMode, InvalidHandle, MissingParameters, UnsupportedMimeType, ModifyRegistrationRequired, UnsupportedWindowState, InvalidRegistration, UnsupportedLocale, OperationNotSupported
+   public void testShouldProperlyHandleWildCardsInRequestedMimeTypes() throws OperationFailed, UnsupportedMode, InvalidHandle, MissingParameters, UnsupportedMimeType, ModifyRegistrationRequired, UnsupportedWindowState, InvalidRegistration, UnsupportedLocale, OperationNotSupported, InvalidSession
    {
       List<String> mimeTypes = new ArrayList<String>(1);
       mimeTypes.add("*/*");
@@ -124,7 +137,7 @@ public class MimeResponseProcessorTestCase extends TestCase
       }
    }
 
-   public void testShouldReturnFirstMimeTypeMatching() throws OperationFailed, UnsupportedMode, InvalidHandle, MissingParameters, UnsupportedMimeType, ModifyRegistrationRequired, UnsupportedWindowState, InvalidRegistration, UnsupportedLocale, OperationNotSupported
+   public void testShouldReturnFirstMimeTypeMatching() throws OperationFailed, UnsupportedMode, InvalidHandle, MissingParameters, UnsupportedMimeType, ModifyRegistrationRequired, UnsupportedWindowState, InvalidRegistration, UnsupportedLocale, OperationNotSupported, InvalidSession
    {
       List<String> mimeTypes = new ArrayList<String>(2);
       mimeTypes.add("text/xml");
@@ -151,9 +164,219 @@ public class MimeResponseProcessorTestCase extends TestCase
       assertEquals(TestProducerHelper.PORTLET_MIME_TYPE, processor.markupRequest.getMediaType());
    }
 
+   public void testShouldComputeValidateTagAndUseCachedItemWhenMatching() throws Exception
+   {
+      ServletAccess.setRequestAndResponse(MockHttpServletRequest.createMockRequest(MockHttpSession.createMockSession()), MockHttpServletResponse.createMockResponse());
+
+      MarkupParams markupParams = WSRPTypeFactory.createMarkupParams(false, WSRPConstants.getDefaultLocales(), WSRPConstants.getDefaultMimeTypes(), WSRPConstants.VIEW_MODE, WSRPConstants.NORMAL_WINDOW_STATE);
+      ContentResponse content = new ContentResponse(null, null, TestProducerHelper.PORTLET_MIME_TYPE, null, "markup", new CacheControl(30, CacheScope.PRIVATE, null));
+
+      MarkupContext markupContext = createProcessor(markupParams).processResponse(content).getMarkupContext();
+      assertEquals("markup", markupContext.getItemString());
+      assertEquals(Boolean.FALSE, markupContext.isUseCachedItem());
+      org.oasis.wsrp.v2.CacheControl cacheControl = markupContext.getCacheControl();
+      assertEquals(WSRPConstants.CACHE_PER_USER, cacheControl.getUserScope());
+      assertEquals(30, cacheControl.getExpires());
+      String validateTag = cacheControl.getValidateTag();
+      assertNotNull(validateTag);
+
+      // sending the validate tag back should result in a useCachedItem response
+      markupParams.setValidateTag(validateTag);
+      markupContext = createProcessor(markupParams).processResponse(content).getMarkupContext();
+      assertEquals(Boolean.TRUE, markupContext.isUseCachedItem());
+      assertNull(markupContext.getItemString());
+      assertNull(markupContext.getItemBinary());
+      assertEquals(validateTag, markupContext.getCacheControl().getValidateTag());
+
+      // different content should result in a different validate tag
+      content = new ContentResponse(null, null, TestProducerHelper.PORTLET_MIME_TYPE, null, "other markup", new CacheControl(30, CacheScope.PRIVATE, null));
+      markupContext = createProcessor(markupParams).processResponse(content).getMarkupContext();
+      assertEquals(Boolean.FALSE, markupContext.isUseCachedItem());
+      assertEquals("other markup", markupContext.getItemString());
+      assertFalse(validateTag.equals(markupContext.getCacheControl().getValidateTag()));
+   }
+
+   public void testShouldUsePortletProvidedValidationTokenAndScope() throws Exception
+   {
+      ServletAccess.setRequestAndResponse(MockHttpServletRequest.createMockRequest(MockHttpSession.createMockSession()), MockHttpServletResponse.createMockResponse());
+
+      MarkupParams markupParams = WSRPTypeFactory.createMarkupParams(false, WSRPConstants.getDefaultLocales(), WSRPConstants.getDefaultMimeTypes(), WSRPConstants.VIEW_MODE, WSRPConstants.NORMAL_WINDOW_STATE);
+      ContentResponse content = new ContentResponse(null, null, TestProducerHelper.PORTLET_MIME_TYPE, null, "markup", new CacheControl(0, CacheScope.PUBLIC, "etag"));
+
+      MarkupContext markupContext = createProcessor(markupParams).processResponse(content).getMarkupContext();
+      org.oasis.wsrp.v2.CacheControl cacheControl = markupContext.getCacheControl();
+      assertNotNull(cacheControl);
+      assertEquals(WSRPConstants.CACHE_FOR_ALL, cacheControl.getUserScope());
+      assertEquals(0, cacheControl.getExpires());
+      assertEquals("etag", cacheControl.getValidateTag());
+
+      // no CacheControl should be sent if the portlet doesn't want its content cached and doesn't provide a validation token
+      content = new ContentResponse(null, null, TestProducerHelper.PORTLET_MIME_TYPE, null, "markup", new CacheControl(0, CacheScope.PRIVATE, null));
+      markupContext = createProcessor(markupParams).processResponse(content).getMarkupContext();
+      assertNull(markupContext.getCacheControl());
+   }
+
+   public void testValidateTagRoundTrip() throws Exception
+   {
+      ServletAccess.setRequestAndResponse(MockHttpServletRequest.createMockRequest(MockHttpSession.createMockSession()), MockHttpServletResponse.createMockResponse());
+
+      // first request: the portlet lets its content be cached, we should send a validate tag computed from the content
+      MarkupParams markupParams = WSRPTypeFactory.createMarkupParams(false, WSRPConstants.getDefaultLocales(), WSRPConstants.getDefaultMimeTypes(), WSRPConstants.VIEW_MODE, WSRPConstants.NORMAL_WINDOW_STATE);
+      RenderRequestProcessor processor = createProcessor(markupParams);
+      assertNull(((RenderInvocation)processor.invocation).getValidationToken());
+
+      ContentResponse content = new ContentResponse(null, null, TestProducerHelper.PORTLET_MIME_TYPE, null, "markup", new CacheControl(30, CacheScope.PRIVATE, null));
+      MarkupContext markupContext = processor.processResponse(content).getMarkupContext();
+      assertEquals("markup", markupContext.getItemString());
+      final String validateTag = markupContext.getCacheControl().getValidateTag();
+      assertNotNull(validateTag);
+
+      // second request: the consumer sends its validate tag back, which should be passed to the portlet
+      markupParams = WSRPTypeFactory.createMarkupParams(false, WSRPConstants.getDefaultLocales(), WSRPConstants.getDefaultMimeTypes(), WSRPConstants.VIEW_MODE, WSRPConstants.NORMAL_WINDOW_STATE);
+      markupParams.setValidateTag(validateTag);
+      processor = createProcessor(markupParams);
+      assertEquals(validateTag, ((RenderInvocation)processor.invocation).getValidationToken());
+
+      // the portlet producing the same content, the consumer should be told to use its cached markup
+      markupContext = processor.processResponse(content).getMarkupContext();
+      assertEquals(Boolean.TRUE, markupContext.isUseCachedItem());
+      assertNull(markupContext.getItemString());
+      assertEquals(validateTag, markupContext.getCacheControl().getValidateTag());
+
+      // same if the portlet validated the consumer's tag itself, even if it doesn't want its content cached without validation
+      processor = createProcessor(markupParams);
+      content = new ContentResponse(null, null, TestProducerHelper.PORTLET_MIME_TYPE, null, "markup", new CacheControl(0, CacheScope.PRIVATE, validateTag));
+      markupContext = processor.processResponse(content).getMarkupContext();
+      assertEquals(Boolean.TRUE, markupContext.isUseCachedItem());
+   }
+
+   public void testShouldReuseResolvedMarkupRequestUntilInvalidated() throws Exception
+   {
+      ServletAccess.setRequestAndResponse(MockHttpServletRequest.createMockRequest(MockHttpSession.createMockSession()), MockHttpServletResponse.createMockResponse());
+
+      TestProducerHelper producer = new TestProducerHelper();
+      producer.markupRequestCache = new MarkupRequestCache();
+
+      MarkupParams markupParams = WSRPTypeFactory.createMarkupParams(false, WSRPConstants.getDefaultLocales(), WSRPConstants.getDefaultMimeTypes(), WSRPConstants.VIEW_MODE, WSRPConstants.NORMAL_WINDOW_STATE);
+      RenderRequestProcessor processor = createProcessor(producer, markupParams);
+      assertEquals(1, producer.descriptionRequests);
+      assertEquals(1, producer.markupRequestCache.size());
+
+      // same portlet and parameters: the resolved markup request should be reused without retrieving the portlet description again
+      markupParams = WSRPTypeFactory.createMarkupParams(false, WSRPConstants.getDefaultLocales(), WSRPConstants.getDefaultMimeTypes(), WSRPConstants.VIEW_MODE, WSRPConstants.NORMAL_WINDOW_STATE);
+      RenderRequestProcessor other = createProcessor(producer, markupParams);
+      assertSame(processor.markupRequest, other.markupRequest);
+      assertSame(processor.portletDescription, other.portletDescription);
+      assertEquals(1, producer.descriptionRequests);
+      assertEquals(1, producer.markupRequestCache.getHits());
+      assertEquals("ns", other.invocation.getWindowContext().getNamespace());
+
+      // different parameters should result in a different markup request
+      List<String> mimeTypes = new ArrayList<String>(1);
+      mimeTypes.add("text/xml");
+      markupParams = WSRPTypeFactory.createMarkupParams(false, WSRPConstants.getDefaultLocales(), mimeTypes, WSRPConstants.VIEW_MODE, WSRPConstants.NORMAL_WINDOW_STATE);
+      other = createProcessor(producer, markupParams);
+      assertEquals("text/xml", other.markupRequest.getMediaType());
+      assertEquals(2, producer.descriptionRequests);
+
+      // once invalidated, markup requests need to be resolved again
+      producer.markupRequestCache.invalidate();
+      assertEquals(0, producer.markupRequestCache.size());
+      markupParams = WSRPTypeFactory.createMarkupParams(false, WSRPConstants.getDefaultLocales(), WSRPConstants.getDefaultMimeTypes(), WSRPConstants.VIEW_MODE, WSRPConstants.NORMAL_WINDOW_STATE);
+      other = createProcessor(producer, markupParams);
+      assertNotSame(processor.markupRequest, other.markupRequest);
+      assertEquals(3, producer.descriptionRequests);
+   }
+
+   public void testShouldResolveSessionFromSessionIDAndIssueSessionContext() throws Exception
+   {
+      ServletAccess.setRequestAndResponse(MockHttpServletRequest.createMockRequest(MockHttpSession.createMockSession()), MockHttpServletResponse.createMockResponse());
+
+      TestProducerHelper producer = new TestProducerHelper();
+      producer.sessionStore = new InMemoryProducerSessionStore();
+
+      MarkupParams markupParams = WSRPTypeFactory.createMarkupParams(false, WSRPConstants.getDefaultLocales(), WSRPConstants.getDefaultMimeTypes(), WSRPConstants.VIEW_MODE, WSRPConstants.NORMAL_WINDOW_STATE);
+      ContentResponse content = new ContentResponse(null, null, TestProducerHelper.PORTLET_MIME_TYPE, null, "markup", new CacheControl(0, CacheScope.PRIVATE, null));
+
+      // no session should be issued if the portlet didn't use one
+      RenderRequestProcessor processor = createProcessor(producer, markupParams);
+      assertNull(processor.invocation.getRequest().getSession(false));
+      assertNull(processor.processResponse(content).getSessionContext());
+
+      processor = createProcessor(producer, markupParams);
+      HttpSession session = processor.invocation.getRequest().getSession();
+      assertTrue(session.isNew());
+      session.setAttribute("name", "value");
+      SessionContext sessionContext = processor.processResponse(content).getSessionContext();
+      assertNotNull(sessionContext);
+      assertEquals(session.getId(), sessionContext.getSessionID());
+      assertEquals(AbstractProducerSessionStore.DEFAULT_MAX_INACTIVE_INTERVAL, sessionContext.getExpires());
+
+      // the session should be resolved from the session id sent by the consumer and not from the cookie-based session
+      processor = createProcessor(producer, markupParams, sessionContext.getSessionID());
+      session = processor.invocation.getRequest().getSession(false);
+      assertNotNull(session);
+      assertFalse(session.isNew());
+      assertEquals(sessionContext.getSessionID(), session.getId());
+      assertEquals("value", session.getAttribute("name"));
+      assertEquals(sessionContext.getSessionID(), processor.processResponse(content).getSessionContext().getSessionID());
+
+      // released sessions are invalid
+      producer.sessionStore.releaseSession(sessionContext.getSessionID());
+      try
+      {
+         createProcessor(producer, markupParams, sessionContext.getSessionID());
+         fail("Released session should be invalid");
+      }
+      catch (InvalidSession expected)
+      {
+         // expected
+      }
+   }
+
+   public void testShouldRejectSessionIDsWhenNotManagingSessions() throws Exception
+   {
+      ServletAccess.setRequestAndResponse(MockHttpServletRequest.createMockRequest(MockHttpSession.createMockSession()), MockHttpServletResponse.createMockResponse());
+
+      MarkupParams markupParams = WSRPTypeFactory.createMarkupParams(false, WSRPConstants.getDefaultLocales(), WSRPConstants.getDefaultMimeTypes(), WSRPConstants.VIEW_MODE, WSRPConstants.NORMAL_WINDOW_STATE);
+      try
+      {
+         createProcessor(new TestProducerHelper(), markupParams, "0123456789abcdef0123456789abcdef");
+         fail("Session ids shouldn't be accepted when sessions are managed by the servlet container");
+      }
+      catch (OperationFailed expected)
+      {
+         // expected
+      }
+   }
+
+   private RenderRequestProcessor createProcessor(MarkupParams markupParams) throws OperationFailed, UnsupportedMode, InvalidHandle, MissingParameters, UnsupportedMimeType, UnsupportedWindowState, InvalidRegistration, ModifyRegistrationRequired, UnsupportedLocale, OperationNotSupported, InvalidSession
+   {
+      return createProcessor(new TestProducerHelper(), markupParams);
+   }
+
+   private RenderRequestProcessor createProcessor(TestProducerHelper producer, MarkupParams markupParams) throws OperationFailed, UnsupportedMode, InvalidHandle, MissingParameters, UnsupportedMimeType, UnsupportedWindowState, InvalidRegistration, ModifyRegistrationRequired, UnsupportedLocale, OperationNotSupported, InvalidSession
+   {
+      return createProcessor(producer, markupParams, null);
+   }
+
+   private RenderRequestProcessor createProcessor(TestProducerHelper producer, MarkupParams markupParams, String sessionID) throws OperationFailed, UnsupportedMode, InvalidHandle, MissingParameters, UnsupportedMimeType, UnsupportedWindowState, InvalidRegistration, ModifyRegistrationRequired, UnsupportedLocale, OperationNotSupported, InvalidSession
+   {
+      RuntimeContext runtimeContext = WSRPTypeFactory.createRuntimeContext(WSRPConstants.NONE_USER_AUTHENTICATION, "foo", "ns");
+      if (sessionID != null)
+      {
+         runtimeContext.setSessionParams(WSRPTypeFactory.createSessionParams(sessionID));
+      }
+      return new RenderRequestProcessor(producer, WSRPTypeFactory.createGetMarkup(null,
+         WSRPTypeFactory.createPortletContext(PORTLET_HANDLE), runtimeContext, null, markupParams));
+   }
+
    private static class TestProducerHelper implements ProducerHelper
    {
       static final String PORTLET_MIME_TYPE = MediaType.TEXT_HTML.getValue();
+      MarkupRequestCache markupRequestCache;
+      ProducerSessionStore sessionStore;
+      int descriptionRequests;
 
       public Portlet getPortletWith(PortletContext portletContext, Registration registration) throws InvalidHandle, PortletInvokerException
       {
@@ -178,6 +401,8 @@ public class MimeResponseProcessorTestCase extends TestCase
 
       public PortletDescription getPortletDescription(org.oasis.wsrp.v2.PortletContext portletContext, List<String> locales, Registration registration) throws InvalidHandle, OperationFailed
       {
+         descriptionRequests++;
+
          List<String> modeNames = new ArrayList<String>(1);
          modeNames.add(WSRPConstants.VIEW_MODE);
 
@@ -188,7 +413,9 @@ public class MimeResponseProcessorTestCase extends TestCase
          markupTypes.add(WSRPTypeFactory.createMarkupType(PORTLET_MIME_TYPE, modeNames, windowStateNames, locales));
          markupTypes.add(WSRPTypeFactory.createMarkupType("text/xml", modeNames, windowStateNames, locales));
 
-         return WSRPTypeFactory.createPortletDescription(PORTLET_HANDLE, markupTypes);
+         final PortletDescription description = WSRPTypeFactory.createPortletDescription(PORTLET_HANDLE, markupTypes);
+         description.setTitle(WSRPTypeFactory.createLocalizedString("title"));
+         return description;
       }
 
       public PortletDescription getPortletDescription(Portlet portlet, List<String> locales)
@@ -206,5 +433,15 @@ public class MimeResponseProcessorTestCase extends TestCase
          //To change body of implemented methods use File | Settings | File Templates.
       }
 
+      public MarkupRequestCache getMarkupRequestCache()
+      {
+         return markupRequestCache;
+      }
+
+      public ProducerSessionStore getSessionStore()
+      {
+         return sessionStore;
+      }
+
    }
 }
@@ -0,0 +1,142 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2012, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wsrp.producer.session.impl;
+
+import junit.framework.TestCase;
+import org.gatein.wsrp.producer.session.ProducerSession;
+
+/**
+ * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
+ * @version $Revision$
+ */
+public abstract class AbstractProducerSessionStoreTestCase extends TestCase
+{
+   protected AbstractProducerSessionStore store;
+
+   /**
+    * @param maxInactiveInterval the maximum inactive interval of the sessions created by the store
+    * @return the store to test
+    */
+   protected abstract AbstractProducerSessionStore createStore(int maxInactiveInterval) throws Exception;
+
+   @Override
+   protected void setUp() throws Exception
+   {
+      store = createStore(AbstractProducerSessionStore.DEFAULT_MAX_INACTIVE_INTERVAL);
+   }
+
+   public void testCreateAndGet()
+   {
+      ProducerSession session = store.createSession("handle");
+      assertNotNull(session);
+      assertEquals("handle", session.getRegistrationHandle());
+      assertEquals(AbstractProducerSessionStore.DEFAULT_MAX_INACTIVE_INTERVAL, session.getMaxInactiveInterval());
+      assertTrue(AbstractProducerSessionStore.isValidId(session.getId()));
+
+      ProducerSession retrieved = store.getSession(session.getId());
+      assertNotNull(retrieved);
+      assertEquals(session.getId(), retrieved.getId());
+      assertTrue(retrieved.belongsTo("handle"));
+      assertFalse(retrieved.belongsTo("other"));
+      assertFalse(retrieved.belongsTo(null));
+
+      assertFalse(session.getId().equals(store.createSession("handle").getId()));
+   }
+
+   public void testUnknownOrInvalidIds()
+   {
+      assertNull(store.getSession(null));
+      assertNull(store.getSession("unknown"));
+      assertNull(store.getSession("../../etc/passwd"));
+      assertNull(store.getSession("0123456789abcdef0123456789abcdef"));
+      assertNull(store.releaseSession("unknown"));
+   }
+
+   public void testSaveAttributes()
+   {
+      ProducerSession session = store.createSession(null);
+      assertTrue(session.belongsTo(null));
+
+      session.setAttribute("name", "value");
+      store.saveSession(session);
+      assertEquals("value", store.getSession(session.getId()).getAttribute("name"));
+
+      session.setAttribute("name", null);
+      store.saveSession(session);
+      assertNull(store.getSession(session.getId()).getAttribute("name"));
+   }
+
+   public void testRelease()
+   {
+      ProducerSession session = store.createSession("handle");
+      assertNotNull(store.releaseSession(session.getId()));
+      assertNull(store.getSession(session.getId()));
+      assertNull(store.releaseSession(session.getId()));
+
+      // released sessions shouldn't be resurrected when saved
+      store.saveSession(session);
+      assertNull(store.getSession(session.getId()));
+   }
+
+   public void testExpiration() throws Exception
+   {
+      store = createStore(1);
+      ProducerSession session = store.createSession("handle");
+      ProducerSession other = store.createSession("handle");
+
+      session.access(System.currentTimeMillis() - 2000);
+      store.saveSession(session);
+      assertNull(store.getSession(session.getId()));
+
+      other.access(System.currentTimeMillis() - 2000);
+      store.saveSession(other);
+      assertEquals(1, store.purgeExpiredSessions());
+      assertNull(store.getSession(other.getId()));
+      assertEquals(0, store.purgeExpiredSessions());
+   }
+
+   public void testSessionsCanBeSetToNeverExpire()
+   {
+      ProducerSession session = store.createSession("handle");
+      session.setMaxInactiveInterval(-1);
+      session.access(0);
+      store.saveSession(session);
+
+      assertNotNull(store.getSession(session.getId()));
+      assertEquals(0, store.purgeExpiredSessions());
+   }
+
+   public void testInvalidMaxInactiveInterval() throws Exception
+   {
+      try
+      {
+         createStore(0);
+         fail("Sessions should be able to remain inactive for some time");
+      }
+      catch (IllegalArgumentException e)
+      {
+         // expected
+      }
+   }
+}
@@ -0,0 +1,94 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2012, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wsrp.producer.session.impl;
+
+import org.gatein.wsrp.producer.session.ProducerSession;
+
+import java.io.File;
+
+/**
+ * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
+ * @version $Revision$
+ */
+public class FileProducerSessionStoreTestCase extends AbstractProducerSessionStoreTestCase
+{
+   private File directory;
+
+   @Override
+   protected AbstractProducerSessionStore createStore(int maxInactiveInterval) throws Exception
+   {
+      if (directory == null)
+      {
+         directory = File.createTempFile("sessions", "");
+         assertTrue(directory.delete());
+      }
+      return new FileProducerSessionStore(directory, maxInactiveInterval);
+   }
+
+   @Override
+   protected void tearDown() throws Exception
+   {
+      if (directory != null)
+      {
+         File[] files = directory.listFiles();
+         if (files != null)
+         {
+            for (File file : files)
+            {
+               file.delete();
+            }
+         }
+         directory.delete();
+      }
+   }
+
+   public void testSessionsAreSharedBetweenStoresUsingTheSameDirectory() throws Exception
+   {
+      ProducerSession session = store.createSession("handle");
+      session.setAttribute("name", "value");
+      store.saveSession(session);
+
+      // simulates another producer node sharing the same directory
+      AbstractProducerSessionStore other = createStore(AbstractProducerSessionStore.DEFAULT_MAX_INACTIVE_INTERVAL);
+      ProducerSession retrieved = other.getSession(session.getId());
+      assertNotNull(retrieved);
+      assertEquals("value", retrieved.getAttribute("name"));
+
+      other.releaseSession(session.getId());
+      assertNull(store.getSession(session.getId()));
+   }
+
+   public void testOnlySessionFilesAreLeft() throws Exception
+   {
+      store.createSession("handle");
+      store.saveSession(store.createSession("handle"));
+
+      String[] names = directory.list();
+      assertEquals(2, names.length);
+      for (String name : names)
+      {
+         assertTrue(name.endsWith(".session"));
+      }
+   }
+}
@@ -28,11 +28,18 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
+ * Provides access to the WS-Security configuration files. Parsed configurations are cached and only re-read when the associated file
+ * changes (or appears / disappears), which is checked at most every {@link #CHECK_INTERVAL} milliseconds.
+ *
  * @author <a href="mailto:mwringe@redhat.com">Matt Wringe</a>
  * @version $Revision$
  */
@@ -48,43 +55,119 @@ public class WSSConfiguration
    public static final String WSS4J_ININTERCEPTOR_PROPERTY_FILE = "WSS4JInInterceptor.properties";
    public static final String WSS4J_OUTINTERCEPTOR_PROPERTY_FILE = "WSS4JOutInterceptor.properties";
 
+   /** Minimum number of milliseconds between two checks for modifications of a given configuration file */
+   public static final long CHECK_INTERVAL = 1000;
+
    private static final File CXF_WSS_CONFIG_DIR = new File(CXFConfiguration.GATEIN_WSRP_CXF_CONF_DIR, WS_SECURITY_CONF_DIR_NAME);
 
+   private static final ConcurrentMap<File, CachedConfiguration> configurations = new ConcurrentHashMap<File, CachedConfiguration>(7);
+
    public static Map<String, Object> getWSS4JInterceptorConfiguration(boolean consumer, boolean in)
    {
       return getCXFConfiguration(consumer, (in ? WSS4J_ININTERCEPTOR_PROPERTY_FILE : WSS4J_OUTINTERCEPTOR_PROPERTY_FILE), (in ? "In" : "Out"));
    }
 
+   /**
+    * Retrieves the configuration stored in the specified file.
+    *
+    * @param consumer        whether we're looking for consumer or producer configuration
+    * @param fileName        the name of the configuration file
+    * @param interceptorName the name of the interceptor being configured, for logging purposes
+    * @return a new mutable map containing the configuration or <code>null</code> if the configuration file doesn't exist or couldn't be read
+    */
    public static Map<String, Object> getCXFConfiguration(boolean consumer, String fileName, String interceptorName)
    {
       String path = (consumer ? CONSUMER_CONF_DIR_NAME : PRODUCER_CONF_DIR_NAME) + File.separatorChar + fileName;
       File interceptorPropertyFile = new File(CXF_WSS_CONFIG_DIR, path);
-      try
+
+      final long now = System.currentTimeMillis();
+      CachedConfiguration configuration = configurations.get(interceptorPropertyFile);
+      if (configuration == null || configuration.needsReloading(interceptorPropertyFile, now))
       {
-         Map<String, Object> outProperties = new HashMap<String, Object>();
+         configuration = load(interceptorPropertyFile, consumer, interceptorName, now);
+         configurations.put(interceptorPropertyFile, configuration);
+      }
+
+      // return a copy since callers are allowed to modify the returned configuration
+      return configuration.properties != null ? new HashMap<String, Object>(configuration.properties) : null;
+   }
+
+   private static CachedConfiguration load(File interceptorPropertyFile, boolean consumer, String interceptorName, long now)
+   {
+      // record file information before reading it so that modifications happening while we read are detected next time
+      final long lastModified = interceptorPropertyFile.lastModified();
+      final long length = interceptorPropertyFile.length();
 
-         if (interceptorPropertyFile.exists())
+      Map<String, Object> outProperties = null;
+      if (interceptorPropertyFile.exists())
+      {
+         FileInputStream is = null;
+         try
          {
+            is = new FileInputStream(interceptorPropertyFile);
             Properties properties = new Properties();
-            properties.load(new FileInputStream(interceptorPropertyFile));
+            properties.load(is);
+
+            outProperties = new HashMap<String, Object>();
             for (String propName : properties.stringPropertyNames())
             {
                outProperties.put(propName, properties.get(propName));
             }
          }
-         else
+         catch (Exception e)
          {
-            log.debug("The interceptor property file (" + interceptorPropertyFile + ") does not exist. No " + interceptorName + " interceptors will be added to the WSRP "
-               + (consumer ? "Consumers." : "Producer."));
-            return null;
+            log.error("Exception occurred trying to read the interceptor property file (" + interceptorPropertyFile + ").", e);
+         }
+         finally
+         {
+            if (is != null)
+            {
+               try
+               {
+                  is.close();
+               }
+               catch (IOException e)
+               {
+                  // ignore
+               }
+            }
          }
-         return outProperties;
       }
-      catch (Exception e)
+      else
       {
-         log.error("Exception occurred trying to read the interceptor property file (" + interceptorPropertyFile + ").", e);
+         log.debug("The interceptor property file (" + interceptorPropertyFile + ") does not exist. No " + interceptorName + " interceptors will be added to the WSRP "
+            + (consumer ? "Consumers." : "Producer."));
       }
-      return null;
+
+      return new CachedConfiguration(outProperties, lastModified, length, now);
    }
-}
 
+   private static class CachedConfiguration
+   {
+      private final Map<String, Object> properties;
+      private final long lastModified;
+      private final long length;
+      private volatile long lastChecked;
+
+      private CachedConfiguration(Map<String, Object> properties, long lastModified, long length, long lastChecked)
+      {
+         this.properties = properties != null ? Collections.unmodifiableMap(properties) : null;
+         this.lastModified = lastModified;
+         this.length = length;
+         this.lastChecked = lastChecked;
+      }
+
+      private boolean needsReloading(File file, long now)
+      {
+         if (now - lastChecked < CHECK_INTERVAL)
+         {
+            return false;
+         }
+
+         lastChecked = now;
+
+         // lastModified and length are both 0 if the file doesn't exist
+         return file.lastModified() != lastModified || file.length() != length;
+      }
+   }
+}
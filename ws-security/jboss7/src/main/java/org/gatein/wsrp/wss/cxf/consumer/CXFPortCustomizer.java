@@ -22,8 +22,11 @@
  ******************************************************************************/
 package org.gatein.wsrp.wss.cxf.consumer;
 
+import org.apache.cxf.binding.soap.SoapMessage;
 import org.apache.cxf.endpoint.Client;
 import org.apache.cxf.frontend.ClientProxy;
+import org.apache.cxf.interceptor.Interceptor;
+import org.apache.cxf.message.Message;
 import org.apache.cxf.ws.security.wss4j.WSS4JInInterceptor;
 import org.apache.cxf.ws.security.wss4j.WSS4JOutInterceptor;
 import org.apache.ws.security.handler.WSHandlerConstants;
@@ -35,9 +38,16 @@ import org.gatein.wsrp.wss.cxf.WSSConfiguration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
+ * Adds WS-Security interceptors to WSRP client ports. Since ports are cached and shared by all the users of a given
+ * consumer, the interceptors don't hold any user-specific information: the WSS4J configuration is resolved for each
+ * message, using the credentials of the user associated with the current thread, and passed to WSS4J via the message
+ * context.
+ *
  * @author <a href="mailto:mwringe@redhat.com">Matt Wringe</a>
  * @version $Revision$
  */
@@ -55,20 +65,60 @@ public class CXFPortCustomizer implements PortCustomizer
       log.debug("Customizing the port for the WSRP CXF client.");
 
       Client client = ClientProxy.getClient(service);
+      addInterceptors(client.getInInterceptors(), client.getOutInterceptors());
+   }
 
-      Map<String, Object> inPropertyMap = WSSConfiguration.getWSS4JInterceptorConfiguration(true, true);
-      Map<String, Object> outPropertyMap = WSSConfiguration.getWSS4JInterceptorConfiguration(true, false);
+   /**
+    * Adds the WS-Security interceptors for which a configuration exists. Whether security is actually needed for a
+    * given message depends on the current user, which can only be determined when the message is processed.
+    *
+    * @param inInterceptors  the port's inbound interceptors
+    * @param outInterceptors the port's outbound interceptors
+    */
+   protected void addInterceptors(List<Interceptor<? extends Message>> inInterceptors, List<Interceptor<? extends Message>> outInterceptors)
+   {
+      if (getConfiguration(true) != null)
+      {
+         inInterceptors.add(new PerMessageWSS4JInInterceptor());
+      }
 
-      if (inPropertyMap != null && handleSpecialProperties(inPropertyMap))
+      if (getConfiguration(false) != null)
       {
-         WSS4JInInterceptor inInterceptor = new WSS4JInInterceptor(inPropertyMap);
-         client.getInInterceptors().add(inInterceptor);
+         outInterceptors.add(new PerMessageWSS4JOutInterceptor());
       }
+   }
 
-      if (outPropertyMap != null && handleSpecialProperties(outPropertyMap))
+   /**
+    * Retrieves the WSS4J configuration for the specified direction.
+    *
+    * @param in whether the configuration of the inbound or outbound interceptor is requested
+    * @return a new mutable map containing the configuration or <code>null</code> if no such configuration exists
+    */
+   protected Map<String, Object> getConfiguration(boolean in)
+   {
+      return WSSConfiguration.getWSS4JInterceptorConfiguration(true, in);
+   }
+
+   /**
+    * Resolves the WSS4J configuration to use for the specified message and puts it in the message context. Interceptors
+    * are created without options since WSS4J only looks at the message context for properties that aren't specified as
+    * options.
+    *
+    * @param message the message being processed
+    * @param in      whether the message is incoming or outgoing
+    * @return <code>true</code> if WSS4J needs to process the message, <code>false</code> if no security applies to it
+    */
+   protected boolean configureMessage(SoapMessage message, boolean in)
+   {
+      Map<String, Object> propertyMap = getConfiguration(in);
+      if (propertyMap != null && handleSpecialProperties(propertyMap))
       {
-         WSS4JOutInterceptor outInterceptor = new WSS4JOutInterceptor(outPropertyMap);
-         client.getOutInterceptors().add(outInterceptor);
+         message.putAll(propertyMap);
+         return true;
+      }
+      else
+      {
+         return false;
       }
    }
 
@@ -145,5 +195,38 @@ public class CXFPortCustomizer implements PortCustomizer
       }
       return true;
    }
-}
 
+   class PerMessageWSS4JInInterceptor extends WSS4JInInterceptor
+   {
+      private PerMessageWSS4JInInterceptor()
+      {
+         super(new HashMap<String, Object>());
+      }
+
+      @Override
+      public void handleMessage(SoapMessage message)
+      {
+         if (configureMessage(message, true))
+         {
+            super.handleMessage(message);
+         }
+      }
+   }
+
+   class PerMessageWSS4JOutInterceptor extends WSS4JOutInterceptor
+   {
+      private PerMessageWSS4JOutInterceptor()
+      {
+         super(new HashMap<String, Object>());
+      }
+
+      @Override
+      public void handleMessage(SoapMessage message)
+      {
+         if (configureMessage(message, false))
+         {
+            super.handleMessage(message);
+         }
+      }
+   }
+}
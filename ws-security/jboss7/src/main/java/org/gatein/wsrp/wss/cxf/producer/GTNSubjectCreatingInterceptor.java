@@ -24,10 +24,15 @@ package org.gatein.wsrp.wss.cxf.producer;
 
 import org.apache.cxf.binding.soap.SoapMessage;
 import org.apache.cxf.interceptor.Fault;
+import org.apache.cxf.message.Message;
+import org.apache.cxf.phase.PhaseInterceptorChain;
 import org.apache.ws.security.WSConstants;
 import org.apache.ws.security.WSSecurityEngineResult;
 import org.apache.ws.security.WSUsernameTokenPrincipal;
 import org.apache.ws.security.handler.WSHandlerConstants;
+import org.apache.ws.security.handler.WSHandlerResult;
+import org.gatein.wsrp.api.servlet.ServletAccess;
+import org.jboss.wsf.spi.deployment.Endpoint;
 import org.jboss.wsf.stack.cxf.security.authentication.SubjectCreatingInterceptor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -35,14 +40,27 @@ import org.slf4j.LoggerFactory;
 import javax.security.auth.Subject;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
 import java.security.Principal;
+import java.security.acl.Group;
+import java.util.Collections;
+import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 /**
+ * Creates the Subject associated with WS-Security protected WSRP calls and logs the associated user in. Instances are
+ * shared by all the calls made to the producer so they don't hold any message-specific state: the configured action is
+ * computed once at creation time and the UsernameToken principal retrieved from a message is kept with the message's
+ * exchange. Subjects authenticated using clear text passwords are cached, without their private credentials, for a
+ * limited amount of time (see {@link SubjectCache}) so that repeated calls by the same user don't need to go through the
+ * login modules: the cached Subject is then associated with the call via the endpoint's security domain and bound to the
+ * servlet request without logging the user in again.
+ *
  * @author <a href="mailto:mwringe@redhat.com">Matt Wringe</a>
  * @version $Revision$
  */
@@ -52,9 +70,18 @@ public class GTNSubjectCreatingInterceptor extends SubjectCreatingInterceptor
 
    private static final String USERNAME_TOKEN_IFAVAILABLE = "gtn.UsernameToken.ifAvailable";
 
-   protected boolean gtnUsernameTokenIfAvailable = false;
+   /** System property specifying the maximum number of authenticated subjects to cache, 0 disabling caching */
+   public static final String SUBJECT_CACHE_SIZE_PROPERTY = "org.gatein.wsrp.wss.subjectCache.maximumSize";
+   /** System property specifying the number of milliseconds an authenticated subject is cached */
+   public static final String SUBJECT_CACHE_TTL_PROPERTY = "org.gatein.wsrp.wss.subjectCache.timeToLive";
 
-   private WSUsernameTokenPrincipal wsUsernameTokenPrincipal = null;
+   /** Key under which the Subject retrieved from the cache for the current message is kept in the message's exchange */
+   private static final String CACHED_SUBJECT = GTNSubjectCreatingInterceptor.class.getName() + ".cachedSubject";
+   private static final String HTTP_REQUEST = "HTTP.REQUEST";
+
+   protected final boolean gtnUsernameTokenIfAvailable;
+
+   private final SubjectCache subjectCache;
 
    public GTNSubjectCreatingInterceptor()
    {
@@ -64,57 +91,102 @@ public class GTNSubjectCreatingInterceptor extends SubjectCreatingInterceptor
    public GTNSubjectCreatingInterceptor(Map<String, Object> properties)
    {
       super(properties);
-   }
 
-   @Override
-   public void handleMessage(SoapMessage msg) throws Fault
-   {
-      String actionProperty = (String)this.getProperties().get(WSHandlerConstants.ACTION);
-      if (actionProperty.contains(USERNAME_TOKEN_IFAVAILABLE))
+      String actionProperty = (String)properties.get(WSHandlerConstants.ACTION);
+      gtnUsernameTokenIfAvailable = actionProperty != null && actionProperty.contains(USERNAME_TOKEN_IFAVAILABLE);
+      if (gtnUsernameTokenIfAvailable)
       {
-         gtnUsernameTokenIfAvailable = true;
-         this.setProperty(WSHandlerConstants.ACTION, actionProperty.replace(USERNAME_TOKEN_IFAVAILABLE, WSHandlerConstants.USERNAME_TOKEN));
+         // whether a UsernameToken is actually required is decided in checkReceiverResultsAnyOrder based on the message
+         // content so we can set the action once for all instead of changing it (and restoring it) for each message
+         setProperty(WSHandlerConstants.ACTION, actionProperty.replace(USERNAME_TOKEN_IFAVAILABLE, WSHandlerConstants.USERNAME_TOKEN));
       }
 
-      try
+      subjectCache = new SubjectCache((int)getLongSystemProperty(SUBJECT_CACHE_SIZE_PROPERTY, SubjectCache.DEFAULT_MAXIMUM_SIZE),
+         getLongSystemProperty(SUBJECT_CACHE_TTL_PROPERTY, SubjectCache.DEFAULT_TIME_TO_LIVE));
+   }
+
+   private static long getLongSystemProperty(String name, long defaultValue)
+   {
+      final String value = System.getProperty(name);
+      if (value != null)
       {
-         //handle the message here which will create the SecurityContext containing the username and password
-         super.handleMessage(msg);
+         try
+         {
+            final long result = Long.parseLong(value.trim());
+            if (result >= 0)
+            {
+               return result;
+            }
+         }
+         catch (NumberFormatException e)
+         {
+            // fall through to default value
+         }
+
+         log.info("Ignoring invalid value '" + value + "' for " + name + ", using default: " + defaultValue);
       }
-      finally
+
+      return defaultValue;
+   }
+
+   public SubjectCache getSubjectCache()
+   {
+      return subjectCache;
+   }
+
+   @Override
+   public void handleMessage(SoapMessage msg) throws Fault
+   {
+      //handle the message here which will create the SecurityContext containing the username and password
+      processSecurityHeader(msg);
+
+      WSUsernameTokenPrincipal wsUsernameTokenPrincipal = null;
+      if (gtnUsernameTokenIfAvailable)
       {
-         //Replace the action property with the original property after the parent has handled the message
-         //Note: needed since on the next invocation, the user may have logged out but the action property will  have already been set as "UsernameToken" and the above checks will not be performed.
-         if (gtnUsernameTokenIfAvailable)
+         wsUsernameTokenPrincipal = getUsernameTokenPrincipal(msg);
+         if (wsUsernameTokenPrincipal != null)
          {
-            this.setProperty(WSHandlerConstants.ACTION, actionProperty);
+            msg.getExchange().put(WSUsernameTokenPrincipal.class, wsUsernameTokenPrincipal);
          }
       }
 
-      HttpServletRequest request = (HttpServletRequest)msg.get("HTTP.REQUEST");
+      HttpServletRequest request = (HttpServletRequest)msg.get(HTTP_REQUEST);
+      final String remoteUser = request.getRemoteUser();
       if (wsUsernameTokenPrincipal != null)
       {
          String username = wsUsernameTokenPrincipal.getName();
          String password = wsUsernameTokenPrincipal.getPassword();
 
-         wsUsernameTokenPrincipal = null;
          try
          {
             //only perform a login if the user is not already authenticated
-            if (request.getRemoteUser() == null)
+            if (!username.equals(remoteUser))
             {
-               request.login(username, password);
+               final Subject cached = (Subject)msg.getExchange().get(CACHED_SUBJECT);
+               if (cached != null)
+               {
+                  // the user was recently logged in with the same credentials so bind the identity to the request without going through the login modules again
+                  bindToRequest(msg, new AuthenticatedRequest(request, getPrincipal(cached, username), cached));
+               }
+               else
+               {
+                  // make sure that we don't keep a different user associated with the request
+                  if (remoteUser != null)
+                  {
+                     request.logout();
+                  }
+                  request.login(username, password);
+               }
             }
          }
          catch (ServletException e)
          {
-            // FIXME
-            e.printStackTrace();
+            log.error("Couldn't log user '" + username + "' in", e);
          }
       }
       // if we didn't get a wsUsernameTokenPrincipal but there is a remote user logged in, then we need to log out the user
       // This handles the situations where ws-security was enabled, but has currently been disabled for the consumer
-      else if (request.getRemoteUser() != null)
+      else if (remoteUser != null)
       {
          try
          {
@@ -122,19 +194,152 @@ public class GTNSubjectCreatingInterceptor extends SubjectCreatingInterceptor
          }
          catch (ServletException e)
          {
-            //FIXME
-            e.printStackTrace();
+            log.error("Couldn't log user '" + remoteUser + "' out", e);
          }
       }
    }
 
-   /* NOTE: this method should be removed when JBWS-3541 has been fixed in the supported version of JBossAS
-    * See https://issues.jboss.org/browse/JBWS-3541
+   /**
+    * Retrieves the principal associated with the UsernameToken, if any, processed by WSS4J for the specified message.
+    *
+    * @param msg the message which security header has been processed
+    * @return the UsernameToken principal or <code>null</code> if the message didn't contain any UsernameToken
+    */
+   @SuppressWarnings("unchecked")
+   static WSUsernameTokenPrincipal getUsernameTokenPrincipal(SoapMessage msg)
+   {
+      List<WSHandlerResult> handlerResults = (List<WSHandlerResult>)msg.get(WSHandlerConstants.RECV_RESULTS);
+      if (handlerResults != null)
+      {
+         for (WSHandlerResult handlerResult : handlerResults)
+         {
+            for (WSSecurityEngineResult wsResult : handlerResult.getResults())
+            {
+               Integer actInt = (Integer)wsResult.get(WSSecurityEngineResult.TAG_ACTION);
+               if (actInt != null && actInt == WSConstants.UT)
+               {
+                  Object principal = wsResult.get(WSSecurityEngineResult.TAG_PRINCIPAL);
+                  if (principal instanceof WSUsernameTokenPrincipal)
+                  {
+                     return (WSUsernameTokenPrincipal)principal;
+                  }
+               }
+            }
+         }
+      }
+
+      return null;
+   }
+
+   /**
+    * Processes the WS-Security header of the specified message, creating the associated Subject if it contains a
+    * UsernameToken.
+    *
+    * @param msg the message to process
     */
+   protected void processSecurityHeader(SoapMessage msg)
+   {
+      super.handleMessage(msg);
+   }
+
+   /**
+    * Replaces the servlet request associated with the current call by the specified one.
+    *
+    * @param msg     the message being processed
+    * @param request the request to associate with the call
+    */
+   protected void bindToRequest(SoapMessage msg, HttpServletRequest request)
+   {
+      msg.put(HTTP_REQUEST, request);
+      ServletAccess.setRequestAndResponse(request, ServletAccess.getResponse());
+   }
+
    @Override
    public Subject createSubject(String name, String password, boolean isDigest, String nonce, String created)
    {
-      Subject originalSubject = super.createSubject(name, password, isDigest, nonce, created);
+      // digested passwords depend on the nonce and creation time of the token so only clear text passwords can be cached
+      if (!isDigest)
+      {
+         Subject cached = subjectCache.get(name, password);
+         if (cached != null)
+         {
+            // each call gets its own copy since the Subject might be modified while the call is processed
+            Subject subject = new Subject(false, cached.getPrincipals(), cached.getPublicCredentials(), Collections.emptySet());
+
+            // bypassing super.createSubject means we need to associate the Subject with the call ourselves
+            final Message message = getCurrentMessage();
+            pushSubjectContext(message, subject, getPrincipal(subject, name), password);
+            message.getExchange().put(CACHED_SUBJECT, subject);
+
+            return subject;
+         }
+      }
+
+      Subject subject = createReorderedSubject(name, password, isDigest, nonce, created);
+
+      if (!isDigest)
+      {
+         // never retain private credentials, which might contain the password or other secrets, in the shared cache
+         subjectCache.put(name, password, new Subject(true, subject.getPrincipals(), subject.getPublicCredentials(), Collections.emptySet()));
+      }
+
+      return subject;
+   }
+
+   protected Message getCurrentMessage()
+   {
+      return PhaseInterceptorChain.getCurrentMessage();
+   }
+
+   /**
+    * Associates the specified Subject with the call being processed, as {@link SubjectCreatingInterceptor#createSubject}
+    * does for the Subjects it creates.
+    *
+    * @param message   the message being processed
+    * @param subject   the Subject to associate with the call
+    * @param principal the principal of the user
+    * @param password  the password the user was authenticated with
+    */
+   protected void pushSubjectContext(Message message, Subject subject, Principal principal, String password)
+   {
+      final Endpoint endpoint = message != null ? message.getExchange().get(Endpoint.class) : null;
+      if (endpoint == null || endpoint.getSecurityDomainContext() == null)
+      {
+         throw new SecurityException("Couldn't retrieve the security domain to associate user '" + principal.getName() + "' with the current call");
+      }
+
+      endpoint.getSecurityDomainContext().pushSubjectContext(subject, principal, password);
+   }
+
+   /**
+    * Authenticates the specified user using the endpoint's security domain.
+    *
+    * @return the authenticated Subject
+    */
+   protected Subject authenticate(String name, String password, boolean isDigest, String nonce, String created)
+   {
+      return super.createSubject(name, password, isDigest, nonce, created);
+   }
+
+   private static Principal getPrincipal(Subject subject, String name)
+   {
+      for (Principal principal : subject.getPrincipals())
+      {
+         if (principal.getName().equals(name))
+         {
+            return principal;
+         }
+      }
+
+      throw new SecurityException("Subject doesn't contain any principal for user '" + name + "'");
+   }
+
+   /* NOTE: this method should be removed when JBWS-3541 has been fixed in the supported version of JBossAS
+    * See https://issues.jboss.org/browse/JBWS-3541
+    */
+   private Subject createReorderedSubject(String name, String password, boolean isDigest, String nonce, String created)
+   {
+      Subject originalSubject = authenticate(name, password, isDigest, nonce, created);
 
       Set<Principal> principals = originalSubject.getPrincipals();
       if (!principals.iterator().next().getName().equals(name))
@@ -172,7 +377,7 @@ public class GTNSubjectCreatingInterceptor extends SubjectCreatingInterceptor
       // if the action contains gtn.UsernameToken.ifAvailable then we need to override how this method works
       // so that we don't run into an error that the actions are mismatched. Otherwise the method will fail
       // if we have a username token in the soap message but didn't specify it, or the other way around.
-      wsUsernameTokenPrincipal = null;
+      // Note that actions is specific to the message being processed so it's safe to modify it.
       if (gtnUsernameTokenIfAvailable)
       {
          boolean foundUsernameTokenResult = false;
@@ -180,19 +385,9 @@ public class GTNSubjectCreatingInterceptor extends SubjectCreatingInterceptor
          for (WSSecurityEngineResult wsResult : wsResults)
          {
             Integer actInt = (Integer)wsResult.get(WSSecurityEngineResult.TAG_ACTION);
-            if (actInt == WSConstants.UT)
+            if (actInt != null && actInt == WSConstants.UT)
             {
-               //usernametokenResult = wsResult;
                foundUsernameTokenResult = true;
-
-               //since we already have the result and the result contains the username and
-               //password, its easiest to just grab the data here and store it for later.
-               Object principal = wsResult.get(WSSecurityEngineResult.TAG_PRINCIPAL);
-               if (principal != null && principal instanceof WSUsernameTokenPrincipal)
-               {
-                  this.wsUsernameTokenPrincipal = (WSUsernameTokenPrincipal)principal;
-               }
-
                break;
             }
          }
@@ -209,5 +404,58 @@ public class GTNSubjectCreatingInterceptor extends SubjectCreatingInterceptor
       }
       return super.checkReceiverResults(wsResults, actions);
    }
-}
 
+   /** Exposes the identity of a cached Subject through the servlet request of the call. */
+   static class AuthenticatedRequest extends HttpServletRequestWrapper
+   {
+      /** Name of the group principal holding the roles of JBoss AS users */
+      private static final String ROLES_GROUP = "Roles";
+      private static final String AUTH_TYPE = "WSS";
+
+      private final Principal principal;
+      private final Set<String> roles;
+
+      AuthenticatedRequest(HttpServletRequest request, Principal principal, Subject subject)
+      {
+         super(request);
+         this.principal = principal;
+
+         roles = new HashSet<String>();
+         for (Group group : subject.getPrincipals(Group.class))
+         {
+            if (ROLES_GROUP.equals(group.getName()))
+            {
+               Enumeration<? extends Principal> members = group.members();
+               while (members.hasMoreElements())
+               {
+                  roles.add(members.nextElement().getName());
+               }
+            }
+         }
+      }
+
+      @Override
+      public String getRemoteUser()
+      {
+         return principal.getName();
+      }
+
+      @Override
+      public Principal getUserPrincipal()
+      {
+         return principal;
+      }
+
+      @Override
+      public boolean isUserInRole(String role)
+      {
+         return roles.contains(role);
+      }
+
+      @Override
+      public String getAuthType()
+      {
+         return AUTH_TYPE;
+      }
+   }
+}
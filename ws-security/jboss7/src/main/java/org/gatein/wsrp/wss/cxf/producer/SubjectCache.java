@@ -0,0 +1,204 @@
+/******************************************************************************
+ * JBoss, a division of Red Hat                                               *
+ * Copyright 2012, Red Hat Middleware, LLC, and individual                    *
+ * contributors as indicated by the @authors tag. See the                     *
+ * copyright.txt in the distribution for a full listing of                    *
+ * individual contributors.                                                   *
+ *                                                                            *
+ * This is free software; you can redistribute it and/or modify it            *
+ * under the terms of the GNU Lesser General Public License as                *
+ * published by the Free Software Foundation; either version 2.1 of           *
+ * the License, or (at your option) any later version.                        *
+ *                                                                            *
+ * This software is distributed in the hope that it will be useful,           *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of             *
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU           *
+ * Lesser General Public License for more details.                            *
+ *                                                                            *
+ * You should have received a copy of the GNU Lesser General Public           *
+ * License along with this software; if not, write to the Free                *
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA         *
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.                   *
+ ******************************************************************************/
+package org.gatein.wsrp.wss.cxf.producer;
+
+import javax.security.auth.Subject;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded, thread-safe cache of authenticated {@link Subject}s, used to avoid going through the login modules for each
+ * WS-Security protected call made by the same user. Entries are keyed by user name and a digest of the password, salted
+ * with a random value generated for each cache instance, so that clear text passwords are never retained. Entries are
+ * only kept for a limited amount of time so that password changes or revoked accounts are eventually taken into account.
+ *
+ * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
+ * @version $Revision$
+ */
+public class SubjectCache
+{
+   public static final int DEFAULT_MAXIMUM_SIZE = 500;
+   public static final long DEFAULT_TIME_TO_LIVE = 5 * 60 * 1000;
+
+   private static final String DIGEST_ALGORITHM = "SHA-256";
+   private static final String ENCODING = "UTF-8";
+
+   private final ConcurrentMap<String, Entry> subjects;
+   private final int maximumSize;
+   private final long timeToLive;
+   private final byte[] salt;
+
+   private final AtomicLong hits = new AtomicLong();
+   private final AtomicLong misses = new AtomicLong();
+
+   public SubjectCache()
+   {
+      this(DEFAULT_MAXIMUM_SIZE, DEFAULT_TIME_TO_LIVE);
+   }
+
+   /**
+    * @param maximumSize the maximum number of subjects to cache
+    * @param timeToLive  the number of milliseconds a cached subject is considered authenticated
+    */
+   public SubjectCache(int maximumSize, long timeToLive)
+   {
+      if (maximumSize < 0 || timeToLive < 0)
+      {
+         throw new IllegalArgumentException("Maximum size and time to live must be positive");
+      }
+      this.maximumSize = maximumSize;
+      this.timeToLive = timeToLive;
+      subjects = new ConcurrentHashMap<String, Entry>(Math.min(maximumSize, 16));
+
+      salt = new byte[16];
+      new SecureRandom().nextBytes(salt);
+   }
+
+   /**
+    * Retrieves the Subject previously authenticated with the specified credentials, if any.
+    *
+    * @param username the user name
+    * @param password the clear text password
+    * @return the cached Subject or <code>null</code> if no Subject was authenticated with these credentials recently
+    */
+   public Subject get(String username, String password)
+   {
+      if (username != null && password != null)
+      {
+         Entry entry = subjects.get(username);
+         if (entry != null)
+         {
+            if (System.currentTimeMillis() - entry.cachedAt < timeToLive)
+            {
+               if (MessageDigest.isEqual(entry.passwordDigest, digest(password)))
+               {
+                  hits.incrementAndGet();
+                  return entry.subject;
+               }
+            }
+            else
+            {
+               subjects.remove(username, entry);
+            }
+         }
+      }
+
+      misses.incrementAndGet();
+      return null;
+   }
+
+   /**
+    * Records that the specified Subject was successfully authenticated with the specified credentials.
+    *
+    * @param username the user name
+    * @param password the clear text password
+    * @param subject  the authenticated Subject
+    */
+   public void put(String username, String password, Subject subject)
+   {
+      if (username == null || password == null || subject == null || maximumSize == 0)
+      {
+         return;
+      }
+
+      // make room if needed: we don't need strict LRU semantics here, stale entries expire anyway
+      if (subjects.size() >= maximumSize && !subjects.containsKey(username))
+      {
+         Iterator<String> iterator = subjects.keySet().iterator();
+         if (iterator.hasNext())
+         {
+            iterator.next();
+            iterator.remove();
+         }
+      }
+
+      subjects.put(username, new Entry(subject, digest(password), System.currentTimeMillis()));
+   }
+
+   public void invalidate(String username)
+   {
+      if (username != null)
+      {
+         subjects.remove(username);
+      }
+   }
+
+   public void clear()
+   {
+      subjects.clear();
+   }
+
+   public int size()
+   {
+      return subjects.size();
+   }
+
+   public long getHits()
+   {
+      return hits.get();
+   }
+
+   public long getMisses()
+   {
+      return misses.get();
+   }
+
+   private byte[] digest(String password)
+   {
+      try
+      {
+         // MessageDigest instances are not thread-safe so get a new one each time
+         MessageDigest digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+         digest.update(salt);
+         return digest.digest(password.getBytes(ENCODING));
+      }
+      catch (NoSuchAlgorithmException e)
+      {
+         throw new IllegalStateException(DIGEST_ALGORITHM + " is not available", e);
+      }
+      catch (UnsupportedEncodingException e)
+      {
+         throw new IllegalStateException(ENCODING + " is not available", e);
+      }
+   }
+
+   private static class Entry
+   {
+      private final Subject subject;
+      private final byte[] passwordDigest;
+      private final long cachedAt;
+
+      private Entry(Subject subject, byte[] passwordDigest, long cachedAt)
+      {
+         this.subject = subject;
+         this.passwordDigest = passwordDigest;
+         this.cachedAt = cachedAt;
+      }
+   }
+}
@@ -0,0 +1,196 @@
+/******************************************************************************
+ * JBoss, a division of Red Hat                                               *
+ * Copyright 2012, Red Hat Middleware, LLC, and individual                    *
+ * contributors as indicated by the @authors tag. See the                     *
+ * copyright.txt in the distribution for a full listing of                    *
+ * individual contributors.                                                   *
+ *                                                                            *
+ * This is free software; you can redistribute it and/or modify it            *
+ * under the terms of the GNU Lesser General Public License as                *
+ * published by the Free Software Foundation; either version 2.1 of           *
+ * the License, or (at your option) any later version.                        *
+ *                                                                            *
+ * This software is distributed in the hope that it will be useful,           *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of             *
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU           *
+ * Lesser General Public License for more details.                            *
+ *                                                                            *
+ * You should have received a copy of the GNU Lesser General Public           *
+ * License along with this software; if not, write to the Free                *
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA         *
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.                   *
+ ******************************************************************************/
+
+package org.gatein.wsrp.wss.cxf.consumer;
+
+import junit.framework.TestCase;
+import org.apache.cxf.binding.soap.SoapMessage;
+import org.apache.cxf.interceptor.Interceptor;
+import org.apache.cxf.message.Message;
+import org.apache.cxf.message.MessageImpl;
+import org.apache.ws.security.handler.WSHandlerConstants;
+import org.gatein.wci.security.Credentials;
+import org.gatein.wsrp.wss.CredentialsAccess;
+import org.gatein.wsrp.wss.credentials.CredentialsAccessor;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
+ * @version $Revision$
+ */
+public class CXFPortCustomizerTestCase extends TestCase
+{
+   private TestCredentialsAccessor credentialsAccessor;
+
+   @Override
+   protected void setUp() throws Exception
+   {
+      credentialsAccessor = new TestCredentialsAccessor();
+      CredentialsAccess.getInstance().setCredentialsAccessor(credentialsAccessor);
+   }
+
+   @Override
+   protected void tearDown() throws Exception
+   {
+      CredentialsAccess.getInstance().setCredentialsAccessor(null);
+   }
+
+   public void testInterceptorsAreOnlyAddedIfConfigured()
+   {
+      List<Interceptor<? extends Message>> in = new ArrayList<Interceptor<? extends Message>>();
+      List<Interceptor<? extends Message>> out = new ArrayList<Interceptor<? extends Message>>();
+
+      new TestCXFPortCustomizer(null, null).addInterceptors(in, out);
+      assertTrue(in.isEmpty());
+      assertTrue(out.isEmpty());
+
+      Map<String, Object> configuration = createConfiguration(WSHandlerConstants.TIMESTAMP, "foo");
+      new TestCXFPortCustomizer(null, configuration).addInterceptors(in, out);
+      assertTrue(in.isEmpty());
+      assertEquals(1, out.size());
+      assertTrue(out.get(0) instanceof CXFPortCustomizer.PerMessageWSS4JOutInterceptor);
+
+      out.clear();
+      new TestCXFPortCustomizer(configuration, null).addInterceptors(in, out);
+      assertEquals(1, in.size());
+      assertTrue(in.get(0) instanceof CXFPortCustomizer.PerMessageWSS4JInInterceptor);
+      assertTrue(out.isEmpty());
+   }
+
+   public void testMessageConfigurationDependsOnCurrentUser()
+   {
+      Map<String, Object> configuration = createConfiguration(WSHandlerConstants.TIMESTAMP + " " + CXFPortCustomizer.GTN_USERNAME_TOKEN_IF_AUTHENTICATED,
+         CXFPortCustomizer.GTN_CURRENT_USER);
+      TestCXFPortCustomizer customizer = new TestCXFPortCustomizer(null, configuration);
+
+      credentialsAccessor.credentials = new Credentials("alice", "secret");
+      SoapMessage message = createMessage();
+      assertTrue(customizer.configureMessage(message, false));
+      assertEquals("alice", message.get(WSHandlerConstants.USER));
+      assertEquals(WSHandlerConstants.TIMESTAMP + " " + WSHandlerConstants.USERNAME_TOKEN, message.get(WSHandlerConstants.ACTION));
+
+      // the same port is used by another user whose password isn't known
+      credentialsAccessor.credentials = new Credentials("bob", "unknown")
+      {
+         @Override
+         public String getPassword()
+         {
+            return null;
+         }
+      };
+      message = createMessage();
+      assertTrue(customizer.configureMessage(message, false));
+      assertEquals("bob", message.get(WSHandlerConstants.USER));
+      assertEquals(WSHandlerConstants.TIMESTAMP + " " + WSHandlerConstants.USERNAME_TOKEN_NO_PASSWORD, message.get(WSHandlerConstants.ACTION));
+
+      // then by an anonymous user
+      credentialsAccessor.credentials = null;
+      message = createMessage();
+      assertTrue(customizer.configureMessage(message, false));
+      assertEquals(CXFPortCustomizer.GTN_NO_USER, message.get(WSHandlerConstants.USER));
+      assertEquals(WSHandlerConstants.TIMESTAMP, message.get(WSHandlerConstants.ACTION).toString().trim());
+
+      // the shared configuration wasn't modified by previous messages
+      credentialsAccessor.credentials = new Credentials("alice", "secret");
+      message = createMessage();
+      assertTrue(customizer.configureMessage(message, false));
+      assertEquals("alice", message.get(WSHandlerConstants.USER));
+   }
+
+   public void testNoSecurityProcessingForAnonymousUserIfOnlyUsernameTokenIsRequested()
+   {
+      Map<String, Object> configuration = createConfiguration(CXFPortCustomizer.GTN_USERNAME_TOKEN_IF_AUTHENTICATED, CXFPortCustomizer.GTN_CURRENT_USER);
+      TestCXFPortCustomizer customizer = new TestCXFPortCustomizer(configuration, configuration);
+
+      credentialsAccessor.credentials = null;
+      SoapMessage message = createMessage();
+      assertFalse(customizer.configureMessage(message, false));
+      assertNull(message.get(WSHandlerConstants.ACTION));
+
+      message = createMessage();
+      assertFalse(customizer.configureMessage(message, true));
+      assertNull(message.get(WSHandlerConstants.ACTION));
+
+      credentialsAccessor.credentials = new Credentials("alice", "secret");
+      message = createMessage();
+      assertTrue(customizer.configureMessage(message, false));
+      assertEquals(WSHandlerConstants.USERNAME_TOKEN, message.get(WSHandlerConstants.ACTION));
+   }
+
+   public void testNoSecurityProcessingWithoutConfiguration()
+   {
+      TestCXFPortCustomizer customizer = new TestCXFPortCustomizer(null, null);
+
+      SoapMessage message = createMessage();
+      assertFalse(customizer.configureMessage(message, true));
+      assertFalse(customizer.configureMessage(message, false));
+      assertNull(message.get(WSHandlerConstants.ACTION));
+   }
+
+   private static Map<String, Object> createConfiguration(String action, String user)
+   {
+      Map<String, Object> configuration = new HashMap<String, Object>();
+      configuration.put(WSHandlerConstants.ACTION, action);
+      configuration.put(WSHandlerConstants.USER, user);
+      return configuration;
+   }
+
+   private static SoapMessage createMessage()
+   {
+      return new SoapMessage(new MessageImpl());
+   }
+
+   private static class TestCXFPortCustomizer extends CXFPortCustomizer
+   {
+      private final Map<String, Object> in;
+      private final Map<String, Object> out;
+
+      private TestCXFPortCustomizer(Map<String, Object> in, Map<String, Object> out)
+      {
+         this.in = in;
+         this.out = out;
+      }
+
+      @Override
+      protected Map<String, Object> getConfiguration(boolean in)
+      {
+         // like WSSConfiguration, return a copy that callers can modify
+         Map<String, Object> configuration = in ? this.in : this.out;
+         return configuration != null ? new HashMap<String, Object>(configuration) : null;
+      }
+   }
+
+   private static class TestCredentialsAccessor implements CredentialsAccessor
+   {
+      private Credentials credentials;
+
+      public Credentials getCredentials()
+      {
+         return credentials;
+      }
+   }
+}
@@ -0,0 +1,327 @@
+/******************************************************************************
+ * JBoss, a division of Red Hat                                               *
+ * Copyright 2012, Red Hat Middleware, LLC, and individual                    *
+ * contributors as indicated by the @authors tag. See the                     *
+ * copyright.txt in the distribution for a full listing of                    *
+ * individual contributors.                                                   *
+ *                                                                            *
+ * This is free software; you can redistribute it and/or modify it            *
+ * under the terms of the GNU Lesser General Public License as                *
+ * published by the Free Software Foundation; either version 2.1 of           *
+ * the License, or (at your option) any later version.                        *
+ *                                                                            *
+ * This software is distributed in the hope that it will be useful,           *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of             *
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU           *
+ * Lesser General Public License for more details.                            *
+ *                                                                            *
+ * You should have received a copy of the GNU Lesser General Public           *
+ * License along with this software; if not, write to the Free                *
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA         *
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.                   *
+ ******************************************************************************/
+package org.gatein.wsrp.wss.cxf.producer;
+
+import junit.framework.TestCase;
+import org.apache.cxf.binding.soap.SoapMessage;
+import org.apache.cxf.message.ExchangeImpl;
+import org.apache.cxf.message.Message;
+import org.apache.cxf.message.MessageImpl;
+import org.apache.ws.security.WSConstants;
+import org.apache.ws.security.WSSecurityEngineResult;
+import org.apache.ws.security.WSUsernameTokenPrincipal;
+import org.apache.ws.security.handler.WSHandlerConstants;
+import org.apache.ws.security.handler.WSHandlerResult;
+import org.apache.ws.security.message.token.UsernameToken;
+import org.gatein.wsrp.api.servlet.ServletAccess;
+
+import javax.security.auth.Subject;
+import javax.servlet.http.HttpServletRequest;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.security.Principal;
+import java.security.acl.Group;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
+ * @version $Revision$
+ */
+public class GTNSubjectCreatingInterceptorTestCase extends TestCase
+{
+   private static final String PUSHED_USER = "test.pushedUser";
+
+   public void testNoUsernameToken()
+   {
+      assertNull(GTNSubjectCreatingInterceptor.getUsernameTokenPrincipal(createMessage(null)));
+
+      SoapMessage message = new SoapMessage(new MessageImpl());
+      assertNull(GTNSubjectCreatingInterceptor.getUsernameTokenPrincipal(message));
+   }
+
+   public void testPrincipalsNeverLeakAcrossInterleavedMessages() throws Exception
+   {
+      final int threads = 8;
+      final int iterations = 200;
+      final TestInterceptor interceptor = new TestInterceptor();
+      final CyclicBarrier barrier = new CyclicBarrier(threads);
+      ExecutorService executor = Executors.newFixedThreadPool(threads);
+      try
+      {
+         List<Future<Void>> results = new ArrayList<Future<Void>>(threads);
+         for (int i = 0; i < threads; i++)
+         {
+            final String username = "user" + i;
+            results.add(executor.submit(new Callable<Void>()
+            {
+               public Void call() throws Exception
+               {
+                  for (int j = 0; j < iterations; j++)
+                  {
+                     // make sure that messages from all threads are being processed by the shared interceptor at the same time
+                     SoapMessage message = createMessage(username);
+                     TestRequest request = new TestRequest();
+                     message.put("HTTP.REQUEST", request.proxy);
+                     barrier.await();
+
+                     interceptor.handleMessage(message);
+
+                     // the identity associated with the call is the one of the message's user
+                     assertEquals(username, message.getExchange().get(WSUsernameTokenPrincipal.class).getName());
+                     assertEquals(username, message.getExchange().get(PUSHED_USER));
+                     HttpServletRequest bound = (HttpServletRequest)message.get("HTTP.REQUEST");
+                     assertEquals(username, bound.getRemoteUser());
+                     assertEquals(username, bound.getUserPrincipal().getName());
+                     if (bound != request.proxy)
+                     {
+                        // the cached subject was used so the user wasn't logged in again but bound to the request instead
+                        assertEquals(0, request.logins);
+                        assertSame(bound, ServletAccess.getRequest());
+                     }
+                  }
+                  return null;
+               }
+            }));
+         }
+
+         for (Future<Void> result : results)
+         {
+            result.get();
+         }
+      }
+      finally
+      {
+         executor.shutdownNow();
+      }
+
+      // each user only went through the login modules once, all the other calls used the cached subject
+      assertEquals(threads, interceptor.authentications.get());
+      assertEquals(threads, interceptor.getSubjectCache().getMisses());
+      assertEquals(threads * (iterations - 1), interceptor.getSubjectCache().getHits());
+   }
+
+   public void testCachedSubjectsDoNotRetainPrivateCredentials()
+   {
+      TestInterceptor interceptor = new TestInterceptor();
+
+      SoapMessage message = createMessage("user");
+      TestRequest request = new TestRequest();
+      message.put("HTTP.REQUEST", request.proxy);
+      interceptor.handleMessage(message);
+      assertEquals(1, request.logins);
+      assertEquals("user", request.proxy.getRemoteUser());
+
+      // the subject created for the first call holds the private credentials provided by the login modules
+      assertFalse(interceptor.lastSubject.getPrivateCredentials().isEmpty());
+
+      message = createMessage("user");
+      request = new TestRequest();
+      message.put("HTTP.REQUEST", request.proxy);
+      interceptor.handleMessage(message);
+      assertEquals(0, request.logins);
+
+      Subject cached = interceptor.lastSubject;
+      assertTrue(cached.getPrivateCredentials().isEmpty());
+      assertTrue(((HttpServletRequest)message.get("HTTP.REQUEST")).isUserInRole("role"));
+      assertFalse(((HttpServletRequest)message.get("HTTP.REQUEST")).isUserInRole("other"));
+      assertEquals(1, interceptor.authentications.get());
+   }
+
+   private static SoapMessage createMessage(String username)
+   {
+      SoapMessage message = new SoapMessage(new MessageImpl());
+      message.setExchange(new ExchangeImpl());
+
+      List<WSSecurityEngineResult> engineResults = new ArrayList<WSSecurityEngineResult>();
+      if (username != null)
+      {
+         WSUsernameTokenPrincipal principal = new WSUsernameTokenPrincipal(username, false);
+         principal.setPassword(username);
+         engineResults.add(new WSSecurityEngineResult(WSConstants.UT, (UsernameToken)null, principal));
+      }
+
+      message.put(WSHandlerConstants.RECV_RESULTS, Collections.singletonList(new WSHandlerResult(null, engineResults)));
+      return message;
+   }
+
+   /** Simulates WSS4J and the security domain so that the interceptor's own logic can be exercised. */
+   private static class TestInterceptor extends GTNSubjectCreatingInterceptor
+   {
+      private final ThreadLocal<SoapMessage> currentMessage = new ThreadLocal<SoapMessage>();
+      private final AtomicInteger authentications = new AtomicInteger();
+      private volatile Subject lastSubject;
+
+      private TestInterceptor()
+      {
+         super(createProperties());
+      }
+
+      private static Map<String, Object> createProperties()
+      {
+         Map<String, Object> properties = new HashMap<String, Object>();
+         properties.put(WSHandlerConstants.ACTION, "gtn.UsernameToken.ifAvailable");
+         return properties;
+      }
+
+      @Override
+      protected void processSecurityHeader(SoapMessage msg)
+      {
+         // as WSS4J would when validating the message's UsernameToken
+         WSUsernameTokenPrincipal principal = getUsernameTokenPrincipal(msg);
+         currentMessage.set(msg);
+         try
+         {
+            lastSubject = createSubject(principal.getName(), principal.getPassword(), false, null, null);
+         }
+         finally
+         {
+            currentMessage.remove();
+         }
+      }
+
+      @Override
+      protected Message getCurrentMessage()
+      {
+         return currentMessage.get();
+      }
+
+      @Override
+      protected Subject authenticate(String name, String password, boolean isDigest, String nonce, String created)
+      {
+         authentications.incrementAndGet();
+
+         Subject subject = new Subject();
+         subject.getPrincipals().add(new TestPrincipal(name));
+         TestGroup roles = new TestGroup("Roles");
+         roles.addMember(new TestPrincipal("role"));
+         subject.getPrincipals().add(roles);
+         subject.getPrivateCredentials().add(password);
+
+         // as the security domain would
+         getCurrentMessage().getExchange().put(PUSHED_USER, name);
+
+         return subject;
+      }
+
+      @Override
+      protected void pushSubjectContext(Message message, Subject subject, Principal principal, String password)
+      {
+         message.getExchange().put(PUSHED_USER, principal.getName());
+      }
+   }
+
+   /** A servlet request that records how many times a user was logged in through it. */
+   private static class TestRequest implements InvocationHandler
+   {
+      private final HttpServletRequest proxy = (HttpServletRequest)Proxy.newProxyInstance(HttpServletRequest.class.getClassLoader(), new Class[]{HttpServletRequest.class}, this);
+      private String remoteUser;
+      private int logins;
+
+      public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+      {
+         final String name = method.getName();
+         if ("getRemoteUser".equals(name))
+         {
+            return remoteUser;
+         }
+         else if ("login".equals(name))
+         {
+            logins++;
+            remoteUser = (String)args[0];
+            return null;
+         }
+         else if ("logout".equals(name))
+         {
+            remoteUser = null;
+            return null;
+         }
+         else if ("getUserPrincipal".equals(name))
+         {
+            return remoteUser != null ? new TestPrincipal(remoteUser) : null;
+         }
+         else
+         {
+            throw new UnsupportedOperationException(name);
+         }
+      }
+   }
+
+   private static class TestPrincipal implements Principal
+   {
+      private final String name;
+
+      private TestPrincipal(String name)
+      {
+         this.name = name;
+      }
+
+      public String getName()
+      {
+         return name;
+      }
+   }
+
+   private static class TestGroup extends TestPrincipal implements Group
+   {
+      private final Set<Principal> members = new HashSet<Principal>();
+
+      private TestGroup(String name)
+      {
+         super(name);
+      }
+
+      public boolean addMember(Principal user)
+      {
+         return members.add(user);
+      }
+
+      public boolean removeMember(Principal user)
+      {
+         return members.remove(user);
+      }
+
+      public boolean isMember(Principal member)
+      {
+         return members.contains(member);
+      }
+
+      public Enumeration<? extends Principal> members()
+      {
+         return Collections.enumeration(members);
+      }
+   }
+}
@@ -0,0 +1,154 @@
+/******************************************************************************
+ * JBoss, a division of Red Hat                                               *
+ * Copyright 2012, Red Hat Middleware, LLC, and individual                    *
+ * contributors as indicated by the @authors tag. See the                     *
+ * copyright.txt in the distribution for a full listing of                    *
+ * individual contributors.                                                   *
+ *                                                                            *
+ * This is free software; you can redistribute it and/or modify it            *
+ * under the terms of the GNU Lesser General Public License as                *
+ * published by the Free Software Foundation; either version 2.1 of           *
+ * the License, or (at your option) any later version.                        *
+ *                                                                            *
+ * This software is distributed in the hope that it will be useful,           *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of             *
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU           *
+ * Lesser General Public License for more details.                            *
+ *                                                                            *
+ * You should have received a copy of the GNU Lesser General Public           *
+ * License along with this software; if not, write to the Free                *
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA         *
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.                   *
+ ******************************************************************************/
+package org.gatein.wsrp.wss.cxf.producer;
+
+import junit.framework.TestCase;
+
+import javax.security.auth.Subject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
+ * @version $Revision$
+ */
+public class SubjectCacheTestCase extends TestCase
+{
+   private SubjectCache cache;
+
+   @Override
+   protected void setUp() throws Exception
+   {
+      cache = new SubjectCache();
+   }
+
+   public void testGetAndPut()
+   {
+      assertNull(cache.get("user", "password"));
+      assertEquals(1, cache.getMisses());
+
+      Subject subject = new Subject();
+      cache.put("user", "password", subject);
+      assertEquals(1, cache.size());
+
+      assertSame(subject, cache.get("user", "password"));
+      assertEquals(1, cache.getHits());
+
+      assertNull(cache.get("user", "wrong"));
+      assertNull(cache.get("user", null));
+      assertNull(cache.get(null, "password"));
+      assertEquals(4, cache.getMisses());
+   }
+
+   public void testNewPasswordReplacesPreviousEntry()
+   {
+      cache.put("user", "password", new Subject());
+      Subject subject = new Subject();
+      cache.put("user", "newPassword", subject);
+
+      assertEquals(1, cache.size());
+      assertNull(cache.get("user", "password"));
+      assertSame(subject, cache.get("user", "newPassword"));
+   }
+
+   public void testInvalidate()
+   {
+      cache.put("user", "password", new Subject());
+      cache.put("other", "password", new Subject());
+
+      cache.invalidate("user");
+      assertNull(cache.get("user", "password"));
+      assertNotNull(cache.get("other", "password"));
+   }
+
+   public void testTimeToLive() throws InterruptedException
+   {
+      cache = new SubjectCache(10, 1);
+      cache.put("user", "password", new Subject());
+
+      Thread.sleep(5);
+      assertNull(cache.get("user", "password"));
+      assertEquals(0, cache.size());
+   }
+
+   public void testMaximumSize()
+   {
+      cache = new SubjectCache(1, SubjectCache.DEFAULT_TIME_TO_LIVE);
+      cache.put("user", "password", new Subject());
+      cache.put("other", "password", new Subject());
+
+      assertEquals(1, cache.size());
+      assertNotNull(cache.get("other", "password"));
+
+      cache = new SubjectCache(0, SubjectCache.DEFAULT_TIME_TO_LIVE);
+      cache.put("user", "password", new Subject());
+      assertEquals(0, cache.size());
+   }
+
+   public void testSubjectsNeverLeakAcrossConcurrentUsers() throws Exception
+   {
+      final int threads = 8;
+      final int iterations = 500;
+      final CyclicBarrier barrier = new CyclicBarrier(threads);
+      ExecutorService executor = Executors.newFixedThreadPool(threads);
+      try
+      {
+         List<Future<Void>> results = new ArrayList<Future<Void>>(threads);
+         for (int i = 0; i < threads; i++)
+         {
+            final String username = "user" + i;
+            final Subject subject = new Subject();
+            results.add(executor.submit(new Callable<Void>()
+            {
+               public Void call() throws Exception
+               {
+                  barrier.await();
+                  for (int j = 0; j < iterations; j++)
+                  {
+                     cache.put(username, username, subject);
+
+                     Subject cached = cache.get(username, username);
+                     assertTrue(cached == null || cached == subject);
+                     assertNull(cache.get(username, "user" + ((j % threads) + threads)));
+                  }
+                  return null;
+               }
+            }));
+         }
+
+         for (Future<Void> result : results)
+         {
+            result.get();
+         }
+      }
+      finally
+      {
+         executor.shutdownNow();
+      }
+   }
+}
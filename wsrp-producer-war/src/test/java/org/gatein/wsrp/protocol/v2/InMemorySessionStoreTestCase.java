@@ -0,0 +1,58 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2012, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wsrp.protocol.v2;
+
+import org.gatein.wsrp.producer.session.ProducerSessionStore;
+import org.gatein.wsrp.producer.session.impl.InMemoryProducerSessionStore;
+import org.jboss.arquillian.container.test.api.Deployment;
+import org.jboss.arquillian.container.test.api.OverProtocol;
+import org.jboss.arquillian.junit.Arquillian;
+import org.jboss.shrinkwrap.api.Archive;
+import org.junit.runner.RunWith;
+
+/**
+ * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
+ * @version $Revision$
+ */
+@RunWith(Arquillian.class)
+public class InMemorySessionStoreTestCase extends SessionStoreTest
+{
+   public InMemorySessionStoreTestCase() throws Exception
+   {
+      super("InMemorySessionStoreTestCase");
+   }
+
+   @Deployment
+   @OverProtocol("Servlet 2.5")
+   public static Archive createDeployment()
+   {
+      return V2ProducerBaseTest.createDeployment();
+   }
+
+   @Override
+   protected ProducerSessionStore createSessionStore() throws Exception
+   {
+      return new InMemoryProducerSessionStore();
+   }
+}
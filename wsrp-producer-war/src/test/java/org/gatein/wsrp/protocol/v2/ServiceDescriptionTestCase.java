@@ -204,6 +204,35 @@ public class ServiceDescriptionTestCase extends V2ProducerBaseTest
       }
    }
 
+   @Test
+   public void testServiceDescriptionIsCachedUntilPortletsChange() throws Exception
+   {
+      GetServiceDescription gsd = getNoRegistrationServiceDescriptionRequest();
+      ServiceDescription original = producer.getServiceDescription(gsd);
+      assertSame(original, producer.getServiceDescription(gsd));
+
+      try
+      {
+         deploy("test-basic-portlet.war");
+
+         ServiceDescription sd = producer.getServiceDescription(gsd);
+         assertNotSame(original, sd);
+         assertEquals(original.getOfferedPortlets().size() + 1, sd.getOfferedPortlets().size());
+         assertSame(sd, producer.getServiceDescription(gsd));
+
+         // different locales should result in a different description
+         gsd.getDesiredLocales().add("fr");
+         assertNotSame(sd, producer.getServiceDescription(gsd));
+      }
+      finally
+      {
+         undeploy("test-basic-portlet.war");
+      }
+
+      gsd.getDesiredLocales().clear();
+      assertEquals(original.getOfferedPortlets().size(), producer.getServiceDescription(gsd).getOfferedPortlets().size());
+   }
+
    @Test
    public void testSupportedOptions() throws OperationFailed, InvalidRegistration, ResourceSuspended, ModifyRegistrationRequired
    {
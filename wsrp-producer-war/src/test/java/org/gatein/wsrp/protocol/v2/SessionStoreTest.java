@@ -0,0 +1,186 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2012, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wsrp.protocol.v2;
+
+import org.apache.catalina.connector.Request;
+import org.apache.catalina.connector.RequestFacade;
+import org.gatein.wsrp.WSRPTypeFactory;
+import org.gatein.wsrp.api.servlet.ServletAccess;
+import org.gatein.wsrp.portlet.utils.MockRequest;
+import org.gatein.wsrp.producer.session.ProducerSessionStore;
+import org.gatein.wsrp.test.ExtendedAssert;
+import org.gatein.wsrp.test.support.MockHttpServletResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.oasis.wsrp.v2.GetMarkup;
+import org.oasis.wsrp.v2.InvalidSession;
+import org.oasis.wsrp.v2.MarkupResponse;
+import org.oasis.wsrp.v2.PerformBlockingInteraction;
+import org.oasis.wsrp.v2.SessionContext;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Checks how the producer deals with WSRP sessions when it issues session identifiers backed by a {@link
+ * ProducerSessionStore} instead of relying on cookies. Sub-classes specify which store is used.
+ *
+ * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
+ * @version $Revision$
+ */
+public abstract class SessionStoreTest extends NeedPortletHandleTest
+{
+   private static final String SESSION_PORTLET_WAR = "test-session-portlet.war";
+
+   private ProducerSessionStore store;
+
+   protected SessionStoreTest(String name) throws Exception
+   {
+      super(name, SESSION_PORTLET_WAR);
+   }
+
+   /**
+    * Creates the ProducerSessionStore the producer is tested with.
+    *
+    * @return a new ProducerSessionStore
+    */
+   protected abstract ProducerSessionStore createSessionStore() throws Exception;
+
+   protected String getMostUsedPortletWARFileName()
+   {
+      return SESSION_PORTLET_WAR;
+   }
+
+   @Before
+   public void setUp() throws Exception
+   {
+      super.setUp();
+
+      //NOTE: JBossWeb is looking for particular implementations so we have to use the Catalina specific classes, see MarkupTestCase
+      Request request = new MockRequest();
+      request.setCoyoteRequest(new org.apache.coyote.Request());
+      ServletAccess.setRequestAndResponse(new RequestFacade(request), MockHttpServletResponse.createMockResponse());
+
+      store = createSessionStore();
+      producer.setSessionStore(store);
+   }
+
+   @After
+   public void tearDown() throws Exception
+   {
+      // go back to the default, cookie-based, behavior
+      producer.setSessionStore(null);
+      super.tearDown();
+   }
+
+   @Test
+   public void testSessionIsIssuedAndReused() throws Exception
+   {
+      GetMarkup getMarkup = createMarkupRequest();
+
+      MarkupResponse response = producer.getMarkup(getMarkup);
+      checkMarkup(response, 0);
+      String sessionID = checkSessionContext(response.getSessionContext());
+
+      // the consumer sends the session id back and the portlet gets its previous session
+      getMarkup.getRuntimeContext().setSessionParams(WSRPTypeFactory.createSessionParams(sessionID));
+      response = producer.getMarkup(getMarkup);
+      checkMarkup(response, 1);
+      ExtendedAssert.assertEquals(sessionID, checkSessionContext(response.getSessionContext()));
+      ExtendedAssert.assertNotNull(store.getSession(sessionID));
+   }
+
+   @Test
+   public void testReleasedSessionIsRejected() throws Exception
+   {
+      GetMarkup getMarkup = createMarkupRequest();
+      String sessionID = checkSessionContext(producer.getMarkup(getMarkup).getSessionContext());
+
+      producer.releaseSessions(WSRPTypeFactory.createReleaseSessions(null, Collections.singletonList(sessionID)));
+      ExtendedAssert.assertNull(store.getSession(sessionID));
+
+      getMarkup.getRuntimeContext().setSessionParams(WSRPTypeFactory.createSessionParams(sessionID));
+      try
+      {
+         producer.getMarkup(getMarkup);
+         ExtendedAssert.fail("A released sessionID should not be accepted");
+      }
+      catch (InvalidSession expected)
+      {
+         // expected
+      }
+   }
+
+   @Test
+   public void testUnknownSessionIDIsRejected() throws Exception
+   {
+      GetMarkup getMarkup = createMarkupRequest();
+      getMarkup.getRuntimeContext().setSessionParams(WSRPTypeFactory.createSessionParams("Hello World"));
+
+      try
+      {
+         producer.getMarkup(getMarkup);
+         ExtendedAssert.fail("An unknown sessionID should not be accepted in GetMarkup()");
+      }
+      catch (InvalidSession expected)
+      {
+         // expected
+      }
+
+      PerformBlockingInteraction performBlockingInteraction = createDefaultPerformBlockingInteraction(getDefaultHandle());
+      performBlockingInteraction.getRuntimeContext().setSessionParams(WSRPTypeFactory.createSessionParams("Hello World"));
+      try
+      {
+         producer.performBlockingInteraction(performBlockingInteraction);
+         ExtendedAssert.fail("An unknown sessionID should not be accepted in PerformBlockingInteraction()");
+      }
+      catch (InvalidSession expected)
+      {
+         // expected
+      }
+   }
+
+   @Test
+   public void testReleasingUnknownSessionsIsNotAnError() throws Exception
+   {
+      // sessions might have expired already so releasing unknown sessions is not an error
+      producer.releaseSessions(WSRPTypeFactory.createReleaseSessions(null, Arrays.asList("Fake Session ID", "Another Fake Session ID")));
+   }
+
+   private static String checkSessionContext(SessionContext sessionContext)
+   {
+      ExtendedAssert.assertNotNull(sessionContext);
+      final String sessionID = sessionContext.getSessionID();
+      ExtendedAssert.assertNotNull(sessionID);
+      return sessionID;
+   }
+
+   private static void checkMarkup(MarkupResponse response, int count)
+   {
+      ExtendedAssert.assertNotNull(response);
+      ExtendedAssert.assertNotNull(response.getMarkupContext());
+      ExtendedAssert.assertString1ContainsString2(response.getMarkupContext().getItemString(), "count = " + count);
+   }
+}